@@ -24,10 +24,14 @@ import static google.registry.request.RequestParameters.extractRequiredDatetimeP
 import static google.registry.request.RequestParameters.extractRequiredParameter;
 import static java.util.concurrent.Executors.newFixedThreadPool;
 
+import com.google.api.services.bigquery.model.TableFieldSchema;
+import com.google.common.collect.ImmutableList;
 import com.google.common.primitives.Ints;
 import com.google.common.util.concurrent.ListeningExecutorService;
 import dagger.Module;
 import dagger.Provides;
+import dagger.multibindings.IntoMap;
+import dagger.multibindings.StringKey;
 import google.registry.cron.CommitLogFanoutAction;
 import google.registry.request.HttpException.BadRequestException;
 import google.registry.request.Parameter;
@@ -87,6 +91,13 @@ public final class BackupModule {
     return extractRequiredDatetimeParameter(req, TO_TIME_PARAM);
   }
 
+  @Provides
+  @IntoMap
+  @StringKey(StreamCommitLogChangesAction.CHANGES_TABLE)
+  static ImmutableList<TableFieldSchema> provideChangesSchema() {
+    return StreamCommitLogChangesAction.CHANGES_SCHEMA_FIELDS;
+  }
+
   @Provides
   @Backups
   static ListeningExecutorService provideListeningExecutorService() {
@@ -38,6 +38,7 @@ public class BackupUtils {
     public static final String NUM_TRANSACTIONS = "num_transactions";
     public static final String LOWER_BOUND_CHECKPOINT = "lower_bound_checkpoint";
     public static final String UPPER_BOUND_CHECKPOINT = "upper_bound_checkpoint";
+    public static final String NUM_PARTS = "num_parts";
   }
 
   /**
@@ -32,7 +32,8 @@ import javax.inject.Inject;
 import org.joda.time.DateTime;
 
 /**
- * Action that saves commit log checkpoints to Datastore and kicks off a diff export task.
+ * Action that saves commit log checkpoints to Datastore and kicks off a diff export task, as well
+ * as a task that streams the changes between checkpoints to BigQuery.
  *
  * <p>We separate computing and saving the checkpoint from exporting it because the export to GCS
  * is retryable but should not require the computation of a new checkpoint. Saving the checkpoint
@@ -52,6 +53,7 @@ public final class CommitLogCheckpointAction implements Runnable {
   private static final FluentLogger logger = FluentLogger.forEnclosingClass();
 
   private static final String QUEUE_NAME = "export-commits";
+  private static final String CHANGES_QUEUE_NAME = "export-commit-changes";
 
   @Inject Clock clock;
   @Inject CommitLogCheckpointStrategy strategy;
@@ -83,6 +85,13 @@ public final class CommitLogCheckpointAction implements Runnable {
                       .param(LOWER_CHECKPOINT_TIME_PARAM, lastWrittenTime.toString())
                       .param(
                           UPPER_CHECKPOINT_TIME_PARAM, checkpoint.getCheckpointTime().toString()));
+              // Enqueue a task streaming the same diff to BigQuery for reporting.
+              taskQueueUtils.enqueue(
+                  getQueue(CHANGES_QUEUE_NAME),
+                  withUrl(StreamCommitLogChangesAction.PATH)
+                      .param(LOWER_CHECKPOINT_TIME_PARAM, lastWrittenTime.toString())
+                      .param(
+                          UPPER_CHECKPOINT_TIME_PARAM, checkpoint.getCheckpointTime().toString()));
             });
   }
 }
@@ -28,6 +28,7 @@ import com.google.appengine.tools.mapreduce.ReducerInput;
 import com.google.auto.value.AutoValue;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMultiset;
+import com.google.common.collect.ImmutableSortedMap;
 import com.google.common.flogger.FluentLogger;
 import com.googlecode.objectify.Key;
 import google.registry.config.RegistryConfig.Config;
@@ -35,6 +36,7 @@ import google.registry.mapreduce.MapreduceRunner;
 import google.registry.mapreduce.inputs.CommitLogManifestInput;
 import google.registry.mapreduce.inputs.EppResourceInputs;
 import google.registry.model.EppResource;
+import google.registry.model.EppResourceRevisionIndex;
 import google.registry.model.ofy.CommitLogManifest;
 import google.registry.model.ofy.CommitLogMutation;
 import google.registry.model.translators.CommitLogRevisionsTranslatorFactory;
@@ -52,10 +54,10 @@ import org.joda.time.Duration;
  *
  * <p>Once commit logs have been written to GCS, we don't really need them in Datastore anymore,
  * except to reconstruct point-in-time snapshots of the database. To make that possible, {@link
- * EppResource}s have a {@link EppResource#getRevisions} method that returns the commit logs for
- * older points in time. But that functionality is not useful after a certain amount of time, e.g.
- * thirty days, so unneeded revisions are deleted
- * (see {@link CommitLogRevisionsTranslatorFactory}). This leaves commit logs in the system that are
+ * EppResource}s have an {@link EppResourceRevisionIndex}, whose {@link
+ * EppResourceRevisionIndex#getRevisions} method returns the commit logs for older points in time.
+ * But that functionality is not useful after a certain amount of time, e.g. thirty days, so
+ * unneeded revisions are deleted (see {@link CommitLogRevisionsTranslatorFactory}). This leaves commit logs in the system that are
  * unneeded (have no revisions pointing to them). So this task runs periodically to delete the
  * "orphan" commit logs.
  *
@@ -153,12 +155,13 @@ public final class DeleteOldCommitLogsAction implements Runnable {
       if (eppResource.getCreationTime().isAfter(threshold)) {
         getContext().incrementCounter("EPP resources newer than threshold");
       }
-      for (Key<CommitLogManifest> manifestKey : eppResource.getRevisions().values()) {
+      ImmutableSortedMap<DateTime, Key<CommitLogManifest>> revisions =
+          EppResourceRevisionIndex.loadRevisions(eppResource);
+      for (Key<CommitLogManifest> manifestKey : revisions.values()) {
         emit(manifestKey, false);
       }
-      getContext()
-          .incrementCounter("EPP resource revisions found", eppResource.getRevisions().size());
-      checkAndLogRevisionCoverageError(eppResource);
+      getContext().incrementCounter("EPP resource revisions found", revisions.size());
+      checkAndLogRevisionCoverageError(eppResource, revisions);
     }
 
     /**
@@ -177,9 +180,10 @@ public final class DeleteOldCommitLogsAction implements Runnable {
      * <p>This really checks {@link CommitLogRevisionsTranslatorFactory#transformBeforeSave}.
      * There's nothing we can do at this point to prevent the damage - we only report on it.
      */
-    private void checkAndLogRevisionCoverageError(EppResource eppResource) {
+    private void checkAndLogRevisionCoverageError(
+        EppResource eppResource, ImmutableSortedMap<DateTime, Key<CommitLogManifest>> revisions) {
       // First - check if there even are revisions
-      if (eppResource.getRevisions().isEmpty()) {
+      if (revisions.isEmpty()) {
         getContext().incrementCounter("EPP resources missing all revisions (SEE LOGS)");
         logger.atSevere().log("EPP resource missing all revisions: %s", Key.create(eppResource));
         return;
@@ -189,7 +193,7 @@ public final class DeleteOldCommitLogsAction implements Runnable {
       //
       // Alternatively, if the resource is newer than the threshold - there should be at least one
       // revision within a day of the creation time.
-      DateTime oldestRevisionDate = eppResource.getRevisions().firstKey();
+      DateTime oldestRevisionDate = revisions.firstKey();
       if (oldestRevisionDate.isBefore(threshold)
           || oldestRevisionDate.isBefore(eppResource.getCreationTime().plusDays(1))) {
         // We're OK!
@@ -202,9 +206,9 @@ public final class DeleteOldCommitLogsAction implements Runnable {
               + "%s (created on %s) has %d revisions between %s and %s, while threshold is %s",
           Key.create(eppResource),
           eppResource.getCreationTime(),
-          eppResource.getRevisions().size(),
-          eppResource.getRevisions().firstKey(),
-          eppResource.getRevisions().lastKey(),
+          revisions.size(),
+          revisions.firstKey(),
+          revisions.lastKey(),
           threshold);
       // We want to see how bad it is though: if the difference is less than a day then this might
       // still be OK (we only need logs for the end of the day). But if it's more than a day, then
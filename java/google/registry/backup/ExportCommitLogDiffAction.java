@@ -21,6 +21,7 @@ import static com.google.common.collect.ImmutableList.toImmutableList;
 import static com.google.common.collect.Iterables.concat;
 import static com.google.common.collect.Lists.partition;
 import static google.registry.backup.BackupUtils.GcsMetadataKeys.LOWER_BOUND_CHECKPOINT;
+import static google.registry.backup.BackupUtils.GcsMetadataKeys.NUM_PARTS;
 import static google.registry.backup.BackupUtils.GcsMetadataKeys.NUM_TRANSACTIONS;
 import static google.registry.backup.BackupUtils.GcsMetadataKeys.UPPER_BOUND_CHECKPOINT;
 import static google.registry.backup.BackupUtils.serializeEntity;
@@ -49,16 +50,27 @@ import google.registry.model.ofy.CommitLogMutation;
 import google.registry.request.Action;
 import google.registry.request.Parameter;
 import google.registry.request.auth.Auth;
+import google.registry.util.Concurrent;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
+import java.util.stream.IntStream;
 import javax.annotation.Nullable;
 import javax.inject.Inject;
 import org.joda.time.DateTime;
 
-/** Action that exports the diff between two commit log checkpoints to GCS. */
+/**
+ * Action that exports the diff between two commit log checkpoints to GCS.
+ *
+ * <p>Small diffs are written to a single diff file that holds the upper checkpoint followed by
+ * every manifest and its mutations. Diffs with more than {@code commitLogDiffExportPartSize}
+ * manifests are split into contiguous part files that are written in parallel; in that case the
+ * diff file only holds the upper checkpoint and indexes the parts via its {@code num_parts}
+ * metadata. The diff file is always written last, so its existence implies that all of its parts
+ * exist too.
+ */
 @Action(
   path = ExportCommitLogDiffAction.PATH,
   method = Action.Method.POST,
@@ -75,9 +87,18 @@ public final class ExportCommitLogDiffAction implements Runnable {
 
   public static final String DIFF_FILE_PREFIX = "commit_diff_until_";
 
+  /**
+   * Prefix for the part files of a partitioned diff.
+   *
+   * <p>This deliberately does not start with {@link #DIFF_FILE_PREFIX}, so that listing the diff
+   * files never returns parts.
+   */
+  public static final String DIFF_PART_FILE_PREFIX = "commit_diff_part_until_";
+
   @Inject GcsService gcsService;
   @Inject @Config("commitLogGcsBucket") String gcsBucket;
   @Inject @Config("commitLogDiffExportBatchSize") int batchSize;
+  @Inject @Config("commitLogDiffExportPartSize") int partSize;
   @Inject @Parameter(LOWER_CHECKPOINT_TIME_PARAM) DateTime lowerCheckpointTime;
   @Inject @Parameter(UPPER_CHECKPOINT_TIME_PARAM) DateTime upperCheckpointTime;
   @Inject ExportCommitLogDiffAction() {}
@@ -99,40 +120,36 @@ public final class ExportCommitLogDiffAction implements Runnable {
     // Load the keys of all the manifests to include in this diff.
     List<Key<CommitLogManifest>> sortedKeys = loadAllDiffKeys(lowerCheckpoint, upperCheckpoint);
     logger.atInfo().log("Found %d manifests to export", sortedKeys.size());
-    // Open an output channel to GCS, wrapped in a stream for convenience.
-    try (OutputStream gcsStream = newOutputStream(gcsService.createOrReplace(
-        new GcsFilename(gcsBucket, DIFF_FILE_PREFIX + upperCheckpointTime),
+    // Split large diffs into contiguous parts, which keeps the transaction-consistent ordering when
+    // the parts are read back in order, and export all of them before the diff file itself.
+    List<List<Key<CommitLogManifest>>> parts =
+        (sortedKeys.size() > partSize) ? partition(sortedKeys, partSize) : ImmutableList.of();
+    if (!parts.isEmpty()) {
+      logger.atInfo().log("Exporting diff as %d parts", parts.size());
+      Concurrent.transform(
+          IntStream.range(0, parts.size()).boxed().collect(toImmutableList()),
+          part ->
+              exportKeys(
+                  new GcsFilename(gcsBucket, getDiffPartFilename(upperCheckpointTime, part)),
+                  parts.get(part)));
+    }
+    GcsFileOptions.Builder options =
         new GcsFileOptions.Builder()
             .addUserMetadata(LOWER_BOUND_CHECKPOINT, lowerCheckpointTime.toString())
             .addUserMetadata(UPPER_BOUND_CHECKPOINT, upperCheckpointTime.toString())
-            .addUserMetadata(NUM_TRANSACTIONS, Integer.toString(sortedKeys.size()))
-            .build()))) {
+            .addUserMetadata(NUM_TRANSACTIONS, Integer.toString(sortedKeys.size()));
+    if (!parts.isEmpty()) {
+      options.addUserMetadata(NUM_PARTS, Integer.toString(parts.size()));
+    }
+    // Open an output channel to GCS, wrapped in a stream for convenience.
+    try (OutputStream gcsStream = newOutputStream(gcsService.createOrReplace(
+        new GcsFilename(gcsBucket, DIFF_FILE_PREFIX + upperCheckpointTime), options.build()))) {
       // Export the upper checkpoint itself.
       serializeEntity(upperCheckpoint, gcsStream);
-      // If there are no manifests to export, stop early, now that we've written out the file with
-      // the checkpoint itself (which is needed for restores, even if it's empty).
-      if (sortedKeys.isEmpty()) {
-        return;
-      }
-      // Export to GCS in chunks, one per fixed batch of commit logs.  While processing one batch,
-      // asynchronously load the entities for the next one.
-      List<List<Key<CommitLogManifest>>> keyChunks = partition(sortedKeys, batchSize);
-      // Objectify's map return type is asynchronous. Calling .values() will block until it loads.
-      Map<?, CommitLogManifest> nextChunkToExport = ofy().load().keys(keyChunks.get(0));
-      for (int i = 0; i < keyChunks.size(); i++) {
-        // Force the async load to finish.
-        Collection<CommitLogManifest> chunkValues = nextChunkToExport.values();
-        logger.atInfo().log("Loaded %d manifests", chunkValues.size());
-        // Since there is no hard bound on how much data this might be, take care not to let the
-        // Objectify session cache fill up and potentially run out of memory. This is the only safe
-        // point to do this since at this point there is no async load in progress.
-        ofy().clearSessionCache();
-        // Kick off the next async load, which can happen in parallel to the current GCS export.
-        if (i + 1 < keyChunks.size()) {
-          nextChunkToExport = ofy().load().keys(keyChunks.get(i + 1));
-        }
-        exportChunk(gcsStream, chunkValues);
-        logger.atInfo().log("Exported %d manifests", chunkValues.size());
+      // Unless the manifests were already exported as parts, they follow the checkpoint. Note that
+      // the file with the checkpoint itself is needed for restores, even if it's otherwise empty.
+      if (parts.isEmpty()) {
+        exportKeys(gcsStream, sortedKeys);
       }
     } catch (IOException e) {
       throw new RuntimeException(e);
@@ -140,13 +157,68 @@ public final class ExportCommitLogDiffAction implements Runnable {
     logger.atInfo().log("Exported %d manifests in total", sortedKeys.size());
   }
 
+  /** Returns the name of the given part file of the diff ending at the given checkpoint time. */
+  static String getDiffPartFilename(DateTime upperCheckpointTime, int part) {
+    return DIFF_PART_FILE_PREFIX + upperCheckpointTime + "_" + part;
+  }
+
+  /**
+   * Exports the given manifests and their mutations to a new part file.
+   *
+   * <p>This is called from a separate thread per part, each of which has its own Objectify session.
+   *
+   * @return the number of manifests exported
+   */
+  private int exportKeys(GcsFilename partFilename, List<Key<CommitLogManifest>> keys) {
+    try (OutputStream gcsStream = newOutputStream(gcsService.createOrReplace(
+        partFilename,
+        new GcsFileOptions.Builder()
+            .addUserMetadata(UPPER_BOUND_CHECKPOINT, upperCheckpointTime.toString())
+            .addUserMetadata(NUM_TRANSACTIONS, Integer.toString(keys.size()))
+            .build()))) {
+      exportKeys(gcsStream, keys);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+    logger.atInfo().log("Exported %d manifests to %s", keys.size(), partFilename.getObjectName());
+    return keys.size();
+  }
+
+  /** Writes the given manifests and their mutations to GCS, in order. */
+  private void exportKeys(OutputStream gcsStream, List<Key<CommitLogManifest>> keys)
+      throws IOException {
+    if (keys.isEmpty()) {
+      return;
+    }
+    // Export to GCS in chunks, one per fixed batch of commit logs.  While processing one batch,
+    // asynchronously load the entities for the next one.
+    List<List<Key<CommitLogManifest>>> keyChunks = partition(keys, batchSize);
+    // Objectify's map return type is asynchronous. Calling .values() will block until it loads.
+    Map<?, CommitLogManifest> nextChunkToExport = ofy().load().keys(keyChunks.get(0));
+    for (int i = 0; i < keyChunks.size(); i++) {
+      // Force the async load to finish.
+      Collection<CommitLogManifest> chunkValues = nextChunkToExport.values();
+      logger.atInfo().log("Loaded %d manifests", chunkValues.size());
+      // Since there is no hard bound on how much data this might be, take care not to let the
+      // Objectify session cache fill up and potentially run out of memory. This is the only safe
+      // point to do this since at this point there is no async load in progress.
+      ofy().clearSessionCache();
+      // Kick off the next async load, which can happen in parallel to the current GCS export.
+      if (i + 1 < keyChunks.size()) {
+        nextChunkToExport = ofy().load().keys(keyChunks.get(i + 1));
+      }
+      exportChunk(gcsStream, chunkValues);
+      logger.atInfo().log("Exported %d manifests", chunkValues.size());
+    }
+  }
+
   /**
    * Loads all the diff keys, sorted in a transaction-consistent chronological order.
    *
    * @param lowerCheckpoint exclusive lower bound on keys in this diff, or null if no lower bound
    * @param upperCheckpoint inclusive upper bound on keys in this diff
    */
-  private ImmutableList<Key<CommitLogManifest>> loadAllDiffKeys(
+  static ImmutableList<Key<CommitLogManifest>> loadAllDiffKeys(
       @Nullable final CommitLogCheckpoint lowerCheckpoint,
       final CommitLogCheckpoint upperCheckpoint) {
     // Fetch the keys (no data) between these checkpoints, and sort by timestamp. This ordering is
@@ -173,7 +245,7 @@ public final class ExportCommitLogDiffAction implements Runnable {
    * @param upperCheckpoint inclusive upper bound on keys in this diff
    * @param bucketNum the bucket to load diff keys from
    */
-  private Iterable<Key<CommitLogManifest>> loadDiffKeysFromBucket(
+  private static Iterable<Key<CommitLogManifest>> loadDiffKeysFromBucket(
       @Nullable CommitLogCheckpoint lowerCheckpoint,
       CommitLogCheckpoint upperCheckpoint,
       int bucketNum) {
@@ -15,8 +15,11 @@
 package google.registry.backup;
 
 import static com.google.common.base.Preconditions.checkState;
+import static com.google.common.collect.ImmutableList.toImmutableList;
 import static google.registry.backup.BackupUtils.GcsMetadataKeys.LOWER_BOUND_CHECKPOINT;
+import static google.registry.backup.BackupUtils.GcsMetadataKeys.NUM_PARTS;
 import static google.registry.backup.ExportCommitLogDiffAction.DIFF_FILE_PREFIX;
+import static google.registry.backup.ExportCommitLogDiffAction.getDiffPartFilename;
 import static google.registry.util.DateTimeUtils.START_OF_TIME;
 import static google.registry.util.DateTimeUtils.isBeforeOrAt;
 import static google.registry.util.DateTimeUtils.latestOf;
@@ -37,6 +40,7 @@ import java.io.IOException;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.stream.IntStream;
 import javax.annotation.Nullable;
 import javax.inject.Inject;
 import org.joda.time.DateTime;
@@ -162,6 +166,36 @@ class GcsDiffFileLister {
     return ImmutableList.copyOf(sequence.values());
   }
 
+  /**
+   * Returns the part files indexed by the given diff file, in the order they must be restored.
+   *
+   * <p>Diff files that weren't partitioned on export hold all of their transactions themselves, in
+   * which case this returns an empty list.
+   *
+   * @throws IllegalStateException if any of the indexed part files is missing
+   */
+  ImmutableList<GcsFilename> listDiffPartFiles(GcsFileMetadata diffFileMetadata) {
+    String numParts = diffFileMetadata.getOptions().getUserMetadata().get(NUM_PARTS);
+    if (numParts == null) {
+      return ImmutableList.of();
+    }
+    String diffFilename = diffFileMetadata.getFilename().getObjectName();
+    DateTime upperBoundTime = DateTime.parse(diffFilename.substring(DIFF_FILE_PREFIX.length()));
+    ImmutableList<GcsFilename> partFiles =
+        IntStream.range(0, Integer.parseInt(numParts))
+            .mapToObj(part -> new GcsFilename(gcsBucket, getDiffPartFilename(upperBoundTime, part)))
+            .collect(toImmutableList());
+    // Unlike listing, metadata lookups are strongly consistent, so a missing part is a real gap.
+    for (GcsFilename partFile : partFiles) {
+      checkState(
+          getMetadata(partFile.getObjectName()) != null,
+          "Missing part file %s of diff file %s",
+          partFile.getObjectName(),
+          diffFilename);
+    }
+    return partFiles;
+  }
+
   /**
    * Returns true if 'time' is in range of 'start' and 'end'.
    *
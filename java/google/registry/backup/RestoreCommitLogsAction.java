@@ -25,6 +25,7 @@ import com.google.appengine.api.datastore.DatastoreService;
 import com.google.appengine.api.datastore.Entity;
 import com.google.appengine.api.datastore.EntityTranslator;
 import com.google.appengine.tools.cloudstorage.GcsFileMetadata;
+import com.google.appengine.tools.cloudstorage.GcsFilename;
 import com.google.appengine.tools.cloudstorage.GcsService;
 import com.google.common.collect.Lists;
 import com.google.common.collect.PeekingIterator;
@@ -101,19 +102,25 @@ public class RestoreCommitLogsAction implements Runnable {
     CommitLogCheckpoint lastCheckpoint = null;
     for (GcsFileMetadata metadata : diffFiles) {
       logger.atInfo().log("Restoring: %s", metadata.getFilename().getObjectName());
-      try (InputStream input = Channels.newInputStream(
-          gcsService.openPrefetchingReadChannel(metadata.getFilename(), 0, BLOCK_SIZE))) {
+      try (InputStream input = openDiffFile(metadata.getFilename())) {
         PeekingIterator<ImmutableObject> commitLogs =
             peekingIterator(createDeserializingIterator(input));
         lastCheckpoint = (CommitLogCheckpoint) commitLogs.next();
         saveOfy(asList(lastCheckpoint));  // Save the checkpoint itself.
-        while (commitLogs.hasNext()) {
-          CommitLogManifest manifest = restoreOneTransaction(commitLogs);
-          bucketTimestamps.put(manifest.getBucketId(), manifest.getCommitTime());
-        }
+        restoreTransactions(commitLogs, bucketTimestamps);
       } catch (IOException e) {
         throw new RuntimeException(e);
       }
+      // Partitioned diffs keep their transactions in part files, which must be restored in order.
+      for (GcsFilename partFile : diffLister.listDiffPartFiles(metadata)) {
+        logger.atInfo().log("Restoring part: %s", partFile.getObjectName());
+        try (InputStream input = openDiffFile(partFile)) {
+          restoreTransactions(
+              peekingIterator(createDeserializingIterator(input)), bucketTimestamps);
+        } catch (IOException e) {
+          throw new RuntimeException(e);
+        }
+      }
     }
     // Restore the CommitLogCheckpointRoot and CommitLogBuckets.
     saveOfy(
@@ -132,6 +139,22 @@ public class RestoreCommitLogsAction implements Runnable {
     logger.atInfo().log("Restore complete");
   }
 
+  private InputStream openDiffFile(GcsFilename filename) {
+    return Channels.newInputStream(gcsService.openPrefetchingReadChannel(filename, 0, BLOCK_SIZE));
+  }
+
+  /**
+   * Restores all the remaining transactions in the given commit logs, recording the latest commit
+   * time seen for each bucket.
+   */
+  private void restoreTransactions(
+      PeekingIterator<ImmutableObject> commitLogs, Map<Integer, DateTime> bucketTimestamps) {
+    while (commitLogs.hasNext()) {
+      CommitLogManifest manifest = restoreOneTransaction(commitLogs);
+      bucketTimestamps.put(manifest.getBucketId(), manifest.getCommitTime());
+    }
+  }
+
   /**
    * Restore the contents of one transaction to Datastore.
    *
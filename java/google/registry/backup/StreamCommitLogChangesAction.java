@@ -0,0 +1,256 @@
+// Copyright 2018 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.backup;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Verify.verifyNotNull;
+import static com.google.common.collect.Lists.partition;
+import static google.registry.backup.ExportCommitLogDiffAction.LOWER_CHECKPOINT_TIME_PARAM;
+import static google.registry.backup.ExportCommitLogDiffAction.UPPER_CHECKPOINT_TIME_PARAM;
+import static google.registry.backup.ExportCommitLogDiffAction.loadAllDiffKeys;
+import static google.registry.bigquery.BigqueryUtils.toBigqueryTimestamp;
+import static google.registry.model.ofy.ObjectifyService.ofy;
+import static google.registry.util.DateTimeUtils.START_OF_TIME;
+import static google.registry.util.DateTimeUtils.isAtOrAfter;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.stream.Collectors.joining;
+
+import com.google.api.services.bigquery.Bigquery;
+import com.google.api.services.bigquery.model.TableDataInsertAllRequest;
+import com.google.api.services.bigquery.model.TableDataInsertAllResponse;
+import com.google.api.services.bigquery.model.TableFieldSchema;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.flogger.FluentLogger;
+import com.google.common.hash.Hashing;
+import com.googlecode.objectify.Key;
+import google.registry.bigquery.BigqueryFactory;
+import google.registry.bigquery.BigqueryUtils.FieldType;
+import google.registry.config.RegistryConfig.Config;
+import google.registry.export.ExportConstants;
+import google.registry.model.ImmutableObject;
+import google.registry.model.ofy.CommitLogCheckpoint;
+import google.registry.model.ofy.CommitLogManifest;
+import google.registry.model.ofy.CommitLogMutation;
+import google.registry.request.Action;
+import google.registry.request.Parameter;
+import google.registry.request.auth.Auth;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import org.joda.time.DateTime;
+import org.json.simple.JSONValue;
+
+/**
+ * Action that streams the changes to reported-on entities between two commit log checkpoints into
+ * BigQuery.
+ *
+ * <p>This is a change data capture feed that complements the full Datastore snapshots loaded by
+ * {@link google.registry.export.LoadSnapshotAction}. Every mutation and deletion of a kind returned
+ * by {@link ExportConstants#getReportingKinds} becomes one row of the {@value #CHANGES_TABLE}
+ * table, holding the entity's key, the commit time of the transaction, and (for upserts) the
+ * entity's fields as a JSON string.
+ *
+ * <p>The load is idempotent: the insert ID of each row is derived from the manifest and the entity
+ * key, so BigQuery drops rows re-sent by a retried task on a best-effort basis, and any remaining
+ * duplicates are identical rows. Rows are streamed in the transaction-consistent order of the
+ * commit log diff, and since every row carries its commit time, the current state of an entity is
+ * always its row with the latest {@code commitTime}, regardless of the order in which tasks for
+ * different checkpoints happen to run.
+ */
+@Action(
+  path = StreamCommitLogChangesAction.PATH,
+  method = Action.Method.POST,
+  automaticallyPrintOk = true,
+  auth = Auth.AUTH_INTERNAL_ONLY
+)
+public final class StreamCommitLogChangesAction implements Runnable {
+
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  static final String PATH = "/_dr/task/streamCommitLogChanges";
+
+  static final String CHANGES_DATASET = "datastore_changes";
+  static final String CHANGES_TABLE = "changes";
+
+  static final ImmutableList<TableFieldSchema> CHANGES_SCHEMA_FIELDS =
+      ImmutableList.of(
+          new TableFieldSchema().setName("kind").setType(FieldType.STRING.name()),
+          new TableFieldSchema().setName("entityKey").setType(FieldType.STRING.name()),
+          new TableFieldSchema().setName("commitTime").setType(FieldType.TIMESTAMP.name()),
+          new TableFieldSchema().setName("checkpointTime").setType(FieldType.TIMESTAMP.name()),
+          new TableFieldSchema().setName("deleted").setType(FieldType.BOOLEAN.name()),
+          new TableFieldSchema().setName("entity").setType(FieldType.STRING.name()));
+
+  /** Maximum number of rows per streaming insert, as recommended by the BigQuery documentation. */
+  private static final int ROWS_PER_INSERT = 500;
+
+  @Inject BigqueryFactory bigqueryFactory;
+  @Inject @Config("projectId") String projectId;
+  @Inject @Config("commitLogDiffExportBatchSize") int batchSize;
+  @Inject @Parameter(LOWER_CHECKPOINT_TIME_PARAM) DateTime lowerCheckpointTime;
+  @Inject @Parameter(UPPER_CHECKPOINT_TIME_PARAM) DateTime upperCheckpointTime;
+  @Inject StreamCommitLogChangesAction() {}
+
+  @Override
+  public void run() {
+    logger.atInfo().log(
+        "Streaming commit log changes between %s and %s.",
+        lowerCheckpointTime,
+        upperCheckpointTime);
+    checkArgument(isAtOrAfter(lowerCheckpointTime, START_OF_TIME));
+    checkArgument(lowerCheckpointTime.isBefore(upperCheckpointTime));
+    CommitLogCheckpoint lowerCheckpoint = lowerCheckpointTime.isAfter(START_OF_TIME)
+        ? verifyNotNull(ofy().load().key(CommitLogCheckpoint.createKey(lowerCheckpointTime)).now())
+        : null;
+    CommitLogCheckpoint upperCheckpoint =
+        verifyNotNull(ofy().load().key(CommitLogCheckpoint.createKey(upperCheckpointTime)).now());
+    ImmutableSet<String> reportingKinds = ExportConstants.getReportingKinds();
+    Bigquery bigquery;
+    try {
+      bigquery = bigqueryFactory.create(projectId, CHANGES_DATASET, CHANGES_TABLE);
+    } catch (IOException e) {
+      throw new RuntimeException("Error connecting to BigQuery", e);
+    }
+    int numRows = 0;
+    for (List<Key<CommitLogManifest>> chunk :
+        partition(loadAllDiffKeys(lowerCheckpoint, upperCheckpoint), batchSize)) {
+      ImmutableList.Builder<TableDataInsertAllRequest.Rows> rows = new ImmutableList.Builder<>();
+      for (CommitLogManifest manifest : ofy().load().keys(chunk).values()) {
+        rows.addAll(getChangeRows(manifest, reportingKinds));
+      }
+      // Keep the Objectify session cache from growing without bound across chunks.
+      ofy().clearSessionCache();
+      for (List<TableDataInsertAllRequest.Rows> batch :
+          partition(rows.build(), ROWS_PER_INSERT)) {
+        insertRows(bigquery, batch);
+        numRows += batch.size();
+      }
+    }
+    logger.atInfo().log("Streamed %d changes to BigQuery.", numRows);
+  }
+
+  /** Returns the rows for all changes to reported-on kinds in the given manifest, in order. */
+  private ImmutableList<TableDataInsertAllRequest.Rows> getChangeRows(
+      CommitLogManifest manifest, ImmutableSet<String> reportingKinds) {
+    ImmutableList.Builder<TableDataInsertAllRequest.Rows> rows = new ImmutableList.Builder<>();
+    for (CommitLogMutation mutation :
+        ofy().load().type(CommitLogMutation.class).ancestor(manifest)) {
+      com.google.appengine.api.datastore.Entity rawEntity = mutation.getEntity();
+      if (reportingKinds.contains(rawEntity.getKind())) {
+        ImmutableObject entity = ofy().load().fromEntity(rawEntity);
+        rows.add(
+            createRow(
+                manifest,
+                rawEntity.getKind(),
+                KeyFactory.keyToString(rawEntity.getKey()),
+                JSONValue.toJSONString(toJsonValue(entity.toDiffableFieldMap()))));
+      }
+    }
+    for (Key<?> deletion : manifest.getDeletions()) {
+      if (reportingKinds.contains(deletion.getKind())) {
+        rows.add(createRow(manifest, deletion.getKind(), deletion.getString(), null));
+      }
+    }
+    return rows.build();
+  }
+
+  /**
+   * Converts a value from {@link ImmutableObject#toDiffableFieldMap} into one that json-simple can
+   * serialize.
+   *
+   * <p>json-simple only knows how to serialize {@link Map Maps} and {@link List Lists}, and falls
+   * back to {@code toString()} for anything else, which for a {@link java.util.Set} isn't valid
+   * JSON. So every collection becomes a list, recursively, and every map key becomes a string.
+   */
+  private static Object toJsonValue(@Nullable Object value) {
+    if (value instanceof Map) {
+      Map<String, Object> result = new LinkedHashMap<>();
+      for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+        result.put(String.valueOf(entry.getKey()), toJsonValue(entry.getValue()));
+      }
+      return result;
+    } else if (value instanceof Collection) {
+      List<Object> result = new ArrayList<>();
+      for (Object element : (Collection<?>) value) {
+        result.add(toJsonValue(element));
+      }
+      return result;
+    }
+    return value;
+  }
+
+  /** Creates a change row, which is a deletion if {@code entityJson} is null. */
+  private TableDataInsertAllRequest.Rows createRow(
+      CommitLogManifest manifest, String kind, String entityKey, @Nullable String entityJson) {
+    ImmutableMap.Builder<String, Object> row =
+        new ImmutableMap.Builder<String, Object>()
+            .put("kind", kind)
+            .put("entityKey", entityKey)
+            .put("commitTime", toBigqueryTimestamp(manifest.getCommitTime()))
+            .put("checkpointTime", toBigqueryTimestamp(upperCheckpointTime))
+            .put("deleted", entityJson == null);
+    if (entityJson != null) {
+      row.put("entity", entityJson);
+    }
+    // The manifest key identifies the transaction, so together with the entity key this is unique
+    // per change and stable across retries.
+    String insertId =
+        Hashing.sha256()
+            .hashString(Key.create(manifest).getString() + "/" + entityKey, UTF_8)
+            .toString();
+    return new TableDataInsertAllRequest.Rows().setInsertId(insertId).setJson(row.build());
+  }
+
+  private void insertRows(Bigquery bigquery, List<TableDataInsertAllRequest.Rows> rows) {
+    TableDataInsertAllResponse response;
+    try {
+      response =
+          bigquery
+              .tabledata()
+              .insertAll(
+                  projectId,
+                  CHANGES_DATASET,
+                  CHANGES_TABLE,
+                  new TableDataInsertAllRequest().setRows(rows))
+              .execute();
+    } catch (IOException e) {
+      throw new RuntimeException("Error streaming changes to BigQuery", e);
+    }
+    // Fail the task so that it is retried; rows that did make it in are deduplicated by insert ID.
+    if (response.getInsertErrors() != null && !response.getInsertErrors().isEmpty()) {
+      throw new RuntimeException(
+          response
+              .getInsertErrors()
+              .stream()
+              .map(
+                  error -> {
+                    try {
+                      return error.toPrettyString();
+                    } catch (IOException e) {
+                      return error.toString();
+                    }
+                  })
+              .collect(joining("\n")));
+    }
+  }
+}
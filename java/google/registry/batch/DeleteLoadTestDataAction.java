@@ -29,6 +29,7 @@ import com.googlecode.objectify.Key;
 import google.registry.config.RegistryEnvironment;
 import google.registry.mapreduce.MapreduceRunner;
 import google.registry.model.EppResource;
+import google.registry.model.EppResourceRevisionIndex;
 import google.registry.model.contact.ContactResource;
 import google.registry.model.host.HostResource;
 import google.registry.model.index.EppResourceIndex;
@@ -119,8 +120,9 @@ public class DeleteLoadTestDataAction implements Runnable {
     }
 
     private void deleteResource(EppResource resource) {
-      final Key<EppResourceIndex> eppIndex =
-          Key.create(EppResourceIndex.create(Key.create(resource)));
+      // The index entry may still be in an old bucket, if it hasn't been rebalanced yet.
+      final ImmutableSet<Key<EppResourceIndex>> eppIndexes =
+          EppResourceIndex.loadExistingKeys(Key.create(resource));
       final Key<? extends ForeignKeyIndex<?>> fki = ForeignKeyIndex.createKey(resource);
       int numEntitiesDeleted =
           ofy()
@@ -132,7 +134,9 @@ public class DeleteLoadTestDataAction implements Runnable {
                     ImmutableSet<Key<?>> allKeys =
                         new ImmutableSet.Builder<Key<?>>()
                             .add(fki)
-                            .add(eppIndex)
+                            .addAll(eppIndexes)
+                            // Also covered by the ancestor query, but listed to be explicit.
+                            .add(EppResourceRevisionIndex.createKey(Key.create(resource)))
                             .addAll(resourceAndDependentKeys)
                             .build();
                     if (isDryRun) {
@@ -40,6 +40,7 @@ import google.registry.config.RegistryEnvironment;
 import google.registry.dns.DnsQueue;
 import google.registry.mapreduce.MapreduceRunner;
 import google.registry.mapreduce.inputs.EppResourceInputs;
+import google.registry.model.EppResourceRevisionIndex;
 import google.registry.model.EppResourceUtils;
 import google.registry.model.domain.DomainApplication;
 import google.registry.model.domain.DomainBase;
@@ -223,7 +224,9 @@ public class DeleteProberDataAction implements Runnable {
         return;
       }
 
-      final Key<EppResourceIndex> eppIndex = Key.create(EppResourceIndex.create(domainKey));
+      // The index entry may still be in an old bucket, if it hasn't been rebalanced yet.
+      final ImmutableSet<Key<EppResourceIndex>> eppIndexes =
+          EppResourceIndex.loadExistingKeys(domainKey);
       final Key<? extends ForeignKeyIndex<?>> fki = ForeignKeyIndex.createKey(domain);
 
       int entitiesDeleted =
@@ -238,7 +241,9 @@ public class DeleteProberDataAction implements Runnable {
                     ImmutableSet<Key<?>> allKeys =
                         new ImmutableSet.Builder<Key<?>>()
                             .add(fki)
-                            .add(eppIndex)
+                            .addAll(eppIndexes)
+                            // Also covered by the ancestor query, but listed to be explicit.
+                            .add(EppResourceRevisionIndex.createKey(domainKey))
                             .addAll(domainAndDependentKeys)
                             .build();
                     if (isDryRun) {
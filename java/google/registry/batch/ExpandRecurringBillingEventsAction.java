@@ -33,9 +33,15 @@ import static google.registry.util.PipelineUtils.createJobPath;
 import com.google.appengine.tools.mapreduce.Mapper;
 import com.google.appengine.tools.mapreduce.Reducer;
 import com.google.appengine.tools.mapreduce.ReducerInput;
+import com.google.common.collect.HashMultimap;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.MultimapBuilder;
 import com.google.common.collect.Range;
+import com.google.common.collect.SetMultimap;
 import com.google.common.collect.Streams;
 import com.google.common.flogger.FluentLogger;
 import com.googlecode.objectify.Key;
@@ -59,6 +65,11 @@ import google.registry.request.Parameter;
 import google.registry.request.Response;
 import google.registry.request.auth.Auth;
 import google.registry.util.Clock;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import javax.inject.Inject;
@@ -115,16 +126,34 @@ public class ExpandRecurringBillingEventsAction implements Runnable {
                     ImmutableSet.of(DomainResource.class), ImmutableSet.of(Recurring.class))))));
   }
 
-  /** Mapper to expand {@link Recurring} billing events into synthetic {@link OneTime} events. */
+  /**
+   * Mapper to expand {@link Recurring} billing events into synthetic {@link OneTime} events.
+   *
+   * <p>Recurrences are buffered by domain (the child entity input returns all of a domain's
+   * recurrences together) and expanded a batch of domains at a time: the existing {@link OneTime}
+   * events for every buffered domain are prefetched up front, reduced to a compact set of already
+   * expanded billing times, and only domains that actually need new events are written, in
+   * bounded transactions against each domain's entity group. Buffered domains are always
+   * expanded by the end of the slice, so no work is carried across a checkpoint.
+   */
   public static class ExpandRecurringBillingEventsMapper
       extends Mapper<Recurring, DateTime, DateTime> {
 
     private static final long serialVersionUID = 8376442755556228455L;
 
+    /** The number of domains whose recurrences are buffered before being expanded together. */
+    private static final int DOMAIN_BATCH_SIZE = 50;
+
+    /** The maximum number of synthetic OneTimes (each with its HistoryEntry) per transaction. */
+    private static final int MAX_ONE_TIMES_PER_TRANSACTION = 100;
+
     private final boolean isDryRun;
     private final DateTime cursorTime;
     private final DateTime executeTime;
 
+    /** Applicable recurrences seen during the current slice, grouped by domain key. */
+    private transient ListMultimap<Key<? extends EppResource>, Recurring> pendingRecurrings;
+
     public ExpandRecurringBillingEventsMapper(
         boolean isDryRun, DateTime cursorTime, DateTime executeTime) {
       this.isDryRun = isDryRun;
@@ -132,6 +161,12 @@ public class ExpandRecurringBillingEventsAction implements Runnable {
       this.executeTime = executeTime;
     }
 
+    @Override
+    public void beginSlice() {
+      super.beginSlice();
+      pendingRecurrings = MultimapBuilder.linkedHashKeys().arrayListValues().build();
+    }
+
     @Override
     public final void map(final Recurring recurring) {
       // This single emit forces the reducer to run at the end of the map job, so that a mapper
@@ -149,100 +184,171 @@ public class ExpandRecurringBillingEventsAction implements Runnable {
         getContext().incrementCounter("Recurring billing events ignored");
         return;
       }
-      int numBillingEventsSaved = 0;
-      try {
-        numBillingEventsSaved = ofy().transactNew(() -> {
-          ImmutableSet.Builder<OneTime> syntheticOneTimesBuilder =
-              new ImmutableSet.Builder<>();
-          final Registry tld = Registry.get(getTldFromDomainName(recurring.getTargetId()));
-
-          // Determine the complete set of times at which this recurring event should occur
-          // (up to and including the runtime of the mapreduce).
-          Iterable<DateTime> eventTimes =
-              recurring.getRecurrenceTimeOfYear().getInstancesInRange(Range.closed(
-                  recurring.getEventTime(),
-                  earliestOf(recurring.getRecurrenceEndTime(), executeTime)));
-
-          // Convert these event times to billing times
-          final ImmutableSet<DateTime> billingTimes =
-              getBillingTimesInScope(eventTimes, cursorTime, executeTime, tld);
-
-          Key<? extends EppResource> domainKey = recurring.getParentKey().getParent();
-          Iterable<OneTime> oneTimesForDomain =
-              ofy().load().type(OneTime.class).ancestor(domainKey);
-
-          // Determine the billing times that already have OneTime events persisted.
-          ImmutableSet<DateTime> existingBillingTimes =
-              getExistingBillingTimes(oneTimesForDomain, recurring);
-
-          ImmutableSet.Builder<HistoryEntry> historyEntriesBuilder =
-              new ImmutableSet.Builder<>();
-          // Create synthetic OneTime events for all billing times that do not yet have an event
-          // persisted.
-          for (DateTime billingTime : difference(billingTimes, existingBillingTimes)) {
-            // Construct a new HistoryEntry that parents over the OneTime
-            HistoryEntry historyEntry = new HistoryEntry.Builder()
-                .setBySuperuser(false)
-                .setClientId(recurring.getClientId())
-                .setModificationTime(ofy().getTransactionTime())
-                .setParent(domainKey)
-                .setPeriod(Period.create(1, YEARS))
-                .setReason("Domain autorenewal by ExpandRecurringBillingEventsAction")
-                .setRequestedByRegistrar(false)
-                .setType(DOMAIN_AUTORENEW)
-                .setDomainTransactionRecords(
-                    ImmutableSet.of(
-                        DomainTransactionRecord.create(
-                            tld.getTldStr(),
-                            // We report this when the autorenew grace period ends
-                            billingTime,
-                            TransactionReportField.netRenewsFieldFromYears(1),
-                            1)))
-                .build();
-            historyEntriesBuilder.add(historyEntry);
-
-            DateTime eventTime = billingTime.minus(tld.getAutoRenewGracePeriodLength());
-            // Determine the cost for a one-year renewal.
-            Money renewCost = getDomainRenewCost(recurring.getTargetId(), eventTime, 1);
-            syntheticOneTimesBuilder.add(new OneTime.Builder()
-                .setBillingTime(billingTime)
-                .setClientId(recurring.getClientId())
-                .setCost(renewCost)
-                .setEventTime(eventTime)
-                .setFlags(union(recurring.getFlags(), Flag.SYNTHETIC))
-                .setParent(historyEntry)
-                .setPeriodYears(1)
-                .setReason(recurring.getReason())
-                .setSyntheticCreationTime(executeTime)
-                .setCancellationMatchingBillingEvent(Key.create(recurring))
-                .setTargetId(recurring.getTargetId())
-                .build());
-          }
-          Set<HistoryEntry> historyEntries = historyEntriesBuilder.build();
-          Set<OneTime> syntheticOneTimes = syntheticOneTimesBuilder.build();
-          if (!isDryRun) {
-            ImmutableSet<ImmutableObject> entitiesToSave =
-                new ImmutableSet.Builder<ImmutableObject>()
-                    .addAll(historyEntries)
-                    .addAll(syntheticOneTimes)
+      Key<? extends EppResource> domainKey = recurring.getParentKey().getParent();
+      if (!pendingRecurrings.containsKey(domainKey)
+          && pendingRecurrings.keySet().size() >= DOMAIN_BATCH_SIZE) {
+        expandPendingRecurrings();
+      }
+      pendingRecurrings.put(domainKey, recurring);
+    }
+
+    @Override
+    public void endSlice() {
+      expandPendingRecurrings();
+      super.endSlice();
+    }
+
+    /** Expands all buffered recurrences, one domain at a time. */
+    private void expandPendingRecurrings() {
+      if (pendingRecurrings.isEmpty()) {
+        return;
+      }
+      ImmutableListMultimap<Key<? extends EppResource>, Recurring> recurringsByDomain =
+          ImmutableListMultimap.copyOf(pendingRecurrings);
+      pendingRecurrings.clear();
+      // Start the ancestor queries for every domain in the batch before consuming any of them, so
+      // that the Datastore round trips overlap instead of running one after the other.
+      Map<Key<? extends EppResource>, Iterator<OneTime>> existingOneTimesByDomain =
+          new LinkedHashMap<>();
+      for (Key<? extends EppResource> domainKey : recurringsByDomain.keySet()) {
+        existingOneTimesByDomain.put(
+            domainKey, ofy().load().type(OneTime.class).ancestor(domainKey).iterator());
+      }
+      for (Map.Entry<Key<? extends EppResource>, Iterator<OneTime>> entry :
+          existingOneTimesByDomain.entrySet()) {
+        try {
+          expandRecurringsForDomain(
+              entry.getKey(), recurringsByDomain.get(entry.getKey()), entry.getValue());
+        } catch (Throwable t) {
+          getContext().incrementCounter("error: " + t.getClass().getSimpleName());
+          getContext().incrementCounter(ERROR_COUNTER);
+          throw new RuntimeException(
+              String.format(
+                  "Error while expanding Recurring billing events for %s", entry.getKey()),
+              t);
+        }
+      }
+      getContext().incrementCounter("Domain batches expanded");
+    }
+
+    /**
+     * Creates synthetic {@link OneTime} events for all in-scope billing times of the given
+     * recurrences under a single domain that have not been expanded yet.
+     */
+    private void expandRecurringsForDomain(
+        Key<? extends EppResource> domainKey,
+        ImmutableList<Recurring> recurrings,
+        Iterator<OneTime> prefetchedOneTimes) {
+      ExpandedBillingTimes expandedBillingTimes = new ExpandedBillingTimes(domainKey);
+      while (prefetchedOneTimes.hasNext()) {
+        expandedBillingTimes.record(prefetchedOneTimes.next());
+      }
+
+      ImmutableListMultimap.Builder<Recurring, DateTime> billingTimesToExpandBuilder =
+          new ImmutableListMultimap.Builder<>();
+      for (Recurring recurring : recurrings) {
+        Registry tld = Registry.get(getTldFromDomainName(recurring.getTargetId()));
+        // Determine the complete set of times at which this recurring event should occur
+        // (up to and including the runtime of the mapreduce).
+        Iterable<DateTime> eventTimes =
+            recurring.getRecurrenceTimeOfYear().getInstancesInRange(Range.closed(
+                recurring.getEventTime(),
+                earliestOf(recurring.getRecurrenceEndTime(), executeTime)));
+        billingTimesToExpandBuilder.putAll(
+            recurring,
+            difference(
+                getBillingTimesInScope(eventTimes, cursorTime, executeTime, tld),
+                expandedBillingTimes.get(Key.create(recurring))));
+      }
+      ImmutableListMultimap<Recurring, DateTime> billingTimesToExpand =
+          billingTimesToExpandBuilder.build();
+      if (billingTimesToExpand.isEmpty()) {
+        getContext().incrementCounter("Domains with no new billing events");
+        return;
+      }
+      getContext().incrementCounter("Domains expanded");
+
+      for (List<Map.Entry<Recurring, DateTime>> chunk :
+          Iterables.partition(billingTimesToExpand.entries(), MAX_ONE_TIMES_PER_TRANSACTION)) {
+        ImmutableSet<OneTime> syntheticOneTimes =
+            ofy().transactNew(() -> {
+              // Pick up any OneTimes written since the prefetch (e.g. by an earlier attempt at
+              // this transaction whose commit outcome was unknown), so that expansion stays
+              // idempotent.
+              expandedBillingTimes.loadNewOneTimes();
+              ImmutableSet.Builder<OneTime> syntheticOneTimesBuilder =
+                  new ImmutableSet.Builder<>();
+              ImmutableSet.Builder<HistoryEntry> historyEntriesBuilder =
+                  new ImmutableSet.Builder<>();
+              for (Map.Entry<Recurring, DateTime> entry : chunk) {
+                Recurring recurring = entry.getKey();
+                DateTime billingTime = entry.getValue();
+                if (expandedBillingTimes.contains(Key.create(recurring), billingTime)) {
+                  continue;
+                }
+                Registry tld = Registry.get(getTldFromDomainName(recurring.getTargetId()));
+                // Construct a new HistoryEntry that parents over the OneTime
+                HistoryEntry historyEntry = new HistoryEntry.Builder()
+                    .setBySuperuser(false)
+                    .setClientId(recurring.getClientId())
+                    .setModificationTime(ofy().getTransactionTime())
+                    .setParent(domainKey)
+                    .setPeriod(Period.create(1, YEARS))
+                    .setReason("Domain autorenewal by ExpandRecurringBillingEventsAction")
+                    .setRequestedByRegistrar(false)
+                    .setType(DOMAIN_AUTORENEW)
+                    .setDomainTransactionRecords(
+                        ImmutableSet.of(
+                            DomainTransactionRecord.create(
+                                tld.getTldStr(),
+                                // We report this when the autorenew grace period ends
+                                billingTime,
+                                TransactionReportField.netRenewsFieldFromYears(1),
+                                1)))
                     .build();
-            ofy().save().entities(entitiesToSave).now();
+                historyEntriesBuilder.add(historyEntry);
+
+                DateTime eventTime = billingTime.minus(tld.getAutoRenewGracePeriodLength());
+                // Determine the cost for a one-year renewal.
+                Money renewCost = getDomainRenewCost(recurring.getTargetId(), eventTime, 1);
+                syntheticOneTimesBuilder.add(new OneTime.Builder()
+                    .setBillingTime(billingTime)
+                    .setClientId(recurring.getClientId())
+                    .setCost(renewCost)
+                    .setEventTime(eventTime)
+                    .setFlags(union(recurring.getFlags(), Flag.SYNTHETIC))
+                    .setParent(historyEntry)
+                    .setPeriodYears(1)
+                    .setReason(recurring.getReason())
+                    .setSyntheticCreationTime(executeTime)
+                    .setCancellationMatchingBillingEvent(Key.create(recurring))
+                    .setTargetId(recurring.getTargetId())
+                    .build());
+              }
+              ImmutableSet<HistoryEntry> historyEntries = historyEntriesBuilder.build();
+              ImmutableSet<OneTime> oneTimes = syntheticOneTimesBuilder.build();
+              if (!isDryRun && !oneTimes.isEmpty()) {
+                ofy().save()
+                    .entities(
+                        new ImmutableSet.Builder<ImmutableObject>()
+                            .addAll(historyEntries)
+                            .addAll(oneTimes)
+                            .build())
+                    .now();
+              }
+              return oneTimes;
+            });
+        getContext().incrementCounter("Expansion transactions");
+        if (!isDryRun) {
+          // Record the new events so that later chunks for this domain don't need to load them.
+          for (OneTime oneTime : syntheticOneTimes) {
+            expandedBillingTimes.record(oneTime);
           }
-          return syntheticOneTimes.size();
-        });
-      } catch (Throwable t) {
-        getContext().incrementCounter("error: " + t.getClass().getSimpleName());
-        getContext().incrementCounter(ERROR_COUNTER);
-        throw new RuntimeException(
-            String.format(
-                "Error while expanding Recurring billing events for %d", recurring.getId()),
-            t);
-      }
-      if (!isDryRun) {
-        getContext().incrementCounter("Saved OneTime billing events", numBillingEventsSaved);
-      } else {
-        getContext().incrementCounter(
-            "Generated OneTime billing events (dry run)", numBillingEventsSaved);
+          getContext().incrementCounter("Saved OneTime billing events", syntheticOneTimes.size());
+        } else {
+          getContext().incrementCounter(
+              "Generated OneTime billing events (dry run)", syntheticOneTimes.size());
+        }
       }
     }
 
@@ -260,24 +366,56 @@ public class ExpandRecurringBillingEventsAction implements Runnable {
           .filter(Range.closedOpen(cursorTime, executeTime))
           .collect(toImmutableSet());
     }
+  }
+
+  /**
+   * The billing times already expanded for a single domain, tracked compactly as the keys of its
+   * existing {@link OneTime} events and the (recurrence, billing time) pair of each.
+   */
+  static class ExpandedBillingTimes {
+
+    private final Key<? extends EppResource> domainKey;
+    private final Set<Key<OneTime>> seenOneTimeKeys = new HashSet<>();
+    private final SetMultimap<Key<? extends BillingEvent>, DateTime> billingTimes =
+        HashMultimap.create();
+
+    ExpandedBillingTimes(Key<? extends EppResource> domainKey) {
+      this.domainKey = domainKey;
+    }
+
+    /** Records an existing {@link OneTime} of this domain. */
+    void record(OneTime oneTime) {
+      seenOneTimeKeys.add(Key.create(oneTime));
+      if (oneTime.getCancellationMatchingBillingEvent() != null) {
+        billingTimes.put(oneTime.getCancellationMatchingBillingEvent(), oneTime.getBillingTime());
+      }
+    }
 
     /**
-     * Determines an {@link ImmutableSet} of {@link DateTime}s that have already been persisted
-     * for a given recurring billing event.
+     * Records the domain's {@link OneTime} events that haven't been seen yet, using a keys-only
+     * ancestor query so that only the new ones are loaded.
      */
-    private ImmutableSet<DateTime> getExistingBillingTimes(
-        Iterable<BillingEvent.OneTime> oneTimesForDomain,
-        final BillingEvent.Recurring recurringEvent) {
-      return Streams.stream(oneTimesForDomain)
-          .filter(
-              billingEvent ->
-                  Key.create(recurringEvent)
-                      .equals(billingEvent.getCancellationMatchingBillingEvent()))
-          .map(OneTime::getBillingTime)
-          .collect(toImmutableSet());
+    void loadNewOneTimes() {
+      ImmutableSet<Key<OneTime>> unseenKeys =
+          difference(
+                  ImmutableSet.copyOf(ofy().load().type(OneTime.class).ancestor(domainKey).keys()),
+                  seenOneTimeKeys)
+              .immutableCopy();
+      for (OneTime oneTime : ofy().load().keys(unseenKeys).values()) {
+        record(oneTime);
+      }
+    }
+
+    /** Returns the billing times already expanded from the given recurrence. */
+    Set<DateTime> get(Key<? extends BillingEvent> recurringKey) {
+      return billingTimes.get(recurringKey);
     }
-  }
 
+    /** Returns whether the given billing time was already expanded from the given recurrence. */
+    boolean contains(Key<? extends BillingEvent> recurringKey, DateTime billingTime) {
+      return billingTimes.containsEntry(recurringKey, billingTime);
+    }
+  }
 
   /**
    * "Reducer" to advance the cursor after all map jobs have been completed. The NullInput into the
@@ -0,0 +1,99 @@
+// Copyright 2018 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.batch;
+
+import static google.registry.model.ofy.ObjectifyService.ofy;
+import static google.registry.util.PipelineUtils.createJobPath;
+
+import com.google.appengine.tools.mapreduce.Mapper;
+import com.google.common.collect.ImmutableList;
+import com.googlecode.objectify.Key;
+import google.registry.mapreduce.MapreduceRunner;
+import google.registry.mapreduce.inputs.EppResourceInputs;
+import google.registry.model.EppResource;
+import google.registry.model.EppResourceRevisionIndex;
+import google.registry.request.Action;
+import google.registry.request.Response;
+import google.registry.request.auth.Auth;
+import javax.inject.Inject;
+
+/**
+ * A mapreduce that moves the revisions embedded in all EppResources to their
+ * {@link EppResourceRevisionIndex}.
+ *
+ * <p>For each resource that doesn't have an index yet, an index holding the resource's embedded
+ * revisions is saved. Saving the index also re-saves the resource itself as its backup group root,
+ * which drops the embedded revisions from it. Resources that already have an index are skipped, so
+ * this is safe to run repeatedly.
+ *
+ * <p>Because there are no auth settings in the {@link Action} annotation, this command can only be
+ * run internally, or by pretending to be internal by setting the X-AppEngine-QueueName header,
+ * which only admin users can do.
+ */
+@Action(
+  path = "/_dr/task/migrateEppResourceRevisions",
+  auth = Auth.AUTH_INTERNAL_OR_ADMIN
+)
+public class MigrateEppResourceRevisionsAction implements Runnable {
+
+  @Inject MapreduceRunner mrRunner;
+  @Inject Response response;
+  @Inject MigrateEppResourceRevisionsAction() {}
+
+  @Override
+  public void run() {
+    response.sendJavaScriptRedirect(createJobPath(mrRunner
+        .setJobName("Migrate EPP resource revisions")
+        .setModuleName("backend")
+        .runMapOnly(
+            new MigrateEppResourceRevisionsMapper(),
+            ImmutableList.of(EppResourceInputs.createKeyInput(EppResource.class)))));
+  }
+
+  /** Mapper to create the revision index of each EPP resource. */
+  public static class MigrateEppResourceRevisionsMapper
+      extends Mapper<Key<EppResource>, Void, Void> {
+
+    private static final long serialVersionUID = 4326093154707734284L;
+    public MigrateEppResourceRevisionsMapper() {}
+
+    @Override
+    public final void map(final Key<EppResource> resourceKey) {
+      boolean migrated =
+          ofy()
+              .transact(
+                  () -> {
+                    if (ofy().load().key(EppResourceRevisionIndex.createKey(resourceKey)).now()
+                        != null) {
+                      return false;
+                    }
+                    EppResource resource = ofy().load().key(resourceKey).now();
+                    // Re-saving the resource drops its legacy revisions, so that they can't be used
+                    // to seed its index again.
+                    ofy()
+                        .save()
+                        .entities(
+                            resource, EppResourceRevisionIndex.createFromLegacyRevisions(resource))
+                        .now();
+                    return true;
+                  });
+      getContext()
+          .incrementCounter(
+              String.format(
+                  "%s entities %s",
+                  resourceKey.getKind(), migrated ? "migrated" : "already migrated"));
+    }
+  }
+}
@@ -0,0 +1,168 @@
+// Copyright 2018 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.batch;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static google.registry.model.index.EppResourceIndexBucket.getBucketKey;
+import static google.registry.model.ofy.ObjectifyService.ofy;
+import static google.registry.util.PipelineUtils.createJobPath;
+import static org.joda.time.DateTimeZone.UTC;
+
+import com.google.appengine.tools.mapreduce.Mapper;
+import com.google.appengine.tools.mapreduce.Reducer;
+import com.google.appengine.tools.mapreduce.ReducerInput;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Streams;
+import com.googlecode.objectify.Key;
+import google.registry.mapreduce.MapreduceRunner;
+import google.registry.mapreduce.inputs.EppResourceInputs;
+import google.registry.model.index.EppResourceIndex;
+import google.registry.model.index.EppResourceIndexBucket;
+import google.registry.model.index.EppResourceIndexBucketStats;
+import google.registry.request.Action;
+import google.registry.request.Response;
+import google.registry.request.auth.Auth;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import javax.inject.Inject;
+import org.joda.time.DateTime;
+
+/**
+ * A mapreduce that moves {@link EppResourceIndex} entries to the buckets they currently belong in,
+ * and records {@link EppResourceIndexBucketStats} for every bucket.
+ *
+ * <p>This should be run after the number of buckets is raised, so that existing entries are spread
+ * over the new buckets too. New entries are written to the right bucket from the start. Entries
+ * whose resource no longer exists are deleted rather than moved. The statistics of all buckets are
+ * deleted before the entries are read, so that buckets left empty don't keep stale ones. Entries
+ * that are moved while another mapreduce is reading the index may be seen twice, or not at all, by
+ * that mapreduce. Running this again when nothing has changed only refreshes the statistics.
+ *
+ * <p>Because there are no auth settings in the {@link Action} annotation, this command can only be
+ * run internally, or by pretending to be internal by setting the X-AppEngine-QueueName header,
+ * which only admin users can do.
+ */
+@Action(
+  path = "/_dr/task/rebalanceEppResourceIndex",
+  auth = Auth.AUTH_INTERNAL_OR_ADMIN
+)
+public class RebalanceEppResourceIndexAction implements Runnable {
+
+  @Inject MapreduceRunner mrRunner;
+  @Inject Response response;
+  @Inject RebalanceEppResourceIndexAction() {}
+
+  @Override
+  public void run() {
+    ofy()
+        .deleteWithoutBackup()
+        .keys(
+            Streams.stream(EppResourceIndexBucket.getAllBuckets())
+                .map(EppResourceIndexBucketStats::createKey)
+                .collect(toImmutableList()))
+        .now();
+    response.sendJavaScriptRedirect(createJobPath(mrRunner
+        .setJobName("Rebalance EPP resource index")
+        .setModuleName("backend")
+        .runMapreduce(
+            new RebalanceEppResourceIndexMapper(),
+            new RebalanceEppResourceIndexReducer(),
+            ImmutableList.of(EppResourceInputs.createIndexInput()))));
+  }
+
+  /**
+   * Mapper to move each index entry to its current bucket, and emit it keyed by that bucket, or to
+   * delete it if its resource no longer exists.
+   */
+  public static class RebalanceEppResourceIndexMapper
+      extends Mapper<EppResourceIndex, Long, String> {
+
+    private static final long serialVersionUID = -2471582395176283611L;
+    public RebalanceEppResourceIndexMapper() {}
+
+    @Override
+    public final void map(final EppResourceIndex index) {
+      if (ofy().load().key(index.getKey()).now() == null) {
+        // Resources are never recreated once hard-deleted, so the entry can't become valid again.
+        ofy().transact(() -> ofy().delete().entity(index).now());
+        getContext().incrementCounter("index entries of missing resources deleted");
+        return;
+      }
+      Key<EppResourceIndexBucket> bucketKey = getBucketKey(index.getKey());
+      if (!bucketKey.equals(index.getBucket())) {
+        boolean moved =
+            ofy()
+                .transact(
+                    () -> {
+                      // The resource may have been deleted along with its index since it was read.
+                      if (ofy().load().entity(index).now() == null) {
+                        return false;
+                      }
+                      ofy().save().entity(EppResourceIndex.create(index.getKey())).now();
+                      ofy().delete().entity(index).now();
+                      return true;
+                    });
+        if (!moved) {
+          getContext().incrementCounter("index entries deleted before move");
+          return;
+        }
+        getContext().incrementCounter("index entries moved");
+      }
+      emit(bucketKey.getId(), index.getId());
+    }
+  }
+
+  /**
+   * Reducer to count the index entries of each bucket and sample their ids, and save them as the
+   * bucket's statistics.
+   */
+  public static class RebalanceEppResourceIndexReducer extends Reducer<Long, String, Void> {
+
+    private static final long serialVersionUID = 8152203847611540219L;
+
+    /** The number of ids to sample from each bucket, which limits how finely it can be split. */
+    private static final int SAMPLE_SIZE = 64;
+
+    public RebalanceEppResourceIndexReducer() {}
+
+    @Override
+    public void reduce(Long bucketId, ReducerInput<String> ids) {
+      // Reservoir sampling, which picks each id with equal probability in a single pass.
+      Random random = new Random();
+      List<String> sample = new ArrayList<>(SAMPLE_SIZE);
+      long size = 0;
+      while (ids.hasNext()) {
+        String id = ids.next();
+        size++;
+        if (sample.size() < SAMPLE_SIZE) {
+          sample.add(id);
+        } else {
+          long replaced = (long) (random.nextDouble() * size);
+          if (replaced < SAMPLE_SIZE) {
+            sample.set((int) replaced, id);
+          }
+        }
+      }
+      ofy()
+          .saveWithoutBackup()
+          .entity(
+              EppResourceIndexBucketStats.create(
+                  getBucketKey(bucketId.intValue()), size, sample, DateTime.now(UTC)))
+          .now();
+      getContext().incrementCounter("buckets with statistics saved");
+    }
+  }
+}
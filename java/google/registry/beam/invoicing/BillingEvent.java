@@ -14,12 +14,15 @@
 
 package google.registry.beam.invoicing;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static google.registry.beam.BeamUtils.checkFieldsNotNull;
 import static google.registry.beam.BeamUtils.extractField;
 
 import com.google.auto.value.AutoValue;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.CharMatcher;
 import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
 import com.google.common.collect.ImmutableList;
 import com.google.common.flogger.FluentLogger;
 import google.registry.model.billing.BillingEvent.Flag;
@@ -33,12 +36,14 @@ import java.time.Instant;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.List;
 import java.util.stream.Collectors;
 import org.apache.avro.generic.GenericRecord;
 import org.apache.beam.sdk.coders.AtomicCoder;
 import org.apache.beam.sdk.coders.Coder;
 import org.apache.beam.sdk.coders.StringUtf8Coder;
 import org.apache.beam.sdk.io.gcp.bigquery.SchemaAndRecord;
+import org.apache.beam.sdk.values.KV;
 
 /**
  * A POJO representing a single billable event, parsed from a {@code SchemaAndRecord}.
@@ -60,6 +65,9 @@ public abstract class BillingEvent implements Serializable {
   /** The amount we multiply the price for sunrise creates. This is currently a 15% discount. */
   private static final double SUNRISE_DISCOUNT_PRICE_MODIFIER = 0.85;
 
+  /** Characters that a CSV field would have to be quoted or escaped for. */
+  private static final CharMatcher CSV_SPECIAL_CHARS = CharMatcher.anyOf(",\"\r\n");
+
   private static final ImmutableList<String> FIELD_NAMES =
       ImmutableList.of(
           "id",
@@ -206,29 +214,64 @@ public abstract class BillingEvent implements Serializable {
    * filepath with the arguments, such as "../sensitive_info".
    */
   String toFilename(String yearMonth) {
+    return toFilename(yearMonth, registrarId(), tld());
+  }
+
+  /**
+   * Returns the detail report filename for a row generated by {@link #toCsv}.
+   *
+   * <p>This lets the daily pre-aggregated detail rows be routed to their monthly detail reports
+   * without reparsing them into {@code BillingEvent}s.
+   */
+  static String detailRowToFilename(String yearMonth, String csvRow) {
+    List<String> fields = Splitter.on(',').splitToList(csvRow);
+    checkArgument(fields.size() == FIELD_NAMES.size(), "Malformed detail report row: %s", csvRow);
+    return toFilename(
+        yearMonth,
+        fields.get(FIELD_NAMES.indexOf("registrarId")),
+        fields.get(FIELD_NAMES.indexOf("tld")));
+  }
+
+  private static String toFilename(String yearMonth, String registrarId, String tld) {
     return String.format(
-        "%s_%s_%s_%s", BillingModule.DETAIL_REPORT_PREFIX, yearMonth, registrarId(), tld());
+        "%s_%s_%s_%s", BillingModule.DETAIL_REPORT_PREFIX, yearMonth, registrarId, tld);
+  }
+
+  /**
+   * Joins fields into a CSV row, rejecting any field that would need to be escaped.
+   *
+   * <p>No billing field is expected to contain a comma, quote or line break, and the daily partials
+   * are split on commas when they're merged. A field containing one fails the pipeline rather than
+   * silently shifting the columns of the invoice or routing a detail row to the wrong report.
+   */
+  private static String joinCsvFields(List<?> fields) {
+    for (Object field : fields) {
+      checkArgument(
+          CSV_SPECIAL_CHARS.matchesNoneOf(String.valueOf(field)),
+          "CSV field must not contain a comma, quote or line break: %s",
+          field);
+    }
+    return Joiner.on(",").join(fields);
   }
 
   /** Generates a CSV representation of this {@code BillingEvent}. */
   String toCsv() {
-    return Joiner.on(",")
-        .join(
-            ImmutableList.of(
-                id(),
-                DATE_TIME_FORMATTER.format(billingTime()),
-                DATE_TIME_FORMATTER.format(eventTime()),
-                registrarId(),
-                billingId(),
-                tld(),
-                action(),
-                domain(),
-                repositoryId(),
-                years(),
-                currency(),
-                String.format("%.2f", amount()),
-                // Strip out the 'synthetic' flag, which is internal only.
-                flags().replace("SYNTHETIC", "").trim()));
+    return joinCsvFields(
+        ImmutableList.of(
+            id(),
+            DATE_TIME_FORMATTER.format(billingTime()),
+            DATE_TIME_FORMATTER.format(eventTime()),
+            registrarId(),
+            billingId(),
+            tld(),
+            action(),
+            domain(),
+            repositoryId(),
+            years(),
+            currency(),
+            String.format("%.2f", amount()),
+            // Strip out the 'synthetic' flag, which is internal only.
+            flags().replace("SYNTHETIC", "").trim()));
   }
 
   /** Returns the grouping key for this {@code BillingEvent}, to generate the overall invoice. */
@@ -309,6 +352,43 @@ public abstract class BillingEvent implements Serializable {
                   poNumber()));
     }
 
+    /**
+     * Generates a CSV representation of a partial count of this key, for a single day's events.
+     *
+     * <p>Unlike {@link #toCsv}, this keeps every field of the key, so that {@link
+     * #parsePartialCsv} can restore it when merging a month's partial counts.
+     */
+    String toPartialCsv(long quantity) {
+      return joinCsvFields(
+          ImmutableList.of(
+              startDate(),
+              endDate(),
+              productAccountKey(),
+              usageGroupingKey(),
+              description(),
+              String.valueOf(unitPrice()),
+              unitPriceCurrency(),
+              poNumber(),
+              quantity));
+    }
+
+    /** Parses a partial count generated by {@link #toPartialCsv}. */
+    static KV<InvoiceGroupingKey, Long> parsePartialCsv(String partialCsv) {
+      List<String> fields = Splitter.on(',').splitToList(partialCsv);
+      checkArgument(fields.size() == 9, "Malformed partial invoice row: %s", partialCsv);
+      return KV.of(
+          new AutoValue_BillingEvent_InvoiceGroupingKey(
+              fields.get(0),
+              fields.get(1),
+              fields.get(2),
+              fields.get(3),
+              fields.get(4),
+              Double.parseDouble(fields.get(5)),
+              fields.get(6),
+              fields.get(7)),
+          Long.parseLong(fields.get(8)));
+    }
+
     /** Coder that provides deterministic (de)serialization for {@code InvoiceGroupingKey}. */
     static class InvoiceGroupingKeyCoder extends AtomicCoder<InvoiceGroupingKey> {
 
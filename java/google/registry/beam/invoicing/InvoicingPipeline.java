@@ -14,17 +14,24 @@
 
 package google.registry.beam.invoicing;
 
+import static google.registry.reporting.billing.BillingModule.PARTIAL_DETAILS_NAME;
+import static google.registry.reporting.billing.BillingModule.PARTIAL_INVOICE_NAME;
+
 import google.registry.beam.invoicing.BillingEvent.InvoiceGroupingKey;
 import google.registry.beam.invoicing.BillingEvent.InvoiceGroupingKey.InvoiceGroupingKeyCoder;
 import google.registry.config.RegistryConfig.Config;
 import google.registry.reporting.billing.BillingModule;
 import google.registry.reporting.billing.GenerateInvoicesAction;
 import java.io.Serializable;
+import java.time.LocalDate;
+import java.time.YearMonth;
 import javax.inject.Inject;
 import org.apache.beam.runners.dataflow.DataflowRunner;
 import org.apache.beam.runners.dataflow.options.DataflowPipelineOptions;
 import org.apache.beam.sdk.Pipeline;
+import org.apache.beam.sdk.coders.KvCoder;
 import org.apache.beam.sdk.coders.SerializableCoder;
+import org.apache.beam.sdk.coders.VarLongCoder;
 import org.apache.beam.sdk.io.DefaultFilenamePolicy.Params;
 import org.apache.beam.sdk.io.FileBasedSink;
 import org.apache.beam.sdk.io.TextIO;
@@ -36,18 +43,24 @@ import org.apache.beam.sdk.options.ValueProvider.NestedValueProvider;
 import org.apache.beam.sdk.transforms.Count;
 import org.apache.beam.sdk.transforms.MapElements;
 import org.apache.beam.sdk.transforms.PTransform;
+import org.apache.beam.sdk.transforms.Sum;
 import org.apache.beam.sdk.values.KV;
 import org.apache.beam.sdk.values.PCollection;
 import org.apache.beam.sdk.values.TypeDescriptor;
 import org.apache.beam.sdk.values.TypeDescriptors;
 
 /**
- * Definition of a Dataflow pipeline template, which generates a given month's invoices.
+ * Definitions of the Dataflow pipeline templates which generate invoices.
+ *
+ * <p>The daily template pre-aggregates a single day's billing events into partial invoice counts
+ * and detail report rows. The monthly template then only merges the month's daily partials into
+ * the overall invoice and the per-registrar detail reports, so its cost doesn't grow with the
+ * number of billing events.
  *
- * <p>To stage this template on GCS, run the {@link
+ * <p>To stage these templates on GCS, run the {@link
  * google.registry.tools.DeployInvoicingPipelineCommand} Nomulus command.
  *
- * <p>Then, you can run the staged template via the API client library, gCloud or a raw REST call.
+ * <p>Then, you can run the staged templates via the API client library, gCloud or a raw REST call.
  * For an example using the API client library, see {@link GenerateInvoicesAction}.
  *
  * @see <a href="https://cloud.google.com/dataflow/docs/templates/overview">Dataflow Templates</a>
@@ -66,6 +79,10 @@ public class InvoicingPipeline implements Serializable {
   @Config("invoiceTemplateUrl")
   String invoiceTemplateUrl;
 
+  @Inject
+  @Config("dailyInvoiceTemplateUrl")
+  String dailyInvoiceTemplateUrl;
+
   @Inject
   @Config("beamStagingUrl")
   String beamStagingUrl;
@@ -77,7 +94,7 @@ public class InvoicingPipeline implements Serializable {
   @Inject
   InvoicingPipeline() {}
 
-  /** Custom options for running the invoicing pipeline. */
+  /** Custom options for running the monthly invoicing pipeline. */
   interface InvoicingPipelineOptions extends DataflowPipelineOptions {
     /** Returns the yearMonth we're generating invoices for, in yyyy-MM format. */
     @Description("The yearMonth we generate invoices for, in yyyy-MM format.")
@@ -91,7 +108,21 @@ public class InvoicingPipeline implements Serializable {
     void setYearMonth(ValueProvider<String> value);
   }
 
-  /** Deploys the invoicing pipeline as a template on GCS, for a given projectID and GCS bucket. */
+  /** Custom options for running the daily invoicing pipeline. */
+  interface DailyInvoicingPipelineOptions extends DataflowPipelineOptions {
+    /** Returns the day we're pre-aggregating billing events for, in yyyy-MM-dd format. */
+    @Description("The day we pre-aggregate billing events for, in yyyy-MM-dd format.")
+    ValueProvider<String> getDay();
+    /**
+     * Sets the day we pre-aggregate billing events for.
+     *
+     * <p>This is implicitly set when executing the Dataflow template, by specifying the 'day'
+     * parameter.
+     */
+    void setDay(ValueProvider<String> value);
+  }
+
+  /** Deploys the monthly invoicing pipeline as a template on GCS. */
   public void deploy() {
     // We can't store options as a member variable due to serialization concerns.
     InvoicingPipelineOptions options = PipelineOptionsFactory.as(InvoicingPipelineOptions.class);
@@ -101,55 +132,131 @@ public class InvoicingPipeline implements Serializable {
     options.setTemplateLocation(invoiceTemplateUrl);
     options.setStagingLocation(beamStagingUrl);
     Pipeline p = Pipeline.create(options);
+    applyMonthlyTransforms(p, options.getYearMonth());
+    p.run();
+  }
+
+  /** Deploys the daily invoicing pipeline as a template on GCS. */
+  public void deployDaily() {
+    DailyInvoicingPipelineOptions options =
+        PipelineOptionsFactory.as(DailyInvoicingPipelineOptions.class);
+    options.setProject(projectId);
+    options.setRunner(DataflowRunner.class);
+    options.setTemplateLocation(dailyInvoiceTemplateUrl);
+    options.setStagingLocation(beamStagingUrl);
+    Pipeline p = Pipeline.create(options);
 
     PCollection<BillingEvent> billingEvents =
         p.apply(
             "Read BillingEvents from Bigquery",
             BigQueryIO.read(BillingEvent::parseFromRecord)
-                .fromQuery(InvoicingUtils.makeQueryProvider(options.getYearMonth(), projectId))
+                .fromQuery(InvoicingUtils.makeDailyQueryProvider(options.getDay(), projectId))
                 .withCoder(SerializableCoder.of(BillingEvent.class))
                 .usingStandardSql()
                 .withoutValidation()
                 .withTemplateCompatibility());
-    applyTerminalTransforms(billingEvents, options.getYearMonth());
+    applyDailyTransforms(billingEvents, options.getDay());
     p.run();
   }
 
   /**
-   * Applies output transforms to the {@code BillingEvent} source collection.
+   * Writes a day's partial invoice counts and detail report rows from its {@code BillingEvent}s.
    *
-   * <p>This is factored out purely to facilitate testing.
+   * <p>Rerunning a day overwrites its partials. This is factored out purely to facilitate testing.
    */
-  void applyTerminalTransforms(
-      PCollection<BillingEvent> billingEvents, ValueProvider<String> yearMonthProvider) {
+  void applyDailyTransforms(
+      PCollection<BillingEvent> billingEvents, ValueProvider<String> dayProvider) {
+    billingEvents
+        .apply("Count invoice rows", new CountInvoiceRows())
+        .apply(
+            "Format as partial CSVs",
+            MapElements.into(TypeDescriptors.strings())
+                .via((KV<InvoiceGroupingKey, Long> kv) -> kv.getKey().toPartialCsv(kv.getValue())))
+        .apply("Write partial invoice to CSV", writePartial(dayProvider, PARTIAL_INVOICE_NAME));
+
     billingEvents
-        .apply("Generate overall invoice rows", new GenerateInvoiceRows())
+        .apply(
+            "Format detail report rows",
+            MapElements.into(TypeDescriptors.strings()).via(BillingEvent::toCsv))
+        .apply(
+            "Write partial detail reports to CSV", writePartial(dayProvider, PARTIAL_DETAILS_NAME));
+  }
+
+  /**
+   * Merges a month's daily partials into the overall invoice and the detail reports.
+   *
+   * <p>This is factored out purely to facilitate testing.
+   */
+  void applyMonthlyTransforms(Pipeline p, ValueProvider<String> yearMonthProvider) {
+    p.apply(
+            "Read partial invoices",
+            TextIO.read().from(partialsPattern(yearMonthProvider, PARTIAL_INVOICE_NAME)))
+        .apply(
+            "Parse partial invoice rows",
+            MapElements.into(
+                    TypeDescriptors.kvs(
+                        TypeDescriptor.of(InvoiceGroupingKey.class), TypeDescriptors.longs()))
+                .via(InvoiceGroupingKey::parsePartialCsv))
+        .setCoder(KvCoder.of(new InvoiceGroupingKeyCoder(), VarLongCoder.of()))
+        .apply("Sum partial counts", Sum.longsPerKey())
+        .apply(
+            "Format as CSVs",
+            MapElements.into(TypeDescriptors.strings())
+                .via((KV<InvoiceGroupingKey, Long> kv) -> kv.getKey().toCsv(kv.getValue())))
         .apply("Write overall invoice to CSV", writeInvoice(yearMonthProvider));
 
-    billingEvents.apply(
-        "Write detail reports to separate CSVs keyed by registrarId_tld pair",
-        writeDetailReports(yearMonthProvider));
+    p.apply(
+            "Read partial detail reports",
+            TextIO.read().from(partialsPattern(yearMonthProvider, PARTIAL_DETAILS_NAME)))
+        .apply(
+            "Write detail reports to separate CSVs keyed by registrarId_tld pair",
+            writeDetailReports(yearMonthProvider));
   }
 
-  /** Transform that converts a {@code BillingEvent} into an invoice CSV row. */
-  private static class GenerateInvoiceRows
-      extends PTransform<PCollection<BillingEvent>, PCollection<String>> {
+  /** Transform that counts the {@code BillingEvent}s that make up each overall invoice row. */
+  private static class CountInvoiceRows
+      extends PTransform<PCollection<BillingEvent>, PCollection<KV<InvoiceGroupingKey, Long>>> {
     @Override
-    public PCollection<String> expand(PCollection<BillingEvent> input) {
+    public PCollection<KV<InvoiceGroupingKey, Long>> expand(PCollection<BillingEvent> input) {
       return input
           .apply(
               "Map to invoicing key",
               MapElements.into(TypeDescriptor.of(InvoiceGroupingKey.class))
                   .via(BillingEvent::getInvoiceGroupingKey))
           .setCoder(new InvoiceGroupingKeyCoder())
-          .apply("Count occurrences", Count.perElement())
-          .apply(
-              "Format as CSVs",
-              MapElements.into(TypeDescriptors.strings())
-                  .via((KV<InvoiceGroupingKey, Long> kv) -> kv.getKey().toCsv(kv.getValue())));
+          .apply("Count occurrences", Count.perElement());
     }
   }
 
+  /** Returns an IO transform that writes one kind of a day's partials to a single CSV file. */
+  private TextIO.Write writePartial(ValueProvider<String> dayProvider, String name) {
+    return TextIO.write()
+        .to(
+            NestedValueProvider.of(
+                dayProvider,
+                day ->
+                    String.format(
+                        "%s/%s/%s/%s-%s",
+                        billingBucketUrl,
+                        BillingModule.INVOICE_PARTIALS_DIRECTORY,
+                        YearMonth.from(LocalDate.parse(day)),
+                        day,
+                        name)))
+        .withoutSharding()
+        .withSuffix(".csv");
+  }
+
+  /** Returns a provider of the file pattern matching one kind of a month's daily partials. */
+  private ValueProvider<String> partialsPattern(
+      ValueProvider<String> yearMonthProvider, String name) {
+    return NestedValueProvider.of(
+        yearMonthProvider,
+        yearMonth ->
+            String.format(
+                "%s/%s/%s/*-%s.csv",
+                billingBucketUrl, BillingModule.INVOICE_PARTIALS_DIRECTORY, yearMonth, name));
+  }
+
   /** Returns an IO transform that writes the overall invoice to a single CSV file. */
   private TextIO.Write writeInvoice(ValueProvider<String> yearMonthProvider) {
     return TextIO.write()
@@ -169,16 +276,16 @@ public class InvoicingPipeline implements Serializable {
         .withSuffix(".csv");
   }
 
-  /** Returns an IO transform that writes detail reports to registrar-tld keyed CSV files. */
-  private TextIO.TypedWrite<BillingEvent, Params> writeDetailReports(
+  /** Returns an IO transform that writes detail report rows to registrar-tld keyed CSV files. */
+  private TextIO.TypedWrite<String, Params> writeDetailReports(
       ValueProvider<String> yearMonthProvider) {
-    return TextIO.<BillingEvent>writeCustomType()
+    return TextIO.<String>writeCustomType()
         .to(
             InvoicingUtils.makeDestinationFunction(
                 String.format("%s/%s", billingBucketUrl, BillingModule.INVOICES_DIRECTORY),
                 yearMonthProvider),
             InvoicingUtils.makeEmptyDestinationParams(billingBucketUrl + "/errors"))
-        .withFormatFunction(BillingEvent::toCsv)
+        .withFormatFunction(row -> row)
         .withoutSharding()
         .withTempDirectory(
             FileBasedSink.convertToFileResourceIfPossible(beamBucketUrl + "/temporary"))
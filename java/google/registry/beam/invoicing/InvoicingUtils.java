@@ -17,6 +17,7 @@ package google.registry.beam.invoicing;
 import static google.registry.beam.BeamUtils.getQueryFromFile;
 
 import google.registry.util.SqlTemplate;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.LocalTime;
 import java.time.YearMonth;
@@ -36,16 +37,17 @@ public class InvoicingUtils {
       DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSSSSS");
 
   /**
-   * Returns a function mapping from {@code BillingEvent} to filename {@code Params}.
+   * Returns a function mapping from a detail report row to filename {@code Params}.
    *
-   * <p>Beam uses this to determine which file a given {@code BillingEvent} should get placed into.
+   * <p>Beam uses this to determine which file a given row, generated by {@link
+   * BillingEvent#toCsv}, should get placed into.
    *
    * @param outputBucket the GCS bucket we're outputting reports to
    * @param yearMonthProvider a runtime provider for the yyyy-MM we're generating the invoice for
    */
-  static SerializableFunction<BillingEvent, Params> makeDestinationFunction(
+  static SerializableFunction<String, Params> makeDestinationFunction(
       String outputBucket, ValueProvider<String> yearMonthProvider) {
-    return billingEvent ->
+    return detailRow ->
         new Params()
             .withShardTemplate("")
             .withSuffix(".csv")
@@ -56,11 +58,13 @@ public class InvoicingUtils {
                         FileBasedSink.convertToFileResourceIfPossible(
                             String.format(
                                 "%s/%s/%s",
-                                outputBucket, yearMonth, billingEvent.toFilename(yearMonth)))));
+                                outputBucket,
+                                yearMonth,
+                                BillingEvent.detailRowToFilename(yearMonth, detailRow)))));
   }
 
   /**
-   * Returns the default filename parameters for an unmappable {@code BillingEvent}.
+   * Returns the default filename parameters for an unmappable detail report row.
    *
    * <p>The "failed" file should only be populated when an error occurs, which warrants further
    * investigation.
@@ -88,19 +92,44 @@ public class InvoicingUtils {
         (yearMonth) -> {
           // Get the timestamp endpoints capturing the entire month with microsecond precision
           YearMonth reportingMonth = YearMonth.parse(yearMonth);
-          LocalDateTime firstMoment = reportingMonth.atDay(1).atTime(LocalTime.MIDNIGHT);
-          LocalDateTime lastMoment = reportingMonth.atEndOfMonth().atTime(LocalTime.MAX);
-          // Construct the month's query by filling in the billing_events.sql template
-          return SqlTemplate.create(getQueryFromFile(InvoicingPipeline.class, "billing_events.sql"))
-              .put("FIRST_TIMESTAMP_OF_MONTH", firstMoment.format(TIMESTAMP_FORMATTER))
-              .put("LAST_TIMESTAMP_OF_MONTH", lastMoment.format(TIMESTAMP_FORMATTER))
-              .put("PROJECT_ID", projectId)
-              .put("DATASTORE_EXPORT_DATA_SET", "latest_datastore_export")
-              .put("ONETIME_TABLE", "OneTime")
-              .put("REGISTRY_TABLE", "Registry")
-              .put("REGISTRAR_TABLE", "Registrar")
-              .put("CANCELLATION_TABLE", "Cancellation")
-              .build();
+          return makeQuery(
+              reportingMonth.atDay(1).atTime(LocalTime.MIDNIGHT),
+              reportingMonth.atEndOfMonth().atTime(LocalTime.MAX),
+              projectId);
         });
   }
+
+  /**
+   * Returns a provider that creates a Bigquery query for a given project and day at runtime.
+   *
+   * @param dayProvider a runtime provider that returns the yyyy-MM-dd day we pre-aggregate.
+   * @param projectId the projectId we're generating invoicing for.
+   */
+  static ValueProvider<String> makeDailyQueryProvider(
+      ValueProvider<String> dayProvider, String projectId) {
+    return NestedValueProvider.of(
+        dayProvider,
+        (day) -> {
+          LocalDate reportingDay = LocalDate.parse(day);
+          return makeQuery(
+              reportingDay.atTime(LocalTime.MIDNIGHT),
+              reportingDay.atTime(LocalTime.MAX),
+              projectId);
+        });
+  }
+
+  /** Fills in the {@code sql/billing_events.sql} template for billing times in a given range. */
+  private static String makeQuery(
+      LocalDateTime firstMoment, LocalDateTime lastMoment, String projectId) {
+    return SqlTemplate.create(getQueryFromFile(InvoicingPipeline.class, "billing_events.sql"))
+        .put("FIRST_TIMESTAMP", firstMoment.format(TIMESTAMP_FORMATTER))
+        .put("LAST_TIMESTAMP", lastMoment.format(TIMESTAMP_FORMATTER))
+        .put("PROJECT_ID", projectId)
+        .put("DATASTORE_EXPORT_DATA_SET", "latest_datastore_export")
+        .put("ONETIME_TABLE", "OneTime")
+        .put("REGISTRY_TABLE", "Registry")
+        .put("REGISTRAR_TABLE", "Registrar")
+        .put("CANCELLATION_TABLE", "Cancellation")
+        .build();
+  }
 }
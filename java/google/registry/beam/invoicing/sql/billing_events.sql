@@ -13,8 +13,8 @@
   -- See the License for the specific language governing permissions and
   -- limitations under the License.
 
-  -- This query gathers all non-canceled billing events for a given
-  -- YEAR_MONTH in yyyy-MM format.
+  -- This query gathers all non-canceled billing events with a billingTime
+  -- between FIRST_TIMESTAMP and LAST_TIMESTAMP, which span a month or a day.
 
 SELECT
   __key__.id AS id,
@@ -90,8 +90,8 @@ LEFT JOIN (
 ) AS Cancellation
 ON BillingEvent.cancellationMatchingPath = Cancellation.cancelledEventPath
 AND BillingEvent.billingTime = Cancellation.cancellationBillingTime
-WHERE billingTime BETWEEN TIMESTAMP('%FIRST_TIMESTAMP_OF_MONTH%')
-  AND TIMESTAMP('%LAST_TIMESTAMP_OF_MONTH%')
+WHERE billingTime BETWEEN TIMESTAMP('%FIRST_TIMESTAMP%')
+  AND TIMESTAMP('%LAST_TIMESTAMP%')
 -- Filter out canceled events
 AND Cancellation.cancellationId IS NULL
 ORDER BY
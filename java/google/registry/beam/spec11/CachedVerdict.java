@@ -0,0 +1,81 @@
+// Copyright 2018 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.beam.spec11;
+
+import com.google.auto.value.AutoValue;
+import java.io.Serializable;
+import javax.annotation.Nullable;
+import org.joda.time.Instant;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * A remotely confirmed SafeBrowsing verdict for a single domain, which can be reused by later
+ * pipeline runs until it expires.
+ *
+ * <p>Verdicts are stored one JSON object per line, so that they can be read and written with
+ * {@code TextIO}.
+ */
+@AutoValue
+public abstract class CachedVerdict implements Serializable {
+
+  private static final String DOMAIN_FIELD = "fullyQualifiedDomainName";
+  private static final String EXPIRATION_FIELD = "expirationTime";
+  private static final String THREAT_MATCH_FIELD = "threatMatch";
+
+  /** Returns the fully qualified domain name [SLD].[TLD] this verdict is for. */
+  abstract String fullyQualifiedDomainName();
+  /** Returns the threat the domain was confirmed to be on a list for, or null if it was safe. */
+  @Nullable
+  abstract ThreatMatch threatMatch();
+  /** Returns when this verdict stops being reused. */
+  abstract Instant expirationTime();
+
+  static CachedVerdict create(
+      String fullyQualifiedDomainName,
+      @Nullable ThreatMatch threatMatch,
+      Instant expirationTime) {
+    return new AutoValue_CachedVerdict(fullyQualifiedDomainName, threatMatch, expirationTime);
+  }
+
+  /**
+   * Parses a {@link CachedVerdict} from its stored JSON form.
+   *
+   * @throws JSONException when the line isn't a stored verdict
+   */
+  static CachedVerdict parse(String line) throws JSONException {
+    JSONObject verdict = new JSONObject(line);
+    String fullyQualifiedDomainName = verdict.getString(DOMAIN_FIELD);
+    return create(
+        fullyQualifiedDomainName,
+        verdict.has(THREAT_MATCH_FIELD)
+            ? ThreatMatch.create(
+                verdict.getJSONObject(THREAT_MATCH_FIELD), fullyQualifiedDomainName)
+            : null,
+        new Instant(verdict.getLong(EXPIRATION_FIELD)));
+  }
+
+  /** Returns the stored JSON form of this verdict. */
+  String toJSONString() throws JSONException {
+    JSONObject verdict =
+        new JSONObject()
+            .put(DOMAIN_FIELD, fullyQualifiedDomainName())
+            .put(EXPIRATION_FIELD, expirationTime().getMillis());
+    if (threatMatch() != null) {
+      verdict.put(THREAT_MATCH_FIELD, threatMatch().toApiJSON());
+    }
+    return verdict.toString();
+  }
+}
@@ -0,0 +1,135 @@
+// Copyright 2018 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.beam.spec11;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.common.primitives.UnsignedBytes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * Compact, sorted in-memory set of SafeBrowsing hash prefixes.
+ *
+ * <p>The prefixes of each length are sorted as unsigned byte strings, concatenated into a single
+ * byte array, and looked up by binary search. A 4-byte prefix, by far the most common length, thus
+ * takes 4 bytes of heap instead of a hex {@code String} plus a hash set entry, which matters when
+ * the threat lists hold millions of prefixes on every worker.
+ */
+@Immutable
+final class HashPrefixSet {
+
+  private static final Comparator<byte[]> UNSIGNED_ORDER =
+      UnsignedBytes.lexicographicalComparator();
+
+  /** The distinct lengths of the prefixes in bytes, in ascending order. */
+  private final int[] lengths;
+
+  /** The sorted, distinct prefixes of each length in {@link #lengths}, concatenated. */
+  private final byte[][] sortedPrefixes;
+
+  private HashPrefixSet(int[] lengths, byte[][] sortedPrefixes) {
+    this.lengths = lengths;
+    this.sortedPrefixes = sortedPrefixes;
+  }
+
+  static HashPrefixSet create(Iterable<byte[]> prefixes) {
+    Map<Integer, List<byte[]>> prefixesByLength = new TreeMap<>();
+    for (byte[] prefix : prefixes) {
+      checkArgument(prefix.length > 0, "Hash prefixes can't be empty");
+      prefixesByLength.computeIfAbsent(prefix.length, length -> new ArrayList<>()).add(prefix);
+    }
+    int[] lengths = new int[prefixesByLength.size()];
+    byte[][] sortedPrefixes = new byte[prefixesByLength.size()][];
+    int i = 0;
+    for (Map.Entry<Integer, List<byte[]>> entry : prefixesByLength.entrySet()) {
+      lengths[i] = entry.getKey();
+      sortedPrefixes[i] = sortAndConcatenate(entry.getValue(), entry.getKey());
+      i++;
+    }
+    return new HashPrefixSet(lengths, sortedPrefixes);
+  }
+
+  /** Sorts prefixes of the same length, drops duplicates, and concatenates them. */
+  private static byte[] sortAndConcatenate(List<byte[]> prefixes, int length) {
+    prefixes.sort(UNSIGNED_ORDER);
+    byte[] concatenated = new byte[prefixes.size() * length];
+    int size = 0;
+    byte[] previous = null;
+    for (byte[] prefix : prefixes) {
+      if (previous == null || UNSIGNED_ORDER.compare(previous, prefix) != 0) {
+        System.arraycopy(prefix, 0, concatenated, size * length, length);
+        size++;
+      }
+      previous = prefix;
+    }
+    return (size * length == concatenated.length)
+        ? concatenated
+        : Arrays.copyOf(concatenated, size * length);
+  }
+
+  /** Returns the number of distinct prefixes in the set. */
+  int size() {
+    int size = 0;
+    for (int i = 0; i < lengths.length; i++) {
+      size += sortedPrefixes[i].length / lengths[i];
+    }
+    return size;
+  }
+
+  /** Returns {@code true} if the given full hash starts with any prefix in the set. */
+  boolean matches(byte[] fullHash) {
+    for (int i = 0; i < lengths.length && lengths[i] <= fullHash.length; i++) {
+      if (contains(sortedPrefixes[i], lengths[i], fullHash)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /** Binary searches the concatenated prefixes of the given length for the start of the hash. */
+  private static boolean contains(byte[] prefixes, int length, byte[] fullHash) {
+    int low = 0;
+    int high = prefixes.length / length - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      int comparison = compare(prefixes, mid * length, fullHash, length);
+      if (comparison < 0) {
+        low = mid + 1;
+      } else if (comparison > 0) {
+        high = mid - 1;
+      } else {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /** Compares a prefix, starting at the given offset, to the start of the hash, as unsigned. */
+  private static int compare(byte[] prefixes, int offset, byte[] fullHash, int length) {
+    for (int i = 0; i < length; i++) {
+      int comparison = UnsignedBytes.compare(prefixes[offset + i], fullHash[i]);
+      if (comparison != 0) {
+        return comparison;
+      }
+    }
+    return 0;
+  }
+}
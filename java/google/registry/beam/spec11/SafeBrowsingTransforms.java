@@ -14,26 +14,40 @@
 
 package google.registry.beam.spec11;
 
-
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.collect.ImmutableSet.toImmutableSet;
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.apache.http.HttpStatus.SC_OK;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Streams;
 import com.google.common.flogger.FluentLogger;
 import com.google.common.io.CharStreams;
 import google.registry.util.Retrier;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.Serializable;
+import java.math.BigDecimal;
 import java.net.URISyntaxException;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
 import java.util.function.Supplier;
+import javax.annotation.Nullable;
+import org.apache.beam.sdk.metrics.Counter;
+import org.apache.beam.sdk.metrics.Metrics;
 import org.apache.beam.sdk.options.ValueProvider;
 import org.apache.beam.sdk.transforms.DoFn;
 import org.apache.beam.sdk.transforms.windowing.GlobalWindow;
 import org.apache.beam.sdk.values.KV;
+import org.apache.beam.sdk.values.PCollectionView;
+import org.apache.beam.sdk.values.TupleTag;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.utils.URIBuilder;
@@ -42,6 +56,7 @@ import org.apache.http.entity.ContentType;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClients;
 import org.apache.http.protocol.HTTP;
+import org.joda.time.Duration;
 import org.joda.time.Instant;
 import org.json.JSONArray;
 import org.json.JSONException;
@@ -56,6 +71,78 @@ public class SafeBrowsingTransforms {
   private static final String SAFE_BROWSING_URL =
       "https://safebrowsing.googleapis.com/v4/threatMatches:find";
 
+  /** The URL to send SafeBrowsing full hash lookups (POSTS) to. */
+  private static final String FULL_HASHES_URL =
+      "https://safebrowsing.googleapis.com/v4/fullHashes:find";
+
+  /** The threat types we check subdomains against. */
+  static final ImmutableList<String> THREAT_TYPES =
+      ImmutableList.of("MALWARE", "SOCIAL_ENGINEERING", "UNWANTED_SOFTWARE");
+
+  /**
+   * Returns a serializable supplier of default HTTP clients.
+   *
+   * <p>The (Supplier & Serializable) dual cast is safe because class methods are generally
+   * serializable, especially a static function such as {@link HttpClients#createDefault()}.
+   */
+  @SuppressWarnings("unchecked")
+  static Supplier<CloseableHttpClient> createDefaultHttpClientSupplier() {
+    return (Supplier & Serializable) HttpClients::createDefault;
+  }
+
+  /** Parses a duration in the SafeBrowsing API's format, which is seconds suffixed by "s". */
+  static Duration parseApiDuration(String duration) {
+    checkArgument(duration.endsWith("s"), "Invalid SafeBrowsing API duration: %s", duration);
+    return Duration.millis(
+        new BigDecimal(duration.substring(0, duration.length() - 1)).movePointRight(3).longValue());
+  }
+
+  /** Returns the JSON object identifying us to the SafeBrowsing API. */
+  static JSONObject createClientInfo() throws JSONException {
+    return new JSONObject().put("clientId", "domainregistry").put("clientVersion", "0.0.1");
+  }
+
+  /**
+   * POSTs a JSON request to a SafeBrowsing API method, retrying transient failures, and returns
+   * the response body, or empty if the API responded with an unexpected status code.
+   */
+  static Optional<JSONObject> postToSafeBrowsingApi(
+      String url,
+      String apiKey,
+      JSONObject requestBody,
+      Supplier<CloseableHttpClient> closeableHttpClientSupplier,
+      Retrier retrier) {
+    try {
+      URIBuilder uriBuilder = new URIBuilder(url);
+      // Add the API key param
+      uriBuilder.addParameter("key", apiKey);
+
+      HttpPost httpPost = new HttpPost(uriBuilder.build());
+      httpPost.addHeader(HTTP.CONTENT_TYPE, ContentType.APPLICATION_JSON.toString());
+      httpPost.setEntity(new ByteArrayEntity(requestBody.toString().getBytes(UTF_8)));
+      // Retry transient exceptions such as IOException
+      return retrier.callWithRetry(
+          () -> {
+            try (CloseableHttpClient client = closeableHttpClientSupplier.get();
+                CloseableHttpResponse response = client.execute(httpPost)) {
+              int statusCode = response.getStatusLine().getStatusCode();
+              if (statusCode != SC_OK) {
+                logger.atWarning().log("Got unexpected status code %s from response", statusCode);
+                return Optional.<JSONObject>empty();
+              }
+              return Optional.of(
+                  new JSONObject(
+                      CharStreams.toString(
+                          new InputStreamReader(response.getEntity().getContent(), UTF_8))));
+            }
+          },
+          IOException.class);
+    } catch (URISyntaxException e) {
+      // Fail the pipeline on a parsing exception- this indicates the API likely changed.
+      throw new RuntimeException("Caught parsing exception, failing pipeline.", e);
+    }
+  }
+
   /**
    * {@link DoFn} mapping a {@link Subdomain} to its evaluation report from SafeBrowsing.
    *
@@ -195,18 +282,11 @@ public class SafeBrowsingTransforms {
       }
       // Construct the JSON request body
       return new JSONObject()
-          .put(
-              "client",
-              new JSONObject().put("clientId", "domainregistry").put("clientVersion", "0.0.1"))
+          .put("client", createClientInfo())
           .put(
               "threatInfo",
               new JSONObject()
-                  .put(
-                      "threatTypes",
-                      new JSONArray()
-                          .put("MALWARE")
-                          .put("SOCIAL_ENGINEERING")
-                          .put("UNWANTED_SOFTWARE"))
+                  .put("threatTypes", new JSONArray(THREAT_TYPES))
                   .put("platformTypes", new JSONArray().put("ANY_PLATFORM"))
                   .put("threatEntryTypes", new JSONArray().put("URL"))
                   .put("threatEntries", threatArray));
@@ -246,4 +326,237 @@ public class SafeBrowsingTransforms {
       }
     }
   }
+
+  /**
+   * {@link DoFn} mapping a {@link Subdomain} to its evaluation report from SafeBrowsing, using a
+   * local {@link ThreatListDatabase} so that only subdomains matching a hash prefix on a threat
+   * list are looked up remotely.
+   *
+   * <p>Remote lookups reuse any unexpired {@link CachedVerdict} for the subdomain from the given
+   * side input. Every verdict used, whether reused or newly confirmed, is emitted to {@link
+   * #VERDICTS} so that it can be cached for later runs. Subdomains with no prefix match are always
+   * evaluated against the freshly synced lists, so their (safe) verdicts aren't cached.
+   *
+   * <p>New verdicts expire after the cache duration the API returned for them, or after the
+   * configured verdict TTL if that is shorter, as the API's terms don't allow reusing them longer.
+   *
+   * @see <a href=https://developers.google.com/safe-browsing/v4/update-api>Update API</a>
+   */
+  static class EvaluateSafeBrowsingLocallyFn extends DoFn<Subdomain, KV<Subdomain, ThreatMatch>> {
+
+    /** The main output, holding each subdomain confirmed to be on a threat list. */
+    static final TupleTag<KV<Subdomain, ThreatMatch>> THREAT_MATCHES =
+        new TupleTag<KV<Subdomain, ThreatMatch>>() {};
+
+    /** The additional output, holding every verdict that should be cached. */
+    static final TupleTag<CachedVerdict> VERDICTS = new TupleTag<CachedVerdict>() {};
+
+    /** Max number of full hashes we look up in a single query. */
+    private static final int BATCH_SIZE = 490;
+
+    private final Counter prefixMisses =
+        Metrics.counter(EvaluateSafeBrowsingLocallyFn.class, "prefixMisses");
+    private final Counter cachedVerdictsReused =
+        Metrics.counter(EvaluateSafeBrowsingLocallyFn.class, "cachedVerdictsReused");
+    private final Counter remoteLookups =
+        Metrics.counter(EvaluateSafeBrowsingLocallyFn.class, "remoteLookups");
+
+    private final ThreatListDatabase threatListDatabase;
+    private final PCollectionView<Map<String, Iterable<CachedVerdict>>> cachedVerdictsView;
+    private final Duration verdictTtl;
+
+    /** Provides the SafeBrowsing API key at runtime. */
+    private final ValueProvider<String> apiKeyProvider;
+
+    /** Provides the HTTP client we use to interact with the SafeBrowsing API. */
+    private final Supplier<CloseableHttpClient> closeableHttpClientSupplier;
+
+    /** Retries on receiving transient failures such as {@link IOException}. */
+    private final Retrier retrier;
+
+    /** Maps each subdomain awaiting a remote lookup to its full hashes that matched a prefix. */
+    private final Map<Subdomain, ImmutableSet<String>> pendingLookups =
+        new LinkedHashMap<>(BATCH_SIZE);
+
+    /**
+     * Constructs a {@link EvaluateSafeBrowsingLocallyFn}.
+     *
+     * @param cachedVerdictsView the previously cached verdicts, keyed by domain name
+     * @param verdictTtl the longest newly confirmed verdicts are reused for
+     * @param apiKeyProvider provides the SafeBrowsing API key from {@code KMS} at runtime
+     * @param closeableHttpClientSupplier a serializable CloseableHttpClient supplier
+     */
+    EvaluateSafeBrowsingLocallyFn(
+        ThreatListDatabase threatListDatabase,
+        PCollectionView<Map<String, Iterable<CachedVerdict>>> cachedVerdictsView,
+        Duration verdictTtl,
+        ValueProvider<String> apiKeyProvider,
+        Retrier retrier,
+        Supplier<CloseableHttpClient> closeableHttpClientSupplier) {
+      this.threatListDatabase = threatListDatabase;
+      this.cachedVerdictsView = cachedVerdictsView;
+      this.verdictTtl = verdictTtl;
+      this.apiKeyProvider = apiKeyProvider;
+      this.retrier = retrier;
+      this.closeableHttpClientSupplier = closeableHttpClientSupplier;
+    }
+
+    /**
+     * Syncs the local threat lists, reusing the ones already synced in this JVM if they're recent.
+     *
+     * @see ThreatListDatabase#sync
+     */
+    @Setup
+    public void setup() throws IOException {
+      threatListDatabase.sync();
+    }
+
+    /** Looks up any buffered {@link Subdomain} objects upon completing the bundle. */
+    @FinishBundle
+    public void finishBundle(FinishBundleContext context) {
+      if (!pendingLookups.isEmpty()) {
+        lookUpAndFlush()
+            .forEach(
+                (subdomain, verdict) -> {
+                  context.output(VERDICTS, verdict, Instant.now(), GlobalWindow.INSTANCE);
+                  if (verdict.threatMatch() != null) {
+                    context.output(
+                        KV.of(subdomain, verdict.threatMatch()),
+                        Instant.now(),
+                        GlobalWindow.INSTANCE);
+                  }
+                });
+      }
+    }
+
+    /**
+     * Checks a {@link Subdomain} against the local threat lists, and buffers it for a remote
+     * lookup if it matches a prefix and has no unexpired cached verdict.
+     */
+    @ProcessElement
+    public void processElement(ProcessContext context) {
+      Subdomain subdomain = context.element();
+      ImmutableSet<String> prefixMatches =
+          threatListDatabase.getPrefixMatches(subdomain.fullyQualifiedDomainName());
+      if (prefixMatches.isEmpty()) {
+        prefixMisses.inc();
+        return;
+      }
+      Optional<CachedVerdict> cachedVerdict =
+          Streams.stream(
+                  context
+                      .sideInput(cachedVerdictsView)
+                      .getOrDefault(subdomain.fullyQualifiedDomainName(), ImmutableList.of()))
+              .filter(verdict -> verdict.expirationTime().isAfterNow())
+              .max(Comparator.comparing(CachedVerdict::expirationTime));
+      if (cachedVerdict.isPresent()) {
+        cachedVerdictsReused.inc();
+        outputVerdict(context, subdomain, cachedVerdict.get());
+        return;
+      }
+      pendingLookups.put(subdomain, prefixMatches);
+      if (pendingLookups.size() >= BATCH_SIZE) {
+        lookUpAndFlush().forEach((pending, verdict) -> outputVerdict(context, pending, verdict));
+      }
+    }
+
+    private void outputVerdict(ProcessContext context, Subdomain subdomain, CachedVerdict verdict) {
+      context.output(VERDICTS, verdict);
+      if (verdict.threatMatch() != null) {
+        context.output(KV.of(subdomain, verdict.threatMatch()));
+      }
+    }
+
+    /**
+     * Looks up the full hashes of all buffered {@link Subdomain} objects and returns the
+     * resulting verdict for each of them.
+     *
+     * <p>If the lookup fails, the buffered subdomains get no verdict, and so neither emit a
+     * report nor are cached.
+     */
+    private ImmutableMap<Subdomain, CachedVerdict> lookUpAndFlush() {
+      try {
+        remoteLookups.inc(pendingLookups.size());
+        Optional<JSONObject> responseBody =
+            postToSafeBrowsingApi(
+                FULL_HASHES_URL,
+                apiKeyProvider.get(),
+                createRequestBody(),
+                closeableHttpClientSupplier,
+                retrier);
+        if (!responseBody.isPresent()) {
+          return ImmutableMap.of();
+        }
+        // An empty response means none of the full hashes are on a threat list.
+        Map<String, JSONObject> matchesByHash = new HashMap<>();
+        JSONArray threatMatches = responseBody.get().optJSONArray("matches");
+        for (int i = 0; threatMatches != null && i < threatMatches.length(); i++) {
+          JSONObject match = threatMatches.getJSONObject(i);
+          matchesByHash.put(match.getJSONObject("threat").getString("hash"), match);
+        }
+        Instant now = Instant.now();
+        Instant safeExpirationTime =
+            now.plus(getVerdictTtl(responseBody.get().optString("negativeCacheDuration", null)));
+        ImmutableMap.Builder<Subdomain, CachedVerdict> verdicts = new ImmutableMap.Builder<>();
+        for (Map.Entry<Subdomain, ImmutableSet<String>> entry : pendingLookups.entrySet()) {
+          String fullyQualifiedDomainName = entry.getKey().fullyQualifiedDomainName();
+          Optional<JSONObject> match =
+              entry
+                  .getValue()
+                  .stream()
+                  .filter(matchesByHash::containsKey)
+                  .findFirst()
+                  .map(matchesByHash::get);
+          verdicts.put(
+              entry.getKey(),
+              CachedVerdict.create(
+                  fullyQualifiedDomainName,
+                  match.isPresent()
+                      ? ThreatMatch.create(match.get(), fullyQualifiedDomainName)
+                      : null,
+                  match.isPresent()
+                      ? now.plus(getVerdictTtl(match.get().optString("cacheDuration", null)))
+                      : safeExpirationTime));
+        }
+        return verdicts.build();
+      } catch (JSONException e) {
+        // Fail the pipeline on a parsing exception- this indicates the API likely changed.
+        throw new RuntimeException("Caught parsing exception, failing pipeline.", e);
+      } finally {
+        // Flush the buffer
+        pendingLookups.clear();
+      }
+    }
+
+    /**
+     * Returns how long to reuse a verdict that the API allows to be cached for the given duration,
+     * which is not at all if the API didn't say.
+     */
+    private Duration getVerdictTtl(@Nullable String cacheDuration) {
+      if (cacheDuration == null) {
+        return Duration.ZERO;
+      }
+      Duration apiTtl = parseApiDuration(cacheDuration);
+      return apiTtl.isShorterThan(verdictTtl) ? apiTtl : verdictTtl;
+    }
+
+    /** Creates a JSON object matching the request format for full hash lookups. */
+    private JSONObject createRequestBody() throws JSONException {
+      JSONArray threatEntries = new JSONArray();
+      for (String fullHash :
+          pendingLookups.values().stream().flatMap(Set::stream).collect(toImmutableSet())) {
+        threatEntries.put(new JSONObject().put("hash", fullHash));
+      }
+      return new JSONObject()
+          .put("client", createClientInfo())
+          .put("clientStates", new JSONArray())
+          .put(
+              "threatInfo",
+              new JSONObject()
+                  .put("threatTypes", new JSONArray(THREAT_TYPES))
+                  .put("platformTypes", new JSONArray().put("ANY_PLATFORM"))
+                  .put("threatEntryTypes", new JSONArray().put("URL"))
+                  .put("threatEntries", threatEntries));
+    }
+  }
 }
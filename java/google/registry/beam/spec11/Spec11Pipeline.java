@@ -15,18 +15,23 @@
 package google.registry.beam.spec11;
 
 import static google.registry.beam.BeamUtils.getQueryFromFile;
+import static google.registry.beam.spec11.SafeBrowsingTransforms.createDefaultHttpClientSupplier;
 
 import google.registry.beam.spec11.SafeBrowsingTransforms.EvaluateSafeBrowsingFn;
+import google.registry.beam.spec11.SafeBrowsingTransforms.EvaluateSafeBrowsingLocallyFn;
 import google.registry.config.RegistryConfig.Config;
 import google.registry.util.Retrier;
 import google.registry.util.SqlTemplate;
 import java.io.Serializable;
+import java.util.Map;
+import java.util.function.Supplier;
 import javax.inject.Inject;
 import org.apache.beam.runners.dataflow.DataflowRunner;
 import org.apache.beam.runners.dataflow.options.DataflowPipelineOptions;
 import org.apache.beam.sdk.Pipeline;
 import org.apache.beam.sdk.coders.SerializableCoder;
 import org.apache.beam.sdk.io.TextIO;
+import org.apache.beam.sdk.io.fs.EmptyMatchTreatment;
 import org.apache.beam.sdk.io.gcp.bigquery.BigQueryIO;
 import org.apache.beam.sdk.options.Description;
 import org.apache.beam.sdk.options.PipelineOptionsFactory;
@@ -35,10 +40,16 @@ import org.apache.beam.sdk.options.ValueProvider.NestedValueProvider;
 import org.apache.beam.sdk.transforms.GroupByKey;
 import org.apache.beam.sdk.transforms.MapElements;
 import org.apache.beam.sdk.transforms.ParDo;
+import org.apache.beam.sdk.transforms.View;
 import org.apache.beam.sdk.values.KV;
 import org.apache.beam.sdk.values.PCollection;
+import org.apache.beam.sdk.values.PCollectionTuple;
+import org.apache.beam.sdk.values.PCollectionView;
+import org.apache.beam.sdk.values.TupleTagList;
 import org.apache.beam.sdk.values.TypeDescriptor;
 import org.apache.beam.sdk.values.TypeDescriptors;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.joda.time.Duration;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -71,6 +82,14 @@ public class Spec11Pipeline implements Serializable {
   @Config("spec11BucketUrl")
   String spec11BucketUrl;
 
+  @Inject
+  @Config("spec11UseLocalThreatLists")
+  boolean useLocalThreatLists;
+
+  @Inject
+  @Config("spec11VerdictCacheTtl")
+  Duration verdictCacheTtl;
+
   @Inject
   Retrier retrier;
 
@@ -131,10 +150,21 @@ public class Spec11Pipeline implements Serializable {
                 .withoutValidation()
                 .withTemplateCompatibility());
 
-    evaluateUrlHealth(
-        domains,
-        new EvaluateSafeBrowsingFn(options.getSafeBrowsingApiKey(), retrier),
-        options.getYearMonth());
+    if (useLocalThreatLists) {
+      Supplier<CloseableHttpClient> httpClientSupplier = createDefaultHttpClientSupplier();
+      evaluateUrlHealthLocally(
+          domains,
+          new UpdateApiThreatListDatabase(
+              options.getSafeBrowsingApiKey(), retrier, httpClientSupplier),
+          options.getSafeBrowsingApiKey(),
+          httpClientSupplier,
+          options.getYearMonth());
+    } else {
+      evaluateUrlHealth(
+          domains,
+          new EvaluateSafeBrowsingFn(options.getSafeBrowsingApiKey(), retrier),
+          options.getYearMonth());
+    }
     p.run();
   }
 
@@ -147,8 +177,94 @@ public class Spec11Pipeline implements Serializable {
       PCollection<Subdomain> domains,
       EvaluateSafeBrowsingFn evaluateSafeBrowsingFn,
       ValueProvider<String> yearMonthProvider) {
-    domains
-        .apply("Run through SafeBrowsingAPI", ParDo.of(evaluateSafeBrowsingFn))
+    writeReport(
+        domains.apply("Run through SafeBrowsingAPI", ParDo.of(evaluateSafeBrowsingFn)),
+        yearMonthProvider);
+  }
+
+  /**
+   * Evaluate each {@link Subdomain} URL against a local copy of the SafeBrowsing threat lists,
+   * only calling the API to confirm hash prefix matches.
+   *
+   * <p>Confirmed verdicts are cached on GCS, and reused by later runs for as long as the API
+   * allows, but at most for {@link #verdictCacheTtl}.
+   *
+   * <p>This is factored out to facilitate testing.
+   */
+  void evaluateUrlHealthLocally(
+      PCollection<Subdomain> domains,
+      ThreatListDatabase threatListDatabase,
+      ValueProvider<String> apiKeyProvider,
+      Supplier<CloseableHttpClient> httpClientSupplier,
+      ValueProvider<String> yearMonthProvider) {
+    // The cache is fully read (as a side input) before any verdicts are written back to it.
+    String verdictCacheUrl = String.format("%s/verdict_cache/verdicts", spec11BucketUrl);
+    PCollectionView<Map<String, Iterable<CachedVerdict>>> cachedVerdicts =
+        domains
+            .getPipeline()
+            .apply(
+                "Read cached verdicts",
+                TextIO.read()
+                    .from(verdictCacheUrl)
+                    .withEmptyMatchTreatment(EmptyMatchTreatment.ALLOW))
+            .apply(
+                "Parse cached verdicts",
+                MapElements.into(
+                        TypeDescriptors.kvs(
+                            TypeDescriptors.strings(), TypeDescriptor.of(CachedVerdict.class)))
+                    .via(
+                        (String line) -> {
+                          try {
+                            CachedVerdict verdict = CachedVerdict.parse(line);
+                            return KV.of(verdict.fullyQualifiedDomainName(), verdict);
+                          } catch (JSONException e) {
+                            throw new RuntimeException(
+                                String.format("Encountered an error parsing verdict %s", line),
+                                e);
+                          }
+                        }))
+            .apply("Index cached verdicts by domain", View.asMultimap());
+    PCollectionTuple results =
+        domains.apply(
+            "Match against local threat lists",
+            ParDo.of(
+                    new EvaluateSafeBrowsingLocallyFn(
+                        threatListDatabase,
+                        cachedVerdicts,
+                        verdictCacheTtl,
+                        apiKeyProvider,
+                        retrier,
+                        httpClientSupplier))
+                .withSideInputs(cachedVerdicts)
+                .withOutputTags(
+                    EvaluateSafeBrowsingLocallyFn.THREAT_MATCHES,
+                    TupleTagList.of(EvaluateSafeBrowsingLocallyFn.VERDICTS)));
+    results
+        .get(EvaluateSafeBrowsingLocallyFn.VERDICTS)
+        .setCoder(SerializableCoder.of(CachedVerdict.class))
+        .apply(
+            "Convert verdicts to JSON format",
+            MapElements.into(TypeDescriptors.strings())
+                .via(
+                    (CachedVerdict verdict) -> {
+                      try {
+                        return verdict.toJSONString();
+                      } catch (JSONException e) {
+                        throw new RuntimeException(
+                            String.format(
+                                "Encountered an error constructing the JSON for %s", verdict),
+                            e);
+                      }
+                    }))
+        .apply("Write verdict cache", TextIO.write().to(verdictCacheUrl).withoutSharding());
+    writeReport(results.get(EvaluateSafeBrowsingLocallyFn.THREAT_MATCHES), yearMonthProvider);
+  }
+
+  /** Writes the report of all threat matches, grouped by registrar email address. */
+  private void writeReport(
+      PCollection<KV<Subdomain, ThreatMatch>> threatMatches,
+      ValueProvider<String> yearMonthProvider) {
+    threatMatches
         .apply(
             "Map registrar e-mail to ThreatMatch",
             MapElements.into(
@@ -0,0 +1,170 @@
+// Copyright 2018 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.beam.spec11;
+
+import static com.google.common.base.Preconditions.checkState;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.auto.value.AutoValue;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.hash.Hashing;
+import com.google.common.io.BaseEncoding;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.annotation.concurrent.GuardedBy;
+import org.joda.time.Duration;
+import org.joda.time.Instant;
+
+/**
+ * A local copy of the SafeBrowsing threat lists, held as the SHA-256 hash prefixes of the URL
+ * expressions on the lists.
+ *
+ * <p>A subdomain none of whose host expressions match a prefix is not on any list, so it can be
+ * declared safe without calling the API. Only prefix hits have to be confirmed remotely, by
+ * looking up their full hashes.
+ *
+ * <p>The prefixes are loaded by {@link #sync} on each worker, so only the information needed to
+ * fetch them is serialized with the pipeline. They are shared by all databases in a JVM that fetch
+ * the same lists, so that each worker only fetches them once per run.
+ *
+ * @see <a href=https://developers.google.com/safe-browsing/v4/update-api>Update API</a>
+ */
+public abstract class ThreatListDatabase implements Serializable {
+
+  private static final long serialVersionUID = 3725938563721384920L;
+
+  /** The most host suffixes a URL is checked with, per the SafeBrowsing URL hashing rules. */
+  private static final int MAX_HOST_EXPRESSIONS = 5;
+
+  /** How long synced prefixes are reused for, unless the API asks us to wait longer. */
+  private static final Duration RESYNC_INTERVAL = Duration.standardMinutes(30);
+
+  /** The prefixes most recently synced in this JVM, keyed by {@link #getListsId}. */
+  @GuardedBy("SYNCED_PREFIXES")
+  private static final Map<String, SyncedPrefixes> SYNCED_PREFIXES = new HashMap<>();
+
+  /** The hash prefixes on the threat lists. */
+  private transient HashPrefixSet prefixes;
+
+  /** Returns an identifier of the threat lists fetched, shared by databases fetching the same. */
+  abstract String getListsId();
+
+  /** Fetches the hash prefixes of all threat lists we check against. */
+  abstract HashPrefixes fetchHashPrefixes() throws IOException;
+
+  /**
+   * Replaces the local hash prefixes with the ones currently on the threat lists.
+   *
+   * <p>The lists are only fetched if this JVM hasn't synced them within the last {@link
+   * #RESYNC_INTERVAL}, and never before the minimum wait duration the API last returned has
+   * passed. Otherwise the prefixes already synced are reused.
+   */
+  void sync() throws IOException {
+    SyncedPrefixes synced;
+    synchronized (SYNCED_PREFIXES) {
+      synced = SYNCED_PREFIXES.get(getListsId());
+      if (synced == null || !synced.nextSyncTime().isAfterNow()) {
+        HashPrefixes fetched = fetchHashPrefixes();
+        Duration reuseDuration =
+            fetched.minimumWaitDuration().isLongerThan(RESYNC_INTERVAL)
+                ? fetched.minimumWaitDuration()
+                : RESYNC_INTERVAL;
+        synced = SyncedPrefixes.create(fetched.prefixes(), Instant.now().plus(reuseDuration));
+        SYNCED_PREFIXES.put(getListsId(), synced);
+      }
+    }
+    prefixes = synced.prefixes();
+  }
+
+  /** Forgets the prefixes synced in this JVM, so that the next sync fetches them again. */
+  @VisibleForTesting
+  static void clearSyncedPrefixes() {
+    synchronized (SYNCED_PREFIXES) {
+      SYNCED_PREFIXES.clear();
+    }
+  }
+
+  /**
+   * Returns the full hashes of the given domain's host expressions whose prefixes are on a threat
+   * list, base64 encoded as they are in SafeBrowsing API requests and responses.
+   */
+  ImmutableSet<String> getPrefixMatches(String fullyQualifiedDomainName) {
+    checkState(prefixes != null, "The threat list database hasn't been synced");
+    ImmutableSet.Builder<String> matches = new ImmutableSet.Builder<>();
+    for (String expression : getHostExpressions(fullyQualifiedDomainName)) {
+      byte[] fullHash = hashExpression(expression);
+      if (prefixes.matches(fullHash)) {
+        matches.add(BaseEncoding.base64().encode(fullHash));
+      }
+    }
+    return matches.build();
+  }
+
+  /**
+   * Returns the canonical host expressions SafeBrowsing checks a bare domain name with: the host
+   * itself and up to four of its suffixes, excluding the TLD alone, each followed by "/".
+   */
+  static ImmutableList<String> getHostExpressions(String fullyQualifiedDomainName) {
+    List<String> labels = Arrays.asList(fullyQualifiedDomainName.toLowerCase().split("\\."));
+    ImmutableList.Builder<String> expressions = new ImmutableList.Builder<>();
+    expressions.add(String.join(".", labels) + "/");
+    for (int start = Math.max(1, labels.size() - MAX_HOST_EXPRESSIONS);
+        start < labels.size() - 1;
+        start++) {
+      expressions.add(String.join(".", labels.subList(start, labels.size())) + "/");
+    }
+    return expressions.build();
+  }
+
+  /** Returns the SHA-256 hash of a URL expression. */
+  static byte[] hashExpression(String expression) {
+    return Hashing.sha256().hashString(expression, UTF_8).asBytes();
+  }
+
+  /** The hash prefixes fetched from the threat lists, and how long to wait before refetching. */
+  @AutoValue
+  abstract static class HashPrefixes {
+
+    abstract ImmutableList<byte[]> prefixes();
+
+    abstract Duration minimumWaitDuration();
+
+    static HashPrefixes create(List<byte[]> prefixes, Duration minimumWaitDuration) {
+      return new AutoValue_ThreatListDatabase_HashPrefixes(
+          ImmutableList.copyOf(prefixes), minimumWaitDuration);
+    }
+  }
+
+  /** Hash prefixes synced in this JVM, indexed for lookups. */
+  @AutoValue
+  abstract static class SyncedPrefixes {
+
+    abstract HashPrefixSet prefixes();
+
+    /** The earliest time the prefixes may be fetched again. */
+    abstract Instant nextSyncTime();
+
+    static SyncedPrefixes create(List<byte[]> prefixes, Instant nextSyncTime) {
+      return new AutoValue_ThreatListDatabase_SyncedPrefixes(
+          HashPrefixSet.create(prefixes), nextSyncTime);
+    }
+  }
+}
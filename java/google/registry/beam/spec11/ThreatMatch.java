@@ -63,6 +63,22 @@ public abstract class ThreatMatch implements Serializable {
   String getSimpleDetails() {
     return String.format("%s;%s", this.fullyQualifiedDomainName(), this.threatType());
   }
+
+  /**
+   * Returns a {@link JSONObject} in the {@code SafeBrowsing API} response format, which can be
+   * parsed back with {@link #create}.
+   */
+  JSONObject toApiJSON() throws JSONException {
+    JSONObject threatMatchJSON =
+        new JSONObject()
+            .put(THREAT_TYPE_FIELD, threatType())
+            .put(PLATFORM_TYPE_FIELD, platformType());
+    if (!metadata().equals("NONE")) {
+      threatMatchJSON.put(METADATA_FIELD, new JSONObject(metadata()));
+    }
+    return threatMatchJSON;
+  }
+
   /** Returns a {@link JSONObject} representing a subset of this object's data. */
   JSONObject toJSON() throws JSONException {
     return new JSONObject()
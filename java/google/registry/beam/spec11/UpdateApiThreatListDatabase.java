@@ -0,0 +1,140 @@
+// Copyright 2018 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.beam.spec11;
+
+import static google.registry.beam.spec11.SafeBrowsingTransforms.THREAT_TYPES;
+import static google.registry.beam.spec11.SafeBrowsingTransforms.createClientInfo;
+import static google.registry.beam.spec11.SafeBrowsingTransforms.parseApiDuration;
+import static google.registry.beam.spec11.SafeBrowsingTransforms.postToSafeBrowsingApi;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.flogger.FluentLogger;
+import com.google.common.io.BaseEncoding;
+import google.registry.util.Retrier;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.function.Supplier;
+import org.apache.beam.sdk.options.ValueProvider;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.joda.time.Duration;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * A {@link ThreatListDatabase} synced from the SafeBrowsing Update API.
+ *
+ * <p>Each sync requests a full update of every list we check against, with uncompressed ("RAW")
+ * additions, so that no client state needs to be kept between pipeline runs. The lists' minimum
+ * wait duration is honored within a JVM, see {@link ThreatListDatabase#sync}.
+ *
+ * @see <a href=https://developers.google.com/safe-browsing/v4/update-api>Update API</a>
+ */
+class UpdateApiThreatListDatabase extends ThreatListDatabase {
+
+  private static final long serialVersionUID = 6029731743185063711L;
+
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  /** The URL to send SafeBrowsing threat list update requests (POSTs) to. */
+  private static final String THREAT_LIST_UPDATES_URL =
+      "https://safebrowsing.googleapis.com/v4/threatListUpdates:fetch";
+
+  private final ValueProvider<String> apiKeyProvider;
+  private final Retrier retrier;
+  private final Supplier<CloseableHttpClient> closeableHttpClientSupplier;
+
+  /**
+   * Constructs a {@link UpdateApiThreatListDatabase}.
+   *
+   * @param apiKeyProvider provides the SafeBrowsing API key from {@code KMS} at runtime
+   * @param closeableHttpClientSupplier a serializable CloseableHttpClient supplier
+   */
+  UpdateApiThreatListDatabase(
+      ValueProvider<String> apiKeyProvider,
+      Retrier retrier,
+      Supplier<CloseableHttpClient> closeableHttpClientSupplier) {
+    this.apiKeyProvider = apiKeyProvider;
+    this.retrier = retrier;
+    this.closeableHttpClientSupplier = closeableHttpClientSupplier;
+  }
+
+  @Override
+  String getListsId() {
+    return THREAT_LIST_UPDATES_URL;
+  }
+
+  @Override
+  HashPrefixes fetchHashPrefixes() throws IOException {
+    try {
+      JSONObject responseBody =
+          postToSafeBrowsingApi(
+                  THREAT_LIST_UPDATES_URL,
+                  apiKeyProvider.get(),
+                  createRequestBody(),
+                  closeableHttpClientSupplier,
+                  retrier)
+              .orElseThrow(() -> new IOException("Failed to fetch SafeBrowsing threat lists"));
+      ImmutableList.Builder<byte[]> prefixes = new ImmutableList.Builder<>();
+      JSONArray listUpdates = responseBody.getJSONArray("listUpdateResponses");
+      for (int i = 0; i < listUpdates.length(); i++) {
+        JSONObject listUpdate = listUpdates.getJSONObject(i);
+        if (!listUpdate.has("additions")) {
+          continue;
+        }
+        JSONArray additions = listUpdate.getJSONArray("additions");
+        for (int j = 0; j < additions.length(); j++) {
+          JSONObject rawHashes = additions.getJSONObject(j).getJSONObject("rawHashes");
+          int prefixSize = rawHashes.getInt("prefixSize");
+          byte[] concatenatedPrefixes =
+              BaseEncoding.base64().decode(rawHashes.getString("rawHashes"));
+          for (int start = 0; start < concatenatedPrefixes.length; start += prefixSize) {
+            prefixes.add(Arrays.copyOfRange(concatenatedPrefixes, start, start + prefixSize));
+          }
+        }
+        logger.atInfo().log(
+            "Synced SafeBrowsing list %s/%s.",
+            listUpdate.getString("threatType"), listUpdate.getString("platformType"));
+      }
+      return HashPrefixes.create(
+          prefixes.build(),
+          responseBody.has("minimumWaitDuration")
+              ? parseApiDuration(responseBody.getString("minimumWaitDuration"))
+              : Duration.ZERO);
+    } catch (JSONException e) {
+      // Fail the pipeline on a parsing exception- this indicates the API likely changed.
+      throw new RuntimeException("Caught parsing exception, failing pipeline.", e);
+    }
+  }
+
+  /** Creates a JSON object requesting a full update of every threat list we check against. */
+  private static JSONObject createRequestBody() throws JSONException {
+    JSONArray listUpdateRequests = new JSONArray();
+    for (String threatType : THREAT_TYPES) {
+      listUpdateRequests.put(
+          new JSONObject()
+              .put("threatType", threatType)
+              .put("platformType", "ANY_PLATFORM")
+              .put("threatEntryType", "URL")
+              .put("state", "")
+              .put(
+                  "constraints",
+                  new JSONObject().put("supportedCompressions", new JSONArray().put("RAW"))));
+    }
+    return new JSONObject()
+        .put("client", createClientInfo())
+        .put("listUpdateRequests", listUpdateRequests);
+  }
+}
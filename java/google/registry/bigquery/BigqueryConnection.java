@@ -83,6 +83,9 @@ public class BigqueryConnection implements AutoCloseable {
 
   private static final Duration MIN_POLL_INTERVAL = Duration.millis(500);
 
+  /** Longest interval that job status polling will back off to, unless polling starts slower. */
+  private static final Duration MAX_POLL_INTERVAL = Duration.standardSeconds(16);
+
   @NonFinalForTesting
   private static Sleeper sleeper = new SystemSleeper();
 
@@ -101,6 +104,9 @@ public class BigqueryConnection implements AutoCloseable {
   /** Executor service for bigquery jobs. */
   private ListeningExecutorService service;
 
+  /** Poller shared by all asynchronously run jobs to wait for their completion. */
+  private BigqueryJobPoller poller;
+
   /** Credential object to use for initializing HTTP requests to the bigquery API. */
   private HttpRequestInitializer credential;
 
@@ -119,7 +125,7 @@ public class BigqueryConnection implements AutoCloseable {
   /** Whether to automatically overwrite existing tables and views. */
   private boolean overwrite = false;
 
-  /** Duration to wait between polls for job status. */
+  /** Duration to wait before the first poll for job status, which then backs off exponentially. */
   private Duration pollInterval = Duration.millis(1000);
 
   /** Builder for a {@link BigqueryConnection}, since the latter is immutable once created. */
@@ -313,19 +319,23 @@ public class BigqueryConnection implements AutoCloseable {
     bigquery = new Bigquery.Builder(httpTransport, jsonFactory, credential)
         .setApplicationName(getClass().getSimpleName())
         .build();
+    poller = BigqueryJobPoller.create(bigquery, pollInterval, getMaxPollInterval());
     createDatasetIfNeeded(datasetId);
     createDatasetIfNeeded(TEMP_DATASET_NAME);
     return this;
   }
 
   /**
-   * Closes the BigqueryConnection object by shutting down the executor service.  Clients
-   * should only call this after all ListenableFutures obtained from BigqueryConnection methods
-   * have resolved; this method does not block on their completion.
+   * Closes the BigqueryConnection object by shutting down the executor service and the job poller.
+   * Clients should only call this after all ListenableFutures obtained from BigqueryConnection
+   * methods have resolved; this method does not block on their completion.
    */
   @Override
   public void close() {
     service.shutdown();
+    if (poller != null) {
+      poller.close();
+    }
   }
 
   /** Returns a partially built DestinationTable with the default dataset and overwrite behavior. */
@@ -614,12 +624,17 @@ public class BigqueryConnection implements AutoCloseable {
   /**
    * Synchronously waits for a job to complete that's already been launched.
    *
+   * <p>This polls from the calling thread rather than through the shared {@link BigqueryJobPoller}
+   * so that synchronous callers never cause a background thread to be spawned.
+   *
    * @throws BigqueryJobFailureException
    */
   private Job waitForJob(Job job) {
     verify(job.getStatus() != null);
+    Duration interval = pollInterval;
     while (!job.getStatus().getState().equals("DONE")) {
-      sleeper.sleepUninterruptibly(pollInterval);
+      sleeper.sleepUninterruptibly(interval);
+      interval = BigqueryJobPoller.nextPollInterval(interval, getMaxPollInterval());
       JobReference ref = job.getJobReference();
       try {
         job = bigquery.jobs().get(ref.getProjectId(), ref.getJobId()).execute();
@@ -671,15 +686,32 @@ public class BigqueryConnection implements AutoCloseable {
       final Job job,
       final T result,
       @Nullable final AbstractInputStreamContent data) {
-    return service.submit(
-        () -> {
-          runJob(job, data);
-          return result;
-        });
+    return transform(launchAndWaitForJob(job, data), completedJob -> result, directExecutor());
   }
 
   private ListenableFuture<Job> runJobToCompletion(final Job job) {
-    return service.submit(() -> runJob(job, null));
+    return launchAndWaitForJob(job, null);
+  }
+
+  /**
+   * Launches a job on the executor service and returns a future that yields it once it has
+   * completed without errors.
+   *
+   * <p>Waiting for completion is left to the shared {@link BigqueryJobPoller}, so no executor
+   * thread is tied up while the job runs; the completed job is checked on the executor service.
+   */
+  private ListenableFuture<Job> launchAndWaitForJob(
+      final Job job, @Nullable final AbstractInputStreamContent data) {
+    return transform(
+        transformAsync(
+            service.submit(() -> launchJob(job, data)), poller::waitForJob, directExecutor()),
+        BigqueryConnection::checkJob,
+        service);
+  }
+
+  /** Returns the interval that job status polling backs off to. */
+  private Duration getMaxPollInterval() {
+    return pollInterval.isLongerThan(MAX_POLL_INTERVAL) ? pollInterval : MAX_POLL_INTERVAL;
   }
 
   /** Helper that returns true if a dataset with this name exists. */
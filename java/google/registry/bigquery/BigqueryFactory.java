@@ -15,6 +15,8 @@
 package google.registry.bigquery;
 
 import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static com.google.common.collect.ImmutableSet.toImmutableSet;
 import static com.google.common.collect.Sets.newConcurrentHashSet;
 
 import com.google.api.client.extensions.appengine.http.UrlFetchTransport;
@@ -32,6 +34,7 @@ import com.google.api.services.bigquery.model.TableFieldSchema;
 import com.google.api.services.bigquery.model.TableReference;
 import com.google.api.services.bigquery.model.TableSchema;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.flogger.FluentLogger;
 import java.io.IOException;
 import java.util.List;
@@ -159,6 +162,59 @@ public class BigqueryFactory {
       if (!BigqueryJobFailureException.create(e).getReason().equals("duplicate")) {
         throw e;
       }
+      addMissingFields(bigquery, table, schema);
     }
   }
+
+  /**
+   * Adds any fields of the schema that are missing from an existing table.
+   *
+   * <p>Streaming inserts reject rows containing fields the table doesn't know about, so a table
+   * created before a column was added to its schema has to be patched before it can accept new
+   * rows. BigQuery only allows appending nullable columns, which is all this does; fields that
+   * were removed from or changed in the schema are left alone.
+   */
+  private void addMissingFields(
+      Bigquery bigquery, TableReference table, List<TableFieldSchema> schema) throws IOException {
+    Table existingTable =
+        bigquery
+            .tables()
+            .get(table.getProjectId(), table.getDatasetId(), table.getTableId())
+            .execute();
+    List<TableFieldSchema> existingFields =
+        existingTable.getSchema() == null || existingTable.getSchema().getFields() == null
+            ? ImmutableList.of()
+            : existingTable.getSchema().getFields();
+    ImmutableSet<String> existingNames =
+        existingFields.stream().map(TableFieldSchema::getName).collect(toImmutableSet());
+    ImmutableList<TableFieldSchema> missingFields =
+        schema
+            .stream()
+            .filter(field -> !existingNames.contains(field.getName()))
+            .collect(toImmutableList());
+    if (missingFields.isEmpty()) {
+      return;
+    }
+    bigquery
+        .tables()
+        .patch(
+            table.getProjectId(),
+            table.getDatasetId(),
+            table.getTableId(),
+            new Table()
+                .setSchema(
+                    new TableSchema()
+                        .setFields(
+                            new ImmutableList.Builder<TableFieldSchema>()
+                                .addAll(existingFields)
+                                .addAll(missingFields)
+                                .build())))
+        .execute();
+    logger.atInfo().log(
+        "Added fields %s to BigQuery table %s:%s.%s",
+        missingFields.stream().map(TableFieldSchema::getName).collect(toImmutableList()),
+        table.getProjectId(),
+        table.getDatasetId(),
+        table.getTableId());
+  }
 }
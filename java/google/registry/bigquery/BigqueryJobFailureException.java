@@ -81,7 +81,9 @@ public final class BigqueryJobFailureException extends RuntimeException {
   public String getReason() {
     if (jobStatus != null) {
       return jobStatus.getErrorResult().getReason();
-    } else if (jsonError != null) {
+    } else if (jsonError != null
+        && jsonError.getErrors() != null
+        && !jsonError.getErrors().isEmpty()) {
       return Iterables.getLast(jsonError.getErrors()).getReason();
     } else {
       return "unknown";
@@ -0,0 +1,473 @@
+// Copyright 2018 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.bigquery;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static com.google.common.collect.ImmutableMap.toImmutableMap;
+import static google.registry.bigquery.BigqueryUtils.toJobReferenceString;
+
+import com.google.api.client.googleapis.batch.BatchRequest;
+import com.google.api.client.googleapis.batch.json.JsonBatchCallback;
+import com.google.api.client.googleapis.json.GoogleJsonError;
+import com.google.api.client.googleapis.json.GoogleJsonResponseException;
+import com.google.api.client.http.HttpHeaders;
+import com.google.api.services.bigquery.Bigquery;
+import com.google.api.services.bigquery.model.Job;
+import com.google.api.services.bigquery.model.JobReference;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import com.google.common.flogger.FluentLogger;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.monitoring.metrics.DistributionFitter;
+import com.google.monitoring.metrics.EventMetric;
+import com.google.monitoring.metrics.ExponentialFitter;
+import com.google.monitoring.metrics.IncrementableMetric;
+import com.google.monitoring.metrics.LabelDescriptor;
+import com.google.monitoring.metrics.Metric;
+import com.google.monitoring.metrics.MetricRegistryImpl;
+import google.registry.util.Clock;
+import google.registry.util.SystemClock;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import org.joda.time.DateTime;
+import org.joda.time.Duration;
+
+/**
+ * Polls outstanding Bigquery jobs for completion from a single shared thread.
+ *
+ * <p>Each job is polled with exponential backoff, starting at the initial poll interval and
+ * doubling up to the maximum. Jobs that come due at around the same time are fetched together in
+ * one batched {@code jobs.get} round trip, so waiting on many jobs costs neither a thread per job
+ * nor a request per job per interval.
+ *
+ * <p>Fetches that fail transiently, whether for the whole batch or for a single job, are retried
+ * with the same backoff. A job only fails once {@link #MAX_CONSECUTIVE_FETCH_FAILURES} fetches of
+ * its status have failed in a row, or as soon as a fetch fails for a reason that retrying won't
+ * fix (such as the job not existing).
+ *
+ * <p>The polling thread is only created once the first unfinished job is registered, so code paths
+ * that never wait asynchronously (such as App Engine requests, which can't spawn background
+ * threads) don't pay for it.
+ */
+class BigqueryJobPoller implements AutoCloseable {
+
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  /** Maximum number of {@code jobs.get} requests to send in a single batch. */
+  @VisibleForTesting static final int MAX_JOBS_PER_BATCH = 50;
+
+  /** Number of failed fetches of a job's status in a row after which the job is failed. */
+  @VisibleForTesting static final int MAX_CONSECUTIVE_FETCH_FAILURES = 5;
+
+  /** Reasons for the failure of a single job's {@code jobs.get} that are worth retrying. */
+  private static final ImmutableSet<String> TRANSIENT_FETCH_FAILURE_REASONS =
+      ImmutableSet.of("backendError", "internalError", "rateLimitExceeded");
+
+  /**
+   * Window within which a job that isn't due yet is polled anyway alongside jobs that are due.
+   *
+   * <p>This trades a slightly early poll for sharing the round trip with the other jobs.
+   */
+  private static final Duration POLL_COALESCING_WINDOW = Duration.millis(250);
+
+  private static final ImmutableSet<LabelDescriptor> LABEL_DESCRIPTORS =
+      ImmutableSet.of(LabelDescriptor.create("state", "Final state of the job (DONE or FAILED)."));
+
+  // Allows values between 100ms and 100ms*2^16, which is almost 2 hours.
+  private static final DistributionFitter EXPONENTIAL_FITTER =
+      ExponentialFitter.create(16, 2.0, 100.0);
+
+  /** Number of jobs waiting for completion across all pollers in this process. */
+  private static final AtomicLong outstandingJobs = new AtomicLong();
+
+  private static final Metric<Long> outstandingJobsGauge =
+      MetricRegistryImpl.getDefault()
+          .newGauge(
+              "/bigquery/jobs/outstanding",
+              "Number of Bigquery jobs currently waiting to be polled to completion.",
+              "count",
+              ImmutableSet.of(),
+              () -> ImmutableMap.of(ImmutableList.of(), outstandingJobs.get()),
+              Long.class);
+
+  private static final EventMetric jobWaitTimeMetric =
+      MetricRegistryImpl.getDefault()
+          .newEventMetric(
+              "/bigquery/jobs/wait_time",
+              "Time spent polling Bigquery jobs until they completed.",
+              "milliseconds",
+              LABEL_DESCRIPTORS,
+              EXPONENTIAL_FITTER);
+
+  private static final IncrementableMetric statusFetchesMetric =
+      MetricRegistryImpl.getDefault()
+          .newIncrementableMetric(
+              "/bigquery/jobs/status_fetches",
+              "Count of round trips made to Bigquery to fetch job statuses.",
+              "count",
+              ImmutableSet.of());
+
+  /** Source of the current state of jobs, fetching as many of them per round trip as it can. */
+  interface JobFetcher {
+
+    /**
+     * Fetches the current state of each of the given jobs.
+     *
+     * <p>Each job must be reported to exactly one of the callback's methods, unless the entire
+     * fetch fails, in which case an {@link IOException} is thrown instead.
+     */
+    void fetchJobs(ImmutableList<JobReference> jobRefs, JobFetchCallback callback)
+        throws IOException;
+  }
+
+  /** Receiver of the per-job results of a {@link JobFetcher}. */
+  interface JobFetchCallback {
+    void onSuccess(JobReference jobRef, Job job);
+
+    void onFailure(JobReference jobRef, BigqueryJobFailureException e);
+  }
+
+  /** Bookkeeping for a single job that hasn't completed yet. */
+  private static class PendingJob {
+    final JobReference jobRef;
+    final SettableFuture<Job> future = SettableFuture.create();
+    final DateTime startTime;
+    Duration pollInterval;
+    DateTime nextPollTime;
+    int consecutiveFetchFailures;
+
+    PendingJob(JobReference jobRef, DateTime startTime, Duration pollInterval) {
+      this.jobRef = jobRef;
+      this.startTime = startTime;
+      this.pollInterval = pollInterval;
+      this.nextPollTime = startTime.plus(pollInterval);
+    }
+  }
+
+  private final JobFetcher fetcher;
+  private final Supplier<ScheduledExecutorService> schedulerSupplier;
+  private final Clock clock;
+  private final Duration initialPollInterval;
+  private final Duration maxPollInterval;
+
+  /** Jobs still waiting for completion, keyed by {@link BigqueryUtils#toJobReferenceString}. */
+  @GuardedBy("this")
+  private final Map<String, PendingJob> pendingJobs = new HashMap<>();
+
+  @GuardedBy("this")
+  @Nullable
+  private ScheduledExecutorService scheduler;
+
+  @GuardedBy("this")
+  @Nullable
+  private ScheduledFuture<?> nextPoll;
+
+  @GuardedBy("this")
+  @Nullable
+  private DateTime nextPollTime;
+
+  @GuardedBy("this")
+  private boolean closed;
+
+  @VisibleForTesting
+  BigqueryJobPoller(
+      JobFetcher fetcher,
+      Supplier<ScheduledExecutorService> schedulerSupplier,
+      Clock clock,
+      Duration initialPollInterval,
+      Duration maxPollInterval) {
+    checkArgument(
+        !maxPollInterval.isShorterThan(initialPollInterval),
+        "Maximum poll interval must not be shorter than the initial poll interval");
+    this.fetcher = fetcher;
+    this.schedulerSupplier = schedulerSupplier;
+    this.clock = clock;
+    this.initialPollInterval = initialPollInterval;
+    this.maxPollInterval = maxPollInterval;
+  }
+
+  /** Creates a poller that fetches job statuses with batched requests through {@code bigquery}. */
+  static BigqueryJobPoller create(
+      Bigquery bigquery, Duration initialPollInterval, Duration maxPollInterval) {
+    return new BigqueryJobPoller(
+        createBatchFetcher(bigquery),
+        () ->
+            Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder()
+                    .setNameFormat("bigquery-job-poller-%d")
+                    .setDaemon(true)
+                    .build()),
+        new SystemClock(),
+        initialPollInterval,
+        maxPollInterval);
+  }
+
+  /** Returns the interval to wait before the poll following one made after {@code interval}. */
+  static Duration nextPollInterval(Duration interval, Duration maxPollInterval) {
+    return Duration.millis(Math.min(interval.getMillis() * 2, maxPollInterval.getMillis()));
+  }
+
+  /**
+   * Returns a future that yields the given launched job once it's done.
+   *
+   * <p>The returned job is not checked for errors; the future only fails if its status couldn't be
+   * fetched.
+   */
+  ListenableFuture<Job> waitForJob(Job job) {
+    checkArgument(job.getStatus() != null, "Job has not been launched");
+    if (job.getStatus().getState().equals("DONE")) {
+      jobWaitTimeMetric.record(0, getFinalState(job));
+      return Futures.immediateFuture(job);
+    }
+    PendingJob pendingJob =
+        new PendingJob(job.getJobReference(), clock.nowUtc(), initialPollInterval);
+    synchronized (this) {
+      checkState(!closed, "Poller has been closed");
+      pendingJobs.put(toJobReferenceString(pendingJob.jobRef), pendingJob);
+      outstandingJobs.incrementAndGet();
+      schedulePollAt(pendingJob.nextPollTime);
+    }
+    return pendingJob.future;
+  }
+
+  /** Stops polling, cancelling the futures of all jobs that haven't completed yet. */
+  @Override
+  public synchronized void close() {
+    closed = true;
+    for (PendingJob pendingJob : pendingJobs.values()) {
+      pendingJob.future.cancel(false);
+    }
+    outstandingJobs.addAndGet(-pendingJobs.size());
+    pendingJobs.clear();
+    if (scheduler != null) {
+      scheduler.shutdownNow();
+    }
+  }
+
+  /** Makes sure that a poll is scheduled no later than {@code pollTime}. */
+  @GuardedBy("this")
+  private void schedulePollAt(DateTime pollTime) {
+    if (nextPoll != null && !nextPollTime.isAfter(pollTime)) {
+      return;
+    }
+    if (nextPoll != null) {
+      nextPoll.cancel(false);
+    }
+    if (scheduler == null) {
+      scheduler = schedulerSupplier.get();
+    }
+    long delayMillis = Math.max(0, new Duration(clock.nowUtc(), pollTime).getMillis());
+    nextPollTime = pollTime;
+    nextPoll = scheduler.schedule(this::pollDueJobs, delayMillis, TimeUnit.MILLISECONDS);
+  }
+
+  /** Fetches the status of every job that's due, then schedules the next poll if there is one. */
+  private void pollDueJobs() {
+    ImmutableList<PendingJob> dueJobs;
+    synchronized (this) {
+      nextPoll = null;
+      nextPollTime = null;
+      DateTime cutoff = clock.nowUtc().plus(POLL_COALESCING_WINDOW);
+      dueJobs =
+          pendingJobs
+              .values()
+              .stream()
+              .filter(pendingJob -> !pendingJob.nextPollTime.isAfter(cutoff))
+              .collect(toImmutableList());
+    }
+    for (Iterable<PendingJob> batch : Iterables.partition(dueJobs, MAX_JOBS_PER_BATCH)) {
+      pollBatch(ImmutableList.copyOf(batch));
+    }
+    synchronized (this) {
+      if (!closed) {
+        pendingJobs
+            .values()
+            .stream()
+            .map(pendingJob -> pendingJob.nextPollTime)
+            .min(DateTime::compareTo)
+            .ifPresent(this::schedulePollAt);
+      }
+    }
+  }
+
+  /** Fetches the status of a single batch of jobs, completing those that are done or failed. */
+  private void pollBatch(ImmutableList<PendingJob> batch) {
+    ImmutableMap<String, PendingJob> jobsByName =
+        batch
+            .stream()
+            .collect(
+                toImmutableMap(
+                    pendingJob -> toJobReferenceString(pendingJob.jobRef),
+                    pendingJob -> pendingJob));
+    statusFetchesMetric.increment();
+    try {
+      fetcher.fetchJobs(
+          batch.stream().map(pendingJob -> pendingJob.jobRef).collect(toImmutableList()),
+          new JobFetchCallback() {
+            @Override
+            public void onSuccess(JobReference jobRef, Job job) {
+              PendingJob pendingJob = jobsByName.get(toJobReferenceString(jobRef));
+              synchronized (BigqueryJobPoller.this) {
+                pendingJob.consecutiveFetchFailures = 0;
+              }
+              if (job.getStatus().getState().equals("DONE")) {
+                complete(pendingJob, job);
+              } else {
+                backOff(pendingJob);
+              }
+            }
+
+            @Override
+            public void onFailure(JobReference jobRef, BigqueryJobFailureException e) {
+              PendingJob pendingJob = jobsByName.get(toJobReferenceString(jobRef));
+              if (TRANSIENT_FETCH_FAILURE_REASONS.contains(e.getReason())) {
+                logger.atInfo().withCause(e).log(
+                    "Transient failure fetching status of job %s", toJobReferenceString(jobRef));
+                retryOrFail(pendingJob, e);
+              } else {
+                fail(pendingJob, e);
+              }
+            }
+          });
+    } catch (IOException | RuntimeException e) {
+      // The whole round trip failed, which says nothing about the jobs themselves.
+      logger.atWarning().withCause(e).log("Failed to fetch status of %d jobs", batch.size());
+      BigqueryJobFailureException failure =
+          e instanceof IOException
+              ? BigqueryJobFailureException.create((IOException) e)
+              : new BigqueryJobFailureException(e.getMessage(), e, null, null);
+      for (PendingJob pendingJob : batch) {
+        retryOrFail(pendingJob, failure);
+      }
+    }
+    // Jobs the fetcher didn't report on are simply polled again after backing off.
+    synchronized (this) {
+      for (PendingJob pendingJob : batch) {
+        if (!pendingJob.future.isDone() && !pendingJob.nextPollTime.isAfter(clock.nowUtc())) {
+          backOff(pendingJob);
+        }
+      }
+    }
+  }
+
+  /**
+   * Backs off a job whose status couldn't be fetched, or fails it if that has now happened {@link
+   * #MAX_CONSECUTIVE_FETCH_FAILURES} times in a row.
+   */
+  private void retryOrFail(PendingJob pendingJob, BigqueryJobFailureException e) {
+    boolean giveUp;
+    synchronized (this) {
+      giveUp = ++pendingJob.consecutiveFetchFailures >= MAX_CONSECUTIVE_FETCH_FAILURES;
+    }
+    if (giveUp) {
+      fail(pendingJob, e);
+    } else {
+      backOff(pendingJob);
+    }
+  }
+
+  private synchronized void backOff(PendingJob pendingJob) {
+    pendingJob.pollInterval = nextPollInterval(pendingJob.pollInterval, maxPollInterval);
+    pendingJob.nextPollTime = clock.nowUtc().plus(pendingJob.pollInterval);
+  }
+
+  private void complete(PendingJob pendingJob, Job job) {
+    if (remove(pendingJob)) {
+      jobWaitTimeMetric.record(
+          new Duration(pendingJob.startTime, clock.nowUtc()).getMillis(), getFinalState(job));
+      pendingJob.future.set(job);
+    }
+  }
+
+  private void fail(PendingJob pendingJob, BigqueryJobFailureException e) {
+    if (remove(pendingJob)) {
+      jobWaitTimeMetric.record(
+          new Duration(pendingJob.startTime, clock.nowUtc()).getMillis(), "FAILED");
+      pendingJob.future.setException(e);
+    }
+  }
+
+  /** Stops tracking the given job, returning false if it was already completed or cancelled. */
+  private synchronized boolean remove(PendingJob pendingJob) {
+    if (pendingJobs.remove(toJobReferenceString(pendingJob.jobRef)) == null) {
+      return false;
+    }
+    outstandingJobs.decrementAndGet();
+    return true;
+  }
+
+  private static String getFinalState(Job job) {
+    return job.getStatus().getErrorResult() == null ? "DONE" : "FAILED";
+  }
+
+  /**
+   * Returns a {@link JobFetcher} that sends a single {@code jobs.get} request for a lone job, and
+   * a batch request otherwise.
+   *
+   * <p>Only errors returned by Bigquery for a job are reported to the callback; errors that keep
+   * the request from completing at all are thrown, as they would be for a batch.
+   */
+  private static JobFetcher createBatchFetcher(Bigquery bigquery) {
+    return (jobRefs, callback) -> {
+      if (jobRefs.size() == 1) {
+        JobReference jobRef = jobRefs.get(0);
+        try {
+          callback.onSuccess(
+              jobRef, bigquery.jobs().get(jobRef.getProjectId(), jobRef.getJobId()).execute());
+        } catch (GoogleJsonResponseException e) {
+          callback.onFailure(jobRef, BigqueryJobFailureException.create(e));
+        }
+        return;
+      }
+      BatchRequest batch = bigquery.batch();
+      for (JobReference jobRef : jobRefs) {
+        bigquery
+            .jobs()
+            .get(jobRef.getProjectId(), jobRef.getJobId())
+            .queue(
+                batch,
+                new JsonBatchCallback<Job>() {
+                  @Override
+                  public void onSuccess(Job job, HttpHeaders responseHeaders) {
+                    callback.onSuccess(jobRef, job);
+                  }
+
+                  @Override
+                  public void onFailure(GoogleJsonError error, HttpHeaders responseHeaders) {
+                    callback.onFailure(jobRef, BigqueryJobFailureException.create(error));
+                  }
+                });
+      }
+      batch.execute();
+    };
+  }
+}
@@ -32,6 +32,7 @@ import java.lang.annotation.Documented;
 import java.lang.annotation.Retention;
 import java.net.URI;
 import java.net.URL;
+import java.util.Map;
 import java.util.Optional;
 import javax.annotation.Nullable;
 import javax.inject.Named;
@@ -209,6 +210,20 @@ public final class RegistryConfig {
       return projectId + "-domain-lists";
     }
 
+    /**
+     * Maximum number of domain names per TLD that the domain list export sorts in memory.
+     *
+     * <p>TLDs with more domains than this are sorted externally, by spilling sorted runs of this
+     * size to GCS and merging them while writing the final list.
+     *
+     * @see google.registry.export.ExportDomainListsAction
+     */
+    @Provides
+    @Config("domainListsSortBufferSize")
+    public static int provideDomainListsSortBufferSize() {
+      return 100000;
+    }
+
     /**
      * Batch size for the number of transactions' worth of commit log data to process at once when
      * exporting a commit log diff.
@@ -221,6 +236,18 @@ public final class RegistryConfig {
       return 100;
     }
 
+    /**
+     * Maximum number of transactions' worth of commit log data to write to a single GCS file when
+     * exporting a commit log diff. Larger diffs are split into part files exported in parallel.
+     *
+     * @see google.registry.backup.ExportCommitLogDiffAction
+     */
+    @Provides
+    @Config("commitLogDiffExportPartSize")
+    public static int provideCommitLogDiffExportPartSize() {
+      return 2000;
+    }
+
     /**
      * Returns the Google Cloud Storage bucket for staging BRDA escrow deposits.
      *
@@ -519,6 +546,19 @@ public final class RegistryConfig {
       return beamBucketUrl + "/templates/invoicing";
     }
 
+    /**
+     * Returns the URL of the GCS location for storing the daily invoicing Beam template.
+     *
+     * @see google.registry.reporting.billing.GenerateInvoicePartialsAction
+     * @see google.registry.beam.invoicing.InvoicingPipeline
+     */
+    @Provides
+    @Config("dailyInvoiceTemplateUrl")
+    public static String provideDailyInvoiceTemplateUrl(
+        @Config("apacheBeamBucketUrl") String beamBucketUrl) {
+      return beamBucketUrl + "/templates/invoicing_daily";
+    }
+
     /**
      * Returns the URL of the GCS location for storing the monthly spec11 Beam template.
      *
@@ -531,6 +571,31 @@ public final class RegistryConfig {
       return beamBucketUrl + "/templates/spec11";
     }
 
+    /**
+     * Returns whether the spec11 pipeline matches domains against local SafeBrowsing threat lists
+     * instead of looking up every domain remotely.
+     *
+     * @see google.registry.beam.spec11.Spec11Pipeline
+     */
+    @Provides
+    @Config("spec11UseLocalThreatLists")
+    public static boolean provideSpec11UseLocalThreatLists(RegistryConfigSettings config) {
+      return config.beam.spec11UseLocalThreatLists;
+    }
+
+    /**
+     * Returns how long remotely confirmed SafeBrowsing verdicts are reused by the spec11 pipeline.
+     *
+     * <p>This is an upper bound, verdicts are never reused for longer than the API allows.
+     *
+     * @see google.registry.beam.spec11.Spec11Pipeline
+     */
+    @Provides
+    @Config("spec11VerdictCacheTtl")
+    public static Duration provideSpec11VerdictCacheTtl(RegistryConfigSettings config) {
+      return Duration.standardHours(config.beam.spec11VerdictCacheTtlHours);
+    }
+
     /**
      * Returns the default job zone to run Apache Beam (Cloud Dataflow) jobs in.
      *
@@ -590,6 +655,18 @@ public final class RegistryConfig {
       return config.icannReporting.icannActivityReportingUploadUrl;
     }
 
+    /**
+     * Returns whether ICANN activity reports count EPP and WHOIS queries from the {@code
+     * IcannActivityCount} entities rather than from the request logs.
+     *
+     * @see google.registry.reporting.icann.ActivityReportingQueryBuilder
+     */
+    @Provides
+    @Config("icannReportingUseActivityCounters")
+    public static boolean provideIcannReportingUseActivityCounters(RegistryConfigSettings config) {
+      return config.icannReporting.useActivityCounters;
+    }
+
     /**
      * Returns name of the GCS bucket we store invoices and detail reports in.
      *
@@ -1034,6 +1111,18 @@ public final class RegistryConfig {
       return config.kms.projectId;
     }
 
+    /**
+     * Returns how long secrets decrypted by Cloud KMS are cached in memory, or zero to disable
+     * caching.
+     *
+     * @see google.registry.keyring.kms.KmsKeyring
+     */
+    @Provides
+    @Config("kmsSecretCachingDuration")
+    public static Duration provideKmsSecretCachingDuration(RegistryConfigSettings config) {
+      return Duration.standardSeconds(config.kms.secretCachingSeconds);
+    }
+
     @Provides
     @Config("customLogicFactoryClass")
     public static String provideCustomLogicFactoryClass(RegistryConfigSettings config) {
@@ -1252,6 +1341,22 @@ public final class RegistryConfig {
     return CONFIG_SETTINGS.get().datastore.commitLogBucketsNum;
   }
 
+  /**
+   * Number of commit log buckets that new transactions write to.
+   *
+   * <p>Checkpoints always cover all {@link #getCommitLogBucketCount} buckets, so this can be raised
+   * or lowered freely up to that count, even while instances with different values are serving.
+   * Defaults to the total bucket count.
+   *
+   * @see google.registry.model.ofy.CommitLogBucket#getArbitraryBucketId
+   */
+  public static int getActiveCommitLogBucketCount() {
+    Integer activeBuckets = CONFIG_SETTINGS.get().datastore.commitLogActiveBucketsNum;
+    return activeBuckets == null
+        ? getCommitLogBucketCount()
+        : Math.min(activeBuckets, getCommitLogBucketCount());
+  }
+
   /**
    * Returns the length of time before commit logs should be deleted from Datastore.
    *
@@ -1357,6 +1462,33 @@ public final class RegistryConfig {
     return Duration.millis(CONFIG_SETTINGS.get().datastore.baseOfyRetryMillis);
   }
 
+  /**
+   * Returns the total time a transaction within {@code Ofy} may spend on failed attempts and
+   * backoff before it stops being retried.
+   */
+  public static Duration getTransactionRetryBudget() {
+    return Duration.millis(CONFIG_SETTINGS.get().datastore.transactionRetryBudgetMillis);
+  }
+
+  /**
+   * Returns the retry budget of transactions run by the EPP flow with the given class name, which
+   * is {@link #getTransactionRetryBudget()} unless the flow has its own.
+   */
+  public static Duration getTransactionRetryBudget(String flowName) {
+    Map<String, Integer> budgets =
+        CONFIG_SETTINGS.get().datastore.transactionRetryBudgetMillisByFlow;
+    Integer budgetMillis = (budgets == null) ? null : budgets.get(flowName);
+    return (budgetMillis == null) ? getTransactionRetryBudget() : Duration.millis(budgetMillis);
+  }
+
+  /**
+   * Returns the number of EPP resources that a mapreduce entity reader loads from Datastore in a
+   * single batch.
+   */
+  public static int getEppResourceReaderBatchSize() {
+    return CONFIG_SETTINGS.get().datastore.eppResourceReaderBatchSize;
+  }
+
   /** Returns the roid suffix to be used for the roids of all contacts and hosts. */
   public static String getContactAndHostRoidSuffix() {
     return CONFIG_SETTINGS.get().registryPolicy.contactAndHostRoidSuffix;
@@ -15,6 +15,7 @@
 package google.registry.config;
 
 import java.util.List;
+import java.util.Map;
 
 /** The POJO that YAML config files are deserialized into. */
 public class RegistryConfigSettings {
@@ -87,19 +88,26 @@ public class RegistryConfigSettings {
   /** Configuration for Cloud Datastore. */
   public static class Datastore {
     public int commitLogBucketsNum;
+    public Integer commitLogActiveBucketsNum;
     public int eppResourceIndexBucketsNum;
     public int baseOfyRetryMillis;
+    public int transactionRetryBudgetMillis;
+    public Map<String, Integer> transactionRetryBudgetMillisByFlow;
+    public int eppResourceReaderBatchSize;
   }
 
   /** Configuration for Cloud KMS. */
   public static class Kms {
     public String keyringName;
     public String projectId;
+    public int secretCachingSeconds;
   }
 
   /** Configuration for Apache Beam (Cloud Dataflow). */
   public static class Beam {
     public String defaultJobZone;
+    public boolean spec11UseLocalThreatLists;
+    public int spec11VerdictCacheTtlHours;
   }
 
   /** Configuration for Cloud DNS. */
@@ -123,6 +131,7 @@ public class RegistryConfigSettings {
   public static class IcannReporting {
     public String icannTransactionsReportingUploadUrl;
     public String icannActivityReportingUploadUrl;
+    public boolean useActivityCounters;
   }
 
   /** Configuration for monthly invoices. */
@@ -0,0 +1,161 @@
+// Copyright 2018 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.dns.writer.zonefile;
+
+import static google.registry.dns.writer.zonefile.ZoneFileRecords.addressRecord;
+import static google.registry.dns.writer.zonefile.ZoneFileRecords.dsRecord;
+import static google.registry.dns.writer.zonefile.ZoneFileRecords.nsRecord;
+import static google.registry.dns.writer.zonefile.ZoneFileRecords.stripTld;
+import static google.registry.model.EppResourceUtils.loadByForeignKey;
+import static google.registry.model.ofy.ObjectifyService.ofy;
+import static google.registry.util.DateTimeUtils.START_OF_TIME;
+import static google.registry.util.DateTimeUtils.latestOf;
+import static google.registry.util.DomainNameUtils.getSecondLevelDomain;
+
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Sets;
+import com.google.common.flogger.FluentLogger;
+import com.google.common.net.InternetDomainName;
+import google.registry.config.RegistryConfig.Config;
+import google.registry.dns.writer.BaseDnsWriter;
+import google.registry.dns.writer.DnsWriter;
+import google.registry.dns.writer.DnsWriterZone;
+import google.registry.model.BackupGroupRoot;
+import google.registry.model.domain.DomainResource;
+import google.registry.model.domain.secdns.DelegationSignerData;
+import google.registry.model.host.HostResource;
+import google.registry.model.index.ForeignKeyIndex.ForeignKeyDomainIndex;
+import google.registry.model.registry.Registries;
+import google.registry.util.Clock;
+import java.net.InetAddress;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import javax.inject.Inject;
+import org.joda.time.DateTime;
+import org.joda.time.Duration;
+
+/**
+ * {@link DnsWriter} that appends the changed zone file stanzas of each batch to a change log in
+ * GCS, from which zone files can be generated incrementally.
+ *
+ * @see ZoneSnapshotStore
+ */
+public class ZoneFileDnsWriter extends BaseDnsWriter {
+
+  /**
+   * The name of the dns writer, as used in {@code Registry.dnsWriter}. Remember to change the value
+   * on affected Registry objects to prevent runtime failures.
+   */
+  public static final String NAME = "ZoneFileDnsWriter";
+
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  private final ZoneSnapshotStore zoneSnapshotStore;
+  private final String zoneName;
+  private final Duration defaultATtl;
+  private final Duration defaultNsTtl;
+  private final Duration defaultDsTtl;
+  private final DateTime loadTime;
+
+  /** Map from domain name to its stanza, where an empty stanza removes the domain from the zone. */
+  private final Map<String, String> stanzas = new HashMap<>();
+
+  /** The latest Datastore write among the resources loaded so far, for ordering the batch. */
+  private DateTime lastWriteTime = START_OF_TIME;
+
+  @Inject
+  ZoneFileDnsWriter(
+      ZoneSnapshotStore zoneSnapshotStore,
+      @DnsWriterZone String zoneName,
+      @Config("dnsDefaultATtl") Duration defaultATtl,
+      @Config("dnsDefaultNsTtl") Duration defaultNsTtl,
+      @Config("dnsDefaultDsTtl") Duration defaultDsTtl,
+      Clock clock) {
+    this.zoneSnapshotStore = zoneSnapshotStore;
+    this.zoneName = zoneName;
+    this.defaultATtl = defaultATtl;
+    this.defaultNsTtl = defaultNsTtl;
+    this.defaultDsTtl = defaultDsTtl;
+    this.loadTime = clock.nowUtc();
+  }
+
+  /** Stages the NS and DS records of the domain, and the glue records of its subordinate hosts. */
+  @Override
+  public void publishDomain(String domainName) {
+    // Load the target domain. Note that it can be null if this domain was just deleted.
+    DomainResource domain = loadByForeignKey(DomainResource.class, domainName, loadTime);
+    if (domain == null) {
+      // The foreign key index is re-saved when the domain is deleted, so it dates the removal.
+      ForeignKeyDomainIndex fki =
+          ofy().load().type(ForeignKeyDomainIndex.class).id(domainName).now();
+      if (fki != null) {
+        recordWrite(fki);
+      }
+      stanzas.put(domainName, "");
+      return;
+    }
+    recordWrite(domain);
+    if (!domain.shouldPublishToDns()) {
+      stanzas.put(domainName, "");
+      return;
+    }
+    String domainLabel = stripTld(domainName, zoneName);
+    StringBuilder stanza = new StringBuilder();
+    ImmutableSortedSet<String> nameservers = domain.loadNameserverFullyQualifiedHostNames();
+    for (String nameserver : nameservers) {
+      stanza.append(nsRecord(domainLabel, defaultNsTtl, nameserver));
+    }
+    for (DelegationSignerData dsData : domain.getDsData()) {
+      stanza.append(dsRecord(domainLabel, defaultDsTtl, dsData));
+    }
+    // Only in-bailiwick hosts that act as nameservers for their superordinate domain need glue.
+    for (String hostName : Sets.intersection(nameservers, domain.getSubordinateHosts())) {
+      HostResource host = loadByForeignKey(HostResource.class, hostName, loadTime);
+      if (host != null) {
+        recordWrite(host);
+        for (InetAddress address : host.getInetAddresses()) {
+          stanza.append(addressRecord(stripTld(hostName, zoneName), defaultATtl, address));
+        }
+      }
+    }
+    stanzas.put(domainName, stanza.toString());
+  }
+
+  /** Stages the superordinate domain of the host, whose stanza includes the host's glue. */
+  @Override
+  public void publishHost(String hostName) {
+    Optional<InternetDomainName> tld =
+        Registries.findTldForName(InternetDomainName.from(hostName));
+    // Host not managed by our registry, no need to update the zone.
+    if (!tld.isPresent()) {
+      logger.atSevere().log("publishHost called for invalid host %s", hostName);
+      return;
+    }
+    publishDomain(getSecondLevelDomain(hostName, tld.get().toString()));
+  }
+
+  @Override
+  protected void commitUnchecked() {
+    if (stanzas.isEmpty()) {
+      return;
+    }
+    zoneSnapshotStore.appendChanges(zoneName, loadTime, lastWriteTime, stanzas);
+  }
+
+  private void recordWrite(BackupGroupRoot entity) {
+    lastWriteTime = latestOf(lastWriteTime, entity.getUpdateAutoTimestamp().getTimestamp());
+  }
+}
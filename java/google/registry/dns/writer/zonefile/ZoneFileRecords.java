@@ -0,0 +1,99 @@
+// Copyright 2018 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.dns.writer.zonefile;
+
+import static com.google.common.io.BaseEncoding.base16;
+
+import google.registry.model.domain.secdns.DelegationSignerData;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import org.joda.time.Duration;
+
+/** Formatting of BIND zone file records. */
+public final class ZoneFileRecords {
+
+  /** Format for the zone file header. */
+  private static final String HEADER_FORMAT = "$ORIGIN\t%s.\n\n";
+
+  /** Format for NS records. */
+  private static final String NS_FORMAT = "%s\t%d\tIN\tNS\t%s.\n";
+
+  /** Format for DS records. */
+  private static final String DS_FORMAT = "%s\t%d\tIN\tDS\t%d %d %d %s\n";
+
+  /** Format for A and AAAA records. */
+  private static final String A_FORMAT = "%s\t%d\tIN\t%s\t%s\n";
+
+  /** Returns the header of the zone file for the given TLD. */
+  public static String header(String tld) {
+    return String.format(HEADER_FORMAT, tld);
+  }
+
+  /**
+   * Returns an NS record, e.g. {@code foo 180 IN NS ns.example.com.}
+   *
+   * @param label the domain name relative to the TLD
+   */
+  public static String nsRecord(String label, Duration ttl, String nameserver) {
+    return String.format(NS_FORMAT, label, ttl.getStandardSeconds(), nameserver);
+  }
+
+  /**
+   * Returns a DS record, e.g. {@code foo 86400 IN DS 1 2 3 000102}
+   *
+   * @param label the domain name relative to the TLD
+   */
+  public static String dsRecord(String label, Duration ttl, DelegationSignerData dsData) {
+    return String.format(
+        DS_FORMAT,
+        label,
+        ttl.getStandardSeconds(),
+        dsData.getKeyTag(),
+        dsData.getAlgorithm(),
+        dsData.getDigestType(),
+        base16().encode(dsData.getDigest()));
+  }
+
+  /**
+   * Returns an A or AAAA record, as appropriate for the address, e.g. {@code ns.foo 3600 IN A
+   * 127.0.0.1}
+   *
+   * @param label the host name relative to the TLD
+   */
+  public static String addressRecord(String label, Duration ttl, InetAddress address) {
+    // must be either IPv4 or IPv6
+    String rrSetClass = (address instanceof Inet4Address) ? "A" : "AAAA";
+    return String.format(
+        A_FORMAT, label, ttl.getStandardSeconds(), rrSetClass, address.getHostAddress());
+  }
+
+  /**
+   * Removes the TLD, if present, from a fully-qualified name.
+   *
+   * <p>This would not work if a fully qualified host name in a different TLD were passed. But
+   * we only generate glue records for in-bailiwick name servers, meaning that the TLD will always
+   * match.
+   *
+   * <p>If, for some unforeseen reason, the TLD is not present, indicate an error condition, so that
+   * our process for comparing Datastore and DNS data will realize that something is amiss.
+   */
+  public static String stripTld(String fullyQualifiedName, String tld) {
+    return fullyQualifiedName.endsWith(tld)
+        ? fullyQualifiedName.substring(0, fullyQualifiedName.length() - tld.length() - 1)
+        : (fullyQualifiedName + "***");
+  }
+
+  private ZoneFileRecords() {}
+}
@@ -0,0 +1,319 @@
+// Copyright 2018 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.dns.writer.zonefile;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static google.registry.util.DateTimeUtils.END_OF_TIME;
+import static google.registry.util.DateTimeUtils.START_OF_TIME;
+import static google.registry.util.DateTimeUtils.isBeforeOrAt;
+import static java.util.Comparator.comparing;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.joda.time.DateTimeZone.UTC;
+
+import com.google.appengine.tools.cloudstorage.GcsFilename;
+import com.google.appengine.tools.cloudstorage.GcsService;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.flogger.FluentLogger;
+import google.registry.config.RegistryConfig.Config;
+import google.registry.gcs.GcsUtils;
+import google.registry.util.Clock;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.UUID;
+import javax.inject.Inject;
+import org.joda.time.DateTime;
+import org.joda.time.Duration;
+
+/**
+ * Per-TLD zone snapshots and change logs, stored in GCS.
+ *
+ * <p>A zone is modeled as a map from fully qualified domain name to the zone file stanza for that
+ * domain: its NS and DS records, followed by glue records for its in-bailiwick nameservers.
+ * Snapshots hold an entire zone as of their time. Change files are appended by {@link
+ * ZoneFileDnsWriter} for every published batch, and hold the new stanzas of only the domains in
+ * that batch, as loaded at the time in their name. The zone at any given time is thus the latest
+ * snapshot at or before that time, with all the changes since applied in order. Batches loaded in
+ * the same millisecond are ordered by the latest Datastore write they read, so that the one that
+ * saw newer data is applied last.
+ *
+ * <p>Both kinds of file use the same line-oriented format: each line of a stanza is prefixed by
+ * its domain name and a tab, and a domain without any records is written as its bare name, which
+ * removes the domain from the zone when applied as a change.
+ *
+ * <p>A zone can be bootstrapped by enabling {@link ZoneFileDnsWriter} on the TLD and then
+ * refreshing DNS for all of its domains, so that the change log contains every domain.
+ */
+public class ZoneSnapshotStore {
+
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  /** Format for the GCS directory of a TLD's snapshots, each of which is named by its time. */
+  private static final String SNAPSHOTS_DIRECTORY_FORMAT = "zone_snapshots/%s/";
+
+  /**
+   * Format for the GCS directory of a TLD's change files.
+   *
+   * <p>Change files are named by their load time, then the time of the latest Datastore write
+   * among the resources they were loaded from, then a random suffix, all separated by {@link
+   * #CHANGE_NAME_SEPARATOR}. The write time breaks ties between batches loaded in the same
+   * millisecond, and the random suffix keeps such batches from overwriting each other. Older change
+   * files have no write time, and sort before newer ones loaded in the same millisecond.
+   */
+  private static final String CHANGES_DIRECTORY_FORMAT = "zone_changes/%s/";
+
+  private static final char CHANGE_NAME_SEPARATOR = '_';
+
+  /** The order to apply change files in: by load time, then by the latest write they read. */
+  private static final Comparator<String> CHANGE_ORDERING =
+      comparing(ZoneSnapshotStore::getChangeTime)
+          .thenComparing(ZoneSnapshotStore::getChangeLastWriteTime)
+          .thenComparing(Comparator.naturalOrder());
+
+  private static final char NAME_SEPARATOR = '\t';
+
+  /**
+   * How far in the past a time must be before a zone can be compacted at it.
+   *
+   * <p>Change files are named by the time their stanzas were loaded, so that they apply in the
+   * order the data was read. But they're only written when the DNS writer commits, which can be up
+   * to a request deadline later, and GCS listings can lag behind writes. A snapshot at a more
+   * recent time could miss a change that would then never be applied.
+   */
+  public static final Duration CHANGE_SETTLING_TIME = Duration.standardMinutes(15);
+
+  private final GcsService gcsService;
+  private final GcsUtils gcsUtils;
+  private final String bucket;
+  private final Clock clock;
+
+  @Inject
+  public ZoneSnapshotStore(
+      GcsService gcsService,
+      GcsUtils gcsUtils,
+      @Config("zoneFilesBucket") String bucket,
+      Clock clock) {
+    this.gcsService = gcsService;
+    this.gcsUtils = gcsUtils;
+    this.bucket = bucket;
+    this.clock = clock;
+  }
+
+  /**
+   * Appends a batch of domain stanzas to the change log of a zone.
+   *
+   * @param tld the zone to append to
+   * @param loadTime the time as of which the stanzas were loaded
+   * @param lastWriteTime the time of the latest Datastore write among the resources the stanzas
+   *     were loaded from, which orders batches loaded in the same millisecond
+   * @param stanzas map of domain name to stanza, where an empty stanza removes the domain
+   */
+  public void appendChanges(
+      String tld, DateTime loadTime, DateTime lastWriteTime, Map<String, String> stanzas) {
+    GcsFilename filename =
+        new GcsFilename(
+            bucket,
+            String.format(CHANGES_DIRECTORY_FORMAT, tld)
+                + loadTime.toDateTime(UTC)
+                + CHANGE_NAME_SEPARATOR
+                + lastWriteTime.toDateTime(UTC)
+                + CHANGE_NAME_SEPARATOR
+                + UUID.randomUUID());
+    writeStanzas(filename, stanzas);
+    logger.atInfo().log(
+        "Appended %d zone changes for %s to %s", stanzas.size(), tld, filename.getObjectName());
+  }
+
+  /** Returns the stanzas of all the domains in a zone at the given time, sorted by domain name. */
+  public ImmutableSortedMap<String, String> loadZone(String tld, DateTime time) {
+    Optional<DateTime> snapshotTime = findLatestSnapshotTime(tld, time);
+    TreeMap<String, String> zone = new TreeMap<>();
+    if (snapshotTime.isPresent()) {
+      zone.putAll(readStanzas(getSnapshotFilename(tld, snapshotTime.get())));
+    }
+    ImmutableList<String> changes =
+        listChangesInRange(tld, snapshotTime.orElse(START_OF_TIME), time);
+    for (String change : changes) {
+      readStanzas(new GcsFilename(bucket, String.format(CHANGES_DIRECTORY_FORMAT, tld) + change))
+          .forEach(
+              (domainName, stanza) -> {
+                if (stanza.isEmpty()) {
+                  zone.remove(domainName);
+                } else {
+                  zone.put(domainName, stanza);
+                }
+              });
+    }
+    logger.atInfo().log(
+        "Loaded %d domains for %s at %s from snapshot at %s and %d change files",
+        zone.size(), tld, time, snapshotTime.orElse(null), changes.size());
+    return ImmutableSortedMap.copyOf(zone);
+  }
+
+  /**
+   * Writes a snapshot of a zone at the given time and deletes the files it supersedes.
+   *
+   * <p>The snapshot that the new one was built from is kept, along with the changes since then,
+   * so that the zone can still be loaded for any time after that snapshot. Older snapshots and
+   * changes are deleted.
+   *
+   * @return the zone at the given time
+   * @throws IllegalArgumentException if the time is less than {@link #CHANGE_SETTLING_TIME} in the
+   *     past, or before the zone's latest snapshot
+   */
+  public ImmutableSortedMap<String, String> compact(String tld, DateTime time) {
+    checkArgument(
+        isBeforeOrAt(time, clock.nowUtc().minus(CHANGE_SETTLING_TIME)),
+        "Can't compact %s at %s, since changes for that time may still be written",
+        tld,
+        time);
+    Optional<DateTime> latestSnapshotTime = getLatestSnapshotTime(tld);
+    checkArgument(
+        !latestSnapshotTime.isPresent() || isBeforeOrAt(latestSnapshotTime.get(), time),
+        "Can't compact %s at %s, which is before its latest snapshot at %s",
+        tld,
+        time,
+        latestSnapshotTime.orElse(null));
+    Optional<DateTime> baseSnapshotTime = findLatestSnapshotTime(tld, time);
+    ImmutableSortedMap<String, String> zone = loadZone(tld, time);
+    writeStanzas(getSnapshotFilename(tld, time), zone);
+    if (baseSnapshotTime.isPresent()) {
+      DateTime baseTime = baseSnapshotTime.get();
+      for (String snapshot : listObjects(SNAPSHOTS_DIRECTORY_FORMAT, tld)) {
+        if (DateTime.parse(snapshot).isBefore(baseTime)) {
+          delete(SNAPSHOTS_DIRECTORY_FORMAT, tld, snapshot);
+        }
+      }
+      for (String change : listChangesInRange(tld, START_OF_TIME, baseTime)) {
+        delete(CHANGES_DIRECTORY_FORMAT, tld, change);
+      }
+    }
+    logger.atInfo().log("Compacted zone for %s at %s", tld, time);
+    return zone;
+  }
+
+  /** Returns the time of the latest snapshot of a zone, if it has any. */
+  public Optional<DateTime> getLatestSnapshotTime(String tld) {
+    return findLatestSnapshotTime(tld, END_OF_TIME);
+  }
+
+  private Optional<DateTime> findLatestSnapshotTime(String tld, DateTime time) {
+    return listObjects(SNAPSHOTS_DIRECTORY_FORMAT, tld)
+        .stream()
+        .map(DateTime::parse)
+        .filter(snapshotTime -> isBeforeOrAt(snapshotTime, time))
+        .max(DateTime::compareTo);
+  }
+
+  /** Returns the names of the change files in the range (after, until], in the order to apply. */
+  private ImmutableList<String> listChangesInRange(String tld, DateTime after, DateTime until) {
+    return listObjects(CHANGES_DIRECTORY_FORMAT, tld)
+        .stream()
+        .filter(
+            change -> {
+              DateTime changeTime = getChangeTime(change);
+              return changeTime.isAfter(after) && isBeforeOrAt(changeTime, until);
+            })
+        .sorted(CHANGE_ORDERING)
+        .collect(toImmutableList());
+  }
+
+  private static DateTime getChangeTime(String change) {
+    return DateTime.parse(splitChangeName(change).get(0));
+  }
+
+  private static DateTime getChangeLastWriteTime(String change) {
+    List<String> parts = splitChangeName(change);
+    return (parts.size() < 3) ? START_OF_TIME : DateTime.parse(parts.get(1));
+  }
+
+  private static List<String> splitChangeName(String change) {
+    return Splitter.on(CHANGE_NAME_SEPARATOR).splitToList(change);
+  }
+
+  private GcsFilename getSnapshotFilename(String tld, DateTime time) {
+    return new GcsFilename(
+        bucket, String.format(SNAPSHOTS_DIRECTORY_FORMAT, tld) + time.toDateTime(UTC));
+  }
+
+  private ImmutableList<String> listObjects(String directoryFormat, String tld) {
+    try {
+      return gcsUtils.listFolderObjects(bucket, String.format(directoryFormat, tld));
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private void delete(String directoryFormat, String tld, String name) {
+    try {
+      gcsService.delete(new GcsFilename(bucket, String.format(directoryFormat, tld) + name));
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private void writeStanzas(GcsFilename filename, Map<String, String> stanzas) {
+    try (OutputStream gcsOutput = gcsUtils.openOutputStream(filename);
+        Writer osWriter = new OutputStreamWriter(gcsOutput, UTF_8);
+        PrintWriter writer = new PrintWriter(osWriter)) {
+      stanzas.forEach(
+          (domainName, stanza) -> {
+            if (stanza.isEmpty()) {
+              writer.print(domainName + '\n');
+            }
+            for (String line : Splitter.on('\n').omitEmptyStrings().split(stanza)) {
+              writer.print(domainName + NAME_SEPARATOR + line + '\n');
+            }
+          });
+      writer.flush();
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private ImmutableMap<String, String> readStanzas(GcsFilename filename) {
+    Map<String, StringBuilder> stanzas = new LinkedHashMap<>();
+    try (BufferedReader reader =
+        new BufferedReader(new InputStreamReader(gcsUtils.openInputStream(filename), UTF_8))) {
+      for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+        int separator = line.indexOf(NAME_SEPARATOR);
+        String domainName = (separator < 0) ? line : line.substring(0, separator);
+        StringBuilder stanza = stanzas.computeIfAbsent(domainName, name -> new StringBuilder());
+        if (separator >= 0) {
+          stanza.append(line.substring(separator + 1)).append('\n');
+        }
+      }
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+    ImmutableMap.Builder<String, String> result = new ImmutableMap.Builder<>();
+    stanzas.forEach((domainName, stanza) -> result.put(domainName, stanza.toString()));
+    return result.build();
+  }
+}
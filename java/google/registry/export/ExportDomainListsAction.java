@@ -15,23 +15,32 @@
 package google.registry.export;
 
 import static com.google.appengine.tools.cloudstorage.GcsServiceFactory.createGcsService;
+import static com.google.common.base.Strings.nullToEmpty;
 import static google.registry.mapreduce.inputs.EppResourceInputs.createEntityInput;
 import static google.registry.model.EppResourceUtils.isActive;
 import static google.registry.model.registry.Registries.getTldsOfType;
 import static google.registry.request.Action.Method.POST;
 import static google.registry.util.PipelineUtils.createJobPath;
+import static java.nio.channels.Channels.newOutputStream;
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.joda.time.DateTimeZone.UTC;
 
+import com.google.appengine.tools.cloudstorage.GcsFileMetadata;
+import com.google.appengine.tools.cloudstorage.GcsFileOptions;
 import com.google.appengine.tools.cloudstorage.GcsFilename;
+import com.google.appengine.tools.cloudstorage.GcsService;
 import com.google.appengine.tools.cloudstorage.RetryParams;
 import com.google.appengine.tools.mapreduce.Mapper;
 import com.google.appengine.tools.mapreduce.Reducer;
 import com.google.appengine.tools.mapreduce.ReducerInput;
-import com.google.common.base.Joiner;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Ordering;
 import com.google.common.flogger.FluentLogger;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Closer;
 import com.google.common.net.MediaType;
 import google.registry.config.RegistryConfig.Config;
 import google.registry.gcs.GcsUtils;
@@ -44,10 +53,20 @@ import google.registry.request.Response;
 import google.registry.request.auth.Auth;
 import google.registry.storage.drive.DriveConnection;
 import google.registry.util.NonFinalForTesting;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
 import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import javax.annotation.Nullable;
 import javax.inject.Inject;
 import org.joda.time.DateTime;
 
@@ -67,6 +86,7 @@ public class ExportDomainListsAction implements Runnable {
   @Inject Response response;
   @Inject @Config("domainListsGcsBucket") String gcsBucket;
   @Inject @Config("gcsBufferSize") int gcsBufferSize;
+  @Inject @Config("domainListsSortBufferSize") int sortBufferSize;
   @Inject ExportDomainListsAction() {}
 
   @Override
@@ -79,7 +99,7 @@ public class ExportDomainListsAction implements Runnable {
         .setDefaultReduceShards(Math.min(realTlds.size(), MAX_NUM_REDUCE_SHARDS))
         .runMapreduce(
             new ExportDomainListsMapper(DateTime.now(UTC), realTlds),
-            new ExportDomainListsReducer(gcsBucket, gcsBufferSize),
+            new ExportDomainListsReducer(gcsBucket, gcsBufferSize, sortBufferSize),
             ImmutableList.of(createEntityInput(DomainResource.class)))));
   }
 
@@ -104,6 +124,18 @@ public class ExportDomainListsAction implements Runnable {
     }
   }
 
+  /**
+   * Reducer that writes the sorted domain names of one TLD to GCS and Drive.
+   *
+   * <p>Names are sorted externally: every {@code sortBufferSize} names are sorted in memory and
+   * spilled to a temporary GCS file, and the spilled runs are merged while streaming the final
+   * list to GCS, so the reducer never holds more than one run in memory. TLDs that fit in a single
+   * run skip the spill files entirely.
+   *
+   * <p>The list is only re-uploaded to Drive if it changed since the last successful upload. To
+   * tell, an order-independent fingerprint of the names is computed while reading them, and the
+   * fingerprint of the last list uploaded to Drive is kept in the metadata of the GCS file.
+   */
   static class ExportDomainListsReducer extends Reducer<String, String, Void> {
 
     private static final long serialVersionUID = 7035260977259119087L;
@@ -115,64 +147,203 @@ public class ExportDomainListsAction implements Runnable {
     static final String REGISTERED_DOMAINS_FILENAME = "registered_domains.txt";
     static final MediaType EXPORT_MIME_TYPE = MediaType.PLAIN_TEXT_UTF_8;
 
+    /**
+     * GCS metadata key holding the fingerprint of the list that was last uploaded to Drive, and of
+     * the Drive folder it was uploaded to.
+     */
+    static final String DRIVE_FINGERPRINT_METADATA = "drive_fingerprint";
+
+    private static final HashFunction FINGERPRINT_FUNCTION = Hashing.sha256();
+
     private final String gcsBucket;
     private final int gcsBufferSize;
+    private final int sortBufferSize;
 
     static void setDriveConnectionForTesting(DriveConnection driveConnection) {
       ExportDomainListsReducer.driveConnection = driveConnection;
     }
 
-    public ExportDomainListsReducer(String gcsBucket, int gcsBufferSize) {
+    public ExportDomainListsReducer(String gcsBucket, int gcsBufferSize, int sortBufferSize) {
       this.gcsBucket = gcsBucket;
       this.gcsBufferSize = gcsBufferSize;
+      this.sortBufferSize = sortBufferSize;
     }
 
-    private void exportToDrive(String tld, String domains) {
+    /**
+     * Uploads the domain list to Drive.
+     *
+     * @return whether the upload succeeded
+     */
+    private boolean exportToDrive(String tld, String driveFolderId, byte[] domains) {
       try {
-        Registry registry = Registry.get(tld);
-        if (registry.getDriveFolderId() == null) {
-          logger.atInfo().log(
-              "Skipping registered domains export for TLD %s because Drive folder isn't specified",
-              tld);
-        } else {
-          String resultMsg =
-              driveConnection.createOrUpdateFile(
-                  REGISTERED_DOMAINS_FILENAME,
-                  EXPORT_MIME_TYPE,
-                  registry.getDriveFolderId(),
-                  domains.getBytes(UTF_8));
-          logger.atInfo().log(
-              "Exporting registered domains succeeded for TLD %s, response was: %s",
-              tld, resultMsg);
-        }
+        String resultMsg =
+            driveConnection.createOrUpdateFile(
+                REGISTERED_DOMAINS_FILENAME, EXPORT_MIME_TYPE, driveFolderId, domains);
+        logger.atInfo().log(
+            "Exporting registered domains succeeded for TLD %s, response was: %s",
+            tld, resultMsg);
+        return true;
       } catch (Throwable e) {
         logger.atSevere().withCause(e).log(
             "Error exporting registered domains for TLD %s to Drive", tld);
+        return false;
+      } finally {
+        getContext().incrementCounter("domain lists written out to Drive");
       }
-      getContext().incrementCounter("domain lists written out to Drive");
     }
 
-    private void exportToGcs(String tld, String domains) {
+    @Override
+    public void reduce(String tld, ReducerInput<String> fqdns) {
+      GcsService gcsService = createGcsService(RetryParams.getDefaultInstance());
+      GcsUtils cloudStorage = new GcsUtils(gcsService, gcsBufferSize);
       GcsFilename filename = new GcsFilename(gcsBucket, tld + ".txt");
-      GcsUtils cloudStorage =
-          new GcsUtils(createGcsService(RetryParams.getDefaultInstance()), gcsBufferSize);
-      try (OutputStream gcsOutput = cloudStorage.openOutputStream(filename);
-          Writer osWriter = new OutputStreamWriter(gcsOutput, UTF_8)) {
-        osWriter.write(domains);
-      } catch (IOException e) {
+      // Sort the names in runs of at most sortBufferSize, spilling all but the last run to GCS.
+      List<GcsFilename> spillFiles = new ArrayList<>();
+      List<String> run = new ArrayList<>();
+      byte[] fingerprintBytes = new byte[FINGERPRINT_FUNCTION.bits() / Byte.SIZE];
+      int numDomains = 0;
+      while (fqdns.hasNext()) {
+        String fqdn = fqdns.next();
+        addToFingerprint(fingerprintBytes, fqdn);
+        numDomains++;
+        run.add(fqdn);
+        if (run.size() >= sortBufferSize) {
+          spillFiles.add(spill(cloudStorage, filename, spillFiles.size(), run));
+          run.clear();
+        }
+      }
+      Collections.sort(run);
+      logger.atInfo().log(
+          "Exporting %d domains for TLD %s to GCS and Drive, with %d spilled runs.",
+          numDomains, tld, spillFiles.size());
+      String driveFolderId = Registry.get(tld).getDriveFolderId();
+      String fingerprint = getDriveFingerprint(fingerprintBytes, driveFolderId);
+      String previousDriveFingerprint = getPreviousDriveFingerprint(gcsService, filename);
+      try (Closer closer = Closer.create()) {
+        byte[] domains = null;
+        String driveFingerprint = null;
+        if (driveFolderId == null) {
+          logger.atInfo().log(
+              "Skipping registered domains export for TLD %s because Drive folder isn't specified",
+              tld);
+        } else if (fingerprint.equals(previousDriveFingerprint)) {
+          logger.atInfo().log(
+              "Skipping registered domains export for TLD %s because Drive is up to date", tld);
+          getContext().incrementCounter("unchanged domain lists skipped for Drive");
+          driveFingerprint = fingerprint;
+        } else {
+          // The Drive API needs the whole list in memory, so only materialize it when it changed.
+          ByteArrayOutputStream output = new ByteArrayOutputStream();
+          writeSortedNames(mergeRuns(cloudStorage, spillFiles, run, closer), output);
+          domains = output.toByteArray();
+          if (exportToDrive(tld, driveFolderId, domains)) {
+            driveFingerprint = fingerprint;
+          }
+        }
+        GcsFileOptions.Builder options = new GcsFileOptions.Builder().cacheControl("no-cache");
+        if (driveFingerprint != null) {
+          options.addUserMetadata(DRIVE_FINGERPRINT_METADATA, driveFingerprint);
+        }
+        try (OutputStream gcsOutput =
+            newOutputStream(gcsService.createOrReplace(filename, options.build()))) {
+          if (domains != null) {
+            gcsOutput.write(domains);
+          } else {
+            writeSortedNames(mergeRuns(cloudStorage, spillFiles, run, closer), gcsOutput);
+          }
+        }
+      } catch (IOException | UncheckedIOException e) {
         logger.atSevere().withCause(e).log(
             "Error exporting registered domains for TLD %s to GCS.", tld);
       }
       getContext().incrementCounter("domain lists written out to GCS");
+      for (GcsFilename spillFile : spillFiles) {
+        try {
+          gcsService.delete(spillFile);
+        } catch (IOException e) {
+          logger.atWarning().withCause(e).log(
+              "Error deleting spill file %s", spillFile.getObjectName());
+        }
+      }
     }
 
-    @Override
-    public void reduce(String tld, ReducerInput<String> fqdns) {
-      ImmutableList<String> domains = ImmutableList.sortedCopyOf(() -> fqdns);
-      String domainsList = Joiner.on('\n').join(domains);
-      logger.atInfo().log("Exporting %d domains for TLD %s to GCS and Drive.", domains.size(), tld);
-      exportToGcs(tld, domainsList);
-      exportToDrive(tld, domainsList);
+    /** Sorts the given run of names and writes it to a new spill file. */
+    private static GcsFilename spill(
+        GcsUtils cloudStorage, GcsFilename filename, int runNumber, List<String> run) {
+      Collections.sort(run);
+      GcsFilename spillFile =
+          new GcsFilename(
+              filename.getBucketName(), filename.getObjectName() + ".spill-" + runNumber);
+      try (OutputStream output = cloudStorage.openOutputStream(spillFile)) {
+        writeSortedNames(run.iterator(), output);
+      } catch (IOException e) {
+        throw new RuntimeException("Error spilling sorted domain names to GCS", e);
+      }
+      return spillFile;
+    }
+
+    /** Returns an iterator over the merged names of the spilled runs and the in-memory run. */
+    private static Iterator<String> mergeRuns(
+        GcsUtils cloudStorage, List<GcsFilename> spillFiles, List<String> run, Closer closer) {
+      ImmutableList.Builder<Iterator<String>> runs = new ImmutableList.Builder<>();
+      for (GcsFilename spillFile : spillFiles) {
+        BufferedReader reader =
+            closer.register(
+                new BufferedReader(
+                    new InputStreamReader(cloudStorage.openInputStream(spillFile), UTF_8)));
+        runs.add(reader.lines().iterator());
+      }
+      runs.add(run.iterator());
+      return Iterators.mergeSorted(runs.build(), Ordering.natural());
+    }
+
+    /** Writes the given names as a newline-delimited list, without a trailing newline. */
+    private static void writeSortedNames(Iterator<String> names, OutputStream output)
+        throws IOException {
+      Writer writer = new BufferedWriter(new OutputStreamWriter(output, UTF_8));
+      while (names.hasNext()) {
+        writer.write(names.next());
+        if (names.hasNext()) {
+          writer.write('\n');
+        }
+      }
+      writer.flush();
+    }
+
+    /** Adds the hash of the given name to the order-independent fingerprint of all names. */
+    private static void addToFingerprint(byte[] fingerprint, String fqdn) {
+      // This is the same as Hashing.combineUnordered(), without keeping every hash in memory.
+      byte[] hash = FINGERPRINT_FUNCTION.hashString(fqdn, UTF_8).asBytes();
+      for (int i = 0; i < fingerprint.length; i++) {
+        fingerprint[i] += hash[i];
+      }
+    }
+
+    /**
+     * Returns the fingerprint of uploading the names to the given Drive folder, so that the list is
+     * uploaded again when the folder changes, even if the names didn't.
+     */
+    private static String getDriveFingerprint(byte[] namesFingerprint, @Nullable String folderId) {
+      return FINGERPRINT_FUNCTION
+          .newHasher()
+          .putBytes(namesFingerprint)
+          .putString(nullToEmpty(folderId), UTF_8)
+          .hash()
+          .toString();
+    }
+
+    @Nullable
+    private static String getPreviousDriveFingerprint(GcsService gcsService, GcsFilename filename) {
+      try {
+        GcsFileMetadata metadata = gcsService.getMetadata(filename);
+        return (metadata == null)
+            ? null
+            : metadata.getOptions().getUserMetadata().get(DRIVE_FINGERPRINT_METADATA);
+      } catch (IOException e) {
+        logger.atWarning().withCause(e).log(
+            "Error reading metadata of %s", filename.getObjectName());
+        return null;
+      }
     }
   }
 }
@@ -15,6 +15,7 @@
 package google.registry.export.sheet;
 
 import static com.google.common.base.Strings.emptyToNull;
+import static google.registry.request.RequestParameters.extractBooleanParameter;
 
 import dagger.Module;
 import dagger.Provides;
@@ -31,4 +32,10 @@ public final class SheetModule {
   static Optional<String> provideId(HttpServletRequest req) {
     return Optional.ofNullable(emptyToNull(req.getParameter("id")));
   }
+
+  @Provides
+  @Parameter("full")
+  static boolean provideFull(HttpServletRequest req) {
+    return extractBooleanParameter(req, "full");
+  }
 }
@@ -14,18 +14,36 @@
 
 package google.registry.export.sheet;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Strings.nullToEmpty;
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static java.nio.charset.StandardCharsets.UTF_8;
 
+import com.google.api.client.util.Data;
 import com.google.api.services.sheets.v4.Sheets;
 import com.google.api.services.sheets.v4.model.AppendValuesResponse;
+import com.google.api.services.sheets.v4.model.BatchUpdateSpreadsheetRequest;
 import com.google.api.services.sheets.v4.model.BatchUpdateValuesRequest;
 import com.google.api.services.sheets.v4.model.BatchUpdateValuesResponse;
 import com.google.api.services.sheets.v4.model.ClearValuesRequest;
 import com.google.api.services.sheets.v4.model.ClearValuesResponse;
+import com.google.api.services.sheets.v4.model.DeleteDimensionRequest;
+import com.google.api.services.sheets.v4.model.DimensionRange;
+import com.google.api.services.sheets.v4.model.InsertDimensionRequest;
+import com.google.api.services.sheets.v4.model.Request;
+import com.google.api.services.sheets.v4.model.Sheet;
+import com.google.api.services.sheets.v4.model.SheetProperties;
 import com.google.api.services.sheets.v4.model.ValueRange;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Ordering;
+import com.google.common.collect.Range;
 import com.google.common.flogger.FluentLogger;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
@@ -62,11 +80,12 @@ class SheetSynchronizer {
    *     spreadsheet. Each row is a map, where the key must be exactly the same as the column header
    *     cell in the spreadsheet, and value is an arbitrary object which will be converted to a
    *     string before storing it in the spreadsheet.
+   * @return the column headers of the sheet, in sheet order.
    * @throws IOException if encountering an error communicating with the Sheets service.
    * @see <a href="https://developers.google.com/sheets/">Google Sheets API v4</a>
    */
-  void synchronize(String spreadsheetId, ImmutableList<ImmutableMap<String, String>> data)
-      throws IOException {
+  ImmutableList<String> synchronize(
+      String spreadsheetId, ImmutableList<ImmutableMap<String, String>> data) throws IOException {
 
     // Get the existing sheet's values
     ValueRange sheetValues =
@@ -109,39 +128,16 @@ class SheetSynchronizer {
       }
     }
     // Update the mutated cells if necessary
-    if (!updates.isEmpty()) {
-      BatchUpdateValuesRequest updateRequest = new BatchUpdateValuesRequest()
-          .setValueInputOption("RAW")
-          .setData(updates);
-
-      BatchUpdateValuesResponse response =
-          sheetsService.spreadsheets().values().batchUpdate(spreadsheetId, updateRequest).execute();
-      Integer cellsUpdated = response.getTotalUpdatedCells();
-      logger.atInfo().log("Updated %d originalVals", cellsUpdated != null ? cellsUpdated : 0);
-    }
+    updateValues(spreadsheetId, updates);
 
     // Append extra rows if necessary
     if (data.size() > originalVals.size()) {
-      ImmutableList.Builder<List<Object>> valsBuilder = new ImmutableList.Builder<>();
-      for (int i = originalVals.size(); i < data.size(); i++) {
-        ImmutableList.Builder<Object> rowBuilder = new ImmutableList.Builder<>();
-        for (String header : headers) {
-          rowBuilder.add(nullToEmpty(data.get(i).get(header)));
-        }
-        valsBuilder.add(rowBuilder.build());
-      }
       // Start the append at index originalVals.size (where the previous operation left off)
-      ValueRange appendUpdate = new ValueRange().setValues(valsBuilder.build());
-      AppendValuesResponse appendResponse = sheetsService
-          .spreadsheets()
-          .values()
-          .append(spreadsheetId, getCellRange(originalVals.size()), appendUpdate)
-          .setValueInputOption("RAW")
-          .setInsertDataOption("INSERT_ROWS")
-          .execute();
-      logger.atInfo().log(
-          "Appended %d rows to range %s",
-          data.size() - originalVals.size(), appendResponse.getTableRange());
+      appendRows(
+          spreadsheetId,
+          headers,
+          data.subList(originalVals.size(), data.size()),
+          originalVals.size());
     // Clear the extra rows if necessary
     } else if (data.size() < originalVals.size()) {
       // Clear other rows if there's more originalVals on the sheet than live data.
@@ -158,6 +154,193 @@ class SheetSynchronizer {
           "Cleared %d rows from range %s",
           originalVals.size() - data.size(), clearResponse.getClearedRange());
     }
+    return headers;
+  }
+
+  /**
+   * Writes only the rows of {@code data} that changed since the previous synchronization.
+   *
+   * <p>Unlike {@link #synchronize}, this doesn't read the existing rows. It relies instead on the
+   * content hashes (see {@link #hashRow}) of the rows written by the previous synchronization, and
+   * only reads the header row and the key column to check that the sheet still matches them. Rows
+   * that were removed are deleted and rows that were added are inserted in place, all in a single
+   * batch request. The contents of added and changed rows are then written in a single batch
+   * update, with adjacent rows coalesced into one range, and rows added after the last existing
+   * row are appended.
+   *
+   * @param spreadsheetId The ID of your spreadsheet.
+   * @param keyColumn The header of the column uniquely identifying each row.
+   * @param headers The column headers of the sheet as of the previous synchronization.
+   * @param previousRowHashes The hashes of the rows written by the previous synchronization, keyed
+   *     by their value in {@code keyColumn}.
+   * @param data The entirety of the spreadsheet, as for {@link #synchronize}, but sorted by the
+   *     value in {@code keyColumn}.
+   * @return false, without having modified the sheet, if the headers or rows of the sheet no longer
+   *     match the previous synchronization, in which case {@link #synchronize} should be used.
+   * @throws IOException if encountering an error communicating with the Sheets service.
+   */
+  boolean synchronizeChangedRows(
+      String spreadsheetId,
+      String keyColumn,
+      ImmutableList<String> headers,
+      ImmutableSortedMap<String, String> previousRowHashes,
+      ImmutableList<ImmutableMap<String, String>> data)
+      throws IOException {
+    int keyIndex = headers.indexOf(keyColumn);
+    checkArgument(keyIndex >= 0, "Headers don't contain the key column %s", keyColumn);
+    ImmutableList<String> keys =
+        data.stream().map(row -> nullToEmpty(row.get(keyColumn))).collect(toImmutableList());
+    checkArgument(
+        Ordering.natural().isStrictlyOrdered(keys),
+        "Data must be sorted by distinct values of %s",
+        keyColumn);
+
+    // Make sure that nobody has changed the sheet since the previous synchronization
+    ImmutableList<String> sheetHeaders = getHeaders(spreadsheetId);
+    if (!sheetHeaders.equals(headers)) {
+      logger.atInfo().log("Sheet headers changed from %s to %s", headers, sheetHeaders);
+      return false;
+    }
+    ImmutableList<String> sheetKeys = getColumn(spreadsheetId, keyIndex);
+    if (!sheetKeys.equals(previousRowHashes.keySet().asList())) {
+      logger.atInfo().log("Rows of the sheet don't match the previous synchronization");
+      return false;
+    }
+
+    // Row indices below are 0-based and exclude the header row, like those in the data
+    ImmutableSet<String> dataKeys = ImmutableSet.copyOf(keys);
+    List<Integer> removedRows = new ArrayList<>();
+    for (int i = 0; i < sheetKeys.size(); i++) {
+      if (!dataKeys.contains(sheetKeys.get(i))) {
+        removedRows.add(i);
+      }
+    }
+    // Rows after the last one that's already in the sheet are appended rather than inserted
+    int firstAppendedRow = 0;
+    for (int i = 0; i < keys.size(); i++) {
+      if (previousRowHashes.containsKey(keys.get(i))) {
+        firstAppendedRow = i + 1;
+      }
+    }
+    List<Integer> insertedRows = new ArrayList<>();
+    List<Integer> writtenRows = new ArrayList<>();
+    for (int i = 0; i < firstAppendedRow; i++) {
+      String previousHash = previousRowHashes.get(keys.get(i));
+      if (previousHash == null) {
+        insertedRows.add(i);
+        writtenRows.add(i);
+      } else if (!previousHash.equals(hashRow(data.get(i)))) {
+        writtenRows.add(i);
+      }
+    }
+
+    if (!removedRows.isEmpty() || !insertedRows.isEmpty()) {
+      int sheetId = getSheetId(spreadsheetId);
+      List<Request> requests = new ArrayList<>();
+      // Delete from the bottom up, so that deletions don't shift the rows still to be deleted
+      for (Range<Integer> rows : Lists.reverse(coalesceRows(removedRows))) {
+        requests.add(
+            new Request()
+                .setDeleteDimension(
+                    new DeleteDimensionRequest().setRange(getDimensionRange(sheetId, rows))));
+      }
+      // Insert from the top down at the rows' final positions, which is where they belong once all
+      // of the rows above them are in place
+      for (Range<Integer> rows : coalesceRows(insertedRows)) {
+        requests.add(
+            new Request()
+                .setInsertDimension(
+                    new InsertDimensionRequest()
+                        .setRange(getDimensionRange(sheetId, rows))
+                        .setInheritFromBefore(true)));
+      }
+      sheetsService
+          .spreadsheets()
+          .batchUpdate(spreadsheetId, new BatchUpdateSpreadsheetRequest().setRequests(requests))
+          .execute();
+      logger.atInfo().log(
+          "Deleted %d rows and inserted %d rows", removedRows.size(), insertedRows.size());
+    }
+
+    List<ValueRange> updates = new ArrayList<>();
+    for (Range<Integer> rows : coalesceRows(writtenRows)) {
+      List<List<Object>> rowValues = new ArrayList<>();
+      for (int i = rows.lowerEndpoint(); i < rows.upperEndpoint(); i++) {
+        List<Object> cellRow = new ArrayList<>();
+        for (String header : headers) {
+          // Null values leave the cell as it is, like columns missing from the data do in a full
+          // synchronization
+          String dataField = data.get(i).get(header);
+          cellRow.add(dataField != null ? dataField : Data.NULL_STRING);
+        }
+        rowValues.add(cellRow);
+      }
+      updates.add(
+          new ValueRange().setValues(rowValues).setRange(getCellRange(rows.lowerEndpoint())));
+    }
+    updateValues(spreadsheetId, updates);
+
+    // By now, the sheet has exactly as many rows as precede the first appended one
+    if (firstAppendedRow < data.size()) {
+      appendRows(
+          spreadsheetId, headers, data.subList(firstAppendedRow, data.size()), firstAppendedRow);
+    }
+    return true;
+  }
+
+  /** Returns a hash of the contents of a row, for telling which rows changed between syncs. */
+  static String hashRow(ImmutableMap<String, String> row) {
+    Hasher hasher = Hashing.murmur3_128().newHasher();
+    row.forEach(
+        (header, value) ->
+            hasher
+                .putInt(header.length())
+                .putString(header, UTF_8)
+                .putInt(value.length())
+                .putString(value, UTF_8));
+    return hasher.hash().toString();
+  }
+
+  /** Writes the given ranges of values in a single batch update, if there are any. */
+  private void updateValues(String spreadsheetId, List<ValueRange> updates) throws IOException {
+    if (updates.isEmpty()) {
+      return;
+    }
+    BatchUpdateValuesRequest updateRequest = new BatchUpdateValuesRequest()
+        .setValueInputOption("RAW")
+        .setData(updates);
+
+    BatchUpdateValuesResponse response =
+        sheetsService.spreadsheets().values().batchUpdate(spreadsheetId, updateRequest).execute();
+    Integer cellsUpdated = response.getTotalUpdatedCells();
+    logger.atInfo().log("Updated %d originalVals", cellsUpdated != null ? cellsUpdated : 0);
+  }
+
+  /** Appends the given rows to the sheet, starting at data row {@code firstRow}. */
+  private void appendRows(
+      String spreadsheetId,
+      ImmutableList<String> headers,
+      List<ImmutableMap<String, String>> rows,
+      int firstRow)
+      throws IOException {
+    ImmutableList.Builder<List<Object>> valsBuilder = new ImmutableList.Builder<>();
+    for (ImmutableMap<String, String> row : rows) {
+      ImmutableList.Builder<Object> rowBuilder = new ImmutableList.Builder<>();
+      for (String header : headers) {
+        rowBuilder.add(nullToEmpty(row.get(header)));
+      }
+      valsBuilder.add(rowBuilder.build());
+    }
+    ValueRange appendUpdate = new ValueRange().setValues(valsBuilder.build());
+    AppendValuesResponse appendResponse = sheetsService
+        .spreadsheets()
+        .values()
+        .append(spreadsheetId, getCellRange(firstRow), appendUpdate)
+        .setValueInputOption("RAW")
+        .setInsertDataOption("INSERT_ROWS")
+        .execute();
+    logger.atInfo().log(
+        "Appended %d rows to range %s", rows.size(), appendResponse.getTableRange());
   }
 
   /**
@@ -185,4 +368,79 @@ class SheetSynchronizer {
   private String getRowRange(int firstRow, int lastRow) {
     return String.format("%s!%d:%d", SHEET_NAME, firstRow + 2, lastRow + 2);
   }
+
+  /** Returns the A1 name of the column with the given 0-based index, e.g. "AB" for 27. */
+  private static String getColumnName(int columnIndex) {
+    StringBuilder name = new StringBuilder();
+    for (int i = columnIndex + 1; i > 0; i = (i - 1) / 26) {
+      name.insert(0, (char) ('A' + (i - 1) % 26));
+    }
+    return name.toString();
+  }
+
+  /** Returns the header row of the sheet, without reading any of the data rows. */
+  private ImmutableList<String> getHeaders(String spreadsheetId) throws IOException {
+    List<List<Object>> values = getValues(spreadsheetId, String.format("%s!1:1", SHEET_NAME));
+    return values.isEmpty()
+        ? ImmutableList.of()
+        : values.get(0).stream().map(Object::toString).collect(toImmutableList());
+  }
+
+  /** Returns the values of every data row in a single column, with empty cells as "". */
+  private ImmutableList<String> getColumn(String spreadsheetId, int columnIndex)
+      throws IOException {
+    String columnName = getColumnName(columnIndex);
+    return getValues(
+            spreadsheetId, String.format("%s!%s2:%s", SHEET_NAME, columnName, columnName))
+        .stream()
+        .map(row -> row.isEmpty() ? "" : row.get(0).toString())
+        .collect(toImmutableList());
+  }
+
+  private List<List<Object>> getValues(String spreadsheetId, String range) throws IOException {
+    List<List<Object>> values =
+        sheetsService.spreadsheets().values().get(spreadsheetId, range).execute().getValues();
+    return values == null ? ImmutableList.of() : values;
+  }
+
+  /** Returns the numeric ID of the sheet, which requests that change its structure refer to. */
+  private int getSheetId(String spreadsheetId) throws IOException {
+    return sheetsService
+        .spreadsheets()
+        .get(spreadsheetId)
+        .setFields("sheets.properties")
+        .execute()
+        .getSheets()
+        .stream()
+        .map(Sheet::getProperties)
+        .filter(properties -> SHEET_NAME.equals(properties.getTitle()))
+        .map(SheetProperties::getSheetId)
+        .findFirst()
+        .orElseThrow(() -> new IllegalStateException("Spreadsheet has no sheet " + SHEET_NAME));
+  }
+
+  /** Returns the range of sheet rows holding the given (0-based) data rows. */
+  private static DimensionRange getDimensionRange(int sheetId, Range<Integer> rows) {
+    // We add 1 to the row indices to offset for the header
+    return new DimensionRange()
+        .setSheetId(sheetId)
+        .setDimension("ROWS")
+        .setStartIndex(rows.lowerEndpoint() + 1)
+        .setEndIndex(rows.upperEndpoint() + 1);
+  }
+
+  /** Coalesces an ascending list of row indices into ranges of adjacent rows. */
+  private static ImmutableList<Range<Integer>> coalesceRows(List<Integer> rows) {
+    ImmutableList.Builder<Range<Integer>> ranges = new ImmutableList.Builder<>();
+    int i = 0;
+    while (i < rows.size()) {
+      int start = rows.get(i);
+      int end = start + 1;
+      while (++i < rows.size() && rows.get(i) == end) {
+        end++;
+      }
+      ranges.add(Range.closedOpen(start, end));
+    }
+    return ranges.build();
+  }
 }
@@ -16,6 +16,7 @@ package google.registry.export.sheet;
 
 import static com.google.common.base.MoreObjects.firstNonNull;
 import static com.google.common.collect.ImmutableList.toImmutableList;
+import static com.google.common.collect.ImmutableMap.toImmutableMap;
 import static google.registry.model.common.Cursor.CursorType.SYNC_REGISTRAR_SHEET;
 import static google.registry.model.ofy.ObjectifyService.ofy;
 import static google.registry.model.registrar.RegistrarContact.Type.ABUSE;
@@ -36,6 +37,7 @@ import google.registry.model.common.Cursor;
 import google.registry.model.registrar.Registrar;
 import google.registry.model.registrar.RegistrarAddress;
 import google.registry.model.registrar.RegistrarContact;
+import google.registry.model.registrar.RegistrarSheetState;
 import google.registry.util.Clock;
 import google.registry.util.DateTimeUtils;
 import java.io.IOException;
@@ -51,6 +53,9 @@ import org.joda.time.DateTime;
  */
 class SyncRegistrarsSheet {
 
+  /** The column uniquely identifying the row of each registrar. */
+  private static final String CLIENT_ID_COLUMN = "clientIdentifier";
+
   @Inject Clock clock;
   @Inject SheetSynchronizer sheetSynchronizer;
   @Inject SyncRegistrarsSheet() {}
@@ -70,91 +75,135 @@ class SyncRegistrarsSheet {
     return false;
   }
 
-  /** Performs the synchronization operation. */
-  void run(String spreadsheetId) throws IOException {
+  /**
+   * Performs the synchronization operation.
+   *
+   * <p>Unless {@code fullSync} is set, only the rows of registrars that were added, removed or
+   * changed since the previous sync of this spreadsheet are written, as tracked by its {@link
+   * RegistrarSheetState}. The whole sheet is synchronized if there is no such state, if the sheet
+   * no longer matches it, or if {@code fullSync} is set.
+   */
+  void run(String spreadsheetId, boolean fullSync) throws IOException {
     final DateTime executionTime = clock.nowUtc();
-    sheetSynchronizer.synchronize(
-        spreadsheetId,
-        new Ordering<Registrar>() {
-          @Override
-          public int compare(Registrar left, Registrar right) {
-            return left.getClientId().compareTo(right.getClientId());
-          }
-        }.immutableSortedCopy(Registrar.loadAllCached())
-            .stream()
-            .filter(
-                registrar ->
-                    registrar.getType() == Registrar.Type.REAL
-                        || registrar.getType() == Registrar.Type.OTE)
-            .map(
-                registrar -> {
-                  ImmutableMap.Builder<String, String> builder = new ImmutableMap.Builder<>();
-                  ImmutableSortedSet<RegistrarContact> contacts = registrar.getContacts();
-                  RegistrarAddress address =
-                      firstNonNull(
-                          registrar.getLocalizedAddress(),
-                          firstNonNull(
-                              registrar.getInternationalizedAddress(),
-                              new RegistrarAddress.Builder()
-                                  .setStreet(ImmutableList.of("UNKNOWN"))
-                                  .setCity("UNKNOWN")
-                                  .setCountryCode("US")
-                                  .build()));
-                  //
-                  // （╯°□°）╯ WARNING WARNING WARNING
-                  //
-                  // Do not change these mappings simply because the Registrar model changed. Only
-                  // change these mappings if the people who use the spreadsheet requested it be
-                  // changed.
-                  //
-                  // These values are hard-coded because they correspond to actual spreadsheet
-                  // columns. If you change this dictionary, then you'll need to manually add new
-                  // columns to the registrar spreadsheets for all environments before deployment,
-                  // and you'll need to remove deleted columns probably like a week after
-                  // deployment.
-                  //
-                  builder.put("clientIdentifier", convert(registrar.getClientId()));
-                  builder.put("registrarName", convert(registrar.getRegistrarName()));
-                  builder.put("state", convert(registrar.getState()));
-                  builder.put("ianaIdentifier", convert(registrar.getIanaIdentifier()));
-                  builder.put("billingIdentifier", convert(registrar.getBillingIdentifier()));
-                  builder.put("billingAccountMap", convert(registrar.getBillingAccountMap()));
-                  builder.put("primaryContacts", convertContacts(contacts, byType(ADMIN)));
-                  builder.put("techContacts", convertContacts(contacts, byType(TECH)));
-                  builder.put("marketingContacts", convertContacts(contacts, byType(MARKETING)));
-                  builder.put("abuseContacts", convertContacts(contacts, byType(ABUSE)));
-                  builder.put("whoisInquiryContacts", convertContacts(contacts, byType(WHOIS)));
-                  builder.put("legalContacts", convertContacts(contacts, byType(LEGAL)));
-                  builder.put("billingContacts", convertContacts(contacts, byType(BILLING)));
-                  builder.put(
-                      "contactsMarkedAsWhoisAdmin",
-                      convertContacts(contacts, RegistrarContact::getVisibleInWhoisAsAdmin));
-                  builder.put(
-                      "contactsMarkedAsWhoisTech",
-                      convertContacts(contacts, RegistrarContact::getVisibleInWhoisAsTech));
-                  builder.put("emailAddress", convert(registrar.getEmailAddress()));
-                  builder.put("address.street", convert(address.getStreet()));
-                  builder.put("address.city", convert(address.getCity()));
-                  builder.put("address.state", convert(address.getState()));
-                  builder.put("address.zip", convert(address.getZip()));
-                  builder.put("address.countryCode", convert(address.getCountryCode()));
-                  builder.put("phoneNumber", convert(registrar.getPhoneNumber()));
-                  builder.put("faxNumber", convert(registrar.getFaxNumber()));
-                  builder.put("creationTime", convert(registrar.getCreationTime()));
-                  builder.put("lastUpdateTime", convert(registrar.getLastUpdateTime()));
-                  builder.put("allowedTlds", convert(registrar.getAllowedTlds()));
-                  builder.put("whoisServer", convert(registrar.getWhoisServer()));
-                  builder.put("blockPremiumNames", convert(registrar.getBlockPremiumNames()));
-                  builder.put("ipAddressWhitelist", convert(registrar.getIpAddressWhitelist()));
-                  builder.put("url", convert(registrar.getUrl()));
-                  builder.put("referralUrl", convert(registrar.getUrl()));
-                  builder.put("icannReferralEmail", convert(registrar.getIcannReferralEmail()));
-                  return builder.build();
-                })
-            .collect(toImmutableList()));
+    ImmutableList<ImmutableMap<String, String>> data = getRegistrarRows();
+    RegistrarSheetState previousState =
+        fullSync ? null : ofy().load().key(RegistrarSheetState.createKey(spreadsheetId)).now();
+    ImmutableList<String> headers;
+    try {
+      if (previousState != null
+          && sheetSynchronizer.synchronizeChangedRows(
+              spreadsheetId,
+              CLIENT_ID_COLUMN,
+              previousState.getHeaders(),
+              previousState.getRowHashes(),
+              data)) {
+        headers = previousState.getHeaders();
+      } else {
+        headers = sheetSynchronizer.synchronize(spreadsheetId, data);
+      }
+    } catch (IOException | RuntimeException e) {
+      // The sheet may have been partially updated, so the next sync mustn't rely on the old state.
+      ofy()
+          .transact(
+              () ->
+                  ofy().deleteWithoutBackup().key(RegistrarSheetState.createKey(spreadsheetId)));
+      throw e;
+    }
+    RegistrarSheetState newState =
+        RegistrarSheetState.create(
+            spreadsheetId,
+            headers,
+            data.stream()
+                .collect(
+                    toImmutableMap(
+                        row -> row.get(CLIENT_ID_COLUMN), SheetSynchronizer::hashRow)));
     ofy()
         .transact(
-            () -> ofy().save().entity(Cursor.createGlobal(SYNC_REGISTRAR_SHEET, executionTime)));
+            () -> {
+              ofy().save().entity(Cursor.createGlobal(SYNC_REGISTRAR_SHEET, executionTime));
+              ofy().saveWithoutBackup().entity(newState);
+            });
+  }
+
+  /** Returns the sheet rows of all real and OT&E registrars, sorted by client ID. */
+  private ImmutableList<ImmutableMap<String, String>> getRegistrarRows() {
+    return new Ordering<Registrar>() {
+      @Override
+      public int compare(Registrar left, Registrar right) {
+        return left.getClientId().compareTo(right.getClientId());
+      }
+    }.immutableSortedCopy(Registrar.loadAllCached())
+        .stream()
+        .filter(
+            registrar ->
+                registrar.getType() == Registrar.Type.REAL
+                    || registrar.getType() == Registrar.Type.OTE)
+        .map(
+            registrar -> {
+              ImmutableMap.Builder<String, String> builder = new ImmutableMap.Builder<>();
+              ImmutableSortedSet<RegistrarContact> contacts = registrar.getContacts();
+              RegistrarAddress address =
+                  firstNonNull(
+                      registrar.getLocalizedAddress(),
+                      firstNonNull(
+                          registrar.getInternationalizedAddress(),
+                          new RegistrarAddress.Builder()
+                              .setStreet(ImmutableList.of("UNKNOWN"))
+                              .setCity("UNKNOWN")
+                              .setCountryCode("US")
+                              .build()));
+              //
+              // （╯°□°）╯ WARNING WARNING WARNING
+              //
+              // Do not change these mappings simply because the Registrar model changed. Only
+              // change these mappings if the people who use the spreadsheet requested it be
+              // changed.
+              //
+              // These values are hard-coded because they correspond to actual spreadsheet
+              // columns. If you change this dictionary, then you'll need to manually add new
+              // columns to the registrar spreadsheets for all environments before deployment,
+              // and you'll need to remove deleted columns probably like a week after
+              // deployment.
+              //
+              builder.put(CLIENT_ID_COLUMN, convert(registrar.getClientId()));
+              builder.put("registrarName", convert(registrar.getRegistrarName()));
+              builder.put("state", convert(registrar.getState()));
+              builder.put("ianaIdentifier", convert(registrar.getIanaIdentifier()));
+              builder.put("billingIdentifier", convert(registrar.getBillingIdentifier()));
+              builder.put("billingAccountMap", convert(registrar.getBillingAccountMap()));
+              builder.put("primaryContacts", convertContacts(contacts, byType(ADMIN)));
+              builder.put("techContacts", convertContacts(contacts, byType(TECH)));
+              builder.put("marketingContacts", convertContacts(contacts, byType(MARKETING)));
+              builder.put("abuseContacts", convertContacts(contacts, byType(ABUSE)));
+              builder.put("whoisInquiryContacts", convertContacts(contacts, byType(WHOIS)));
+              builder.put("legalContacts", convertContacts(contacts, byType(LEGAL)));
+              builder.put("billingContacts", convertContacts(contacts, byType(BILLING)));
+              builder.put(
+                  "contactsMarkedAsWhoisAdmin",
+                  convertContacts(contacts, RegistrarContact::getVisibleInWhoisAsAdmin));
+              builder.put(
+                  "contactsMarkedAsWhoisTech",
+                  convertContacts(contacts, RegistrarContact::getVisibleInWhoisAsTech));
+              builder.put("emailAddress", convert(registrar.getEmailAddress()));
+              builder.put("address.street", convert(address.getStreet()));
+              builder.put("address.city", convert(address.getCity()));
+              builder.put("address.state", convert(address.getState()));
+              builder.put("address.zip", convert(address.getZip()));
+              builder.put("address.countryCode", convert(address.getCountryCode()));
+              builder.put("phoneNumber", convert(registrar.getPhoneNumber()));
+              builder.put("faxNumber", convert(registrar.getFaxNumber()));
+              builder.put("creationTime", convert(registrar.getCreationTime()));
+              builder.put("lastUpdateTime", convert(registrar.getLastUpdateTime()));
+              builder.put("allowedTlds", convert(registrar.getAllowedTlds()));
+              builder.put("whoisServer", convert(registrar.getWhoisServer()));
+              builder.put("blockPremiumNames", convert(registrar.getBlockPremiumNames()));
+              builder.put("ipAddressWhitelist", convert(registrar.getIpAddressWhitelist()));
+              builder.put("url", convert(registrar.getUrl()));
+              builder.put("referralUrl", convert(registrar.getUrl()));
+              builder.put("icannReferralEmail", convert(registrar.getIcannReferralEmail()));
+              return builder.build();
+            })
+        .collect(toImmutableList());
   }
 
   private static String convertContacts(
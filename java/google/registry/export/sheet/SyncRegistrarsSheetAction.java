@@ -50,6 +50,11 @@ import org.joda.time.Duration;
  *
  * <p><b>Note:</b> Setting the "id" parameter will disable the registrar update check.
  *
+ * <p>Normally only the rows of registrars that changed since the previous sync are written to the
+ * sheet. Passing the "full" parameter disables the registrar update check and rewrites the sheet
+ * from scratch, which fixes up any manual edits to the registrar rows. Cron does this daily, so
+ * manual edits don't survive longer than a day.
+ *
  * <p>Before using this service, you should make sure all the column headers listed in this source
  * file are present. You also need to share the spreadsheet with the email address from the JSON
  * credential file and give it edit permission.
@@ -109,6 +114,7 @@ public class SyncRegistrarsSheetAction implements Runnable {
   @Inject @Config("sheetLockTimeout") Duration timeout;
   @Inject @Config("sheetRegistrarId") Optional<String> idConfig;
   @Inject @Parameter("id") Optional<String> idParam;
+  @Inject @Parameter("full") boolean fullSync;
   @Inject LockHandler lockHandler;
   @Inject SyncRegistrarsSheetAction() {}
 
@@ -119,7 +125,7 @@ public class SyncRegistrarsSheetAction implements Runnable {
       Result.MISSINGNO.send(response, null);
       return;
     }
-    if (!idParam.isPresent()) {
+    if (!idParam.isPresent() && !fullSync) {
       if (!syncRegistrarsSheet.wereRegistrarsModified()) {
         Result.NOTMODIFIED.send(response, null);
         return;
@@ -130,7 +136,7 @@ public class SyncRegistrarsSheetAction implements Runnable {
     Callable<Void> runner =
         () -> {
           try {
-            syncRegistrarsSheet.run(sheetId.get());
+            syncRegistrarsSheet.run(sheetId.get(), fullSync);
             Result.OK.send(response, null);
           } catch (IOException e) {
             Result.FAILED.send(response, e);
@@ -33,6 +33,7 @@ import google.registry.model.eppoutput.EppOutput;
 import google.registry.model.eppoutput.EppResponse;
 import google.registry.model.eppoutput.Result;
 import google.registry.model.eppoutput.Result.Code;
+import google.registry.model.ofy.DatastoreRpcStats;
 import google.registry.monitoring.whitebox.BigQueryMetricsEnqueuer;
 import google.registry.monitoring.whitebox.EppMetric;
 import java.util.Optional;
@@ -64,6 +65,7 @@ public final class EppController {
       boolean isDryRun,
       boolean isSuperuser,
       byte[] inputXmlBytes) {
+    DatastoreRpcStats.reset();
     eppMetricBuilder.setClientId(Optional.ofNullable(sessionMetadata.getClientId()));
     eppMetricBuilder.setPrivilegeLevel(isSuperuser ? "SUPERUSER" : "NORMAL");
     try {
@@ -121,10 +123,12 @@ public final class EppController {
       return output;
     } finally {
       if (!isDryRun) {
-        EppMetric metric = eppMetricBuilder.build();
+        EppMetric metric =
+            eppMetricBuilder.setDatastoreRpcStats(DatastoreRpcStats.current()).build();
         bigQueryMetricsEnqueuer.export(metric);
         eppMetrics.incrementEppRequests(metric);
         eppMetrics.recordProcessingTime(metric);
+        eppMetrics.recordDatastoreRpcs(metric);
       }
     }
   }
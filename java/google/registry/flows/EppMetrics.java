@@ -39,6 +39,12 @@ public class EppMetrics {
           LabelDescriptor.create("tld", "The TLD acted on by the command (if applicable)."),
           LabelDescriptor.create("status", "The return status of the command."));
 
+  private static final ImmutableSet<LabelDescriptor> LABEL_DESCRIPTORS_FOR_DATASTORE =
+      ImmutableSet.of(
+          LabelDescriptor.create("command", "The name of the command."),
+          LabelDescriptor.create("tld", "The TLD acted on by the command (if applicable)."),
+          LabelDescriptor.create("rpc_type", "The type of Datastore RPC."));
+
   private static final IncrementableMetric eppRequestsByRegistrar =
       MetricRegistryImpl.getDefault()
           .newIncrementableMetric(
@@ -73,6 +79,32 @@ public class EppMetrics {
               LABEL_DESCRIPTORS_BY_TLD,
               DEFAULT_FITTER);
 
+  private static final EventMetric datastoreRpcsByTld =
+      MetricRegistryImpl.getDefault()
+          .newEventMetric(
+              "/epp/datastore_rpcs",
+              "Datastore RPCs Per EPP Request By TLD",
+              "count",
+              LABEL_DESCRIPTORS_FOR_DATASTORE,
+              DEFAULT_FITTER);
+
+  private static final EventMetric datastoreBytesWrittenByTld =
+      MetricRegistryImpl.getDefault()
+          .newEventMetric(
+              "/epp/datastore_bytes_written",
+              "Bytes Written To Datastore Per EPP Request By TLD",
+              "bytes",
+              LABEL_DESCRIPTORS_BY_TLD,
+              DEFAULT_FITTER);
+
+  private static final IncrementableMetric transactionConflictsByTld =
+      MetricRegistryImpl.getDefault()
+          .newIncrementableMetric(
+              "/epp/transaction_conflicts",
+              "Count of Conflicting Transaction Attempts By TLD",
+              "count",
+              LABEL_DESCRIPTORS_BY_TLD);
+
   @Inject
   public EppMetrics() {}
 
@@ -108,4 +140,25 @@ public class EppMetrics {
         metric.getTld().orElse(""),
         eppStatusCode);
   }
+
+  /**
+   * Records the number of Datastore RPCs of each type, the bytes written, and the number of
+   * transaction conflicts for a request.
+   */
+  public void recordDatastoreRpcs(EppMetric metric) {
+    String command = metric.getCommandName().orElse("");
+    String tld = metric.getTld().orElse("");
+    metric
+        .getDatastoreRpcCounts()
+        .forEach((type, count) -> datastoreRpcsByTld.record(count, command, tld, type.name()));
+    String eppStatusCode =
+        metric.getStatus().isPresent() ? String.valueOf(metric.getStatus().get().code) : "";
+    metric
+        .getDatastoreBytesWritten()
+        .ifPresent(bytes -> datastoreBytesWrittenByTld.record(bytes, command, tld, eppStatusCode));
+    if (metric.getTransactionConflicts() > 0) {
+      transactionConflictsByTld.incrementBy(
+          metric.getTransactionConflicts(), command, tld, eppStatusCode);
+    }
+  }
 }
@@ -14,6 +14,7 @@
 
 package google.registry.flows;
 
+import static com.google.common.base.Strings.emptyToNull;
 import static com.google.common.collect.ImmutableSet.toImmutableSet;
 import static java.util.Collections.EMPTY_LIST;
 
@@ -28,6 +29,8 @@ import google.registry.flows.FlowModule.InputXml;
 import google.registry.flows.annotations.ReportingSpec;
 import google.registry.model.eppcommon.Trid;
 import google.registry.model.eppinput.EppInput;
+import google.registry.model.reporting.IcannReportingTypes.ActivityReportField;
+import google.registry.monitoring.whitebox.IcannActivityCounters;
 import java.util.Optional;
 import javax.inject.Inject;
 import org.json.simple.JSONValue;
@@ -49,6 +52,7 @@ public class FlowReporter {
   @Inject @InputXml byte[] inputXmlBytes;
   @Inject EppInput eppInput;
   @Inject Class<? extends Flow> flowClass;
+  @Inject IcannActivityCounters icannActivityCounters;
   @Inject FlowReporter() {}
 
   /** Records information about the current flow execution in the GAE request logs. */
@@ -76,10 +80,36 @@ public class FlowReporter {
                 .put(
                     "tlds",
                     eppInput.isDomainResourceType() ? extractTlds(targetIds).asList() : EMPTY_LIST)
-                .put("icannActivityReportField", extractActivityReportField(flowClass))
+                .put(
+                    "icannActivityReportField",
+                    extractActivityReportField(flowClass)
+                        .map(ActivityReportField::getFieldName)
+                        .orElse(""))
                 .build()));
   }
 
+  /**
+   * Counts the current flow execution towards the ICANN activity report.
+   *
+   * <p>This counts the same executions as the logs from {@link #recordToLogs}: domain flows count
+   * once towards each TLD they target, and are dropped if they don't target any, while other flows
+   * count towards every TLD.
+   */
+  public void recordToActivityCounters() {
+    Optional<ActivityReportField> field = extractActivityReportField(flowClass);
+    if (!field.isPresent()) {
+      return;
+    }
+    Optional<String> registrar = Optional.ofNullable(emptyToNull(clientId));
+    if (!eppInput.isDomainResourceType()) {
+      icannActivityCounters.increment(Optional.empty(), registrar, field.get());
+      return;
+    }
+    for (String tld : extractTlds(eppInput.getTargetIds())) {
+      icannActivityCounters.increment(Optional.of(tld), registrar, field.get());
+    }
+  }
+
   /**
    * Returns the guessed TLD of the given domain name, assuming a second-level domain name, or
    * absent if no TLD could be detected.
@@ -110,14 +140,12 @@ public class FlowReporter {
   }
 
   /**
-   * Returns the ICANN activity report field for the given flow class, or the empty string if no
-   * activity report field specification is found.
+   * Returns the ICANN activity report field for the given flow class, or absent if no activity
+   * report field specification is found.
    */
-  private static String extractActivityReportField(Class<? extends Flow> flowClass) {
-    ReportingSpec reportingSpec = flowClass.getAnnotation(ReportingSpec.class);
-    if (reportingSpec != null) {
-      return reportingSpec.value().getFieldName();
-    }
-    return "";
+  private static Optional<ActivityReportField> extractActivityReportField(
+      Class<? extends Flow> flowClass) {
+    return Optional.ofNullable(flowClass.getAnnotation(ReportingSpec.class))
+        .map(ReportingSpec::value);
   }
 }
@@ -14,6 +14,7 @@
 
 package google.registry.flows;
 
+import static google.registry.config.RegistryConfig.getTransactionRetryBudget;
 import static google.registry.model.ofy.ObjectifyService.ofy;
 import static google.registry.xml.XmlTransformer.prettyPrint;
 
@@ -66,9 +67,11 @@ public class FlowRunner {
         eppRequestSource,
         isDryRun ? "DRY_RUN" : "LIVE",
         isSuperuser ? "SUPERUSER" : "NORMAL");
-    // Record flow info to the GAE request logs for reporting purposes if it's not a dry run.
+    // Record flow info to the GAE request logs and the ICANN activity counters for reporting
+    // purposes if it's not a dry run.
     if (!isDryRun) {
       flowReporter.recordToLogs();
+      flowReporter.recordToActivityCounters();
     }
     eppMetricBuilder.setCommandNameFromFlow(flowClass.getSimpleName());
     if (!isTransactional) {
@@ -83,6 +86,7 @@ public class FlowRunner {
     try {
       return ofy()
           .transact(
+              getTransactionRetryBudget(flowClass.getSimpleName()),
               () -> {
                 eppMetricBuilder.incrementAttempts();
                 try {
@@ -220,8 +220,9 @@ public class DomainFlowUtils {
     if (firstLabel.endsWith("-")) {
       throw new TrailingDashException();
     }
-    String unicode = Idn.toUnicode(firstLabel);
-    if (firstLabel.startsWith(ACE_PREFIX) && firstLabel.equals(unicode)) {
+    // An A-label whose Unicode form is identical to itself isn't valid punycode. The conversion is
+    // only needed for A-labels, so it's skipped for every other label.
+    if (firstLabel.startsWith(ACE_PREFIX) && firstLabel.equals(Idn.toUnicode(firstLabel))) {
       throw new InvalidPunycodeException();
     }
     if (!firstLabel.startsWith(ACE_PREFIX)
@@ -14,11 +14,16 @@
 
 package google.registry.flows.domain;
 
-import static google.registry.pricing.PricingEngineProxy.getDomainCreateCost;
-import static google.registry.pricing.PricingEngineProxy.getDomainFeeClass;
-import static google.registry.pricing.PricingEngineProxy.getDomainRenewCost;
+import static google.registry.pricing.PricingEngineProxy.getPricesForDomainName;
 
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.HashBasedTable;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Table;
 import com.google.common.net.InternetDomainName;
+import com.google.monitoring.metrics.IncrementableMetric;
+import com.google.monitoring.metrics.LabelDescriptor;
+import com.google.monitoring.metrics.MetricRegistryImpl;
 import google.registry.flows.EppException;
 import google.registry.flows.FlowScope;
 import google.registry.flows.custom.DomainPricingCustomLogic;
@@ -32,7 +37,9 @@ import google.registry.model.domain.DomainApplication;
 import google.registry.model.domain.fee.BaseFee;
 import google.registry.model.domain.fee.BaseFee.FeeType;
 import google.registry.model.domain.fee.Fee;
+import google.registry.model.pricing.PremiumPricingEngine.DomainPrices;
 import google.registry.model.registry.Registry;
+import google.registry.pricing.PricingEngineProxy;
 import java.util.Optional;
 import javax.inject.Inject;
 import org.joda.money.CurrencyUnit;
@@ -43,15 +50,57 @@ import org.joda.time.DateTime;
  * Provides pricing for create, renew, etc, operations, with call-outs that can be customized by
  * providing a {@link DomainPricingCustomLogic} implementation that operates on cross-TLD or per-TLD
  * logic.
+ *
+ * <p>The premium pricing engine is consulted at most once per domain name and price time for the
+ * lifetime of a flow. A fee check that asks for several commands and periods for the same name, or
+ * a create that prices a name and then checks its fee class, reuses that one lookup.
  */
 @FlowScope
 public final class DomainPricingLogic {
 
+  /** Metric counting premium pricing engine lookups, and how many were served by the memo. */
+  @VisibleForTesting
+  static final IncrementableMetric pricingLookups =
+      MetricRegistryImpl.getDefault()
+          .newIncrementableMetric(
+              "/domain/pricing/lookups",
+              "Count of domain price lookups",
+              "count",
+              ImmutableSet.of(
+                  LabelDescriptor.create("tld", "TLD"),
+                  LabelDescriptor.create("outcome", "Whether the price was already memoized.")));
+
   @Inject DomainPricingCustomLogic customLogic;
 
+  /** Prices already returned by the premium pricing engine in this flow. */
+  private final Table<String, DateTime, DomainPrices> domainPrices = HashBasedTable.create();
+
   @Inject
   DomainPricingLogic() {}
 
+  /** Returns the premium pricing engine's prices for a domain, memoized for this flow. */
+  private DomainPrices getPrices(String domainName, DateTime date) {
+    DomainPrices prices = domainPrices.get(domainName, date);
+    // Flows only price validated second-level names, so the TLD is everything after the first dot.
+    String tld = domainName.substring(domainName.indexOf('.') + 1);
+    if (prices != null) {
+      pricingLookups.increment(tld, "hit");
+      return prices;
+    }
+    pricingLookups.increment(tld, "miss");
+    prices = getPricesForDomainName(domainName, date);
+    domainPrices.put(domainName, date, prices);
+    return prices;
+  }
+
+  private Money getDomainCreateCost(String domainName, DateTime date, int years) {
+    return PricingEngineProxy.getDomainCreateCost(getPrices(domainName, date), years);
+  }
+
+  private Money getDomainRenewCost(String domainName, DateTime date, int years) {
+    return PricingEngineProxy.getDomainRenewCost(getPrices(domainName, date), years);
+  }
+
   /** Returns a new create price for the pricer. */
   public FeesAndCredits getCreatePrice(
       Registry registry, String domainName, DateTime date, int years) throws EppException {
@@ -181,6 +230,6 @@ public final class DomainPricingLogic {
 
   /** Returns the fee class for a given domain and date. */
   public Optional<String> getFeeClass(String domainName, DateTime date) {
-    return getDomainFeeClass(domainName, date);
+    return getPrices(domainName, date).getFeeClass();
   }
 }
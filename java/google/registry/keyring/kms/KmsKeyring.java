@@ -17,25 +17,49 @@ package google.registry.keyring.kms;
 import static com.google.common.base.CaseFormat.LOWER_HYPHEN;
 import static com.google.common.base.CaseFormat.UPPER_UNDERSCORE;
 import static com.google.common.base.Preconditions.checkState;
+import static com.google.common.base.Throwables.throwIfUnchecked;
 import static google.registry.model.common.EntityGroupRoot.getCrossTldKey;
 import static google.registry.model.ofy.ObjectifyService.ofy;
-
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 import com.googlecode.objectify.Key;
+import google.registry.config.RegistryConfig.Config;
 import google.registry.keyring.api.KeySerializer;
 import google.registry.keyring.api.Keyring;
 import google.registry.keyring.api.KeyringException;
 import google.registry.model.server.KmsSecret;
+import google.registry.model.server.KmsSecretRevision;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.Nullable;
 import javax.inject.Inject;
 import org.bouncycastle.openpgp.PGPException;
 import org.bouncycastle.openpgp.PGPKeyPair;
 import org.bouncycastle.openpgp.PGPPrivateKey;
 import org.bouncycastle.openpgp.PGPPublicKey;
+import org.joda.time.Duration;
 
 /**
  * A {@link Keyring} implementation which stores encrypted secrets in Datastore and decrypts them
  * using encryption keys stored in Cloud KMS.
  *
+ * <p>Decrypted secrets are cached in memory for the configured {@code kmsSecretCachingDuration}.
+ * Once three quarters of that duration has passed, the next request for a secret checks whether
+ * its latest revision has changed, and only calls Cloud KMS again if it has; other requests keep
+ * using the cached value meanwhile. Cached secrets are zeroed when evicted, and callers only ever
+ * see copies, which are zeroed as soon as the key has been deserialized from them.
+ *
  * @see <a href="https://cloud.google.com/kms/docs/">Google Cloud Key Management Service
  *     Documentation</a>
  */
@@ -78,11 +102,60 @@ public class KmsKeyring implements Keyring {
     }
   }
 
+  /**
+   * Incremented whenever {@link KmsUpdater} writes new secrets, so that keyrings in this process
+   * drop their cached secrets rather than wait for them to be refreshed.
+   */
+  private static final AtomicLong updateGeneration = new AtomicLong();
+
   private final KmsConnection kmsConnection;
+  @Nullable private final LoadingCache<String, DecryptedSecret> secretCache;
+  private volatile long seenUpdateGeneration = updateGeneration.get();
 
   @Inject
-  KmsKeyring(KmsConnection kmsConnection) {
+  KmsKeyring(
+      KmsConnection kmsConnection,
+      @Config("kmsSecretCachingDuration") Duration secretCachingDuration) {
+    this(kmsConnection, secretCachingDuration, Ticker.systemTicker());
+  }
+
+  @VisibleForTesting
+  KmsKeyring(KmsConnection kmsConnection, Duration secretCachingDuration, Ticker ticker) {
     this.kmsConnection = kmsConnection;
+    this.secretCache =
+        secretCachingDuration.isEqual(Duration.ZERO)
+            ? null
+            : CacheBuilder.newBuilder()
+                .ticker(ticker)
+                .expireAfterWrite(secretCachingDuration.getMillis(), MILLISECONDS)
+                .refreshAfterWrite(secretCachingDuration.getMillis() * 3 / 4, MILLISECONDS)
+                .removalListener(
+                    (RemovalNotification<String, DecryptedSecret> notification) ->
+                        notification.getValue().destroy())
+                .build(
+                    new CacheLoader<String, DecryptedSecret>() {
+                      @Override
+                      public DecryptedSecret load(String secretName) {
+                        return decrypt(loadSecret(secretName));
+                      }
+
+                      @Override
+                      public ListenableFuture<DecryptedSecret> reload(
+                          String secretName, DecryptedSecret oldValue) {
+                        KmsSecret secret = loadSecret(secretName);
+                        // Only go to Cloud KMS if the secret has been updated. The old value is
+                        // destroyed once replaced, so hand the cache a fresh copy of it.
+                        return Futures.immediateFuture(
+                            secret.getLatestRevision().equals(oldValue.revisionKey)
+                                ? oldValue.copy()
+                                : decrypt(secret));
+                      }
+                    });
+  }
+
+  /** Drops the secrets cached by all keyrings in this process. */
+  static void invalidateCachedSecrets() {
+    updateGeneration.incrementAndGet();
   }
 
   @Override
@@ -160,23 +233,34 @@ public class KmsKeyring implements Keyring {
   public void close() {}
 
   private String getString(StringKeyLabel keyLabel) {
-    return KeySerializer.deserializeString(getDecryptedData(keyLabel.getLabel()));
+    byte[] data = getDecryptedData(keyLabel.getLabel());
+    try {
+      return KeySerializer.deserializeString(data);
+    } finally {
+      Arrays.fill(data, (byte) 0);
+    }
   }
 
   private PGPKeyPair getKeyPair(PrivateKeyLabel keyLabel) {
+    byte[] data = getDecryptedData(keyLabel.getLabel());
     try {
-      return KeySerializer.deserializeKeyPair(getDecryptedData(keyLabel.getLabel()));
+      return KeySerializer.deserializeKeyPair(data);
     } catch (IOException | PGPException e) {
       throw new KeyringException(
           String.format("Could not parse private keyLabel %s", keyLabel), e);
+    } finally {
+      Arrays.fill(data, (byte) 0);
     }
   }
 
   private PGPPublicKey getPublicKey(PublicKeyLabel keyLabel) {
+    byte[] data = getDecryptedData(keyLabel.getLabel());
     try {
-      return KeySerializer.deserializePublicKey(getDecryptedData(keyLabel.getLabel()));
+      return KeySerializer.deserializePublicKey(data);
     } catch (IOException e) {
       throw new KeyringException(String.format("Could not parse public keyLabel %s", keyLabel), e);
+    } finally {
+      Arrays.fill(data, (byte) 0);
     }
   }
 
@@ -184,17 +268,78 @@ public class KmsKeyring implements Keyring {
     return getKeyPair(keyLabel).getPrivateKey();
   }
 
+  /** Returns a copy of the decrypted secret with the given name, which the caller may zero. */
   private byte[] getDecryptedData(String keyName) {
+    if (secretCache == null) {
+      DecryptedSecret secret = decrypt(loadSecret(keyName));
+      return secret.data;
+    }
+    long generation = updateGeneration.get();
+    if (generation != seenUpdateGeneration) {
+      secretCache.invalidateAll();
+      seenUpdateGeneration = generation;
+    }
+    while (true) {
+      try {
+        Optional<byte[]> data = secretCache.getUnchecked(keyName).copyData();
+        // The cached secret may have been evicted and destroyed after we got it, in which case
+        // a fresh one is already being loaded.
+        if (data.isPresent()) {
+          return data.get();
+        }
+      } catch (UncheckedExecutionException e) {
+        throwIfUnchecked(e.getCause());
+        throw e;
+      }
+    }
+  }
+
+  private static KmsSecret loadSecret(String keyName) {
     KmsSecret secret =
         ofy().load().key(Key.create(getCrossTldKey(), KmsSecret.class, keyName)).now();
     checkState(secret != null, "Requested secret '%s' does not exist.", keyName);
-    String encryptedData = ofy().load().key(secret.getLatestRevision()).now().getEncryptedValue();
+    return secret;
+  }
 
+  private DecryptedSecret decrypt(KmsSecret secret) {
+    String encryptedData = ofy().load().key(secret.getLatestRevision()).now().getEncryptedValue();
     try {
-      return kmsConnection.decrypt(secret.getName(), encryptedData);
+      return new DecryptedSecret(
+          secret.getLatestRevision(), kmsConnection.decrypt(secret.getName(), encryptedData));
     } catch (Exception e) {
       throw new KeyringException(
-          String.format("CloudKMS decrypt operation failed for secret %s", keyName), e);
+          String.format("CloudKMS decrypt operation failed for secret %s", secret.getName()), e);
+    }
+  }
+
+  /** The plaintext of a secret, along with the revision it was decrypted from. */
+  private static final class DecryptedSecret {
+
+    final Key<KmsSecretRevision> revisionKey;
+
+    /** The plaintext, or null once this has been destroyed. */
+    @Nullable private byte[] data;
+
+    DecryptedSecret(Key<KmsSecretRevision> revisionKey, byte[] data) {
+      this.revisionKey = revisionKey;
+      this.data = data;
+    }
+
+    synchronized DecryptedSecret copy() {
+      checkState(data != null, "Secret has already been destroyed");
+      return new DecryptedSecret(revisionKey, data.clone());
+    }
+
+    synchronized Optional<byte[]> copyData() {
+      return Optional.ofNullable(data).map(byte[]::clone);
+    }
+
+    /** Zeroes the plaintext. */
+    synchronized void destroy() {
+      if (data != null) {
+        Arrays.fill(data, (byte) 0);
+        data = null;
+      }
     }
   }
 }
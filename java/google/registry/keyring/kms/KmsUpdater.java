@@ -131,6 +131,7 @@ public final class KmsUpdater {
     checkState(!secretValues.isEmpty(), "At least one Keyring value must be persisted");
 
     persistEncryptedValues(encryptValues(secretValues));
+    KmsKeyring.invalidateCachedSecrets();
   }
 
   /**
@@ -19,10 +19,8 @@ import static google.registry.util.TypeUtils.checkNoInheritanceRelationships;
 import com.google.appengine.tools.mapreduce.Input;
 import com.google.appengine.tools.mapreduce.InputReader;
 import com.google.common.collect.ImmutableSet;
-import com.googlecode.objectify.Key;
 import google.registry.model.EppResource;
 import google.registry.model.ImmutableObject;
-import google.registry.model.index.EppResourceIndexBucket;
 
 /**
  * A MapReduce {@link Input} that loads all child objects of a given set of types, that are children
@@ -46,7 +44,7 @@ class ChildEntityInput<R extends EppResource, I extends ImmutableObject>
   }
 
   @Override
-  protected InputReader<I> bucketToReader(Key<EppResourceIndexBucket> bucketKey) {
-    return new ChildEntityReader<>(bucketKey, resourceClasses, childResourceClasses);
+  protected InputReader<I> rangeToReader(EppResourceIndexRange range) {
+    return new ChildEntityReader<>(range, resourceClasses, childResourceClasses);
   }
 }
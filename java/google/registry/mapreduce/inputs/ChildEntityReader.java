@@ -28,7 +28,6 @@ import com.googlecode.objectify.annotation.Entity;
 import google.registry.model.EppResource;
 import google.registry.model.ImmutableObject;
 import google.registry.model.index.EppResourceIndex;
-import google.registry.model.index.EppResourceIndexBucket;
 import java.io.IOException;
 import java.util.NoSuchElementException;
 import javax.annotation.Nullable;
@@ -54,11 +53,11 @@ class ChildEntityReader<R extends EppResource, I extends ImmutableObject> extend
   @Nullable private ChildReader<? extends I> childReader;
 
   public ChildEntityReader(
-      Key<EppResourceIndexBucket> bucketKey,
+      EppResourceIndexRange range,
       ImmutableSet<Class<? extends R>> resourceClasses,
       ImmutableSet<Class<? extends I>> childResourceClasses) {
     this.childResourceClasses = expandPolymorphicClasses(childResourceClasses);
-    this.eppResourceEntityReader = new EppResourceEntityReader<>(bucketKey, resourceClasses);
+    this.eppResourceEntityReader = new EppResourceEntityReader<>(range, resourceClasses);
   }
 
   /** Expands non-entity polymorphic classes into their child types. */
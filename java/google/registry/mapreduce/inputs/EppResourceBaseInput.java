@@ -14,12 +14,17 @@
 
 package google.registry.mapreduce.inputs;
 
+import static google.registry.mapreduce.inputs.EppResourceIndexRange.splitBucket;
+import static google.registry.mapreduce.inputs.EppResourceIndexRange.wholeBucket;
+
 import com.google.appengine.tools.mapreduce.Input;
 import com.google.appengine.tools.mapreduce.InputReader;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.googlecode.objectify.Key;
 import google.registry.model.index.EppResourceIndex;
 import google.registry.model.index.EppResourceIndexBucket;
+import google.registry.model.index.EppResourceIndexBucketStats;
 import java.util.List;
 
 /** Base class for {@link Input} classes that map over {@link EppResourceIndex}. */
@@ -30,13 +35,43 @@ abstract class EppResourceBaseInput<I> extends Input<I> {
   @Override
   public List<InputReader<I>> createReaders() {
     ImmutableList.Builder<InputReader<I>> readers = new ImmutableList.Builder<>();
-    for (Key<EppResourceIndexBucket> bucketKey : EppResourceIndexBucket.getAllBuckets()) {
-      readers.add(bucketToReader(bucketKey));
+    for (EppResourceIndexRange range : getRanges()) {
+      readers.add(rangeToReader(range));
     }
     return readers.build();
   }
 
-  /** Creates a reader that returns the resources under a bucket. */
-  protected abstract InputReader<I> bucketToReader(Key<EppResourceIndexBucket> bucketKey);
-}
+  /**
+   * Returns the ranges of index entries to create readers for.
+   *
+   * <p>Each bucket is read as a single range, except for buckets whose {@link
+   * EppResourceIndexBucketStats} show them to be at least twice the average size, which are split
+   * into roughly average sized ranges so that a few large buckets don't hold up the mapreduce.
+   */
+  private static ImmutableList<EppResourceIndexRange> getRanges() {
+    ImmutableList<Key<EppResourceIndexBucket>> bucketKeys =
+        ImmutableList.copyOf(EppResourceIndexBucket.getAllBuckets());
+    ImmutableMap<Key<EppResourceIndexBucket>, EppResourceIndexBucketStats> stats =
+        EppResourceIndexBucketStats.load(bucketKeys);
+    long averageSize =
+        stats.values().stream().mapToLong(EppResourceIndexBucketStats::getSize).sum()
+            / bucketKeys.size();
+    ImmutableList.Builder<EppResourceIndexRange> ranges = new ImmutableList.Builder<>();
+    for (Key<EppResourceIndexBucket> bucketKey : bucketKeys) {
+      EppResourceIndexBucketStats bucketStats = stats.get(bucketKey);
+      long numRanges =
+          (bucketStats == null || averageSize == 0)
+              ? 1
+              : Math.min(
+                  bucketStats.getSize() / averageSize, bucketStats.getSampledIds().size() + 1);
+      ranges.addAll(
+          (numRanges < 2)
+              ? ImmutableList.of(wholeBucket(bucketKey))
+              : splitBucket(bucketKey, bucketStats.getSplitIds((int) numRanges)));
+    }
+    return ranges.build();
+  }
 
+  /** Creates a reader that returns the resources within a range of a bucket. */
+  protected abstract InputReader<I> rangeToReader(EppResourceIndexRange range);
+}
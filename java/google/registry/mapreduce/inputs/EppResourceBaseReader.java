@@ -25,7 +25,6 @@ import com.googlecode.objectify.Key;
 import com.googlecode.objectify.cmd.Query;
 import google.registry.model.EppResource;
 import google.registry.model.index.EppResourceIndex;
-import google.registry.model.index.EppResourceIndexBucket;
 import javax.annotation.Nullable;
 
 /** Base class for {@link InputReader} classes that map over {@link EppResourceIndex}. */
@@ -45,14 +44,14 @@ abstract class EppResourceBaseReader<T> extends RetryingInputReader<EppResourceI
    */
   private final ImmutableSet<String> filterKinds;
 
-  private final Key<EppResourceIndexBucket> bucketKey;
+  private final EppResourceIndexRange range;
   private final long memoryEstimate;
 
   EppResourceBaseReader(
-      Key<EppResourceIndexBucket> bucketKey,
+      EppResourceIndexRange range,
       long memoryEstimate,
       ImmutableSet<String> filterKinds) {
-    this.bucketKey = bucketKey;
+    this.range = range;
     this.memoryEstimate = memoryEstimate;
     this.filterKinds = filterKinds;
   }
@@ -67,9 +66,11 @@ abstract class EppResourceBaseReader<T> extends RetryingInputReader<EppResourceI
     return query().count();
   }
 
-  /** Query for children of this bucket. */
+  /** Query for children of this bucket within the reader's range. */
   Query<EppResourceIndex> query() {
-    Query<EppResourceIndex> query = ofy().load().type(EppResourceIndex.class).ancestor(bucketKey);
+    Query<EppResourceIndex> query =
+        range.restrict(
+            ofy().load().type(EppResourceIndex.class).ancestor(range.getBucketKey()));
     return filterKinds.isEmpty() ? query : query.filter("kind in", filterKinds);
   }
 
@@ -19,9 +19,7 @@ import static google.registry.util.TypeUtils.checkNoInheritanceRelationships;
 import com.google.appengine.tools.mapreduce.Input;
 import com.google.appengine.tools.mapreduce.InputReader;
 import com.google.common.collect.ImmutableSet;
-import com.googlecode.objectify.Key;
 import google.registry.model.EppResource;
-import google.registry.model.index.EppResourceIndexBucket;
 
 /** A MapReduce {@link Input} that loads all {@link EppResource} objects of a given type. */
 class EppResourceEntityInput<R extends EppResource> extends EppResourceBaseInput<R> {
@@ -36,7 +34,7 @@ class EppResourceEntityInput<R extends EppResource> extends EppResourceBaseInput
   }
 
   @Override
-  protected InputReader<R> bucketToReader(Key<EppResourceIndexBucket> bucketKey) {
-    return new EppResourceEntityReader<>(bucketKey, resourceClasses);
+  protected InputReader<R> rangeToReader(EppResourceIndexRange range) {
+    return new EppResourceEntityReader<>(range, resourceClasses);
   }
 }
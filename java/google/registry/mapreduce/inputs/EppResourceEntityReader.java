@@ -14,24 +14,40 @@
 
 package google.registry.mapreduce.inputs;
 
+import static google.registry.config.RegistryConfig.getEppResourceReaderBatchSize;
 import static google.registry.model.ofy.ObjectifyService.ofy;
 
+import com.google.appengine.api.datastore.Cursor;
 import com.google.appengine.tools.mapreduce.InputReader;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.flogger.FluentLogger;
 import com.googlecode.objectify.Key;
 import google.registry.model.EppResource;
 import google.registry.model.index.EppResourceIndex;
-import google.registry.model.index.EppResourceIndexBucket;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
+import javax.annotation.Nullable;
 
-/** Reader that maps over {@link EppResourceIndex} and returns resources. */
+/**
+ * Reader that maps over {@link EppResourceIndex} and returns resources.
+ *
+ * <p>Resources are loaded in batches rather than one at a time, and the load of the next batch is
+ * started while the current one is being mapped, so that most calls to {@link #next} don't wait
+ * on a Datastore round trip.
+ */
 class EppResourceEntityReader<R extends EppResource> extends EppResourceBaseReader<R> {
 
   private static final FluentLogger logger = FluentLogger.forEnclosingClass();
 
   private static final long serialVersionUID = -8042933349899971801L;
 
+  /** Estimated size of a typical resource, used for memory estimates. */
+  private static final long TYPICAL_RESOURCE_BYTES = 64 * 1024;
+
   /**
    * The resource classes to postfilter for.
    *
@@ -41,14 +57,31 @@ class EppResourceEntityReader<R extends EppResource> extends EppResourceBaseRead
    */
   private final ImmutableSet<Class<? extends R>> resourceClasses;
 
+  /** The number of resources to load from Datastore at once. */
+  private final int batchSize;
+
+  /** The batch that resources are currently being returned from. */
+  @Nullable private transient Batch current;
+
+  /** The batch after {@link #current}, whose resources are being loaded asynchronously. */
+  @Nullable private transient Batch upcoming;
+
   public EppResourceEntityReader(
-      Key<EppResourceIndexBucket> bucketKey,
-      ImmutableSet<Class<? extends R>> resourceClasses) {
+      EppResourceIndexRange range, ImmutableSet<Class<? extends R>> resourceClasses) {
+    this(range, resourceClasses, getEppResourceReaderBatchSize());
+  }
+
+  EppResourceEntityReader(
+      EppResourceIndexRange range,
+      ImmutableSet<Class<? extends R>> resourceClasses,
+      int batchSize) {
     super(
-        bucketKey,
-        ONE_MB * 2,  // Estimate 2MB of memory for this reader, since it loads a (max 1MB) entity.
+        range,
+        // Estimate 2MB of memory for a (max 1MB) entity, plus room for two batches of resources.
+        ONE_MB * 2 + 2 * batchSize * TYPICAL_RESOURCE_BYTES,
         varargsToKinds(resourceClasses));
     this.resourceClasses = resourceClasses;
+    this.batchSize = batchSize;
   }
 
   /**
@@ -59,12 +92,21 @@ class EppResourceEntityReader<R extends EppResource> extends EppResourceBaseRead
    */
   @Override
   public R next() throws NoSuchElementException {
-    // Loop until we find a value, or nextQueryResult() throws a NoSuchElementException.
+    // Loop until we find a value, or we run out of index entries to read.
     while (true) {
-      Key<? extends EppResource> key = nextQueryResult().getKey();
-      EppResource resource = ofy().load().key(key).now();
+      if (current == null || current.entries.isEmpty()) {
+        current = (upcoming == null) ? readBatch() : upcoming;
+        upcoming = null;
+        if (current.entries.isEmpty()) {
+          throw new NoSuchElementException();
+        }
+        current.resolve();
+        upcoming = readBatch();
+      }
+      Entry entry = current.entries.poll();
+      EppResource resource = current.resources.get(entry.key);
       if (resource == null) {
-        logger.atSevere().log("EppResourceIndex key %s points at a missing resource", key);
+        logger.atSevere().log("EppResourceIndex key %s points at a missing resource", entry.key);
         continue;
       }
       // Postfilter to distinguish polymorphic types (e.g. DomainBase and DomainResource).
@@ -77,4 +119,81 @@ class EppResourceEntityReader<R extends EppResource> extends EppResourceBaseRead
       }
     }
   }
+
+  /**
+   * Reads up to {@link #batchSize} index entries from the query and starts loading the resources
+   * they point at.
+   *
+   * <p>The returned batch is empty if the query has no more results.
+   */
+  private Batch readBatch() {
+    Batch batch = new Batch();
+    List<Key<EppResource>> keys = new ArrayList<>(batchSize);
+    try {
+      while (keys.size() < batchSize) {
+        @SuppressWarnings("unchecked")
+        Key<EppResource> key = (Key<EppResource>) nextQueryResult().getKey();
+        batch.entries.add(new Entry(getCursorBeforeLastQueryResult(), key));
+        keys.add(key);
+      }
+    } catch (NoSuchElementException e) {
+      // The query is exhausted, so this is the last (possibly empty) batch.
+    }
+    // Objectify loads asynchronously, and only blocks once the returned map is accessed.
+    batch.resources = keys.isEmpty() ? new HashMap<>() : ofy().load().keys(keys);
+    return batch;
+  }
+
+  @Override
+  int getReadAheadCount() {
+    return (current == null ? 0 : current.entries.size())
+        + (upcoming == null ? 0 : upcoming.entries.size());
+  }
+
+  @Override
+  @Nullable
+  Cursor getResumeCursor() {
+    // Resume from the first index entry whose resource hasn't been returned yet, since read-ahead
+    // batches are discarded at the end of the slice.
+    for (Batch batch : new Batch[] {current, upcoming}) {
+      if (batch != null && !batch.entries.isEmpty()) {
+        return batch.entries.peek().cursorBefore;
+      }
+    }
+    return super.getResumeCursor();
+  }
+
+  @Override
+  public void endSlice() {
+    super.endSlice();
+    current = null;
+    upcoming = null;
+  }
+
+  /** An index entry that has been read from the query, and where the query was before it. */
+  private static class Entry {
+    @Nullable final Cursor cursorBefore;
+    final Key<EppResource> key;
+
+    Entry(@Nullable Cursor cursorBefore, Key<EppResource> key) {
+      this.cursorBefore = cursorBefore;
+      this.key = key;
+    }
+  }
+
+  /** A batch of index entries, along with the resources they point at. */
+  private static class Batch {
+    final ArrayDeque<Entry> entries = new ArrayDeque<>();
+    Map<Key<EppResource>, EppResource> resources;
+
+    /**
+     * Waits for the resources to finish loading, and copies them out of Objectify's result.
+     *
+     * <p>This must happen before the next batch is read, since reading query results clears the
+     * session cache.
+     */
+    void resolve() {
+      resources = new HashMap<>(resources);
+    }
+  }
 }
@@ -16,9 +16,7 @@ package google.registry.mapreduce.inputs;
 
 import com.google.appengine.tools.mapreduce.Input;
 import com.google.appengine.tools.mapreduce.InputReader;
-import com.googlecode.objectify.Key;
 import google.registry.model.index.EppResourceIndex;
-import google.registry.model.index.EppResourceIndexBucket;
 
 /**
  * A MapReduce {@link Input} that loads all {@link EppResourceIndex} entities.
@@ -28,7 +26,7 @@ class EppResourceIndexInput extends EppResourceBaseInput<EppResourceIndex> {
   private static final long serialVersionUID = -1231269296567279059L;
 
   @Override
-  protected InputReader<EppResourceIndex> bucketToReader(Key<EppResourceIndexBucket> bucketKey) {
-    return new EppResourceIndexReader(bucketKey);
+  protected InputReader<EppResourceIndex> rangeToReader(EppResourceIndexRange range) {
+    return new EppResourceIndexReader(range);
   }
 }
@@ -0,0 +1,76 @@
+// Copyright 2018 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.mapreduce.inputs;
+
+import com.google.common.collect.ImmutableList;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.cmd.Query;
+import google.registry.model.index.EppResourceIndex;
+import google.registry.model.index.EppResourceIndexBucket;
+import java.io.Serializable;
+import javax.annotation.Nullable;
+
+/** A range of {@link EppResourceIndex} ids within a bucket, which is mapped over by one reader. */
+final class EppResourceIndexRange implements Serializable {
+
+  private static final long serialVersionUID = 2609745234811906134L;
+
+  private final Key<EppResourceIndexBucket> bucketKey;
+
+  /** The first id in the range, or null to start at the beginning of the bucket. */
+  @Nullable private final String startId;
+
+  /** The id just after the range, or null to continue to the end of the bucket. */
+  @Nullable private final String endId;
+
+  private EppResourceIndexRange(
+      Key<EppResourceIndexBucket> bucketKey, @Nullable String startId, @Nullable String endId) {
+    this.bucketKey = bucketKey;
+    this.startId = startId;
+    this.endId = endId;
+  }
+
+  /** Returns a range covering the whole of the given bucket. */
+  static EppResourceIndexRange wholeBucket(Key<EppResourceIndexBucket> bucketKey) {
+    return new EppResourceIndexRange(bucketKey, null, null);
+  }
+
+  /** Splits the given bucket into consecutive ranges at the given ids, in ascending order. */
+  static ImmutableList<EppResourceIndexRange> splitBucket(
+      Key<EppResourceIndexBucket> bucketKey, ImmutableList<String> splitIds) {
+    ImmutableList.Builder<EppResourceIndexRange> ranges = new ImmutableList.Builder<>();
+    String startId = null;
+    for (String splitId : splitIds) {
+      ranges.add(new EppResourceIndexRange(bucketKey, startId, splitId));
+      startId = splitId;
+    }
+    return ranges.add(new EppResourceIndexRange(bucketKey, startId, null)).build();
+  }
+
+  Key<EppResourceIndexBucket> getBucketKey() {
+    return bucketKey;
+  }
+
+  /** Restricts a query over the children of the bucket to this range. */
+  Query<EppResourceIndex> restrict(Query<EppResourceIndex> query) {
+    if (startId != null) {
+      query = query.filterKey(">=", Key.create(bucketKey, EppResourceIndex.class, startId));
+    }
+    if (endId != null) {
+      query = query.filterKey("<", Key.create(bucketKey, EppResourceIndex.class, endId));
+    }
+    return query;
+  }
+}
@@ -16,9 +16,7 @@ package google.registry.mapreduce.inputs;
 
 import com.google.appengine.tools.mapreduce.InputReader;
 import com.google.common.collect.ImmutableSet;
-import com.googlecode.objectify.Key;
 import google.registry.model.index.EppResourceIndex;
-import google.registry.model.index.EppResourceIndexBucket;
 import java.util.NoSuchElementException;
 
 /** Reader that maps over {@link EppResourceIndex} and returns the index objects themselves. */
@@ -26,10 +24,10 @@ class EppResourceIndexReader extends EppResourceBaseReader<EppResourceIndex> {
 
   private static final long serialVersionUID = -4816383426796766911L;
 
-  public EppResourceIndexReader(Key<EppResourceIndexBucket> bucketKey) {
+  public EppResourceIndexReader(EppResourceIndexRange range) {
     // Estimate 1MB of memory for this reader, which is massive overkill.
     // Use an empty set for the filter kinds, which disables filtering.
-    super(bucketKey, ONE_MB, ImmutableSet.of());
+    super(range, ONE_MB, ImmutableSet.of());
   }
 
   /**
@@ -21,7 +21,6 @@ import com.google.appengine.tools.mapreduce.InputReader;
 import com.google.common.collect.ImmutableSet;
 import com.googlecode.objectify.Key;
 import google.registry.model.EppResource;
-import google.registry.model.index.EppResourceIndexBucket;
 
 /**
  * A MapReduce {@link Input} that loads keys to all {@link EppResource} objects of a given type.
@@ -40,7 +39,7 @@ class EppResourceKeyInput<R extends EppResource> extends EppResourceBaseInput<Ke
   }
 
   @Override
-  protected InputReader<Key<R>> bucketToReader(Key<EppResourceIndexBucket> bucketKey) {
-    return new EppResourceKeyReader<>(bucketKey, resourceClasses);
+  protected InputReader<Key<R>> rangeToReader(EppResourceIndexRange range) {
+    return new EppResourceKeyReader<>(range, resourceClasses);
   }
 }
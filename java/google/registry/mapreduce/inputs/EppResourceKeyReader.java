@@ -19,7 +19,6 @@ import com.google.common.collect.ImmutableSet;
 import com.googlecode.objectify.Key;
 import google.registry.model.EppResource;
 import google.registry.model.index.EppResourceIndex;
-import google.registry.model.index.EppResourceIndexBucket;
 import java.util.NoSuchElementException;
 
 /**
@@ -32,9 +31,9 @@ class EppResourceKeyReader<R extends EppResource> extends EppResourceBaseReader<
   private static final long serialVersionUID = -428232054739189774L;
 
   public EppResourceKeyReader(
-      Key<EppResourceIndexBucket> bucketKey, ImmutableSet<Class<? extends R>> resourceClasses) {
+      EppResourceIndexRange range, ImmutableSet<Class<? extends R>> resourceClasses) {
     super(
-        bucketKey,
+        range,
         ONE_MB,  // Estimate 1MB of memory for this reader, which is massive overkill.
         varargsToKinds(resourceClasses));
   }
@@ -112,13 +112,53 @@ abstract class RetryingInputReader<I, T> extends InputReader<T> {
   public Double getProgress() {
     // Cap progress at 1.0, since the query's count() can increase during the run of the mapreduce
     // if more entities are written, but we've cached the value once in "total".
-    return Math.min(1.0, ((double) loaded) / Math.max(1, total));
+    return Math.min(1.0, ((double) (loaded - getReadAheadCount())) / Math.max(1, total));
   }
 
-  /** Called before we are serialized. Save a serializable cursor for this query. */
+  /**
+   * Called before we are serialized. Save a serializable cursor for this query.
+   *
+   * <p>Query results that were read ahead but not yet returned are forgotten, and will be read
+   * again by the next slice.
+   */
   @Override
   public void endSlice() {
-    cursor = queryIterator.getCursor();
+    int readAhead = getReadAheadCount();
+    cursor = getResumeCursor();
+    loaded -= readAhead;
+  }
+
+  /**
+   * Returns the number of results read by {@link #nextQueryResult} that haven't been returned from
+   * {@link #next} yet.
+   *
+   * <p>This is zero unless the reader reads ahead of the items it returns, in which case it must
+   * also override {@link #getResumeCursor}.
+   */
+  int getReadAheadCount() {
+    return 0;
+  }
+
+  /**
+   * Returns the cursor that the next slice should resume the query from.
+   *
+   * <p>By default this is the current position of the query. Readers that read query results ahead
+   * of the items they have returned from {@link #next} must override this to return the position
+   * of the first result they haven't returned yet, e.g. one saved from {@link
+   * #getCursorBeforeLastQueryResult}.
+   */
+  @Nullable
+  Cursor getResumeCursor() {
+    return queryIterator.getCursor();
+  }
+
+  /**
+   * Returns the position of the query just before the result most recently returned by {@link
+   * #nextQueryResult}, or null if that was the first result.
+   */
+  @Nullable
+  final Cursor getCursorBeforeLastQueryResult() {
+    return cursor;
   }
 
   /**
@@ -130,24 +170,29 @@ abstract class RetryingInputReader<I, T> extends InputReader<T> {
    */
   protected final I nextQueryResult() {
     cursor = queryIterator.getCursor();
-    loaded++;
     try {
-      return retrier.callWithRetry(
-          () -> queryIterator.next(),
-          (thrown, failures, maxAttempts) -> {
-            checkNotNull(cursor, "Can't retry because cursor is null. Giving up.");
-            logger.atInfo().withCause(thrown).log(
-                "Retriable failure while reading item %d/%d - attempt %d/%d.",
-                loaded, total, failures, maxAttempts);
-            queryIterator = getQueryIterator(cursor);
-          },
-          DatastoreTimeoutException.class);
+      I result =
+          retrier.callWithRetry(
+              () -> queryIterator.next(),
+              (thrown, failures, maxAttempts) -> {
+                checkNotNull(cursor, "Can't retry because cursor is null. Giving up.");
+                logger.atInfo().withCause(thrown).log(
+                    "Retriable failure while reading item %d/%d - attempt %d/%d.",
+                    loaded + 1, total, failures, maxAttempts);
+                queryIterator = getQueryIterator(cursor);
+              },
+              DatastoreTimeoutException.class);
+      // Only count results actually read, so that readers that read ahead can subtract what they
+      // haven't returned yet.
+      loaded++;
+      return result;
     } catch (NoSuchElementException e) {
       // We expect NoSuchElementException to be thrown, and it isn't an error. Just rethrow.
       throw e;
     } catch (Throwable e) {
       throw new RuntimeException(
-          String.format("Got an unrecoverable failure while reading item %d/%d.", loaded, total),
+          String.format(
+              "Got an unrecoverable failure while reading item %d/%d.", loaded + 1, total),
           e);
     } finally {
       ofy().clearSessionCache();
@@ -28,6 +28,7 @@ import google.registry.model.host.HostResource;
 import google.registry.model.index.DomainApplicationIndex;
 import google.registry.model.index.EppResourceIndex;
 import google.registry.model.index.EppResourceIndexBucket;
+import google.registry.model.index.EppResourceIndexBucketStats;
 import google.registry.model.index.ForeignKeyIndex;
 import google.registry.model.ofy.CommitLogBucket;
 import google.registry.model.ofy.CommitLogCheckpoint;
@@ -38,10 +39,12 @@ import google.registry.model.poll.PollMessage;
 import google.registry.model.rde.RdeRevision;
 import google.registry.model.registrar.Registrar;
 import google.registry.model.registrar.RegistrarContact;
+import google.registry.model.registrar.RegistrarSheetState;
 import google.registry.model.registry.Registry;
 import google.registry.model.registry.label.PremiumList;
 import google.registry.model.registry.label.ReservedList;
 import google.registry.model.reporting.HistoryEntry;
+import google.registry.model.reporting.IcannActivityCount;
 import google.registry.model.server.KmsSecret;
 import google.registry.model.server.KmsSecretRevision;
 import google.registry.model.server.Lock;
@@ -81,12 +84,15 @@ public final class EntityClasses {
           EntityGroupRoot.class,
           EppResourceIndex.class,
           EppResourceIndexBucket.class,
+          EppResourceIndexBucketStats.class,
+          EppResourceRevisionIndex.class,
           ForeignKeyIndex.ForeignKeyContactIndex.class,
           ForeignKeyIndex.ForeignKeyDomainIndex.class,
           ForeignKeyIndex.ForeignKeyHostIndex.class,
           GaeUserIdConverter.class,
           HistoryEntry.class,
           HostResource.class,
+          IcannActivityCount.class,
           KmsSecret.class,
           KmsSecretRevision.class,
           Lock.class,
@@ -99,6 +105,7 @@ public final class EntityClasses {
           RdeRevision.class,
           Registrar.class,
           RegistrarContact.class,
+          RegistrarSheetState.class,
           Registry.class,
           ReservedList.class,
           ServerSecret.class,
@@ -38,6 +38,7 @@ import com.google.common.collect.ImmutableSortedMap;
 import com.google.common.collect.Streams;
 import com.googlecode.objectify.Key;
 import com.googlecode.objectify.annotation.Id;
+import com.googlecode.objectify.annotation.IgnoreSave;
 import com.googlecode.objectify.annotation.Index;
 import google.registry.config.RegistryConfig;
 import google.registry.model.eppcommon.StatusValue;
@@ -116,13 +117,14 @@ public abstract class EppResource extends BackupGroupRoot implements Buildable {
   Set<StatusValue> status;
 
   /**
-   * Sorted map of {@link DateTime} keys (modified time) to {@link CommitLogManifest} entries.
+   * Legacy sorted map of {@link DateTime} keys (modified time) to {@link CommitLogManifest}
+   * entries.
    *
-   * <p><b>Note:</b> Only the last revision on a given date is stored. The key is the transaction
-   * timestamp, not midnight.
-   *
-   * @see google.registry.model.translators.CommitLogRevisionsTranslatorFactory
+   * <p>Revisions are now stored in a separate {@link EppResourceRevisionIndex}, see {@link
+   * EppResourceRevisionIndex#loadRevisions}. This field is only still loaded so that the index of a
+   * resource can be seeded from it, and it is dropped the next time the resource is saved.
    */
+  @IgnoreSave
   ImmutableSortedMap<DateTime, Key<CommitLogManifest>> revisions = ImmutableSortedMap.of();
 
   public final String getRepoId() {
@@ -163,10 +165,6 @@ public abstract class EppResource extends BackupGroupRoot implements Buildable {
     return deletionTime;
   }
 
-  public ImmutableSortedMap<DateTime, Key<CommitLogManifest>> getRevisions() {
-    return nullToEmptyImmutableCopy(revisions);
-  }
-
   /** Return a clone of the resource with timed status values modified using the given time. */
   public abstract EppResource cloneProjectedAtTime(DateTime now);
 
@@ -0,0 +1,168 @@
+// Copyright 2018 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.model;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static com.google.common.collect.ImmutableMap.toImmutableMap;
+import static com.google.common.collect.ImmutableSet.toImmutableSet;
+import static google.registry.model.ofy.ObjectifyService.ofy;
+import static google.registry.util.CollectionUtils.nullToEmptyImmutableCopy;
+import static google.registry.util.TypeUtils.instantiate;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.Streams;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+import com.googlecode.objectify.annotation.Parent;
+import google.registry.model.ofy.CommitLogManifest;
+import java.util.Map;
+import org.joda.time.DateTime;
+
+/**
+ * The revision history of an {@link EppResource}, stored separately from the resource.
+ *
+ * <p>Revisions are only needed for point-in-time loads, so keeping them in their own entity means
+ * that the far more frequent regular loads and saves of resources don't have to deserialize and
+ * reserialize them. There is at most one index per resource, as a child entity in the resource's
+ * entity group, and {@link google.registry.model.ofy.Ofy} re-saves it whenever the resource is
+ * saved in a transaction, which adds the current transaction's revision.
+ *
+ * @see google.registry.model.translators.CommitLogRevisionsTranslatorFactory
+ */
+@Entity
+public class EppResourceRevisionIndex extends ImmutableObject {
+
+  /** The id of the only index under each resource. */
+  private static final long SINGLETON_ID = 1;
+
+  @Parent
+  Key<? extends EppResource> parent;
+
+  @Id
+  long id = SINGLETON_ID;
+
+  /**
+   * Sorted map of {@link DateTime} keys (modified time) to {@link CommitLogManifest} entries.
+   *
+   * <p><b>Note:</b> Only the last revision on a given date is stored. The key is the transaction
+   * timestamp, not midnight.
+   */
+  ImmutableSortedMap<DateTime, Key<CommitLogManifest>> revisions = ImmutableSortedMap.of();
+
+  public Key<? extends EppResource> getParent() {
+    return parent;
+  }
+
+  public ImmutableSortedMap<DateTime, Key<CommitLogManifest>> getRevisions() {
+    return nullToEmptyImmutableCopy(revisions);
+  }
+
+  public static Key<EppResourceRevisionIndex> createKey(Key<? extends EppResource> resourceKey) {
+    return Key.create(resourceKey, EppResourceRevisionIndex.class, SINGLETON_ID);
+  }
+
+  /** Creates an index holding the given revisions of the given resource. */
+  public static EppResourceRevisionIndex create(
+      Key<? extends EppResource> resourceKey,
+      ImmutableSortedMap<DateTime, Key<CommitLogManifest>> revisions) {
+    EppResourceRevisionIndex instance = instantiate(EppResourceRevisionIndex.class);
+    instance.parent = resourceKey;
+    instance.revisions = revisions;
+    return instance;
+  }
+
+  /**
+   * Creates an index for a resource that doesn't have one yet, seeded from the revisions embedded
+   * in the resource itself, where they were stored before this entity existed.
+   */
+  public static EppResourceRevisionIndex createFromLegacyRevisions(EppResource resource) {
+    return create(Key.create(resource), nullToEmptyImmutableCopy(resource.revisions));
+  }
+
+  /**
+   * Loads the sorted map of {@link DateTime} keys (modified time) to {@link CommitLogManifest}
+   * entries of the given resource.
+   *
+   * <p>The revisions are read from the resource's index, falling back to the legacy revisions
+   * embedded in the resource if it has no index yet.
+   *
+   * <p><b>Note:</b> Only the last revision on a given date is stored. The key is the transaction
+   * timestamp, not midnight.
+   */
+  public static ImmutableSortedMap<DateTime, Key<CommitLogManifest>> loadRevisions(
+      EppResource resource) {
+    EppResourceRevisionIndex index = ofy().load().key(createKey(Key.create(resource))).now();
+    return (index == null) ? nullToEmptyImmutableCopy(resource.revisions) : index.getRevisions();
+  }
+
+  /**
+   * Returns the indexes of resources among the given entities which need to be saved along with
+   * them, unless they're being saved already.
+   *
+   * <p>In a transaction, every saved resource gains a revision, so its index is loaded and re-saved
+   * to add it. This costs one batched get and one extra put per saved resource, both within the
+   * resource's own entity group, and the get is served from the session cache if the index was
+   * already loaded in the transaction. Resources that don't have an index yet get one from {@link
+   * #createFromLegacyRevisions}.
+   *
+   * <p>Outside of a transaction there is no revision to add, so nothing is loaded. Only resources
+   * that still carry legacy revisions, which saving the resource drops, get an index seeded from
+   * them. Once a resource has been saved its legacy revisions are gone, so this never replaces an
+   * index that has gained revisions since.
+   */
+  public static ImmutableList<EppResourceRevisionIndex> loadForSave(Iterable<?> entities) {
+    ImmutableSet<Key<EppResourceRevisionIndex>> indexesBeingSaved =
+        Streams.stream(entities)
+            .filter(EppResourceRevisionIndex.class::isInstance)
+            .map(index -> Key.create((EppResourceRevisionIndex) index))
+            .collect(toImmutableSet());
+    // Outside of a transaction, a batch can save the same resource more than once, and like in
+    // Datastore the last one wins.
+    ImmutableMap<Key<EppResourceRevisionIndex>, EppResource> resources =
+        Streams.stream(entities)
+            .filter(EppResource.class::isInstance)
+            .map(EppResource.class::cast)
+            .filter(resource -> !indexesBeingSaved.contains(createKey(Key.create(resource))))
+            .collect(
+                toImmutableMap(
+                    resource -> createKey(Key.create(resource)), r -> r, (first, last) -> last));
+    if (!ofy().inTransaction()) {
+      return resources
+          .values()
+          .stream()
+          .filter(resource -> !nullToEmptyImmutableCopy(resource.revisions).isEmpty())
+          .map(EppResourceRevisionIndex::createFromLegacyRevisions)
+          .collect(toImmutableList());
+    }
+    if (resources.isEmpty()) {
+      return ImmutableList.of();
+    }
+    Map<Key<EppResourceRevisionIndex>, EppResourceRevisionIndex> existingIndexes =
+        ofy().load().keys(resources.keySet());
+    return resources
+        .entrySet()
+        .stream()
+        .map(
+            entry ->
+                existingIndexes.containsKey(entry.getKey())
+                    ? existingIndexes.get(entry.getKey())
+                    : createFromLegacyRevisions(entry.getValue()))
+        .collect(toImmutableList());
+  }
+}
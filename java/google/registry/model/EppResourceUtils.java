@@ -22,6 +22,7 @@ import static google.registry.util.DateTimeUtils.isBeforeOrAt;
 import static google.registry.util.DateTimeUtils.latestOf;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSortedMap;
 import com.google.common.flogger.FluentLogger;
 import com.googlecode.objectify.Key;
 import com.googlecode.objectify.Result;
@@ -289,7 +290,7 @@ public final class EppResourceUtils {
    * there were revisions made earlier on the same date as {@code timestamp}; however, a resource
    * will never be restored to a revision occurring after {@code timestamp}. This behavior is due to
    * the way {@link google.registry.model.translators.CommitLogRevisionsTranslatorFactory
-   * CommitLogRevisionsTranslatorFactory} manages the {@link EppResource#revisions} field. Please
+   * CommitLogRevisionsTranslatorFactory} manages the {@link EppResourceRevisionIndex}. Please
    * note however that the creation and deletion times of a resource are granular to the
    * millisecond.
    *
@@ -353,14 +354,16 @@ public final class EppResourceUtils {
   private static <T extends EppResource> Key<CommitLogManifest>
       findMostRecentRevisionAtTime(final T resource, final DateTime timestamp) {
     final Key<T> resourceKey = Key.create(resource);
-    Entry<?, Key<CommitLogManifest>> revision = resource.getRevisions().floorEntry(timestamp);
+    ImmutableSortedMap<DateTime, Key<CommitLogManifest>> revisions =
+        EppResourceRevisionIndex.loadRevisions(resource);
+    Entry<?, Key<CommitLogManifest>> revision = revisions.floorEntry(timestamp);
     if (revision != null) {
       logger.atInfo().log(
           "Found revision history at %s for %s: %s", timestamp, resourceKey, revision);
       return revision.getValue();
     }
     // Fall back to the earliest revision if we don't have one before the requested timestamp.
-    revision = resource.getRevisions().firstEntry();
+    revision = revisions.firstEntry();
     if (revision != null) {
       logger.atSevere().log(
           "Found no revision history at %s for %s, using earliest revision: %s",
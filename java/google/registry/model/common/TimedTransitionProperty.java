@@ -18,7 +18,6 @@ import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkState;
 import static google.registry.util.CollectionUtils.nullToEmpty;
 import static google.registry.util.DateTimeUtils.START_OF_TIME;
-import static google.registry.util.DateTimeUtils.latestOf;
 
 import com.google.common.collect.ForwardingMap;
 import com.google.common.collect.ImmutableMultimap;
@@ -136,7 +135,8 @@ public class TimedTransitionProperty<V, T extends TimedTransitionProperty.TimedT
    * @param asOfDate the date before which transitions should be retained
    */
   public TimedTransitionProperty<V, T> copyUntilJustBefore(DateTime asOfDate) {
-    return new TimedTransitionProperty<>(backingMap.headMap(asOfDate, false));
+    return new TimedTransitionProperty<>(
+        ImmutableSortedMap.copyOfSorted(backingMap.headMap(asOfDate, false)));
   }
 
   /**
@@ -263,6 +263,56 @@ public class TimedTransitionProperty<V, T extends TimedTransitionProperty.TimedT
   /** The backing map of DateTime to TimedTransition subclass used to store the transitions. */
   private final NavigableMap<DateTime, T> backingMap;
 
+  /**
+   * A read-optimized copy of {@link #backingMap}, built on first use and discarded whenever the map
+   * is modified (which only happens while Objectify is loading a @Mapify field).
+   */
+  @Nullable private volatile Snapshot<V> snapshot;
+
+  /**
+   * The transitions of a {@link TimedTransitionProperty} as sorted parallel arrays.
+   *
+   * <p>Lookups by time are then an allocation-free binary search over primitive millis, instead of
+   * a map lookup that allocates an entry for every call, and {@link #valueMap} is only ever built
+   * once.
+   */
+  private static final class Snapshot<V> {
+    private final long[] transitionMillis;
+    private final DateTime[] transitionTimes;
+    private final Object[] values;
+    private final ImmutableSortedMap<DateTime, V> valueMap;
+
+    Snapshot(ImmutableSortedMap<DateTime, V> valueMap) {
+      this.valueMap = valueMap;
+      int size = valueMap.size();
+      transitionMillis = new long[size];
+      transitionTimes = valueMap.keySet().toArray(new DateTime[size]);
+      values = valueMap.values().toArray();
+      for (int i = 0; i < size; i++) {
+        transitionMillis[i] = transitionTimes[i].getMillis();
+      }
+    }
+
+    /**
+     * Returns the index of the latest transition at or before {@code time}, where times earlier
+     * than START_OF_TIME are treated as START_OF_TIME.
+     */
+    int indexAt(DateTime time) {
+      long millis = Math.max(time.getMillis(), START_OF_TIME.getMillis());
+      int low = 0;
+      int high = transitionMillis.length - 1;
+      while (low <= high) {
+        int mid = (low + high) >>> 1;
+        if (transitionMillis[mid] <= millis) {
+          low = mid + 1;
+        } else {
+          high = mid - 1;
+        }
+      }
+      return high;
+    }
+  }
+
   /** Returns a new {@code TimedTransitionProperty} backed by the provided map instance. */
   private TimedTransitionProperty(NavigableMap<DateTime, T> backingMap) {
     checkArgument(backingMap.get(START_OF_TIME) != null,
@@ -284,9 +334,44 @@ public class TimedTransitionProperty<V, T extends TimedTransitionProperty.TimedT
     return backingMap;
   }
 
+  @Override
+  public T put(DateTime key, T value) {
+    snapshot = null;
+    return super.put(key, value);
+  }
+
+  @Override
+  public void putAll(Map<? extends DateTime, ? extends T> map) {
+    snapshot = null;
+    super.putAll(map);
+  }
+
+  @Override
+  public T remove(Object key) {
+    snapshot = null;
+    return super.remove(key);
+  }
+
+  @Override
+  public void clear() {
+    snapshot = null;
+    super.clear();
+  }
+
+  private Snapshot<V> getSnapshot() {
+    Snapshot<V> current = snapshot;
+    if (current == null) {
+      current =
+          new Snapshot<>(
+              ImmutableSortedMap.copyOfSorted(Maps.transformValues(backingMap, T::getValue)));
+      snapshot = current;
+    }
+    return current;
+  }
+
   /** Returns the map of DateTime to value that is the "natural" representation of this property. */
   public ImmutableSortedMap<DateTime, V> toValueMap() {
-    return ImmutableSortedMap.copyOfSorted(Maps.transformValues(backingMap, T::getValue));
+    return getSnapshot().valueMap;
   }
 
   /**
@@ -294,16 +379,24 @@ public class TimedTransitionProperty<V, T extends TimedTransitionProperty.TimedT
    * a time before START_OF_TIME is extrapolated to be the value that is active at START_OF_TIME.
    */
   public V getValueAtTime(DateTime time) {
-    // Retrieve the current value by finding the latest transition before or at the given time,
-    // where any given time earlier than START_OF_TIME is replaced by START_OF_TIME.
-    return backingMap.floorEntry(latestOf(START_OF_TIME, time)).getValue().getValue();
+    Snapshot<V> current = getSnapshot();
+    // The entry for START_OF_TIME guarantees that there is always a transition at or before the
+    // given time, once times earlier than START_OF_TIME are replaced by START_OF_TIME.
+    @SuppressWarnings("unchecked") // Safe because values only holds values of type V.
+    V value = (V) current.values[current.indexAt(time)];
+    return value;
   }
 
   /**
    * Returns the time of the next transition.  Returns null if there is no subsequent transition.
+   *
+   * <p>The value returned by {@link #getValueAtTime} stays the same for all times up to (but not
+   * including) this one, so callers can use it to bound how long a looked-up value remains valid.
    */
   @Nullable
   public DateTime getNextTransitionAfter(DateTime time) {
-    return backingMap.higherKey(latestOf(START_OF_TIME, time));
+    Snapshot<V> current = getSnapshot();
+    int next = current.indexAt(time) + 1;
+    return (next < current.transitionTimes.length) ? current.transitionTimes[next] : null;
   }
 }
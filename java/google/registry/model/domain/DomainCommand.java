@@ -16,9 +16,9 @@ package google.registry.model.domain;
 
 import static com.google.common.base.MoreObjects.firstNonNull;
 import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
 import static com.google.common.collect.Iterables.getOnlyElement;
-import static com.google.common.collect.Maps.transformValues;
-import static com.google.common.collect.Sets.difference;
+import static google.registry.model.index.ForeignKeyIndex.mapToFkiClass;
 import static google.registry.util.CollectionUtils.difference;
 import static google.registry.util.CollectionUtils.forceEmptyToNull;
 import static google.registry.util.CollectionUtils.nullSafeImmutableCopy;
@@ -30,6 +30,7 @@ import com.google.common.base.MoreObjects;
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSetMultimap;
 import com.googlecode.objectify.Key;
 import google.registry.model.EppResource;
 import google.registry.model.ImmutableObject;
@@ -41,8 +42,8 @@ import google.registry.model.eppinput.ResourceCommand.ResourceUpdate;
 import google.registry.model.eppinput.ResourceCommand.SingleResourceCommand;
 import google.registry.model.host.HostResource;
 import google.registry.model.index.ForeignKeyIndex;
-import java.util.Map;
 import java.util.Set;
+import javax.annotation.Nullable;
 import javax.xml.bind.annotation.XmlAttribute;
 import javax.xml.bind.annotation.XmlElement;
 import javax.xml.bind.annotation.XmlElementWrapper;
@@ -173,17 +174,21 @@ public class DomainCommand {
     @Override
     public Create cloneAndLinkReferences(DateTime now) throws InvalidReferencesException {
       Create clone = clone(this);
-      clone.nameservers = linkHosts(clone.nameserverFullyQualifiedHostNames, now);
+      ForeignKeyReferences references = new ForeignKeyReferences();
+      references.addHosts(clone.nameserverFullyQualifiedHostNames);
+      references.addContacts(clone.foreignKeyedDesignatedContacts);
+      references.addContact(clone.registrantContactId);
+      references.load(now);
+      clone.nameservers = references.linkHosts(clone.nameserverFullyQualifiedHostNames);
       if (registrantContactId == null) {
-        clone.contacts = linkContacts(clone.foreignKeyedDesignatedContacts, now);
+        clone.contacts = references.linkContacts(clone.foreignKeyedDesignatedContacts);
       } else {
         // Load the registrant and contacts in one shot.
         ForeignKeyedDesignatedContact registrantPlaceholder = new ForeignKeyedDesignatedContact();
         registrantPlaceholder.contactId = clone.registrantContactId;
         registrantPlaceholder.type = DesignatedContact.Type.REGISTRANT;
-        Set<DesignatedContact> contacts = linkContacts(
-            union(nullToEmpty(clone.foreignKeyedDesignatedContacts), registrantPlaceholder),
-            now);
+        Set<DesignatedContact> contacts = references.linkContacts(
+            union(nullToEmpty(clone.foreignKeyedDesignatedContacts), registrantPlaceholder));
         for (DesignatedContact contact : contacts) {
           if (DesignatedContact.Type.REGISTRANT.equals(contact.getType())) {
             clone.registrant = contact.getContactKey();
@@ -374,26 +379,33 @@ public class DomainCommand {
       }
 
       /** Creates a copy of this {@link AddRemove} with hard links to hosts and contacts. */
-      private AddRemove cloneAndLinkReferences(DateTime now) throws InvalidReferencesException {
+      private AddRemove cloneAndLinkReferences(ForeignKeyReferences references)
+          throws InvalidReferencesException {
         AddRemove clone = clone(this);
-        clone.nameservers = linkHosts(clone.nameserverFullyQualifiedHostNames, now);
-        clone.contacts = linkContacts(clone.foreignKeyedDesignatedContacts, now);
+        clone.nameservers = references.linkHosts(clone.nameserverFullyQualifiedHostNames);
+        clone.contacts = references.linkContacts(clone.foreignKeyedDesignatedContacts);
         return clone;
       }
+
+      private void addReferencesTo(ForeignKeyReferences references) {
+        references.addHosts(nameserverFullyQualifiedHostNames);
+        references.addContacts(foreignKeyedDesignatedContacts);
+      }
     }
 
     /** The inner change type on a domain update command. */
     @XmlType(propOrder = {"registrantContactId", "authInfo"})
     public static class Change extends DomainCreateOrChange<DomainBase.Builder<?, ?>> {
       /** Creates a copy of this {@link Change} with hard links to hosts and contacts. */
-      Change cloneAndLinkReferences(DateTime now) throws InvalidReferencesException {
+      Change cloneAndLinkReferences(ForeignKeyReferences references)
+          throws InvalidReferencesException {
         Change clone = clone(this);
         clone.registrant = Strings.isNullOrEmpty(clone.registrantContactId)
             ? null
             : getOnlyElement(
-                loadByForeignKeys(
-                    ImmutableSet.of(clone.registrantContactId), ContactResource.class, now)
-                        .values());
+                references
+                    .get(ImmutableSet.of(clone.registrantContactId), ContactResource.class)
+                    .values());
         return clone;
       }
     }
@@ -407,51 +419,102 @@ public class DomainCommand {
     @Override
     public Update cloneAndLinkReferences(DateTime now) throws InvalidReferencesException {
       Update clone = clone(this);
-      clone.innerAdd = clone.getInnerAdd().cloneAndLinkReferences(now);
-      clone.innerRemove = clone.getInnerRemove().cloneAndLinkReferences(now);
-      clone.innerChange = clone.getInnerChange().cloneAndLinkReferences(now);
+      ForeignKeyReferences references = new ForeignKeyReferences();
+      clone.getInnerAdd().addReferencesTo(references);
+      clone.getInnerRemove().addReferencesTo(references);
+      references.addContact(clone.getInnerChange().registrantContactId);
+      references.load(now);
+      clone.innerAdd = clone.getInnerAdd().cloneAndLinkReferences(references);
+      clone.innerRemove = clone.getInnerRemove().cloneAndLinkReferences(references);
+      clone.innerChange = clone.getInnerChange().cloneAndLinkReferences(references);
       return clone;
     }
   }
 
-  private static Set<Key<HostResource>> linkHosts(
-      Set<String> fullyQualifiedHostNames, DateTime now) throws InvalidReferencesException {
-    if (fullyQualifiedHostNames == null) {
-      return null;
+  /**
+   * The hosts and contacts referenced by foreign key in a command, resolved in a single batch.
+   *
+   * <p>All of the foreign keys are added first and then loaded together, so that linking a command
+   * costs one Datastore round trip however many nameservers and contacts it touches.
+   */
+  private static class ForeignKeyReferences {
+
+    private final ImmutableSetMultimap.Builder<Class<? extends EppResource>, String> foreignKeys =
+        new ImmutableSetMultimap.Builder<>();
+    private ImmutableMap<Key<ForeignKeyIndex<?>>, ForeignKeyIndex<?>> fkis;
+
+    void addHosts(@Nullable Set<String> fullyQualifiedHostNames) {
+      foreignKeys.putAll(HostResource.class, nullToEmpty(fullyQualifiedHostNames));
+    }
+
+    void addContacts(@Nullable Set<ForeignKeyedDesignatedContact> contacts) {
+      for (ForeignKeyedDesignatedContact contact : nullToEmpty(contacts)) {
+        addContact(contact.contactId);
+      }
     }
-    return ImmutableSet.copyOf(
-        loadByForeignKeys(fullyQualifiedHostNames, HostResource.class, now).values());
-  }
 
-  private static Set<DesignatedContact> linkContacts(
-      Set<ForeignKeyedDesignatedContact> contacts, DateTime now) throws InvalidReferencesException {
-    if (contacts == null) {
-      return null;
+    void addContact(@Nullable String contactId) {
+      if (!Strings.isNullOrEmpty(contactId)) {
+        foreignKeys.put(ContactResource.class, contactId);
+      }
     }
-    ImmutableSet.Builder<String> foreignKeys = new ImmutableSet.Builder<>();
-    for (ForeignKeyedDesignatedContact contact : contacts) {
-      foreignKeys.add(contact.contactId);
+
+    void load(DateTime now) {
+      fkis = ForeignKeyIndex.loadCached(foreignKeys.build(), now);
     }
-    ImmutableMap<String, Key<ContactResource>> loadedContacts =
-        loadByForeignKeys(foreignKeys.build(), ContactResource.class, now);
-    ImmutableSet.Builder<DesignatedContact> linkedContacts = new ImmutableSet.Builder<>();
-    for (ForeignKeyedDesignatedContact contact : contacts) {
-      linkedContacts.add(DesignatedContact.create(
-          contact.type, loadedContacts.get(contact.contactId)));
+
+    @Nullable
+    Set<Key<HostResource>> linkHosts(@Nullable Set<String> fullyQualifiedHostNames)
+        throws InvalidReferencesException {
+      if (fullyQualifiedHostNames == null) {
+        return null;
+      }
+      return ImmutableSet.copyOf(get(fullyQualifiedHostNames, HostResource.class).values());
     }
-    return linkedContacts.build();
-  }
 
-  /** Loads keys to EPP resources by their foreign keys. */
-  private static <T extends EppResource> ImmutableMap<String, Key<T>> loadByForeignKeys(
-      final Set<String> foreignKeys, final Class<T> clazz, final DateTime now)
-      throws InvalidReferencesException {
-    Map<String, ForeignKeyIndex<T>> fkis = ForeignKeyIndex.loadCached(clazz, foreignKeys, now);
-    if (!fkis.keySet().equals(foreignKeys)) {
-      throw new InvalidReferencesException(
-          clazz, ImmutableSet.copyOf(difference(foreignKeys, fkis.keySet())));
+    @Nullable
+    Set<DesignatedContact> linkContacts(@Nullable Set<ForeignKeyedDesignatedContact> contacts)
+        throws InvalidReferencesException {
+      if (contacts == null) {
+        return null;
+      }
+      ImmutableSet.Builder<String> foreignKeys = new ImmutableSet.Builder<>();
+      for (ForeignKeyedDesignatedContact contact : contacts) {
+        foreignKeys.add(contact.contactId);
+      }
+      ImmutableMap<String, Key<ContactResource>> loadedContacts =
+          get(foreignKeys.build(), ContactResource.class);
+      ImmutableSet.Builder<DesignatedContact> linkedContacts = new ImmutableSet.Builder<>();
+      for (ForeignKeyedDesignatedContact contact : contacts) {
+        linkedContacts.add(DesignatedContact.create(
+            contact.type, loadedContacts.get(contact.contactId)));
+      }
+      return linkedContacts.build();
+    }
+
+    /** Returns keys to the already loaded EPP resources with the given foreign keys. */
+    <T extends EppResource> ImmutableMap<String, Key<T>> get(
+        Set<String> foreignKeys, Class<T> clazz) throws InvalidReferencesException {
+      checkState(fkis != null, "Foreign keys must be loaded before linking");
+      ImmutableMap.Builder<String, Key<T>> keys = new ImmutableMap.Builder<>();
+      ImmutableSet.Builder<String> missing = new ImmutableSet.Builder<>();
+      for (String foreignKey : foreignKeys) {
+        // This cast is safe because the index of a resource of type T points to a T.
+        @SuppressWarnings("unchecked")
+        ForeignKeyIndex<T> fki =
+            (ForeignKeyIndex<T>)
+                fkis.get(Key.<ForeignKeyIndex<?>>create(mapToFkiClass(clazz), foreignKey));
+        if (fki == null) {
+          missing.add(foreignKey);
+        } else {
+          keys.put(foreignKey, fki.getResourceKey());
+        }
+      }
+      if (!missing.build().isEmpty()) {
+        throw new InvalidReferencesException(clazz, missing.build());
+      }
+      return keys.build();
     }
-    return ImmutableMap.copyOf(transformValues(fkis, ForeignKeyIndex::getResourceKey));
   }
 
   /** Exception to throw when referenced objects don't exist. */
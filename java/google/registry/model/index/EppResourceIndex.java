@@ -14,9 +14,12 @@
 
 package google.registry.model.index;
 
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static google.registry.model.ofy.ObjectifyService.ofy;
 import static google.registry.util.TypeUtils.instantiate;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableSet;
 import com.googlecode.objectify.Key;
 import com.googlecode.objectify.annotation.Entity;
 import com.googlecode.objectify.annotation.Id;
@@ -55,7 +58,6 @@ public class EppResourceIndex extends BackupGroupRoot {
     return reference;
   }
 
-  @VisibleForTesting
   public Key<EppResourceIndexBucket> getBucket() {
     return bucket;
   }
@@ -74,4 +76,26 @@ public class EppResourceIndex extends BackupGroupRoot {
   public static <T extends EppResource> EppResourceIndex create(Key<T> resourceKey) {
     return create(EppResourceIndexBucket.getBucketKey(resourceKey), resourceKey);
   }
+
+  /**
+   * Loads the keys of the index entries that actually exist for the given resource.
+   *
+   * <p>This is normally just the entry in the resource's current bucket, but it can be in a bucket
+   * the resource belonged to before the number of buckets was raised.
+   *
+   * @see EppResourceIndexBucket#getCandidateBucketKeys
+   */
+  public static ImmutableSet<Key<EppResourceIndex>> loadExistingKeys(
+      Key<? extends EppResource> resourceKey) {
+    String id = resourceKey.getString();
+    return ImmutableSet.copyOf(
+        ofy()
+            .load()
+            .keys(
+                EppResourceIndexBucket.getCandidateBucketKeys(resourceKey)
+                    .stream()
+                    .map(bucket -> Key.create(bucket, EppResourceIndex.class, id))
+                    .collect(toImmutableList()))
+            .keySet());
+  }
 }
@@ -17,6 +17,7 @@ package google.registry.model.index;
 import static google.registry.config.RegistryConfig.getEppResourceIndexBucketCount;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.hash.Hashing;
 import com.googlecode.objectify.Key;
 import com.googlecode.objectify.annotation.Entity;
@@ -35,11 +36,18 @@ public class EppResourceIndexBucket extends ImmutableObject {
 
   /**
    * Deterministic function that returns a bucket id based on the resource's roid.
-   * NB: At the moment, nothing depends on this being deterministic, so we have the ability to
-   * change the number of buckets and utilize a random distribution once we do.
+   *
+   * <p>This uses consistent hashing, so that when the number of buckets is raised only the
+   * resources that now belong in one of the new buckets change bucket. Their existing index entries
+   * stay where they are, and are still read from there, until {@code
+   * RebalanceEppResourceIndexAction} moves them.
    */
   private static long getBucketIdFromEppResource(Key<? extends EppResource> resourceKey) {
-    int numBuckets = getEppResourceIndexBucketCount();
+    return getBucketIdFromEppResource(resourceKey, getEppResourceIndexBucketCount());
+  }
+
+  private static long getBucketIdFromEppResource(
+      Key<? extends EppResource> resourceKey, int numBuckets) {
     // IDs can't be 0, so add 1 to the hash.
     return Hashing.consistentHash(resourceKey.getName().hashCode(), numBuckets) + 1;
   }
@@ -49,6 +57,25 @@ public class EppResourceIndexBucket extends ImmutableObject {
     return Key.create(EppResourceIndexBucket.class, getBucketIdFromEppResource(resourceKey));
   }
 
+  /**
+   * Gets the keys of all buckets that the resource could have been indexed in, one for each bucket
+   * count up to the current one.
+   *
+   * <p>Since the number of buckets can only be raised, this includes the bucket of an index entry
+   * that {@code RebalanceEppResourceIndexAction} hasn't moved yet. With consistent hashing, a
+   * resource only changes bucket a logarithmic number of times, so there are few candidates.
+   */
+  public static ImmutableSet<Key<EppResourceIndexBucket>> getCandidateBucketKeys(
+      Key<? extends EppResource> resourceKey) {
+    ImmutableSet.Builder<Key<EppResourceIndexBucket>> builder = new ImmutableSet.Builder<>();
+    for (int numBuckets = 1; numBuckets <= getEppResourceIndexBucketCount(); numBuckets++) {
+      builder.add(
+          Key.create(
+              EppResourceIndexBucket.class, getBucketIdFromEppResource(resourceKey, numBuckets)));
+    }
+    return builder.build();
+  }
+
   /** Gets the specified numbered bucket key. */
   public static Key<EppResourceIndexBucket> getBucketKey(int bucketId) {
     return Key.create(EppResourceIndexBucket.class, bucketId);
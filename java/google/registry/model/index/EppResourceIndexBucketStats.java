@@ -0,0 +1,132 @@
+// Copyright 2018 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.model.index;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static com.google.common.collect.ImmutableMap.toImmutableMap;
+import static google.registry.model.ofy.ObjectifyService.ofy;
+import static google.registry.util.CollectionUtils.nullToEmptyImmutableCopy;
+import static google.registry.util.TypeUtils.instantiate;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Streams;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+import com.googlecode.objectify.annotation.Parent;
+import google.registry.model.ImmutableObject;
+import google.registry.model.annotations.NotBackedUp;
+import google.registry.model.annotations.NotBackedUp.Reason;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+import org.joda.time.DateTime;
+
+/**
+ * Statistics about the {@link EppResourceIndex} entries in an {@link EppResourceIndexBucket}.
+ *
+ * <p>These are computed by {@code RebalanceEppResourceIndexAction}, and used to split buckets that
+ * are much larger than average into several key ranges, so that mapreduces over all EPP resources
+ * can be sharded evenly. They are only a hint, and may be missing or stale.
+ */
+@Entity
+@NotBackedUp(reason = Reason.AUTO_GENERATED)
+public class EppResourceIndexBucketStats extends ImmutableObject {
+
+  /** The id of the only statistics entity under each bucket. */
+  private static final long SINGLETON_ID = 1;
+
+  @Parent
+  Key<EppResourceIndexBucket> bucket;
+
+  @Id
+  long id = SINGLETON_ID;
+
+  /** The number of index entries in the bucket. */
+  long size;
+
+  /** A sorted, uniformly random sample of the ids of the index entries in the bucket. */
+  List<String> sampledIds;
+
+  /** When these statistics were computed. */
+  DateTime updateTime;
+
+  public Key<EppResourceIndexBucket> getBucket() {
+    return bucket;
+  }
+
+  public long getSize() {
+    return size;
+  }
+
+  public ImmutableList<String> getSampledIds() {
+    return nullToEmptyImmutableCopy(sampledIds);
+  }
+
+  public DateTime getUpdateTime() {
+    return updateTime;
+  }
+
+  /**
+   * Returns the index ids that split the bucket into the given number of roughly equally sized key
+   * ranges, in ascending order.
+   *
+   * <p>Fewer ids are returned if there aren't enough samples to make that many ranges.
+   */
+  public ImmutableList<String> getSplitIds(int numRanges) {
+    checkArgument(numRanges > 0, "Number of ranges must be positive");
+    ImmutableList<String> samples = getSampledIds();
+    return IntStream.range(1, numRanges)
+        .mapToObj(i -> samples.get(i * samples.size() / numRanges))
+        .distinct()
+        .collect(toImmutableList());
+  }
+
+  public static Key<EppResourceIndexBucketStats> createKey(Key<EppResourceIndexBucket> bucket) {
+    return Key.create(bucket, EppResourceIndexBucketStats.class, SINGLETON_ID);
+  }
+
+  public static EppResourceIndexBucketStats create(
+      Key<EppResourceIndexBucket> bucket,
+      long size,
+      Iterable<String> sampledIds,
+      DateTime updateTime) {
+    EppResourceIndexBucketStats instance = instantiate(EppResourceIndexBucketStats.class);
+    instance.bucket = bucket;
+    instance.size = size;
+    instance.sampledIds = ImmutableSortedSet.copyOf(sampledIds).asList();
+    instance.updateTime = updateTime;
+    return instance;
+  }
+
+  /** Loads the statistics of all the given buckets that have any, in a single batch. */
+  public static ImmutableMap<Key<EppResourceIndexBucket>, EppResourceIndexBucketStats> load(
+      Iterable<Key<EppResourceIndexBucket>> buckets) {
+    Map<Key<EppResourceIndexBucketStats>, EppResourceIndexBucketStats> stats =
+        ofy()
+            .load()
+            .keys(
+                Streams.stream(buckets)
+                    .map(EppResourceIndexBucketStats::createKey)
+                    .collect(toImmutableList()));
+    return stats
+        .values()
+        .stream()
+        .collect(toImmutableMap(EppResourceIndexBucketStats::getBucket, s -> s));
+  }
+}
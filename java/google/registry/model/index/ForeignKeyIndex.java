@@ -14,7 +14,8 @@
 
 package google.registry.model.index;
 
-import static com.google.common.collect.ImmutableList.toImmutableList;
+import static com.google.common.collect.ImmutableMap.toImmutableMap;
+import static com.google.common.collect.ImmutableSet.toImmutableSet;
 import static com.google.common.collect.Maps.filterValues;
 import static google.registry.config.RegistryConfig.getEppResourceCachingDuration;
 import static google.registry.config.RegistryConfig.getEppResourceMaxCachedEntries;
@@ -29,8 +30,9 @@ import com.google.common.cache.LoadingCache;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSetMultimap;
 import com.google.common.collect.Maps;
-import com.google.common.collect.Streams;
+import com.google.common.collect.Multimap;
 import com.googlecode.objectify.Key;
 import com.googlecode.objectify.annotation.Entity;
 import com.googlecode.objectify.annotation.Id;
@@ -243,30 +245,60 @@ public abstract class ForeignKeyIndex<E extends EppResource> extends BackupGroup
    */
   public static <E extends EppResource> Map<String, ForeignKeyIndex<E>> loadCached(
       Class<E> clazz, Iterable<String> foreignKeys, final DateTime now) {
+    // This cast is safe because all of the ForeignKeyIndexes loaded here are of type clazz, which
+    // is scoped to E.
+    @SuppressWarnings("unchecked")
+    ImmutableMap<String, ForeignKeyIndex<E>> fkis =
+        loadCached(
+                ImmutableSetMultimap.<Class<? extends EppResource>, String>builder()
+                    .putAll(clazz, foreignKeys)
+                    .build(),
+                now)
+            .values()
+            .stream()
+            .collect(
+                toImmutableMap(ForeignKeyIndex::getForeignKey, fki -> (ForeignKeyIndex<E>) fki));
+    return fkis;
+  }
+
+  /**
+   * Load {@link ForeignKeyIndex} instances for foreign keys of several resource types at once,
+   * using the cache if enabled.
+   *
+   * <p>All of the indexes that aren't already cached are fetched in a single batch, so a command
+   * that references many hosts and contacts costs one round trip rather than one per type.
+   *
+   * <p>The returned map is keyed by {@link ForeignKeyIndex} key, and will omit any keys for which
+   * the {@link ForeignKeyIndex} doesn't exist or has been soft deleted. The same consistency
+   * trade-offs as {@link #loadCached(Class, Iterable, DateTime)} apply.
+   */
+  public static ImmutableMap<Key<ForeignKeyIndex<?>>, ForeignKeyIndex<?>> loadCached(
+      Multimap<Class<? extends EppResource>, String> foreignKeys, final DateTime now) {
+    ImmutableSet<Key<ForeignKeyIndex<?>>> fkiKeys =
+        foreignKeys
+            .entries()
+            .stream()
+            .map(entry -> createFkiKey(entry.getKey(), entry.getValue()))
+            .collect(toImmutableSet());
+    Map<Key<ForeignKeyIndex<?>>, Optional<ForeignKeyIndex<?>>> fkis;
     if (!RegistryConfig.isEppResourceCachingEnabled()) {
-      return ofy().doTransactionless(() -> load(clazz, foreignKeys, now));
-    }
-    ImmutableList<Key<ForeignKeyIndex<?>>> fkiKeys =
-        Streams.stream(foreignKeys)
-            .map(fk -> Key.<ForeignKeyIndex<?>>create(mapToFkiClass(clazz), fk))
-            .collect(toImmutableList());
-    try {
-      // This cast is safe because when we loaded ForeignKeyIndexes above we used type clazz, which
-      // is scoped to E.
-      @SuppressWarnings("unchecked")
-      Map<String, ForeignKeyIndex<E>> fkisFromCache = cacheForeignKeyIndexes
-          .getAll(fkiKeys)
-          .entrySet()
-          .stream()
-          .filter(entry -> entry.getValue().isPresent())
-          .filter(entry -> now.isBefore(entry.getValue().get().getDeletionTime()))
-          .collect(
-              ImmutableMap.toImmutableMap(
-                  entry -> entry.getKey().getName(),
-                  entry -> (ForeignKeyIndex<E>) entry.getValue().get()));
-      return fkisFromCache;
-    } catch (ExecutionException e) {
-      throw new RuntimeException("Error loading cached ForeignKeyIndexes", e.getCause());
+      fkis = CACHE_LOADER.loadAll(fkiKeys);
+    } else {
+      try {
+        fkis = cacheForeignKeyIndexes.getAll(fkiKeys);
+      } catch (ExecutionException e) {
+        throw new RuntimeException("Error loading cached ForeignKeyIndexes", e.getCause());
+      }
     }
+    return fkis.entrySet()
+        .stream()
+        .filter(entry -> entry.getValue().isPresent())
+        .filter(entry -> now.isBefore(entry.getValue().get().getDeletionTime()))
+        .collect(toImmutableMap(Map.Entry::getKey, entry -> entry.getValue().get()));
+  }
+
+  private static Key<ForeignKeyIndex<?>> createFkiKey(
+      Class<? extends EppResource> clazz, String foreignKey) {
+    return Key.create(RESOURCE_CLASS_TO_FKI_CLASS.get(clazz), foreignKey);
   }
 }
@@ -17,10 +17,12 @@ package google.registry.model.ofy;
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.collect.DiscreteDomain.integers;
 import static com.google.common.collect.ImmutableSet.toImmutableSet;
+import static google.registry.config.RegistryConfig.getActiveCommitLogBucketCount;
 import static google.registry.config.RegistryConfig.getCommitLogBucketCount;
 import static google.registry.model.ofy.ObjectifyService.ofy;
 import static google.registry.util.DateTimeUtils.START_OF_TIME;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ContiguousSet;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSortedSet;
@@ -34,12 +36,12 @@ import google.registry.model.ImmutableObject;
 import google.registry.model.annotations.NotBackedUp;
 import google.registry.model.annotations.NotBackedUp.Reason;
 import google.registry.util.NonFinalForTesting;
-import java.util.Random;
+import google.registry.util.SystemClock;
 import java.util.function.Supplier;
 import org.joda.time.DateTime;
 
 /**
- * Root for a random commit log bucket.
+ * Root for an arbitrarily chosen commit log bucket.
  *
  * <p>This is used to shard {@link CommitLogManifest} objects into
  * {@link RegistryConfig#getCommitLogBucketCount() N} entity groups. This increases
@@ -94,27 +96,72 @@ public class CommitLogBucket extends ImmutableObject implements Buildable {
     return Range.closed(1, getCommitLogBucketCount());
   }
 
-  /** Returns an arbitrary numeric bucket ID.  Default behavior is randomly chosen IDs. */
+  /**
+   * Returns an arbitrary numeric bucket ID.
+   *
+   * <p>Default behavior is to choose randomly among the {@linkplain
+   * RegistryConfig#getActiveCommitLogBucketCount active buckets}, favoring ones that this instance
+   * is not using and that have not recently seen contention.
+   *
+   * @see CommitLogBucketSelector
+   */
   public static int getArbitraryBucketId() {
     return bucketIdSupplier.get();
   }
 
+  /**
+   * Selector sized for the configured bucket count, which is fixed for the life of the instance.
+   *
+   * <p>Bucket IDs are checked against that count before being passed to the selector.
+   */
+  private static final CommitLogBucketSelector selector =
+      new CommitLogBucketSelector(getCommitLogBucketCount(), new SystemClock());
+
   /**
    * Supplier of valid bucket IDs to use for {@link #getArbitraryBucketId()}.
    *
-   * <p>Default supplier is one that returns bucket IDs via uniform random selection, but can be
-   * overridden in tests that rely on predictable bucket assignment for commit logs.
+   * <p>Default supplier is one that returns bucket IDs via {@link CommitLogBucketSelector}, but can
+   * be overridden in tests that rely on predictable bucket assignment for commit logs.
    */
   @NonFinalForTesting
   private static Supplier<Integer> bucketIdSupplier =
-      new Supplier<Integer>() {
-        private final Random random = new Random();
-
-        @Override
-        public Integer get() {
-          return random.nextInt(getCommitLogBucketCount()) + 1;  // Add 1 since IDs can't be 0.
-        }
-      };
+      () -> selector.select(getActiveCommitLogBucketCount());
+
+  /** Records that a transaction on this instance started using the given bucket. */
+  static void recordTransactionStart(Key<CommitLogBucket> bucketKey) {
+    selector.recordStart(getSelectorBucketId(bucketKey));
+  }
+
+  /** Records that a transaction on this instance stopped using the given bucket. */
+  static void recordTransactionEnd(Key<CommitLogBucket> bucketKey) {
+    selector.recordEnd(getSelectorBucketId(bucketKey));
+  }
+
+  /** Returns how many transactions on this instance are using the given bucket. */
+  @VisibleForTesting
+  static int getInFlightTransactionCount(Key<CommitLogBucket> bucketKey) {
+    return selector.getInFlightCount(getSelectorBucketId(bucketKey));
+  }
+
+  /** Records that a transaction using the given bucket failed due to contention. */
+  static void recordContention(Key<CommitLogBucket> bucketKey) {
+    selector.recordContention(getSelectorBucketId(bucketKey));
+  }
+
+  /**
+   * Returns the ID of a bucket for use with the selector, which only tracks the configured buckets.
+   *
+   * @throws IllegalArgumentException if the key isn't one of the configured buckets
+   */
+  private static int getSelectorBucketId(Key<CommitLogBucket> bucketKey) {
+    long bucketId = bucketKey.getId();
+    checkArgument(
+        bucketId >= 1 && bucketId <= getCommitLogBucketCount(),
+        "Commit log bucket %s is not one of the %s configured buckets",
+        bucketId,
+        getCommitLogBucketCount());
+    return (int) bucketId;
+  }
 
   /** Returns the loaded bucket for the given key, or a new object if the bucket doesn't exist. */
   public static CommitLogBucket loadBucket(Key<CommitLogBucket> bucketKey) {
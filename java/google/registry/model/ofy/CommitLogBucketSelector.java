@@ -0,0 +1,129 @@
+// Copyright 2018 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.model.ofy;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.common.annotations.VisibleForTesting;
+import google.registry.util.Clock;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import org.joda.time.Duration;
+
+/**
+ * Chooses commit log buckets for new transactions, steering them away from busy buckets.
+ *
+ * <p>Each bucket is an entity group that every transaction using it writes to, so transactions on
+ * the same bucket contend with each other. This instance tracks how many of its own transactions
+ * are using each bucket, and which buckets recently had a conflicting transaction. To choose a
+ * bucket it samples two distinct buckets at random and takes the less loaded one. This "power of
+ * two choices" spreads load almost perfectly evenly at the cost of a single extra comparison, and
+ * because the choice is still randomized, instances do not all pile onto the same cold bucket.
+ */
+final class CommitLogBucketSelector {
+
+  /** How long a bucket is avoided after a transaction using it conflicted. */
+  @VisibleForTesting
+  static final Duration CONTENTION_PERIOD = Duration.standardSeconds(5);
+
+  /** The load that a recent conflict adds to a bucket, in units of in-flight transactions. */
+  private static final int CONTENTION_PENALTY = 4;
+
+  private final int numBuckets;
+  private final Clock clock;
+
+  /** Number of this instance's transactions using each bucket, indexed by bucket ID. */
+  private final AtomicIntegerArray inFlight;
+
+  /** Time of the latest conflict on each bucket, in epoch millis, indexed by bucket ID. */
+  private final AtomicLongArray lastContentionMillis;
+
+  CommitLogBucketSelector(int numBuckets, Clock clock) {
+    checkArgument(numBuckets >= 1, "Invalid number of buckets: %s", numBuckets);
+    this.numBuckets = numBuckets;
+    this.clock = clock;
+    // Bucket IDs start at 1, so leave index 0 unused.
+    this.inFlight = new AtomicIntegerArray(numBuckets + 1);
+    this.lastContentionMillis = new AtomicLongArray(numBuckets + 1);
+    for (int i = 0; i <= numBuckets; i++) {
+      lastContentionMillis.set(i, Long.MIN_VALUE);
+    }
+  }
+
+  /** Returns a bucket ID between 1 and {@code numActiveBuckets}, inclusive. */
+  int select(int numActiveBuckets) {
+    return select(numActiveBuckets, ThreadLocalRandom.current());
+  }
+
+  @VisibleForTesting
+  int select(int numActiveBuckets, Random random) {
+    checkArgument(
+        numActiveBuckets >= 1 && numActiveBuckets <= numBuckets,
+        "Number of active buckets %s is not between 1 and the %s buckets tracked",
+        numActiveBuckets,
+        numBuckets);
+    int first = random.nextInt(numActiveBuckets) + 1;  // Add 1 since IDs can't be 0.
+    if (numActiveBuckets == 1) {
+      return first;
+    }
+    // Choose a second bucket uniformly from the others by skipping over the first.
+    int second = random.nextInt(numActiveBuckets - 1) + 1;
+    if (second >= first) {
+      second++;
+    }
+    long nowMillis = clock.nowUtc().getMillis();
+    return getLoad(second, nowMillis) < getLoad(first, nowMillis) ? second : first;
+  }
+
+  private int getLoad(int bucketId, long nowMillis) {
+    boolean recentlyContended =
+        lastContentionMillis.get(bucketId) > nowMillis - CONTENTION_PERIOD.getMillis();
+    return inFlight.get(bucketId) + (recentlyContended ? CONTENTION_PENALTY : 0);
+  }
+
+  /** Records that a transaction on this instance started using the given bucket. */
+  void recordStart(int bucketId) {
+    checkBucketId(bucketId);
+    inFlight.incrementAndGet(bucketId);
+  }
+
+  /** Records that a transaction on this instance stopped using the given bucket. */
+  void recordEnd(int bucketId) {
+    checkBucketId(bucketId);
+    inFlight.decrementAndGet(bucketId);
+  }
+
+  /** Returns the number of this instance's transactions using the given bucket. */
+  int getInFlightCount(int bucketId) {
+    checkBucketId(bucketId);
+    return inFlight.get(bucketId);
+  }
+
+  /** Records that a transaction using the given bucket failed due to contention. */
+  void recordContention(int bucketId) {
+    checkBucketId(bucketId);
+    lastContentionMillis.set(bucketId, clock.nowUtc().getMillis());
+  }
+
+  private void checkBucketId(int bucketId) {
+    checkArgument(
+        bucketId >= 1 && bucketId <= numBuckets,
+        "Bucket ID %s is not between 1 and the %s buckets tracked",
+        bucketId,
+        numBuckets);
+  }
+}
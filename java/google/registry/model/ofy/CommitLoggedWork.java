@@ -37,6 +37,7 @@ import java.util.HashSet;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import javax.annotation.Nullable;
 import org.joda.time.DateTime;
 
 /** Wrapper for {@link Work} that associates a time with each attempt. */
@@ -74,6 +75,20 @@ class CommitLoggedWork<R> extends VoidWork {
    */
   protected ImmutableSet<ImmutableObject> mutations = ImmutableSet.of();
 
+  /**
+   * Temporary place to store the keys read or written by the latest attempt.
+   *
+   * <p>These are used to attribute a transaction conflict to the entity groups it could have
+   * occurred on.
+   */
+  private ImmutableSet<Key<?>> transactionKeys = ImmutableSet.of();
+
+  /** The commit log bucket used by the latest attempt. */
+  private Key<CommitLogBucket> bucketKey;
+
+  /** Whether the latest attempt is counted as using {@link #bucketKey}. */
+  private boolean bucketInUse;
+
   /** Lifecycle marker to track whether {@link #vrun} has been called. */
   private boolean vrunCalled;
 
@@ -105,15 +120,45 @@ class CommitLoggedWork<R> extends VoidWork {
     return mutations;
   }
 
+  /** Returns the commit log bucket used by the latest attempt, or null if none was made. */
+  @Nullable
+  Key<CommitLogBucket> getBucketKey() {
+    return bucketKey;
+  }
+
+  /** Returns the root keys of the entity groups that the latest attempt read or wrote. */
+  ImmutableSet<Key<?>> getEntityGroupRoots() {
+    return transactionKeys.stream().map(Key::getRoot).collect(toImmutableSet());
+  }
+
+  /**
+   * Records that the latest attempt stopped using its commit log bucket.
+   *
+   * <p>This is called once the attempt's transaction has committed or rolled back, which happens
+   * after {@link #vrun} returns, so that the bucket counts as in use for the whole commit.
+   */
+  void releaseBucket() {
+    if (bucketInUse) {
+      CommitLogBucket.recordTransactionEnd(bucketKey);
+      bucketInUse = false;
+    }
+  }
+
   @Override
   public void vrun() {
     // The previous time will generally be null, except when using transactNew.
     TransactionInfo previous = Ofy.TRANSACTION_INFO.get();
     // Set the time to be used for "now" within the transaction.
     try {
-      Ofy.TRANSACTION_INFO.set(createNewTransactionInfo());
+      TransactionInfo info = createNewTransactionInfo();
+      Ofy.TRANSACTION_INFO.set(info);
+      bucketKey = info.bucketKey;
+      transactionKeys = ImmutableSet.of();
+      CommitLogBucket.recordTransactionStart(bucketKey);
+      bucketInUse = true;
       result = work.run();
-      saveCommitLog(Ofy.TRANSACTION_INFO.get());
+      saveCommitLog(info);
+      transactionKeys = union(ofy().getSessionKeys(), info.getTouchedKeys()).immutableCopy();
     } finally {
       Ofy.TRANSACTION_INFO.set(previous);
     }
@@ -129,6 +174,9 @@ class CommitLoggedWork<R> extends VoidWork {
     CommitLogBucket bucket = loadBucket(info.bucketKey);
     // Enforce unique monotonic property on CommitLogBucket.getLastWrittenTime().
     if (isBeforeOrAt(info.transactionTime, bucket.getLastWrittenTime())) {
+      // Another instance wrote to this bucket at or after our transaction time, so steer the retry
+      // and subsequent transactions elsewhere.
+      CommitLogBucket.recordContention(info.bucketKey);
       throw new TimestampInversionException(info.transactionTime, bucket.getLastWrittenTime());
     }
     // The keys read by Objectify during this transaction. This won't include the keys of
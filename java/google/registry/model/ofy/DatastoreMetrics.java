@@ -0,0 +1,159 @@
+// Copyright 2018 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.model.ofy;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableSet;
+import com.google.monitoring.metrics.DistributionFitter;
+import com.google.monitoring.metrics.EventMetric;
+import com.google.monitoring.metrics.ExponentialFitter;
+import com.google.monitoring.metrics.IncrementableMetric;
+import com.google.monitoring.metrics.LabelDescriptor;
+import com.google.monitoring.metrics.MetricRegistryImpl;
+import com.googlecode.objectify.Key;
+import google.registry.model.ofy.DatastoreRpcStats.RpcType;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/** Metrics for the latency and payload size of Datastore RPCs, and for transaction contention. */
+final class DatastoreMetrics {
+
+  private static final ImmutableSet<LabelDescriptor> RPC_LABEL_DESCRIPTORS =
+      ImmutableSet.of(LabelDescriptor.create("rpc_type", "The type of Datastore RPC."));
+
+  private static final ImmutableSet<LabelDescriptor> ENTITY_LABEL_DESCRIPTORS =
+      ImmutableSet.of(LabelDescriptor.create("kind", "The kind of the entity."));
+
+  private static final ImmutableSet<LabelDescriptor> CONFLICT_LABEL_DESCRIPTORS =
+      ImmutableSet.of(
+          LabelDescriptor.create(
+              "entity_group_kind", "The kind of the root of an entity group in the transaction."),
+          LabelDescriptor.create(
+              "entity_group_key",
+              "The name or id of the root of an entity group in the transaction."));
+
+  /**
+   * The most distinct entity group keys that conflicts are labelled with on an instance.
+   *
+   * <p>Contention concentrates on a few hot keys, but every labelled key is kept by the metric
+   * registry for the life of the instance, so the keys of later conflicts are pooled.
+   */
+  @VisibleForTesting static final int MAX_CONFLICT_KEY_LABELS = 1000;
+
+  /** The key label of conflicts on entity groups beyond {@link #MAX_CONFLICT_KEY_LABELS}. */
+  @VisibleForTesting static final String OTHER_KEYS_LABEL = "OTHER";
+
+  private static final Set<String> conflictKeyLabels = ConcurrentHashMap.newKeySet();
+
+  private static final ImmutableSet<LabelDescriptor> TRANSACTION_LABEL_DESCRIPTORS =
+      ImmutableSet.of(
+          LabelDescriptor.create("outcome", "Whether the transaction eventually committed."));
+
+  // Allows values between 1 and 2^20 milliseconds, which is longer than any request can run.
+  private static final DistributionFitter LATENCY_FITTER = ExponentialFitter.create(20, 2.0, 1.0);
+
+  // Allows values between 64 bytes and 64*2^15 bytes (2MB), Datastore's maximum entity size.
+  private static final DistributionFitter SIZE_FITTER = ExponentialFitter.create(15, 2.0, 64.0);
+
+  private static final EventMetric rpcLatency =
+      MetricRegistryImpl.getDefault()
+          .newEventMetric(
+              "/datastore/rpc_latency",
+              "Datastore RPC latency as observed by the caller",
+              "milliseconds",
+              RPC_LABEL_DESCRIPTORS,
+              LATENCY_FITTER);
+
+  private static final EventMetric rpcBatchSize =
+      MetricRegistryImpl.getDefault()
+          .newEventMetric(
+              "/datastore/rpc_batch_size",
+              "Number of keys or entities sent in a single Datastore RPC",
+              "count",
+              RPC_LABEL_DESCRIPTORS,
+              EventMetric.DEFAULT_FITTER);
+
+  private static final EventMetric entitySize =
+      MetricRegistryImpl.getDefault()
+          .newEventMetric(
+              "/datastore/entity_size",
+              "Serialized size of entities written to Datastore",
+              "bytes",
+              ENTITY_LABEL_DESCRIPTORS,
+              SIZE_FITTER);
+
+  @VisibleForTesting
+  static final IncrementableMetric transactionConflicts =
+      MetricRegistryImpl.getDefault()
+          .newIncrementableMetric(
+              "/datastore/transaction_conflicts",
+              "Count of transaction attempts that conflicted, by the entity groups involved",
+              "count",
+              CONFLICT_LABEL_DESCRIPTORS);
+
+  private static final EventMetric wastedTransactionTime =
+      MetricRegistryImpl.getDefault()
+          .newEventMetric(
+              "/datastore/wasted_transaction_time",
+              "Time spent on a transaction attempt that then conflicted",
+              "milliseconds",
+              CONFLICT_LABEL_DESCRIPTORS,
+              LATENCY_FITTER);
+
+  private static final EventMetric transactionAttempts =
+      MetricRegistryImpl.getDefault()
+          .newEventMetric(
+              "/datastore/transaction_attempts",
+              "Number of attempts made per transaction",
+              "count",
+              TRANSACTION_LABEL_DESCRIPTORS,
+              EventMetric.DEFAULT_FITTER);
+
+  private DatastoreMetrics() {}
+
+  static void recordRpc(RpcType type, int numEntities) {
+    rpcBatchSize.record(numEntities, type.name());
+  }
+
+  static void recordLatency(RpcType type, long millis) {
+    rpcLatency.record(millis, type.name());
+  }
+
+  static void recordEntitySize(String kind, int bytes) {
+    entitySize.record(bytes, kind);
+  }
+
+  static void recordConflict(Iterable<Key<?>> entityGroupRoots, long wastedMillis) {
+    for (Key<?> root : entityGroupRoots) {
+      String keyLabel = getConflictKeyLabel(root);
+      transactionConflicts.increment(root.getKind(), keyLabel);
+      wastedTransactionTime.record(wastedMillis, root.getKind(), keyLabel);
+    }
+  }
+
+  /** Returns the label of the given key, pooling keys beyond the first few that conflicted. */
+  private static String getConflictKeyLabel(Key<?> key) {
+    String label = (key.getName() != null) ? key.getName() : String.valueOf(key.getId());
+    if (conflictKeyLabels.contains(label)
+        || (conflictKeyLabels.size() < MAX_CONFLICT_KEY_LABELS && conflictKeyLabels.add(label))) {
+      return label;
+    }
+    return OTHER_KEYS_LABEL;
+  }
+
+  static void recordTransactionAttempts(int attempts, boolean committed) {
+    transactionAttempts.record(attempts, committed ? "COMMITTED" : "GAVE_UP");
+  }
+}
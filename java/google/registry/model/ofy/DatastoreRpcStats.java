@@ -0,0 +1,152 @@
+// Copyright 2018 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.model.ofy;
+
+import static com.google.common.collect.ImmutableMap.toImmutableMap;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableMap;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Counts of the Datastore RPCs issued, and transaction conflicts hit, while serving a request.
+ *
+ * <p>Counts are accumulated on the thread that issues the RPCs, which on App Engine is the thread
+ * serving the request. Callers that want per-request numbers should call {@link #reset} when the
+ * request starts and read {@link #current} when it ends.
+ *
+ * <p>Serializing an entity to measure its size costs about as much as the put itself, so sizes
+ * are only measured for a sampled fraction of requests; see {@link #isMeasuringEntitySizes}.
+ *
+ * @see RequestCapturingAsyncDatastoreService
+ */
+public final class DatastoreRpcStats {
+
+  /** The kinds of Datastore RPC that are counted. */
+  public enum RpcType {
+    GET,
+    PUT,
+    DELETE,
+    QUERY
+  }
+
+  /** The fraction of requests for which the serialized size of every entity put is measured. */
+  static final double ENTITY_SIZE_SAMPLE_RATE = 0.01;
+
+  private static final ThreadLocal<DatastoreRpcStats> CURRENT =
+      ThreadLocal.withInitial(() -> new DatastoreRpcStats(false));
+
+  private final boolean measuringEntitySizes;
+
+  private final long[] rpcCounts = new long[RpcType.values().length];
+  private final long[] entityCounts = new long[RpcType.values().length];
+  private long bytesWritten;
+  private long transactionConflicts;
+  private long wastedTransactionMillis;
+
+  private DatastoreRpcStats(boolean measuringEntitySizes) {
+    this.measuringEntitySizes = measuringEntitySizes;
+  }
+
+  /**
+   * Starts a fresh set of counts for the current thread and returns it.
+   *
+   * <p>Whether entity sizes are measured is sampled independently for each reset.
+   */
+  public static DatastoreRpcStats reset() {
+    return reset(ThreadLocalRandom.current().nextDouble() < ENTITY_SIZE_SAMPLE_RATE);
+  }
+
+  @VisibleForTesting
+  static DatastoreRpcStats reset(boolean measuringEntitySizes) {
+    DatastoreRpcStats stats = new DatastoreRpcStats(measuringEntitySizes);
+    CURRENT.set(stats);
+    return stats;
+  }
+
+  /** Returns the counts accumulated on the current thread since the last {@link #reset}. */
+  public static DatastoreRpcStats current() {
+    return CURRENT.get();
+  }
+
+  void recordRpc(RpcType type, int numEntities) {
+    rpcCounts[type.ordinal()]++;
+    entityCounts[type.ordinal()] += numEntities;
+  }
+
+  void recordBytesWritten(long bytes) {
+    bytesWritten += bytes;
+  }
+
+  void recordTransactionConflict(long wastedMillis) {
+    transactionConflicts++;
+    wastedTransactionMillis += wastedMillis;
+  }
+
+  /** Returns the number of RPCs of the given type. */
+  public long getRpcCount(RpcType type) {
+    return rpcCounts[type.ordinal()];
+  }
+
+  /** Returns the number of keys or entities sent in RPCs of the given type. */
+  public long getEntityCount(RpcType type) {
+    return entityCounts[type.ordinal()];
+  }
+
+  /** Returns whether the serialized size of entities put is measured for these counts. */
+  public boolean isMeasuringEntitySizes() {
+    return measuringEntitySizes;
+  }
+
+  /**
+   * Returns the total serialized size of all entities that were put, or empty if entity sizes
+   * weren't measured.
+   */
+  public Optional<Long> getBytesWritten() {
+    return measuringEntitySizes ? Optional.of(bytesWritten) : Optional.empty();
+  }
+
+  /** Returns the number of transaction attempts that failed due to contention. */
+  public long getTransactionConflicts() {
+    return transactionConflicts;
+  }
+
+  /** Returns the time spent on transaction attempts that failed due to contention. */
+  public long getWastedTransactionMillis() {
+    return wastedTransactionMillis;
+  }
+
+  /** Returns the RPC counts keyed by RPC type, including types with no RPCs. */
+  public ImmutableMap<RpcType, Long> getRpcCounts() {
+    return Arrays.stream(RpcType.values()).collect(toImmutableMap(t -> t, this::getRpcCount));
+  }
+
+  @Override
+  public String toString() {
+    Map<RpcType, Long> entities = new EnumMap<>(RpcType.class);
+    Arrays.stream(RpcType.values()).forEach(t -> entities.put(t, getEntityCount(t)));
+    return String.format(
+        "rpcs=%s, entities=%s, bytesWritten=%s, transactionConflicts=%d, wastedMillis=%d",
+        getRpcCounts(),
+        entities,
+        getBytesWritten().map(String::valueOf).orElse("unmeasured"),
+        transactionConflicts,
+        wastedTransactionMillis);
+  }
+}
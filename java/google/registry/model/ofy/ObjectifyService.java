@@ -102,12 +102,11 @@ public class ObjectifyService {
 
       @Override
       protected AsyncDatastoreService createRawAsyncDatastoreService(DatastoreServiceConfig cfg) {
-        // In the unit test environment, wrap the Datastore service in a proxy that can be used to
-        // examine the number of requests sent to Datastore.
-        AsyncDatastoreService service = super.createRawAsyncDatastoreService(cfg);
-        return RegistryEnvironment.get().equals(RegistryEnvironment.UNITTEST)
-            ? new RequestCapturingAsyncDatastoreService(service)
-            : service;
+        // Wrap the Datastore service in a proxy that records RPC counts and latencies. In the unit
+        // test environment, it also captures the requests so that tests can examine them.
+        return new RequestCapturingAsyncDatastoreService(
+            super.createRawAsyncDatastoreService(cfg),
+            RegistryEnvironment.get().equals(RegistryEnvironment.UNITTEST));
       }});
 
     // Translators must be registered before any entities can be registered.
@@ -19,12 +19,14 @@ import static com.google.common.base.Preconditions.checkState;
 import static com.google.common.collect.Maps.uniqueIndex;
 import static com.googlecode.objectify.ObjectifyService.ofy;
 import static google.registry.config.RegistryConfig.getBaseOfyRetryDuration;
+import static google.registry.config.RegistryConfig.getTransactionRetryBudget;
 import static google.registry.util.CollectionUtils.union;
 
 import com.google.appengine.api.datastore.DatastoreFailureException;
 import com.google.appengine.api.datastore.DatastoreTimeoutException;
 import com.google.appengine.api.taskqueue.TransientFailureException;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Streams;
@@ -36,6 +38,7 @@ import com.googlecode.objectify.Work;
 import com.googlecode.objectify.cmd.Deleter;
 import com.googlecode.objectify.cmd.Loader;
 import com.googlecode.objectify.cmd.Saver;
+import google.registry.model.EppResourceRevisionIndex;
 import google.registry.model.annotations.NotBackedUp;
 import google.registry.model.annotations.VirtualEntity;
 import google.registry.model.ofy.ReadOnlyWork.KillTransactionException;
@@ -45,7 +48,9 @@ import google.registry.util.Sleeper;
 import google.registry.util.SystemClock;
 import google.registry.util.SystemSleeper;
 import java.lang.annotation.Annotation;
+import java.util.ConcurrentModificationException;
 import java.util.Objects;
+import java.util.concurrent.ThreadLocalRandom;
 import javax.inject.Inject;
 import org.joda.time.DateTime;
 import org.joda.time.Duration;
@@ -160,6 +165,7 @@ public class Ofy {
    * virtual entities.
    *
    * <p>We only allow this in transactions so commit logs can be written in tandem with the save.
+   * The {@link EppResourceRevisionIndex} of each saved EPP resource is saved along with it.
    */
   public Saver save() {
     return new AugmentedSaver() {
@@ -171,6 +177,7 @@ public class Ofy {
         checkProhibitedAnnotations(entities, NotBackedUp.class, VirtualEntity.class);
         ImmutableMap<Key<?>, ?> keysToEntities = uniqueIndex(entities, Key::create);
         TRANSACTION_INFO.get().putSaves(keysToEntities);
+        saveRevisionIndexes(entities, save());
       }
     };
   }
@@ -178,17 +185,35 @@ public class Ofy {
   /**
    * Save, without any augmentations except to check that we're not saving any virtual entities.
    *
-   * <p>No backups get written.
+   * <p>No backups get written. In a transaction, the {@link EppResourceRevisionIndex} of each saved
+   * EPP resource is saved along with it. Outside of one there is no revision to add, so only the
+   * legacy revisions of resources that still have them are moved to an index.
    */
   public Saver saveWithoutBackup() {
     return new AugmentedSaver() {
       @Override
       protected void handleSave(Iterable<?> entities) {
         checkProhibitedAnnotations(entities, VirtualEntity.class);
+        saveRevisionIndexes(entities, saveWithoutBackup());
       }
     };
   }
 
+  /**
+   * Re-saves the revision indexes of the EPP resources among the given entities, which adds the
+   * current transaction to their revisions.
+   *
+   * @see EppResourceRevisionIndex#loadForSave
+   * @see google.registry.model.translators.CommitLogRevisionsTranslatorFactory
+   */
+  private static void saveRevisionIndexes(Iterable<?> entities, Saver saver) {
+    ImmutableList<EppResourceRevisionIndex> revisionIndexes =
+        EppResourceRevisionIndex.loadForSave(entities);
+    if (!revisionIndexes.isEmpty()) {
+      saver.entities(revisionIndexes);
+    }
+  }
+
   private Clock getClock() {
     return injectedClock == null ? clock : injectedClock;
   }
@@ -199,6 +224,19 @@ public class Ofy {
     return inTransaction() ? work.run() : transactNew(work);
   }
 
+  /**
+   * Execute a transaction, which stops being retried once failed attempts and backoff have used up
+   * the given retry budget instead of the default one.
+   *
+   * <p>If we are already in a transaction, the work runs in it and the budget of the enclosing
+   * transaction applies.
+   */
+  public <R> R transact(Duration retryBudget, Work<R> work) {
+    return inTransaction()
+        ? work.run()
+        : transactCommitLoggedWork(new CommitLoggedWork<>(work, getClock()), retryBudget);
+  }
+
   /**
    * Execute a transaction.
    *
@@ -235,40 +273,95 @@ public class Ofy {
   }
 
   /**
-   * Transact with commit logs and retry with exponential backoff.
+   * Transact with commit logs and retry with jittered exponential backoff.
+   *
+   * <p>Concurrent modifications are retried here rather than by Objectify, which would retry them
+   * immediately and indefinitely. Each conflict is recorded against the entity groups that the
+   * attempt touched, and the backoff grows with the recent conflict rate on this instance (see
+   * {@link TransactionContention}). Retries stop after {@link #NUM_RETRIES} attempts or once the
+   * failed attempts and backoff have used up the {@linkplain
+   * google.registry.config.RegistryConfig#getTransactionRetryBudget() retry budget}.
    *
    * <p>This method is broken out from {@link #transactNew(Work)} for testing purposes.
    */
   @VisibleForTesting
   <R> R transactCommitLoggedWork(CommitLoggedWork<R> work) {
-    long baseRetryMillis = getBaseOfyRetryDuration().getMillis();
-    for (long attempt = 0, sleepMillis = baseRetryMillis;
-        true;
-        attempt++, sleepMillis *= 2) {
+    return transactCommitLoggedWork(work, getTransactionRetryBudget());
+  }
+
+  /** Transact with commit logs and retry within the given retry budget. */
+  private <R> R transactCommitLoggedWork(CommitLoggedWork<R> work, Duration retryBudget) {
+    Duration baseRetryDuration = getBaseOfyRetryDuration();
+    long budgetMillis = retryBudget.getMillis();
+    long spentMillis = 0;
+    for (int attempt = 0; true; attempt++) {
+      DateTime attemptStart = getClock().nowUtc();
       try {
-        ofy().transactNew(work);
+        try {
+          ofy().transactNew(1, work);
+        } finally {
+          work.releaseBucket();
+        }
+        TransactionContention.recordAttempt(false);
+        DatastoreMetrics.recordTransactionAttempts(attempt + 1, true);
         return work.getResult();
-      } catch (TransientFailureException
+      } catch (ConcurrentModificationException
+          | TransientFailureException
           | TimestampInversionException
           | DatastoreTimeoutException
           | DatastoreFailureException e) {
+        // ConcurrentModificationExceptions mean that the commit lost out to another transaction.
         // TransientFailureExceptions come from task queues and always mean nothing committed.
         // TimestampInversionExceptions are thrown by our code and are always retryable as well.
         // However, Datastore exceptions might get thrown even if the transaction succeeded.
         if ((e instanceof DatastoreTimeoutException || e instanceof DatastoreFailureException)
             && checkIfAlreadySucceeded(work)) {
+          DatastoreMetrics.recordTransactionAttempts(attempt + 1, true);
           return work.getResult();
         }
-        if (attempt == NUM_RETRIES) {
+        long attemptMillis = getClock().nowUtc().getMillis() - attemptStart.getMillis();
+        boolean conflicted = e instanceof ConcurrentModificationException;
+        TransactionContention.recordAttempt(conflicted);
+        if (conflicted) {
+          recordConflict(work, attemptMillis);
+          if (work.getBucketKey() != null) {
+            CommitLogBucket.recordContention(work.getBucketKey());
+          }
+        }
+        Duration backoff =
+            TransactionContention.computeBackoff(
+                baseRetryDuration,
+                attempt,
+                TransactionContention.getConflictRate(),
+                ThreadLocalRandom.current().nextDouble());
+        spentMillis += attemptMillis + backoff.getMillis();
+        if (attempt == NUM_RETRIES || spentMillis > budgetMillis) {
+          DatastoreMetrics.recordTransactionAttempts(attempt + 1, false);
           throw e;  // Give up.
         }
-        sleeper.sleepUninterruptibly(Duration.millis(sleepMillis));
+        sleeper.sleepUninterruptibly(backoff);
         logger.atInfo().withCause(e).log(
             "Retrying %s, attempt %d", e.getClass().getSimpleName(), attempt);
       }
     }
   }
 
+  /**
+   * Records a conflict against the entity groups that the work touched.
+   *
+   * <p>Datastore doesn't say which entity group conflicted, so all of them are recorded, each by
+   * its own key. This way a contended resource stands out from the groups that every transaction
+   * touches, such as commit log buckets.
+   */
+  private static void recordConflict(CommitLoggedWork<?> work, long wastedMillis) {
+    ImmutableSet<Key<?>> entityGroupRoots = work.getEntityGroupRoots();
+    DatastoreRpcStats.current().recordTransactionConflict(wastedMillis);
+    DatastoreMetrics.recordConflict(entityGroupRoots, wastedMillis);
+    logger.atInfo().log(
+        "Transaction conflicted after %dms on one of entity groups %s",
+        wastedMillis, entityGroupRoots);
+  }
+
   /**
    * We can determine whether a transaction has succeded by trying to read the commit log back in
    * its own retryable read-only transaction.
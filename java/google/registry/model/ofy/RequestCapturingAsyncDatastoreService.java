@@ -14,30 +14,58 @@
 
 package google.registry.model.ofy;
 
+import static com.google.appengine.api.datastore.EntityTranslator.convertToPb;
 import static java.util.Collections.synchronizedList;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 
 import com.google.appengine.api.datastore.AsyncDatastoreService;
+import com.google.appengine.api.datastore.Cursor;
 import com.google.appengine.api.datastore.DatastoreAttributes;
 import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.FetchOptions;
 import com.google.appengine.api.datastore.Index;
 import com.google.appengine.api.datastore.Index.IndexState;
 import com.google.appengine.api.datastore.Key;
 import com.google.appengine.api.datastore.KeyRange;
 import com.google.appengine.api.datastore.PreparedQuery;
 import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.QueryResultIterable;
+import com.google.appengine.api.datastore.QueryResultIterator;
+import com.google.appengine.api.datastore.QueryResultList;
 import com.google.appengine.api.datastore.Transaction;
 import com.google.appengine.api.datastore.TransactionOptions;
+import com.google.common.base.Stopwatch;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.common.util.concurrent.ForwardingFuture.SimpleForwardingFuture;
+import google.registry.model.ofy.DatastoreRpcStats.RpcType;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
-
-/** A proxy for {@link AsyncDatastoreService} that exposes call counts. */
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/**
+ * A proxy for {@link AsyncDatastoreService} that instruments every RPC.
+ *
+ * <p>Each get, put, delete and query is counted in the {@link DatastoreRpcStats} of the calling
+ * thread, and its latency, batch size and (for puts) entity sizes are recorded in {@link
+ * DatastoreMetrics}. Latency is measured until the caller first waits on the returned future.
+ * Queries are counted each time a prepared query is run, rather than when it is prepared, and are
+ * timed until their first batch of results is available.
+ *
+ * <p>In unit tests the individual operations are also captured in static lists, which expose
+ * call counts to tests.
+ */
 public class RequestCapturingAsyncDatastoreService implements AsyncDatastoreService {
 
   private final AsyncDatastoreService delegate;
+  private final boolean captureRequests;
 
   // Each outer lists represents Datastore operations, with inner lists representing the keys or
   // entities involved in that operation. We use static lists because we care about overall calls to
@@ -47,8 +75,10 @@ public class RequestCapturingAsyncDatastoreService implements AsyncDatastoreServ
   private static List<List<Key>> deletes = synchronizedList(new ArrayList<List<Key>>());
   private static List<List<Entity>> puts = synchronizedList(new ArrayList<List<Entity>>());
 
-  RequestCapturingAsyncDatastoreService(AsyncDatastoreService delegate) {
+  RequestCapturingAsyncDatastoreService(
+      AsyncDatastoreService delegate, boolean captureRequests) {
     this.delegate = delegate;
+    this.captureRequests = captureRequests;
   }
 
   public static List<List<Key>> getReads() {
@@ -80,12 +110,12 @@ public class RequestCapturingAsyncDatastoreService implements AsyncDatastoreServ
 
   @Override
   public PreparedQuery prepare(Query query) {
-    return delegate.prepare(query);
+    return new TimedPreparedQuery(delegate.prepare(query));
   }
 
   @Override
   public PreparedQuery prepare(Transaction transaction, Query query) {
-    return delegate.prepare(transaction, query);
+    return new TimedPreparedQuery(delegate.prepare(transaction, query));
   }
 
   @Override
@@ -110,50 +140,74 @@ public class RequestCapturingAsyncDatastoreService implements AsyncDatastoreServ
 
   @Override
   public Future<Void> delete(Key... keys) {
-    deletes.add(ImmutableList.copyOf(keys));
-    return delegate.delete(keys);
+    Stopwatch stopwatch = startRpc(RpcType.DELETE, keys.length);
+    if (captureRequests) {
+      deletes.add(ImmutableList.copyOf(keys));
+    }
+    return timed(RpcType.DELETE, stopwatch, delegate.delete(keys));
   }
 
   @Override
   public Future<Void> delete(Iterable<Key> keys) {
-    deletes.add(ImmutableList.copyOf(keys));
-    return delegate.delete(keys);
+    Stopwatch stopwatch = startRpc(RpcType.DELETE, Iterables.size(keys));
+    if (captureRequests) {
+      deletes.add(ImmutableList.copyOf(keys));
+    }
+    return timed(RpcType.DELETE, stopwatch, delegate.delete(keys));
   }
 
   @Override
   public Future<Void> delete(Transaction transaction, Key... keys) {
-    deletes.add(ImmutableList.copyOf(keys));
-    return delegate.delete(transaction, keys);
+    Stopwatch stopwatch = startRpc(RpcType.DELETE, keys.length);
+    if (captureRequests) {
+      deletes.add(ImmutableList.copyOf(keys));
+    }
+    return timed(RpcType.DELETE, stopwatch, delegate.delete(transaction, keys));
   }
 
   @Override
   public Future<Void> delete(Transaction transaction, Iterable<Key> keys) {
-    deletes.add(ImmutableList.copyOf(keys));
-    return delegate.delete(transaction, keys);
+    Stopwatch stopwatch = startRpc(RpcType.DELETE, Iterables.size(keys));
+    if (captureRequests) {
+      deletes.add(ImmutableList.copyOf(keys));
+    }
+    return timed(RpcType.DELETE, stopwatch, delegate.delete(transaction, keys));
   }
 
   @Override
   public Future<Entity> get(Key key) {
-    reads.add(ImmutableList.of(key));
-    return delegate.get(key);
+    Stopwatch stopwatch = startRpc(RpcType.GET, 1);
+    if (captureRequests) {
+      reads.add(ImmutableList.of(key));
+    }
+    return timed(RpcType.GET, stopwatch, delegate.get(key));
   }
 
   @Override
   public Future<Map<Key, Entity>> get(Iterable<Key> keys) {
-    reads.add(ImmutableList.copyOf(keys));
-    return delegate.get(keys);
+    Stopwatch stopwatch = startRpc(RpcType.GET, Iterables.size(keys));
+    if (captureRequests) {
+      reads.add(ImmutableList.copyOf(keys));
+    }
+    return timed(RpcType.GET, stopwatch, delegate.get(keys));
   }
 
   @Override
   public Future<Entity> get(Transaction transaction, Key key) {
-    reads.add(ImmutableList.of(key));
-    return delegate.get(transaction, key);
+    Stopwatch stopwatch = startRpc(RpcType.GET, 1);
+    if (captureRequests) {
+      reads.add(ImmutableList.of(key));
+    }
+    return timed(RpcType.GET, stopwatch, delegate.get(transaction, key));
   }
 
   @Override
   public Future<Map<Key, Entity>> get(Transaction transaction, Iterable<Key> keys) {
-    reads.add(ImmutableList.copyOf(keys));
-    return delegate.get(transaction, keys);
+    Stopwatch stopwatch = startRpc(RpcType.GET, Iterables.size(keys));
+    if (captureRequests) {
+      reads.add(ImmutableList.copyOf(keys));
+    }
+    return timed(RpcType.GET, stopwatch, delegate.get(transaction, keys));
   }
 
   @Override
@@ -168,25 +222,232 @@ public class RequestCapturingAsyncDatastoreService implements AsyncDatastoreServ
 
   @Override
   public Future<Key> put(Entity entity) {
-    puts.add(ImmutableList.of(entity));
-    return delegate.put(entity);
+    Stopwatch stopwatch = startPuts(ImmutableList.of(entity));
+    return timed(RpcType.PUT, stopwatch, delegate.put(entity));
   }
 
   @Override
   public Future<List<Key>> put(Iterable<Entity> entities) {
-    puts.add(ImmutableList.copyOf(entities));
-    return delegate.put(entities);
+    Stopwatch stopwatch = startPuts(entities);
+    return timed(RpcType.PUT, stopwatch, delegate.put(entities));
   }
 
   @Override
   public Future<Key> put(Transaction transaction, Entity entity) {
-    puts.add(ImmutableList.of(entity));
-    return delegate.put(transaction, entity);
+    Stopwatch stopwatch = startPuts(ImmutableList.of(entity));
+    return timed(RpcType.PUT, stopwatch, delegate.put(transaction, entity));
   }
 
   @Override
   public Future<List<Key>> put(Transaction transaction, Iterable<Entity> entities) {
-    puts.add(ImmutableList.copyOf(entities));
-    return delegate.put(transaction, entities);
+    Stopwatch stopwatch = startPuts(entities);
+    return timed(RpcType.PUT, stopwatch, delegate.put(transaction, entities));
+  }
+
+  /** Counts an RPC and returns a started stopwatch for timing it. */
+  private static Stopwatch startRpc(RpcType type, int numEntities) {
+    DatastoreRpcStats.current().recordRpc(type, numEntities);
+    DatastoreMetrics.recordRpc(type, numEntities);
+    return Stopwatch.createStarted();
+  }
+
+  /** Counts a put RPC, including the serialized size of each entity put if it's being sampled. */
+  private Stopwatch startPuts(Iterable<Entity> entities) {
+    DatastoreRpcStats stats = DatastoreRpcStats.current();
+    if (stats.isMeasuringEntitySizes()) {
+      for (Entity entity : entities) {
+        int size = convertToPb(entity).getSerializedSize();
+        stats.recordBytesWritten(size);
+        DatastoreMetrics.recordEntitySize(entity.getKind(), size);
+      }
+    }
+    if (captureRequests) {
+      puts.add(ImmutableList.copyOf(entities));
+    }
+    return startRpc(RpcType.PUT, Iterables.size(entities));
+  }
+
+  /** Wraps a future so that the RPC latency is recorded the first time the caller waits on it. */
+  private static <T> Future<T> timed(RpcType type, Stopwatch stopwatch, Future<T> future) {
+    return new SimpleForwardingFuture<T>(future) {
+      private boolean recorded;
+
+      @Override
+      public T get() throws InterruptedException, ExecutionException {
+        try {
+          return super.get();
+        } finally {
+          recordLatency();
+        }
+      }
+
+      @Override
+      public T get(long timeout, TimeUnit unit)
+          throws InterruptedException, ExecutionException, TimeoutException {
+        try {
+          return super.get(timeout, unit);
+        } finally {
+          recordLatency();
+        }
+      }
+
+      private void recordLatency() {
+        if (!recorded) {
+          recorded = true;
+          DatastoreMetrics.recordLatency(type, stopwatch.elapsed(MILLISECONDS));
+        }
+      }
+    };
+  }
+
+  /**
+   * A {@link PreparedQuery} that counts and times each run of the query.
+   *
+   * <p>Iterators and iterables fetch their first batch of results lazily, so they're timed until
+   * the first call to {@code hasNext()} or {@code next()} returns. Everything else is timed until
+   * the call returns.
+   */
+  private static class TimedPreparedQuery implements PreparedQuery {
+
+    private final PreparedQuery delegate;
+
+    TimedPreparedQuery(PreparedQuery delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override
+    public List<Entity> asList(FetchOptions fetchOptions) {
+      return timedCall(() -> delegate.asList(fetchOptions));
+    }
+
+    @Override
+    public QueryResultList<Entity> asQueryResultList(FetchOptions fetchOptions) {
+      return timedCall(() -> delegate.asQueryResultList(fetchOptions));
+    }
+
+    @Override
+    public Iterable<Entity> asIterable(FetchOptions fetchOptions) {
+      return () -> asIterator(fetchOptions);
+    }
+
+    @Override
+    public QueryResultIterable<Entity> asQueryResultIterable(FetchOptions fetchOptions) {
+      return () -> asQueryResultIterator(fetchOptions);
+    }
+
+    @Override
+    public Iterable<Entity> asIterable() {
+      return this::asIterator;
+    }
+
+    @Override
+    public QueryResultIterable<Entity> asQueryResultIterable() {
+      return this::asQueryResultIterator;
+    }
+
+    @Override
+    public Iterator<Entity> asIterator(FetchOptions fetchOptions) {
+      return asQueryResultIterator(fetchOptions);
+    }
+
+    @Override
+    public Iterator<Entity> asIterator() {
+      return asQueryResultIterator();
+    }
+
+    @Override
+    public QueryResultIterator<Entity> asQueryResultIterator(FetchOptions fetchOptions) {
+      Stopwatch stopwatch = startRpc(RpcType.QUERY, 1);
+      return new TimedQueryResultIterator(stopwatch, delegate.asQueryResultIterator(fetchOptions));
+    }
+
+    @Override
+    public QueryResultIterator<Entity> asQueryResultIterator() {
+      Stopwatch stopwatch = startRpc(RpcType.QUERY, 1);
+      return new TimedQueryResultIterator(stopwatch, delegate.asQueryResultIterator());
+    }
+
+    @Override
+    public Entity asSingleEntity() {
+      return timedCall(delegate::asSingleEntity);
+    }
+
+    @Override
+    public int countEntities(FetchOptions fetchOptions) {
+      return timedCall(() -> delegate.countEntities(fetchOptions));
+    }
+
+    @Override
+    @Deprecated
+    public int countEntities() {
+      return timedCall(delegate::countEntities);
+    }
+
+    @Override
+    public String toString() {
+      return delegate.toString();
+    }
+
+    private static <T> T timedCall(Supplier<T> call) {
+      Stopwatch stopwatch = startRpc(RpcType.QUERY, 1);
+      try {
+        return call.get();
+      } finally {
+        DatastoreMetrics.recordLatency(RpcType.QUERY, stopwatch.elapsed(MILLISECONDS));
+      }
+    }
+  }
+
+  /** A {@link QueryResultIterator} that records the query latency once results are available. */
+  private static class TimedQueryResultIterator implements QueryResultIterator<Entity> {
+
+    private final Stopwatch stopwatch;
+    private final QueryResultIterator<Entity> delegate;
+    private boolean recorded;
+
+    TimedQueryResultIterator(Stopwatch stopwatch, QueryResultIterator<Entity> delegate) {
+      this.stopwatch = stopwatch;
+      this.delegate = delegate;
+    }
+
+    @Override
+    public boolean hasNext() {
+      try {
+        return delegate.hasNext();
+      } finally {
+        recordLatency();
+      }
+    }
+
+    @Override
+    public Entity next() {
+      try {
+        return delegate.next();
+      } finally {
+        recordLatency();
+      }
+    }
+
+    @Override
+    public void remove() {
+      delegate.remove();
+    }
+
+    @Override
+    public List<Index> getIndexList() {
+      return delegate.getIndexList();
+    }
+
+    @Override
+    public Cursor getCursor() {
+      return delegate.getCursor();
+    }
+
+    private void recordLatency() {
+      if (!recorded) {
+        recorded = true;
+        DatastoreMetrics.recordLatency(RpcType.QUERY, stopwatch.elapsed(MILLISECONDS));
+      }
+    }
   }
 }
@@ -0,0 +1,73 @@
+// Copyright 2018 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.model.ofy;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.common.annotations.VisibleForTesting;
+import org.joda.time.Duration;
+
+/**
+ * Tracks the rate of transaction conflicts on this instance and computes retry backoffs from it.
+ *
+ * <p>The conflict rate is an exponentially weighted moving average over recent transaction
+ * attempts. Backoff grows exponentially with the attempt number, and is additionally stretched by
+ * a factor of up to {@code 1 + MAX_CONTENTION_MULTIPLIER} when the conflict rate is high, so that
+ * requests contending on a hot entity group spread out instead of colliding again. Half of each
+ * backoff is randomized so that retries of requests that conflicted together do not stay in
+ * lockstep.
+ */
+final class TransactionContention {
+
+  /** The weight given to each new attempt in the moving average. */
+  private static final double DECAY = 0.05;
+
+  /** How much extra backoff is added, as a multiple of the base, when every attempt conflicts. */
+  private static final double MAX_CONTENTION_MULTIPLIER = 4.0;
+
+  private static double conflictRate = 0;
+
+  private TransactionContention() {}
+
+  /** Records the outcome of a transaction attempt. */
+  static synchronized void recordAttempt(boolean conflicted) {
+    conflictRate = (1 - DECAY) * conflictRate + (conflicted ? DECAY : 0);
+  }
+
+  /** Returns the recent fraction of transaction attempts that conflicted, between 0 and 1. */
+  static synchronized double getConflictRate() {
+    return conflictRate;
+  }
+
+  @VisibleForTesting
+  static synchronized void resetForTesting() {
+    conflictRate = 0;
+  }
+
+  /**
+   * Returns how long to wait before retrying the given (zero-based) attempt.
+   *
+   * @param base the backoff before the first retry, absent contention and jitter
+   * @param jitter a uniformly distributed random number in [0, 1)
+   */
+  static Duration computeBackoff(Duration base, int attempt, double conflictRate, double jitter) {
+    checkArgument(jitter >= 0 && jitter < 1, "Jitter must be in [0, 1): %s", jitter);
+    double ceiling =
+        base.getMillis()
+            * Math.pow(2, attempt)
+            * (1 + MAX_CONTENTION_MULTIPLIER * conflictRate);
+    return Duration.millis((long) (ceiling / 2 + ceiling / 2 * jitter));
+  }
+}
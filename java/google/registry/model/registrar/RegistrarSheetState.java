@@ -0,0 +1,84 @@
+// Copyright 2018 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.model.registrar;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static google.registry.model.common.EntityGroupRoot.getCrossTldKey;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSortedMap;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.EmbedMap;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+import com.googlecode.objectify.annotation.Parent;
+import google.registry.model.ImmutableObject;
+import google.registry.model.annotations.NotBackedUp;
+import google.registry.model.annotations.NotBackedUp.Reason;
+import google.registry.model.common.EntityGroupRoot;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The registrar rows last written to a registrar spreadsheet, as content hashes.
+ *
+ * <p>This lets {@code SyncRegistrarsSheet} write only the rows that changed since the previous
+ * sync. If it is missing or doesn't match the spreadsheet anymore, the next sync rewrites the whole
+ * sheet and recreates it.
+ */
+@Entity
+@NotBackedUp(reason = Reason.AUTO_GENERATED)
+public class RegistrarSheetState extends ImmutableObject {
+
+  @Parent
+  Key<EntityGroupRoot> parent = getCrossTldKey();
+
+  /** The ID of the spreadsheet that was synchronized. */
+  @Id
+  String spreadsheetId;
+
+  /** The column headers of the sheet at the time of the sync, in sheet order. */
+  List<String> headers;
+
+  /** Content hashes of the rows in the sheet, keyed by registrar client ID. */
+  @EmbedMap
+  Map<String, String> rowHashes;
+
+  public String getSpreadsheetId() {
+    return spreadsheetId;
+  }
+
+  public ImmutableList<String> getHeaders() {
+    return ImmutableList.copyOf(headers);
+  }
+
+  /** Returns the row hashes, ordered by client ID, which is also the order of rows in the sheet. */
+  public ImmutableSortedMap<String, String> getRowHashes() {
+    return rowHashes == null ? ImmutableSortedMap.of() : ImmutableSortedMap.copyOf(rowHashes);
+  }
+
+  public static Key<RegistrarSheetState> createKey(String spreadsheetId) {
+    return Key.create(getCrossTldKey(), RegistrarSheetState.class, spreadsheetId);
+  }
+
+  public static RegistrarSheetState create(
+      String spreadsheetId, ImmutableList<String> headers, Map<String, String> rowHashes) {
+    RegistrarSheetState instance = new RegistrarSheetState();
+    instance.spreadsheetId = checkNotNull(spreadsheetId, "Spreadsheet ID cannot be null");
+    instance.headers = checkNotNull(headers, "Headers cannot be null");
+    instance.rowHashes = ImmutableSortedMap.copyOf(rowHashes);
+    return instance;
+  }
+}
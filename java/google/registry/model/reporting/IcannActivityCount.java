@@ -0,0 +1,149 @@
+// Copyright 2018 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.model.reporting;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Strings.nullToEmpty;
+import static google.registry.util.TypeUtils.instantiate;
+import static org.joda.time.DateTimeZone.UTC;
+
+import com.google.common.base.Joiner;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+import google.registry.model.ImmutableObject;
+import google.registry.model.annotations.ReportedOn;
+import google.registry.model.reporting.IcannReportingTypes.ActivityReportField;
+import javax.annotation.Nullable;
+import org.joda.time.DateTime;
+
+/**
+ * One shard of the number of times an ICANN activity report field was counted on a given day, for
+ * a given TLD and registrar.
+ *
+ * <p>Counts are accumulated in memory and periodically added to a randomly chosen shard, so that
+ * concurrent flushes from different instances rarely contend. The monthly activity report sums all
+ * shards of all days in the month, which is far less data than the request logs it replaces.
+ */
+@ReportedOn
+@Entity
+public class IcannActivityCount extends ImmutableObject {
+
+  /** The number of shards each counter is spread over. */
+  public static final int NUM_SHARDS = 10;
+
+  @Id
+  String id;
+
+  /** The TLD, or null for fields that count towards every TLD. */
+  @Nullable
+  String tld;
+
+  /** The registrar, or null for fields that aren't attributed to a registrar. */
+  @Nullable
+  String clientId;
+
+  /** The field name, as it appears in the activity report. */
+  String field;
+
+  /** The start of the day, in UTC. */
+  DateTime day;
+
+  int shard;
+
+  long count;
+
+  @Nullable
+  public String getTld() {
+    return tld;
+  }
+
+  @Nullable
+  public String getClientId() {
+    return clientId;
+  }
+
+  public String getField() {
+    return field;
+  }
+
+  public DateTime getDay() {
+    return day;
+  }
+
+  public int getShard() {
+    return shard;
+  }
+
+  public long getCount() {
+    return count;
+  }
+
+  /** Returns a copy of this shard with the given amount added to its count. */
+  public IcannActivityCount plus(long amount) {
+    return create(day, tld, clientId, field, shard, count + amount);
+  }
+
+  /** Returns the key of a shard of the counter for the given time's day. */
+  public static Key<IcannActivityCount> createKey(
+      DateTime time,
+      @Nullable String tld,
+      @Nullable String clientId,
+      ActivityReportField field,
+      int shard) {
+    return Key.create(
+        IcannActivityCount.class,
+        createId(startOfDay(time), tld, clientId, field.getFieldName(), shard));
+  }
+
+  /** Returns an empty shard of the counter for the given time's day. */
+  public static IcannActivityCount createEmpty(
+      DateTime time,
+      @Nullable String tld,
+      @Nullable String clientId,
+      ActivityReportField field,
+      int shard) {
+    return create(startOfDay(time), tld, clientId, field.getFieldName(), shard, 0);
+  }
+
+  private static IcannActivityCount create(
+      DateTime day,
+      @Nullable String tld,
+      @Nullable String clientId,
+      String field,
+      int shard,
+      long count) {
+    checkArgument(0 <= shard && shard < NUM_SHARDS, "Invalid shard: %s", shard);
+    IcannActivityCount instance = instantiate(IcannActivityCount.class);
+    instance.id = createId(day, tld, clientId, field, shard);
+    instance.tld = tld;
+    instance.clientId = clientId;
+    instance.field = field;
+    instance.day = day;
+    instance.shard = shard;
+    instance.count = count;
+    return instance;
+  }
+
+  private static String createId(
+      DateTime day, @Nullable String tld, @Nullable String clientId, String field, int shard) {
+    return Joiner.on('|')
+        .join(day.toLocalDate(), nullToEmpty(tld), nullToEmpty(clientId), field, shard);
+  }
+
+  private static DateTime startOfDay(DateTime time) {
+    return time.withZone(UTC).withTimeAtStartOfDay();
+  }
+}
@@ -53,7 +53,9 @@ public final class IcannReportingTypes {
     CONTACT_TRANSFER_QUERY("srs-cont-transfer-query"),
     CONTACT_TRANSFER_REJECT("srs-cont-transfer-reject"),
     CONTACT_TRANSFER_REQUEST("srs-cont-transfer-request"),
-    CONTACT_UPDATE("srs-cont-update");
+    CONTACT_UPDATE("srs-cont-update"),
+    WHOIS_43_QUERIES("whois-43-queries"),
+    WEB_WHOIS_QUERIES("web-whois-queries");
 
     /** Returns the actual field name from the specification. */
     private final String fieldName;
@@ -17,17 +17,18 @@ package google.registry.model.smd;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
 import static com.google.common.collect.ImmutableList.toImmutableList;
-import static com.google.common.collect.Iterables.isEmpty;
+import static com.google.common.collect.ImmutableSet.toImmutableSet;
 import static google.registry.model.CacheUtils.memoizeWithShortExpiration;
 import static google.registry.model.common.EntityGroupRoot.getCrossTldKey;
 import static google.registry.model.ofy.ObjectifyService.allocateId;
 import static google.registry.model.ofy.ObjectifyService.ofy;
 import static google.registry.util.DateTimeUtils.START_OF_TIME;
-import static google.registry.util.DateTimeUtils.isBeforeOrAt;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Supplier;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.googlecode.objectify.Key;
 import com.googlecode.objectify.annotation.EmbedMap;
@@ -41,6 +42,7 @@ import google.registry.model.annotations.NotBackedUp;
 import google.registry.model.annotations.NotBackedUp.Reason;
 import google.registry.model.common.EntityGroupRoot;
 import google.registry.util.CollectionUtils;
+import java.util.Collection;
 import java.util.Map;
 import org.joda.time.DateTime;
 
@@ -77,7 +79,7 @@ public class SignedMarkRevocationList extends ImmutableObject {
   /** Time when this list was last updated, as specified in the first line of the CSV file. */
   DateTime creationTime;
 
-  /** A map from SMD IDs to revocation time. */
+  /** A map from SMD IDs to revocation time, only populated on shards. */
   @EmbedMap
   Map</*@MatchesPattern("[0-9]+-[0-9]+")*/ String, DateTime> revokes;
 
@@ -85,38 +87,79 @@ public class SignedMarkRevocationList extends ImmutableObject {
   @Ignore
   boolean isShard;
 
+  /**
+   * The compact form of the revocations in a full list, or null for a shard.
+   *
+   * <p>Shards carry their slice of the list in {@link #revokes}, which is what gets persisted, but
+   * a full list only keeps this sorted primitive form in memory.
+   */
+  @Ignore
+  SmdRevocations revocations;
+
   /**
    * A cached supplier that fetches the SMDRL shards from Datastore and recombines them into a
    * single {@link SignedMarkRevocationList} object.
    */
   private static final Supplier<SignedMarkRevocationList> CACHE =
-      memoizeWithShortExpiration(
-          () ->
-              ofy()
-                  .transactNewReadOnly(
-                      () -> {
-                        Iterable<SignedMarkRevocationList> shards =
-                            ofy()
-                                .load()
-                                .type(SignedMarkRevocationList.class)
-                                .ancestor(getCrossTldKey());
-                        DateTime creationTime =
-                            isEmpty(shards)
-                                ? START_OF_TIME
-                                : checkNotNull(
-                                    Iterables.get(shards, 0).creationTime, "creationTime");
-                        ImmutableMap.Builder<String, DateTime> revokes =
-                            new ImmutableMap.Builder<>();
-                        for (SignedMarkRevocationList shard : shards) {
-                          revokes.putAll(shard.revokes);
-                          checkState(
-                              creationTime.equals(shard.creationTime),
-                              "Inconsistent creation times: %s vs. %s",
-                              creationTime,
-                              shard.creationTime);
-                        }
-                        return create(creationTime, revokes.build());
-                      }));
+      memoizeWithShortExpiration(SignedMarkRevocationList::load);
+
+  /**
+   * The most recently loaded or saved list on this instance, with the keys of its shards.
+   *
+   * <p>Every save replaces all shards with newly allocated ids, so as long as the shard keys in
+   * Datastore are unchanged the list is too, and a cache refresh only costs a keys-only query.
+   */
+  private static volatile LoadedList lastLoaded;
+
+  /** A full list together with the keys of the shards it was loaded from or saved to. */
+  private static final class LoadedList {
+    final ImmutableSet<Key<SignedMarkRevocationList>> shardKeys;
+    final SignedMarkRevocationList list;
+
+    LoadedList(
+        ImmutableSet<Key<SignedMarkRevocationList>> shardKeys, SignedMarkRevocationList list) {
+      this.shardKeys = shardKeys;
+      this.list = list;
+    }
+  }
+
+  private static SignedMarkRevocationList load() {
+    return ofy()
+        .transactNewReadOnly(
+            () -> {
+              ImmutableSet<Key<SignedMarkRevocationList>> shardKeys =
+                  ImmutableSet.copyOf(
+                      ofy()
+                          .load()
+                          .type(SignedMarkRevocationList.class)
+                          .ancestor(getCrossTldKey())
+                          .keys());
+              LoadedList previous = lastLoaded;
+              if (!shardKeys.isEmpty()
+                  && previous != null
+                  && previous.shardKeys.equals(shardKeys)) {
+                return previous.list;
+              }
+              Collection<SignedMarkRevocationList> shards =
+                  ofy().load().keys(shardKeys).values();
+              DateTime creationTime =
+                  shards.isEmpty()
+                      ? START_OF_TIME
+                      : checkNotNull(Iterables.get(shards, 0).creationTime, "creationTime");
+              SmdRevocations.Builder revocations = new SmdRevocations.Builder();
+              for (SignedMarkRevocationList shard : shards) {
+                revocations.putAll(shard.revokes);
+                checkState(
+                    creationTime.equals(shard.creationTime),
+                    "Inconsistent creation times: %s vs. %s",
+                    creationTime,
+                    shard.creationTime);
+              }
+              SignedMarkRevocationList list = create(creationTime, revocations.build());
+              lastLoaded = new LoadedList(shardKeys, list);
+              return list;
+            });
+  }
 
   /** Return a single logical instance that combines all Datastore shards. */
   public static SignedMarkRevocationList get() {
@@ -126,16 +169,20 @@ public class SignedMarkRevocationList extends ImmutableObject {
   /** Create a new {@link SignedMarkRevocationList} without saving it. */
   public static SignedMarkRevocationList create(
       DateTime creationTime, ImmutableMap<String, DateTime> revokes) {
+    return create(creationTime, SmdRevocations.create(checkNotNull(revokes, "revokes")));
+  }
+
+  private static SignedMarkRevocationList create(
+      DateTime creationTime, SmdRevocations revocations) {
     SignedMarkRevocationList instance = new SignedMarkRevocationList();
     instance.creationTime = checkNotNull(creationTime, "creationTime");
-    instance.revokes = checkNotNull(revokes, "revokes");
+    instance.revocations = revocations;
     return instance;
   }
 
   /** Returns {@code true} if the SMD ID has been revoked at the given point in time. */
   public boolean isSmdRevoked(String smdId, DateTime now) {
-    DateTime revoked = revokes.get(checkNotNull(smdId, "smdId"));
-    return revoked != null && isBeforeOrAt(revoked, now);
+    return revocations.isSmdRevoked(checkNotNull(smdId, "smdId"), now);
   }
 
   /** Returns the creation timestamp specified at the top of the SMDRL CSV file. */
@@ -145,37 +192,46 @@ public class SignedMarkRevocationList extends ImmutableObject {
 
   /** Returns the number of revocations. */
   public int size() {
-    return revokes.size();
+    return revocations.size();
   }
 
-  /** Save this list to Datastore in sharded form. Returns {@code this}. */
+  /**
+   * Save this list to Datastore in sharded form. Returns {@code this}.
+   *
+   * <p>This also becomes the list that {@link #get} returns on this instance once its cache next
+   * refreshes, without reloading the shards that were just written.
+   */
   public SignedMarkRevocationList save() {
-    ofy()
-        .transact(
-            () -> {
-              ofy()
-                  .deleteWithoutBackup()
-                  .keys(
-                      ofy()
-                          .load()
-                          .type(SignedMarkRevocationList.class)
-                          .ancestor(getCrossTldKey())
-                          .keys());
-              ofy()
-                  .saveWithoutBackup()
-                  .entities(
-                      CollectionUtils.partitionMap(revokes, SHARD_SIZE)
+    ImmutableSet<Key<SignedMarkRevocationList>> shardKeys =
+        ofy()
+            .transact(
+                () -> {
+                  ofy()
+                      .deleteWithoutBackup()
+                      .keys(
+                          ofy()
+                              .load()
+                              .type(SignedMarkRevocationList.class)
+                              .ancestor(getCrossTldKey())
+                              .keys());
+                  ImmutableList<SignedMarkRevocationList> shards =
+                      CollectionUtils.partitionMap(revocations.toMap(), SHARD_SIZE)
                           .stream()
                           .map(
                               shardRevokes -> {
-                                SignedMarkRevocationList shard = create(creationTime, shardRevokes);
+                                SignedMarkRevocationList shard = new SignedMarkRevocationList();
+                                shard.creationTime = creationTime;
+                                shard.revokes = shardRevokes;
                                 shard.id = allocateId();
                                 shard.isShard =
                                     true; // Avoid the exception in disallowUnshardedSaves().
                                 return shard;
                               })
-                          .collect(toImmutableList()));
-            });
+                          .collect(toImmutableList());
+                  ofy().saveWithoutBackup().entities(shards);
+                  return shards.stream().map(Key::create).collect(toImmutableSet());
+                });
+    lastLoaded = new LoadedList(shardKeys, this);
     return this;
   }
 
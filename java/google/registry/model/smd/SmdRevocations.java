@@ -0,0 +1,255 @@
+// Copyright 2018 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.model.smd;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static google.registry.util.DateTimeUtils.isBeforeOrAt;
+import static org.joda.time.DateTimeZone.UTC;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.collect.ImmutableMap;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.stream.IntStream;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import org.joda.time.DateTime;
+
+/**
+ * Compact, sorted in-memory form of the revocations in a {@link SignedMarkRevocationList}.
+ *
+ * <p>SMD ids have the form {@code <issuer>-<serial>}. Every id in that canonical form is stored as
+ * a pair of longs in sorted parallel arrays, with its revocation time in epoch millis, and looked
+ * up by binary search. This takes a small fraction of the heap of a {@code Map<String, DateTime>}
+ * over the same rows. Ids that don't fit the canonical form (which the TMCH never issues, but
+ * tests and hand-edited lists may contain) are kept in a small fallback map.
+ */
+@Immutable
+final class SmdRevocations {
+
+  /** Ids with more digits than this in either half might overflow a long. */
+  private static final int MAX_ID_PART_DIGITS = 18;
+
+  private static final SmdRevocations EMPTY = new Builder().build();
+
+  private final long[] issuers;
+  private final long[] serials;
+  private final long[] revocationMillis;
+  private final ImmutableMap<String, DateTime> otherRevocations;
+
+  private SmdRevocations(
+      long[] issuers,
+      long[] serials,
+      long[] revocationMillis,
+      ImmutableMap<String, DateTime> otherRevocations) {
+    this.issuers = issuers;
+    this.serials = serials;
+    this.revocationMillis = revocationMillis;
+    this.otherRevocations = otherRevocations;
+  }
+
+  static SmdRevocations create(Map<String, DateTime> revokes) {
+    if (revokes.isEmpty()) {
+      return EMPTY;
+    }
+    Builder builder = new Builder();
+    revokes.forEach(builder::put);
+    return builder.build();
+  }
+
+  /** Returns {@code true} if the SMD ID has been revoked at the given point in time. */
+  boolean isSmdRevoked(String smdId, DateTime now) {
+    int index = indexOf(smdId);
+    if (index >= 0) {
+      return revocationMillis[index] <= now.getMillis();
+    }
+    DateTime revoked = otherRevocations.get(smdId);
+    return revoked != null && isBeforeOrAt(revoked, now);
+  }
+
+  /** Returns the number of revocations. */
+  int size() {
+    return issuers.length + otherRevocations.size();
+  }
+
+  /** Expands these revocations back into a map, for persisting them. */
+  ImmutableMap<String, DateTime> toMap() {
+    ImmutableMap.Builder<String, DateTime> map = new ImmutableMap.Builder<>();
+    for (int i = 0; i < issuers.length; i++) {
+      map.put(issuers[i] + "-" + serials[i], new DateTime(revocationMillis[i], UTC));
+    }
+    return map.putAll(otherRevocations).build();
+  }
+
+  /** Returns the array index of a canonical SMD id, or -1 if it isn't canonical or not present. */
+  private int indexOf(String smdId) {
+    int dash = canonicalDashIndex(smdId);
+    if (dash < 0) {
+      return -1;
+    }
+    long issuer = Long.parseLong(smdId.substring(0, dash));
+    long serial = Long.parseLong(smdId.substring(dash + 1));
+    int low = 0;
+    int high = issuers.length - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      int comparison = compare(issuers[mid], serials[mid], issuer, serial);
+      if (comparison < 0) {
+        low = mid + 1;
+      } else if (comparison > 0) {
+        high = mid - 1;
+      } else {
+        return mid;
+      }
+    }
+    return -1;
+  }
+
+  private static int compare(long issuer1, long serial1, long issuer2, long serial2) {
+    int comparison = Long.compare(issuer1, issuer2);
+    return (comparison != 0) ? comparison : Long.compare(serial1, serial2);
+  }
+
+  /**
+   * Returns the index of the dash in {@code smdId} if it consists of two decimal numbers without
+   * leading zeros that each fit in a long, or -1 otherwise.
+   *
+   * <p>Rejecting leading zeros means that {@link #toMap} reproduces every id exactly.
+   */
+  private static int canonicalDashIndex(String smdId) {
+    int dash = smdId.indexOf('-');
+    return (isCanonicalNumber(smdId, 0, dash) && isCanonicalNumber(smdId, dash + 1, smdId.length()))
+        ? dash
+        : -1;
+  }
+
+  private static boolean isCanonicalNumber(String string, int start, int end) {
+    int length = end - start;
+    if (length <= 0 || length > MAX_ID_PART_DIGITS) {
+      return false;
+    }
+    if (length > 1 && string.charAt(start) == '0') {
+      return false;
+    }
+    for (int i = start; i < end; i++) {
+      char c = string.charAt(i);
+      if (c < '0' || c > '9') {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public boolean equals(@Nullable Object other) {
+    if (!(other instanceof SmdRevocations)) {
+      return false;
+    }
+    SmdRevocations that = (SmdRevocations) other;
+    return Arrays.equals(issuers, that.issuers)
+        && Arrays.equals(serials, that.serials)
+        && Arrays.equals(revocationMillis, that.revocationMillis)
+        && otherRevocations.equals(that.otherRevocations);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(
+        Arrays.hashCode(issuers),
+        Arrays.hashCode(serials),
+        Arrays.hashCode(revocationMillis),
+        otherRevocations);
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper(this)
+        .add("canonicalIds", issuers.length)
+        .add("otherRevocations", otherRevocations)
+        .toString();
+  }
+
+  /**
+   * Accumulates revocations, e.g. from several Datastore shards, without materializing an
+   * intermediate map of all of them.
+   */
+  static final class Builder {
+
+    private long[] issuers = new long[16];
+    private long[] serials = new long[16];
+    private long[] revocationMillis = new long[16];
+    private int size;
+    private final Map<String, DateTime> otherRevocations = new HashMap<>();
+
+    Builder put(String smdId, DateTime revocationTime) {
+      int dash = canonicalDashIndex(smdId);
+      if (dash < 0) {
+        checkArgument(
+            otherRevocations.put(smdId, revocationTime) == null, "Duplicate SMD id: %s", smdId);
+        return this;
+      }
+      if (size == issuers.length) {
+        int capacity = size * 2;
+        issuers = Arrays.copyOf(issuers, capacity);
+        serials = Arrays.copyOf(serials, capacity);
+        revocationMillis = Arrays.copyOf(revocationMillis, capacity);
+      }
+      issuers[size] = Long.parseLong(smdId.substring(0, dash));
+      serials[size] = Long.parseLong(smdId.substring(dash + 1));
+      revocationMillis[size] = revocationTime.getMillis();
+      size++;
+      return this;
+    }
+
+    Builder putAll(Map<String, DateTime> revokes) {
+      revokes.forEach(this::put);
+      return this;
+    }
+
+    SmdRevocations build() {
+      int[] order =
+          IntStream.range(0, size)
+              .boxed()
+              .sorted(
+                  Comparator.comparingLong((Integer i) -> issuers[i])
+                      .thenComparingLong(i -> serials[i]))
+              .mapToInt(Integer::intValue)
+              .toArray();
+      long[] sortedIssuers = new long[size];
+      long[] sortedSerials = new long[size];
+      long[] sortedRevocationMillis = new long[size];
+      for (int i = 0; i < size; i++) {
+        sortedIssuers[i] = issuers[order[i]];
+        sortedSerials[i] = serials[order[i]];
+        sortedRevocationMillis[i] = revocationMillis[order[i]];
+        if (i > 0) {
+          checkArgument(
+              sortedIssuers[i - 1] != sortedIssuers[i] || sortedSerials[i - 1] != sortedSerials[i],
+              "Duplicate SMD id: %s-%s",
+              sortedIssuers[i],
+              sortedSerials[i]);
+        }
+      }
+      return new SmdRevocations(
+          sortedIssuers,
+          sortedSerials,
+          sortedRevocationMillis,
+          ImmutableMap.copyOf(otherRevocations));
+    }
+  }
+}
@@ -42,7 +42,7 @@ import org.joda.time.DateTime;
  * <p><b>Warning:</b> Fields of this type must not be {@code null}, or else new entries can't be
  * inserted. You must take care to initialize the field to empty.
  *
- * @see google.registry.model.EppResource
+ * @see google.registry.model.EppResourceRevisionIndex
  */
 public final class CommitLogRevisionsTranslatorFactory
     extends ImmutableSortedMapTranslatorFactory<DateTime, Key<CommitLogManifest>> {
@@ -57,11 +57,16 @@ public final class CommitLogRevisionsTranslatorFactory
    * <p>We store a maximum of one entry per day. It will be the last transaction that happened on
    * that day.
    *
+   * <p>Outside of a transaction there is no commit log to reference, so the map is saved as is.
+   *
    * @see google.registry.config.RegistryConfig#getCommitLogDatastoreRetention()
    */
   @Override
   ImmutableSortedMap<DateTime, Key<CommitLogManifest>> transformBeforeSave(
       ImmutableSortedMap<DateTime, Key<CommitLogManifest>> revisions) {
+    if (!ofy().inTransaction()) {
+      return revisions;
+    }
     DateTime now = ofy().getTransactionTime();
     DateTime threshold = now.minus(getCommitLogDatastoreRetention());
     DateTime preThresholdTime = firstNonNull(revisions.floorKey(threshold), START_OF_TIME);
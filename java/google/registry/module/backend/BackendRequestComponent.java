@@ -20,12 +20,15 @@ import google.registry.backup.BackupModule;
 import google.registry.backup.CommitLogCheckpointAction;
 import google.registry.backup.DeleteOldCommitLogsAction;
 import google.registry.backup.ExportCommitLogDiffAction;
+import google.registry.backup.StreamCommitLogChangesAction;
 import google.registry.batch.BatchModule;
 import google.registry.batch.DeleteContactsAndHostsAction;
 import google.registry.batch.DeleteLoadTestDataAction;
 import google.registry.batch.DeleteProberDataAction;
 import google.registry.batch.ExpandRecurringBillingEventsAction;
 import google.registry.batch.MapreduceEntityCleanupAction;
+import google.registry.batch.MigrateEppResourceRevisionsAction;
+import google.registry.batch.RebalanceEppResourceIndexAction;
 import google.registry.batch.RefreshDnsOnHostRenameAction;
 import google.registry.batch.ResaveAllEppResourcesAction;
 import google.registry.batch.ResaveEntityAction;
@@ -41,6 +44,7 @@ import google.registry.dns.writer.VoidDnsWriterModule;
 import google.registry.dns.writer.clouddns.CloudDnsWriterModule;
 import google.registry.dns.writer.dnsupdate.DnsUpdateConfigModule;
 import google.registry.dns.writer.dnsupdate.DnsUpdateWriterModule;
+import google.registry.dns.writer.zonefile.ZoneFileDnsWriterModule;
 import google.registry.export.BigqueryPollJobAction;
 import google.registry.export.CheckSnapshotAction;
 import google.registry.export.ExportDomainListsAction;
@@ -54,6 +58,7 @@ import google.registry.export.sheet.SheetModule;
 import google.registry.export.sheet.SyncRegistrarsSheetAction;
 import google.registry.flows.async.AsyncFlowsModule;
 import google.registry.mapreduce.MapreduceModule;
+import google.registry.monitoring.whitebox.FlushIcannActivityCountsAction;
 import google.registry.monitoring.whitebox.MetricsExportAction;
 import google.registry.monitoring.whitebox.WhiteboxModule;
 import google.registry.rde.BrdaCopyAction;
@@ -70,6 +75,7 @@ import google.registry.rde.imports.RdeImportsModule;
 import google.registry.reporting.ReportingModule;
 import google.registry.reporting.billing.BillingModule;
 import google.registry.reporting.billing.CopyDetailReportsAction;
+import google.registry.reporting.billing.GenerateInvoicePartialsAction;
 import google.registry.reporting.billing.GenerateInvoicesAction;
 import google.registry.reporting.billing.PublishInvoicesAction;
 import google.registry.reporting.icann.IcannReportingModule;
@@ -111,6 +117,7 @@ import google.registry.tmch.TmchSmdrlAction;
         TmchModule.class,
         VoidDnsWriterModule.class,
         WhiteboxModule.class,
+        ZoneFileDnsWriterModule.class,
     })
 interface BackendRequestComponent {
   BigqueryPollJobAction bigqueryPollJobAction();
@@ -128,6 +135,8 @@ interface BackendRequestComponent {
   ExportDomainListsAction exportDomainListsAction();
   ExportReservedTermsAction exportReservedTermsAction();
   ExportSnapshotAction exportSnapshotAction();
+  FlushIcannActivityCountsAction flushIcannActivityCountsAction();
+  GenerateInvoicePartialsAction generateInvoicePartialsAction();
   GenerateInvoicesAction generateInvoicesAction();
   GenerateSpec11ReportAction generateSpec11ReportAction();
   IcannReportingStagingAction icannReportingStagingAction();
@@ -135,6 +144,7 @@ interface BackendRequestComponent {
   LoadSnapshotAction loadSnapshotAction();
   MapreduceEntityCleanupAction mapreduceEntityCleanupAction();
   MetricsExportAction metricsExportAction();
+  MigrateEppResourceRevisionsAction migrateEppResourceRevisionsAction();
   NordnUploadAction nordnUploadAction();
   NordnVerifyAction nordnVerifyAction();
   PublishDnsUpdatesAction publishDnsUpdatesAction();
@@ -147,10 +157,12 @@ interface BackendRequestComponent {
   RdeStagingAction rdeStagingAction();
   RdeUploadAction rdeUploadAction();
   RdeReporter rdeReporter();
+  RebalanceEppResourceIndexAction rebalanceEppResourceIndexAction();
   RefreshDnsAction refreshDnsAction();
   RefreshDnsOnHostRenameAction refreshDnsOnHostRenameAction();
   ResaveAllEppResourcesAction resaveAllEppResourcesAction();
   ResaveEntityAction resaveEntityAction();
+  StreamCommitLogChangesAction streamCommitLogChangesAction();
   SyncGroupMembersAction syncGroupMembersAction();
   SyncRegistrarsSheetAction syncRegistrarsSheetAction();
   TldFanoutAction tldFanoutAction();
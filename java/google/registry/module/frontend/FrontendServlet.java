@@ -15,11 +15,16 @@
 package google.registry.module.frontend;
 
 import com.google.appengine.api.LifecycleManager;
+import com.google.appengine.api.ThreadManager;
 import com.google.common.flogger.FluentLogger;
 import com.google.monitoring.metrics.MetricReporter;
 import dagger.Lazy;
+import google.registry.monitoring.whitebox.BigQueryMetricsEnqueuer;
+import google.registry.monitoring.whitebox.IcannActivityCounters;
 import java.io.IOException;
 import java.security.Security;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import javax.servlet.http.HttpServlet;
@@ -40,24 +45,39 @@ public final class FrontendServlet extends HttpServlet {
     Security.addProvider(new BouncyCastleProvider());
 
     // If metric reporter failed to instantiate for any reason (bad keyring, bad json credential,
-    // etc), we log the error but keep the main thread running. Also the shutdown hook will only be
-    // registered if metric reporter starts up correctly.
+    // etc), we log the error but keep the main thread running. Also the shutdown hook will only
+    // stop the metric reporter if it started up correctly.
+    boolean metricReporterStarted = false;
     try {
       metricReporter.get().startAsync().awaitRunning(10, TimeUnit.SECONDS);
       logger.atInfo().log("Started up MetricReporter");
-      LifecycleManager.getInstance()
-          .setShutdownHook(
-              () -> {
-                try {
-                  metricReporter.get().stopAsync().awaitTerminated(10, TimeUnit.SECONDS);
-                  logger.atInfo().log("Shut down MetricReporter");
-                } catch (TimeoutException e) {
-                  logger.atSevere().withCause(e).log("Failed to stop MetricReporter.");
-                }
-              });
+      metricReporterStarted = true;
     } catch (Exception e) {
       logger.atSevere().withCause(e).log("Failed to initialize MetricReporter.");
     }
+    boolean stopMetricReporter = metricReporterStarted;
+    // EPP metrics and ICANN activity counts are buffered in memory, and must be enqueued even when
+    // no more requests arrive.
+    ScheduledExecutorService flushExecutor =
+        Executors.newSingleThreadScheduledExecutor(ThreadManager.backgroundThreadFactory());
+    BigQueryMetricsEnqueuer.startPeriodicFlush(flushExecutor);
+    IcannActivityCounters.startPeriodicFlush(flushExecutor);
+    LifecycleManager.getInstance()
+        .setShutdownHook(
+            () -> {
+              // EPP metrics and ICANN activity counts are buffered in memory before being enqueued.
+              BigQueryMetricsEnqueuer.flushBufferedMetrics();
+              IcannActivityCounters.flushPendingCounts();
+              if (!stopMetricReporter) {
+                return;
+              }
+              try {
+                metricReporter.get().stopAsync().awaitTerminated(10, TimeUnit.SECONDS);
+                logger.atInfo().log("Shut down MetricReporter");
+              } catch (TimeoutException e) {
+                logger.atSevere().withCause(e).log("Failed to stop MetricReporter.");
+              }
+            });
   }
 
   @Override
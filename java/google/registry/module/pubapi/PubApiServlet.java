@@ -15,11 +15,14 @@
 package google.registry.module.pubapi;
 
 import com.google.appengine.api.LifecycleManager;
+import com.google.appengine.api.ThreadManager;
 import com.google.common.flogger.FluentLogger;
 import com.google.monitoring.metrics.MetricReporter;
 import dagger.Lazy;
+import google.registry.monitoring.whitebox.IcannActivityCounters;
 import java.io.IOException;
 import java.security.Security;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import javax.servlet.http.HttpServlet;
@@ -40,24 +43,35 @@ public final class PubApiServlet extends HttpServlet {
     Security.addProvider(new BouncyCastleProvider());
 
     // If metric reporter failed to instantiate for any reason (bad keyring, bad json credential,
-    // etc), we log the error but keep the main thread running. Also the shutdown hook will only be
-    // registered if metric reporter starts up correctly.
+    // etc), we log the error but keep the main thread running. Also the shutdown hook will only
+    // stop the metric reporter if it started up correctly.
+    boolean metricReporterStarted = false;
     try {
       metricReporter.get().startAsync().awaitRunning(10, TimeUnit.SECONDS);
       logger.atInfo().log("Started up MetricReporter");
-      LifecycleManager.getInstance()
-          .setShutdownHook(
-              () -> {
-                try {
-                  metricReporter.get().stopAsync().awaitTerminated(10, TimeUnit.SECONDS);
-                  logger.atInfo().log("Shut down MetricReporter");
-                } catch (TimeoutException e) {
-                  logger.atSevere().withCause(e).log("Failed to stop MetricReporter.");
-                }
-              });
+      metricReporterStarted = true;
     } catch (Exception e) {
       logger.atSevere().withCause(e).log("Failed to initialize MetricReporter.");
     }
+    boolean stopMetricReporter = metricReporterStarted;
+    // WHOIS ICANN activity counts are buffered in memory, and must be enqueued even when no more
+    // requests arrive.
+    IcannActivityCounters.startPeriodicFlush(
+        Executors.newSingleThreadScheduledExecutor(ThreadManager.backgroundThreadFactory()));
+    LifecycleManager.getInstance()
+        .setShutdownHook(
+            () -> {
+              IcannActivityCounters.flushPendingCounts();
+              if (!stopMetricReporter) {
+                return;
+              }
+              try {
+                metricReporter.get().stopAsync().awaitTerminated(10, TimeUnit.SECONDS);
+                logger.atInfo().log("Shut down MetricReporter");
+              } catch (TimeoutException e) {
+                logger.atSevere().withCause(e).log("Failed to stop MetricReporter.");
+              }
+            });
   }
 
   @Override
@@ -14,9 +14,15 @@
 
 package google.registry.module.tools;
 
+import com.google.appengine.api.LifecycleManager;
+import com.google.appengine.api.ThreadManager;
 import com.google.common.flogger.FluentLogger;
+import google.registry.monitoring.whitebox.BigQueryMetricsEnqueuer;
+import google.registry.monitoring.whitebox.IcannActivityCounters;
 import java.io.IOException;
 import java.security.Security;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -32,6 +38,17 @@ public final class ToolsServlet extends HttpServlet {
   @Override
   public void init() {
     Security.addProvider(new BouncyCastleProvider());
+    // EPP tool metrics and ICANN activity counts are buffered in memory before being enqueued.
+    ScheduledExecutorService flushExecutor =
+        Executors.newSingleThreadScheduledExecutor(ThreadManager.backgroundThreadFactory());
+    BigQueryMetricsEnqueuer.startPeriodicFlush(flushExecutor);
+    IcannActivityCounters.startPeriodicFlush(flushExecutor);
+    LifecycleManager.getInstance()
+        .setShutdownHook(
+            () -> {
+              BigQueryMetricsEnqueuer.flushBufferedMetrics();
+              IcannActivityCounters.flushPendingCounts();
+            });
   }
 
   @Override
@@ -15,21 +15,48 @@
 package google.registry.monitoring.whitebox;
 
 import static com.google.appengine.api.taskqueue.TaskOptions.Builder.withUrl;
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static com.google.common.collect.ImmutableListMultimap.toImmutableListMultimap;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 
 import com.google.appengine.api.taskqueue.Queue;
 import com.google.appengine.api.taskqueue.TaskOptions;
 import com.google.appengine.api.taskqueue.TransientFailureException;
+import com.google.auto.value.AutoValue;
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Supplier;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
 import com.google.common.flogger.FluentLogger;
+import com.google.monitoring.metrics.IncrementableMetric;
+import com.google.monitoring.metrics.LabelDescriptor;
+import com.google.monitoring.metrics.MetricRegistryImpl;
 import google.registry.util.AppEngineServiceUtils;
-import java.util.Map.Entry;
+import google.registry.util.Clock;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import javax.annotation.concurrent.GuardedBy;
 import javax.inject.Inject;
 import javax.inject.Named;
+import org.joda.time.Duration;
+import org.json.simple.JSONValue;
 
 /**
  * A collector of metric information. Enqueues collected metrics to a task queue to be written to
  * BigQuery asynchronously.
  *
+ * <p>Rows are buffered in memory and shared by all requests on an instance. The buffer is flushed
+ * as one task per table, holding up to {@link #MAX_ROWS_PER_TASK} rows, once it holds that many
+ * rows, every {@link #MAX_BUFFER_AGE} by the background thread started with {@link
+ * #startPeriodicFlush}, and when the instance shuts down (see {@link #flushBufferedMetrics}). If
+ * enqueueing keeps failing transiently, at most {@link #MAX_BUFFERED_ROWS} rows are kept and the
+ * rest are dropped and counted. Rows that fail to be enqueued for any other reason are dropped and
+ * counted right away.
+ *
  * @see MetricsExportAction
  */
 public class BigQueryMetricsEnqueuer {
@@ -38,28 +65,180 @@ public class BigQueryMetricsEnqueuer {
 
   public static final String QUEUE_BIGQUERY_STREAMING_METRICS = "bigquery-streaming-metrics";
 
+  @VisibleForTesting static final int MAX_ROWS_PER_TASK = 100;
+  @VisibleForTesting static final int MAX_BUFFERED_ROWS = 1000;
+  @VisibleForTesting static final Duration MAX_BUFFER_AGE = Duration.standardSeconds(10);
+
+  @VisibleForTesting
+  static final IncrementableMetric droppedRowsMetric =
+      MetricRegistryImpl.getDefault()
+          .newIncrementableMetric(
+              "/bigquery/metrics/dropped_rows",
+              "Count of metric rows dropped before being enqueued for export to BigQuery",
+              "count",
+              ImmutableSet.of(LabelDescriptor.create("table", "BigQuery table ID")));
+
+  private static final Object bufferLock = new Object();
+
+  /** Rows that haven't been enqueued yet, oldest first. */
+  @GuardedBy("bufferLock")
+  private static final List<PendingRow> bufferedRows = new ArrayList<>();
+
+  /** The time at which the oldest buffered row was added. */
+  @GuardedBy("bufferLock")
+  private static long oldestRowMillis;
+
+  /** The most recently used enqueuer, whose dependencies are used to flush on shutdown. */
+  private static volatile BigQueryMetricsEnqueuer lastUsedEnqueuer;
+
   @Inject AppEngineServiceUtils appEngineServiceUtils;
+  @Inject Clock clock;
   @Inject @Named("insertIdGenerator") Supplier<String> idGenerator;
   @Inject @Named(QUEUE_BIGQUERY_STREAMING_METRICS) Queue queue;
 
   @Inject BigQueryMetricsEnqueuer() {}
 
   public void export(BigQueryMetric metric) {
+    lastUsedEnqueuer = this;
+    PendingRow row =
+        PendingRow.create(metric.getTableId(), idGenerator.get(), metric.getBigQueryRowEncoding());
+    long nowMillis = clock.nowUtc().getMillis();
+    ImmutableList<PendingRow> rowsToEnqueue;
+    synchronized (bufferLock) {
+      if (bufferedRows.size() >= MAX_BUFFERED_ROWS) {
+        droppedRowsMetric.increment(row.tableId());
+        return;
+      }
+      if (bufferedRows.isEmpty()) {
+        oldestRowMillis = nowMillis;
+      }
+      bufferedRows.add(row);
+      if (bufferedRows.size() < MAX_ROWS_PER_TASK
+          && nowMillis - oldestRowMillis < MAX_BUFFER_AGE.getMillis()) {
+        return;
+      }
+      rowsToEnqueue = drainBuffer();
+    }
+    enqueue(rowsToEnqueue);
+  }
+
+  /**
+   * Schedules all buffered rows to be enqueued every {@link #MAX_BUFFER_AGE} on the given executor,
+   * so that rows aren't held back when no more metrics are exported.
+   *
+   * <p>This is called once per instance at startup, with an executor running on an App Engine
+   * background thread, which is only available on manual and basic scaling modules.
+   */
+  public static void startPeriodicFlush(ScheduledExecutorService executor) {
+    executor.scheduleAtFixedRate(
+        BigQueryMetricsEnqueuer::flushBufferedMetrics,
+        MAX_BUFFER_AGE.getMillis(),
+        MAX_BUFFER_AGE.getMillis(),
+        MILLISECONDS);
+  }
+
+  /**
+   * Enqueues all buffered rows, using the dependencies of the last enqueuer that exported a metric.
+   *
+   * <p>This is called periodically (see {@link #startPeriodicFlush}) and from the instance
+   * shutdown hook.
+   */
+  public static void flushBufferedMetrics() {
+    BigQueryMetricsEnqueuer enqueuer = lastUsedEnqueuer;
+    if (enqueuer == null) {
+      return;
+    }
+    ImmutableList<PendingRow> rowsToEnqueue;
+    synchronized (bufferLock) {
+      rowsToEnqueue = drainBuffer();
+    }
+    enqueuer.enqueue(rowsToEnqueue);
+  }
+
+  @GuardedBy("bufferLock")
+  private static ImmutableList<PendingRow> drainBuffer() {
+    ImmutableList<PendingRow> rows = ImmutableList.copyOf(bufferedRows);
+    bufferedRows.clear();
+    return rows;
+  }
+
+  /**
+   * Enqueues the given rows as one task per table, returning them to the buffer on transient
+   * failures and dropping them on any other failure.
+   */
+  private void enqueue(ImmutableList<PendingRow> rows) {
+    if (rows.isEmpty()) {
+      return;
+    }
     try {
       String hostname = appEngineServiceUtils.getCurrentVersionHostname("backend");
-      TaskOptions opts =
-          withUrl(MetricsExportAction.PATH)
-              .header("Host", hostname)
-              .param("insertId", idGenerator.get());
-      for (Entry<String, String> entry : metric.getBigQueryRowEncoding().entrySet()) {
-        opts.param(entry.getKey(), entry.getValue());
+      ImmutableListMultimap<String, PendingRow> rowsByTable =
+          rows.stream().collect(toImmutableListMultimap(PendingRow::tableId, row -> row));
+      ImmutableList.Builder<TaskOptions> tasks = new ImmutableList.Builder<>();
+      for (String tableId : rowsByTable.keySet()) {
+        for (List<PendingRow> batch :
+            Iterables.partition(rowsByTable.get(tableId), MAX_ROWS_PER_TASK)) {
+          tasks.add(
+              withUrl(MetricsExportAction.PATH)
+                  .header("Host", hostname)
+                  .param("tableId", tableId)
+                  .param(
+                      "rows",
+                      JSONValue.toJSONString(
+                          batch.stream().map(PendingRow::toJson).collect(toImmutableList()))));
+        }
       }
-      opts.param("tableId", metric.getTableId());
-      queue.add(opts);
+      queue.add(tasks.build());
     } catch (TransientFailureException e) {
-      // Log and swallow. We may drop some metrics here but this should be rare.
+      // Keep as many rows as fit for the next flush, and count the rest as dropped.
       logger.atInfo().withCause(e).log(
-          "Transient error occurred while recording metric; metric dropped.");
+          "Transient error occurred while enqueueing %d metric rows.", rows.size());
+      synchronized (bufferLock) {
+        for (PendingRow row : rows) {
+          if (bufferedRows.size() < MAX_BUFFERED_ROWS) {
+            bufferedRows.add(row);
+          } else {
+            droppedRowsMetric.increment(row.tableId());
+          }
+        }
+      }
+    } catch (RuntimeException e) {
+      // Retrying won't help, and the flush must not fail, since it runs on a background thread.
+      logger.atSevere().withCause(e).log(
+          "Error occurred while enqueueing %d metric rows, dropping them.", rows.size());
+      for (PendingRow row : rows) {
+        droppedRowsMetric.increment(row.tableId());
+      }
+    }
+  }
+
+  /** Discards all buffered rows. */
+  @VisibleForTesting
+  static void reset() {
+    synchronized (bufferLock) {
+      bufferedRows.clear();
+    }
+    lastUsedEnqueuer = null;
+    droppedRowsMetric.reset();
+  }
+
+  /** A metric row that is waiting to be enqueued. */
+  @AutoValue
+  abstract static class PendingRow {
+
+    abstract String tableId();
+
+    abstract String insertId();
+
+    abstract ImmutableMap<String, String> row();
+
+    /** Returns the JSON object for this row, as read by {@link MetricsExportAction}. */
+    ImmutableMap<String, Object> toJson() {
+      return ImmutableMap.of("insertId", insertId(), "json", row());
+    }
+
+    static PendingRow create(String tableId, String insertId, ImmutableMap<String, String> row) {
+      return new AutoValue_BigQueryMetricsEnqueuer_PendingRow(tableId, insertId, row);
     }
   }
 }
@@ -25,6 +25,8 @@ import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import google.registry.bigquery.BigqueryUtils.FieldType;
 import google.registry.model.eppoutput.Result.Code;
+import google.registry.model.ofy.DatastoreRpcStats;
+import google.registry.model.ofy.DatastoreRpcStats.RpcType;
 import google.registry.model.registry.Registries;
 import google.registry.util.Clock;
 import java.util.Optional;
@@ -50,7 +52,20 @@ public abstract class EppMetric implements BigQueryMetric {
           new TableFieldSchema().setName("privilegeLevel").setType(FieldType.STRING.name()),
           new TableFieldSchema().setName("eppTarget").setType(FieldType.STRING.name()),
           new TableFieldSchema().setName("eppStatus").setType(FieldType.INTEGER.name()),
-          new TableFieldSchema().setName("attempts").setType(FieldType.INTEGER.name()));
+          new TableFieldSchema().setName("attempts").setType(FieldType.INTEGER.name()),
+          new TableFieldSchema().setName("datastoreGets").setType(FieldType.INTEGER.name()),
+          new TableFieldSchema().setName("datastorePuts").setType(FieldType.INTEGER.name()),
+          new TableFieldSchema().setName("datastoreDeletes").setType(FieldType.INTEGER.name()),
+          new TableFieldSchema().setName("datastoreQueries").setType(FieldType.INTEGER.name()),
+          new TableFieldSchema()
+              .setName("datastoreBytesWritten")
+              .setType(FieldType.INTEGER.name()),
+          new TableFieldSchema()
+              .setName("transactionConflicts")
+              .setType(FieldType.INTEGER.name()),
+          new TableFieldSchema()
+              .setName("wastedTransactionMillis")
+              .setType(FieldType.INTEGER.name()));
 
   public abstract String getRequestId();
 
@@ -72,6 +87,23 @@ public abstract class EppMetric implements BigQueryMetric {
 
   public abstract Integer getAttempts();
 
+  /** The number of Datastore RPCs of each type made while serving the request. */
+  public abstract ImmutableMap<RpcType, Long> getDatastoreRpcCounts();
+
+  /**
+   * The total serialized size of the entities written to Datastore while serving the request, if
+   * it was measured.
+   *
+   * <p>Entity sizes are only measured for a sample of requests, see {@link DatastoreRpcStats}.
+   */
+  public abstract Optional<Long> getDatastoreBytesWritten();
+
+  /** The number of transaction attempts that failed due to contention, and were retried. */
+  public abstract long getTransactionConflicts();
+
+  /** The time spent on transaction attempts that failed due to contention. */
+  public abstract long getWastedTransactionMillis();
+
   @Override
   public String getTableId() {
     return TABLE_ID;
@@ -90,13 +122,20 @@ public abstract class EppMetric implements BigQueryMetric {
             .put("requestId", getRequestId())
             .put("startTime", toBigqueryTimestamp(getStartTimestamp()))
             .put("endTime", toBigqueryTimestamp(getEndTimestamp()))
-            .put("attempts", getAttempts().toString());
+            .put("attempts", getAttempts().toString())
+            .put("datastoreGets", getDatastoreRpcCount(RpcType.GET))
+            .put("datastorePuts", getDatastoreRpcCount(RpcType.PUT))
+            .put("datastoreDeletes", getDatastoreRpcCount(RpcType.DELETE))
+            .put("datastoreQueries", getDatastoreRpcCount(RpcType.QUERY))
+            .put("transactionConflicts", Long.toString(getTransactionConflicts()))
+            .put("wastedTransactionMillis", Long.toString(getWastedTransactionMillis()));
     // Populate optional values, if present
     addOptional("commandName", getCommandName(), map);
     addOptional("clientId", getClientId(), map);
     addOptional("tld", getTld(), map);
     addOptional("privilegeLevel", getPrivilegeLevel(), map);
     addOptional("eppTarget", getEppTarget(), map);
+    addOptional("datastoreBytesWritten", getDatastoreBytesWritten(), map);
     if (getStatus().isPresent()) {
       map.put("eppStatus", Integer.toString(getStatus().get().code));
     }
@@ -104,6 +143,10 @@ public abstract class EppMetric implements BigQueryMetric {
     return map.build();
   }
 
+  private String getDatastoreRpcCount(RpcType type) {
+    return getDatastoreRpcCounts().getOrDefault(type, 0L).toString();
+  }
+
   /**
    * Helper method to populate an {@link com.google.common.collect.ImmutableMap.Builder} with an
    * {@link Optional} value if the value is {@link Optional#isPresent()}.
@@ -115,7 +158,10 @@ public abstract class EppMetric implements BigQueryMetric {
 
   /** Create an {@link EppMetric.Builder}. */
   public static Builder builder() {
-    return new AutoValue_EppMetric.Builder();
+    return new AutoValue_EppMetric.Builder()
+        .setDatastoreRpcCounts(ImmutableMap.of())
+        .setTransactionConflicts(0)
+        .setWastedTransactionMillis(0);
   }
 
   /**
@@ -197,6 +243,22 @@ public abstract class EppMetric implements BigQueryMetric {
 
     public abstract Builder setStatus(Code code);
 
+    abstract Builder setDatastoreRpcCounts(ImmutableMap<RpcType, Long> datastoreRpcCounts);
+
+    abstract Builder setDatastoreBytesWritten(Optional<Long> datastoreBytesWritten);
+
+    abstract Builder setTransactionConflicts(long transactionConflicts);
+
+    abstract Builder setWastedTransactionMillis(long wastedTransactionMillis);
+
+    /** Records the Datastore RPCs made and transaction conflicts hit while serving the request. */
+    public Builder setDatastoreRpcStats(DatastoreRpcStats stats) {
+      return setDatastoreRpcCounts(stats.getRpcCounts())
+          .setDatastoreBytesWritten(stats.getBytesWritten())
+          .setTransactionConflicts(stats.getTransactionConflicts())
+          .setWastedTransactionMillis(stats.getWastedTransactionMillis());
+    }
+
     abstract Builder setAttempts(Integer attempts);
 
     public Builder incrementAttempts() {
@@ -0,0 +1,72 @@
+// Copyright 2018 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.monitoring.whitebox;
+
+import static google.registry.monitoring.whitebox.IcannActivityCounters.QUEUE_ICANN_ACTIVITY_COUNTS;
+import static google.registry.monitoring.whitebox.IcannActivityCounters.addToDatastore;
+import static google.registry.monitoring.whitebox.IcannActivityCounters.decodeCounts;
+import static google.registry.monitoring.whitebox.IcannActivityCounters.enqueueCounts;
+import static google.registry.request.Action.Method.POST;
+
+import com.google.appengine.api.taskqueue.Queue;
+import com.google.appengine.api.taskqueue.TransientFailureException;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.flogger.FluentLogger;
+import google.registry.monitoring.whitebox.IcannActivityCounters.CounterKey;
+import google.registry.request.Action;
+import google.registry.request.Parameter;
+import google.registry.request.auth.Auth;
+import google.registry.util.AppEngineServiceUtils;
+import javax.inject.Inject;
+import javax.inject.Named;
+
+/**
+ * Action that adds ICANN activity counts collected by {@link IcannActivityCounters} to their
+ * counters in Datastore.
+ *
+ * <p>Counts that fail to be saved are enqueued again in a new task rather than failing this one,
+ * since retrying this task would count the ones that were saved twice.
+ */
+@Action(
+  path = FlushIcannActivityCountsAction.PATH,
+  method = POST,
+  auth = Auth.AUTH_INTERNAL_ONLY
+)
+public class FlushIcannActivityCountsAction implements Runnable {
+
+  public static final String PATH = "/_dr/task/flushIcannActivityCounts";
+  static final String COUNTS_PARAM = "counts";
+
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  @Inject @Parameter(COUNTS_PARAM) String counts;
+  @Inject @Named(QUEUE_ICANN_ACTIVITY_COUNTS) Queue queue;
+  @Inject AppEngineServiceUtils appEngineServiceUtils;
+  @Inject FlushIcannActivityCountsAction() {}
+
+  @Override
+  public void run() {
+    ImmutableMap<CounterKey, Long> failedCounts = addToDatastore(decodeCounts(counts));
+    if (failedCounts.isEmpty()) {
+      return;
+    }
+    try {
+      enqueueCounts(queue, appEngineServiceUtils, failedCounts);
+    } catch (TransientFailureException e) {
+      logger.atSevere().withCause(e).log(
+          "Dropped %d ICANN activity counts that failed to be saved.", failedCounts.size());
+    }
+  }
+}
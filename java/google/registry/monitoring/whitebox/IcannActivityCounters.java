@@ -0,0 +1,289 @@
+// Copyright 2018 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.monitoring.whitebox;
+
+import static com.google.appengine.api.taskqueue.TaskOptions.Builder.withUrl;
+import static google.registry.model.ofy.ObjectifyService.ofy;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import com.google.appengine.api.taskqueue.Queue;
+import com.google.appengine.api.taskqueue.TransientFailureException;
+import com.google.auto.value.AutoValue;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.flogger.FluentLogger;
+import com.googlecode.objectify.Key;
+import google.registry.model.reporting.IcannActivityCount;
+import google.registry.model.reporting.IcannReportingTypes.ActivityReportField;
+import google.registry.util.AppEngineServiceUtils;
+import google.registry.util.Clock;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import javax.inject.Named;
+import org.joda.time.DateTime;
+import org.joda.time.Duration;
+import org.json.simple.JSONValue;
+
+/**
+ * In-memory counters of ICANN activity report fields, which are periodically added to the
+ * {@link IcannActivityCount} entities in Datastore.
+ *
+ * <p>Counts are shared by all requests on an instance. Every {@link #FLUSH_INTERVAL}, the pending
+ * counts are handed off to a task (see {@link FlushIcannActivityCountsAction}), which does the
+ * Datastore writes outside of any user-facing request. This is done by the background thread
+ * started with {@link #startPeriodicFlush}, by the next request to increment a counter if that
+ * thread falls behind, and by the instance shutdown hook (see {@link #flushPendingCounts}).
+ */
+public class IcannActivityCounters {
+
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  public static final String QUEUE_ICANN_ACTIVITY_COUNTS = "icann-activity-counts";
+
+  @VisibleForTesting static final Duration FLUSH_INTERVAL = Duration.standardMinutes(1);
+
+  /** Counts that haven't been enqueued for flushing yet. */
+  private static final Map<CounterKey, Long> pendingCounts = new ConcurrentHashMap<>();
+
+  /** When the next flush is due, or zero if nothing has been counted yet. */
+  private static final AtomicLong nextFlushMillis = new AtomicLong();
+
+  /** The most recently used counters, whose dependencies are used to flush outside of requests. */
+  private static volatile IcannActivityCounters lastUsedCounters;
+
+  private final Clock clock;
+  private final Queue queue;
+  private final AppEngineServiceUtils appEngineServiceUtils;
+
+  @Inject
+  public IcannActivityCounters(
+      Clock clock,
+      @Named(QUEUE_ICANN_ACTIVITY_COUNTS) Queue queue,
+      AppEngineServiceUtils appEngineServiceUtils) {
+    this.clock = clock;
+    this.queue = queue;
+    this.appEngineServiceUtils = appEngineServiceUtils;
+  }
+
+  /** Counts one occurrence of a field that counts towards every TLD. */
+  public void increment(ActivityReportField field) {
+    increment(Optional.empty(), Optional.empty(), field);
+  }
+
+  /** Counts one occurrence of a field for the given TLD and registrar, if any. */
+  public void increment(
+      Optional<String> tld, Optional<String> clientId, ActivityReportField field) {
+    lastUsedCounters = this;
+    DateTime now = clock.nowUtc();
+    CounterKey counterKey =
+        CounterKey.create(
+            now.withTimeAtStartOfDay(), tld.orElse(null), clientId.orElse(null), field);
+    pendingCounts.merge(counterKey, 1L, Long::sum);
+    long dueMillis = nextFlushMillis.get();
+    if (dueMillis == 0) {
+      nextFlushMillis.compareAndSet(0, now.plus(FLUSH_INTERVAL).getMillis());
+    } else if (now.getMillis() >= dueMillis
+        && nextFlushMillis.compareAndSet(dueMillis, now.plus(FLUSH_INTERVAL).getMillis())) {
+      enqueueFlush();
+    }
+  }
+
+  /**
+   * Schedules all pending counts to be enqueued every {@link #FLUSH_INTERVAL} on the given
+   * executor, so that counts aren't held back on instances that stop receiving requests.
+   *
+   * <p>This is called once per instance at startup, with an executor running on an App Engine
+   * background thread.
+   */
+  public static void startPeriodicFlush(ScheduledExecutorService executor) {
+    executor.scheduleAtFixedRate(
+        IcannActivityCounters::flushPendingCounts,
+        FLUSH_INTERVAL.getMillis(),
+        FLUSH_INTERVAL.getMillis(),
+        MILLISECONDS);
+  }
+
+  /**
+   * Enqueues all pending counts, using the dependencies of the counters that last counted a field.
+   *
+   * <p>This is called periodically (see {@link #startPeriodicFlush}) and from the instance shutdown
+   * hook.
+   */
+  public static void flushPendingCounts() {
+    IcannActivityCounters counters = lastUsedCounters;
+    if (counters != null) {
+      counters.enqueueFlush();
+    }
+  }
+
+  /**
+   * Enqueues a task to add all pending counts to Datastore.
+   *
+   * <p>Counts that fail to be enqueued are kept, to be retried by the next flush.
+   */
+  @VisibleForTesting
+  void enqueueFlush() {
+    ImmutableMap.Builder<CounterKey, Long> drainedCounts = new ImmutableMap.Builder<>();
+    for (CounterKey counterKey : pendingCounts.keySet()) {
+      Long count = pendingCounts.remove(counterKey);
+      if (count != null) {
+        drainedCounts.put(counterKey, count);
+      }
+    }
+    ImmutableMap<CounterKey, Long> counts = drainedCounts.build();
+    if (counts.isEmpty()) {
+      return;
+    }
+    try {
+      enqueueCounts(queue, appEngineServiceUtils, counts);
+    } catch (TransientFailureException e) {
+      logger.atInfo().withCause(e).log(
+          "Transient error occurred while enqueueing %d ICANN activity counts.", counts.size());
+      counts.forEach((counterKey, count) -> pendingCounts.merge(counterKey, count, Long::sum));
+    } catch (RuntimeException e) {
+      // The counts feed the ICANN reports, so keep them, and don't fail the background flush.
+      logger.atSevere().withCause(e).log(
+          "Error occurred while enqueueing %d ICANN activity counts.", counts.size());
+      counts.forEach((counterKey, count) -> pendingCounts.merge(counterKey, count, Long::sum));
+    }
+  }
+
+  /** Enqueues a task to add the given counts to Datastore. */
+  static void enqueueCounts(
+      Queue queue, AppEngineServiceUtils appEngineServiceUtils, Map<CounterKey, Long> counts) {
+    queue.add(
+        withUrl(FlushIcannActivityCountsAction.PATH)
+            .header("Host", appEngineServiceUtils.getCurrentVersionHostname("backend"))
+            .param(FlushIcannActivityCountsAction.COUNTS_PARAM, encodeCounts(counts)));
+  }
+
+  /**
+   * Adds each count to a random shard of its counter in Datastore, returning the counts that
+   * failed to be saved.
+   *
+   * <p>Each counter is updated in its own transaction.
+   */
+  static ImmutableMap<CounterKey, Long> addToDatastore(Map<CounterKey, Long> counts) {
+    ImmutableMap.Builder<CounterKey, Long> failedCounts = new ImmutableMap.Builder<>();
+    counts.forEach(
+        (counterKey, count) -> {
+          int shard = ThreadLocalRandom.current().nextInt(IcannActivityCount.NUM_SHARDS);
+          Key<IcannActivityCount> key =
+              IcannActivityCount.createKey(
+                  counterKey.day(),
+                  counterKey.tld(),
+                  counterKey.clientId(),
+                  counterKey.field(),
+                  shard);
+          try {
+            ofy()
+                .transactNew(
+                    () -> {
+                      IcannActivityCount existing = ofy().load().key(key).now();
+                      ofy()
+                          .save()
+                          .entity(
+                              (existing != null)
+                                  ? existing.plus(count)
+                                  : IcannActivityCount.createEmpty(
+                                          counterKey.day(),
+                                          counterKey.tld(),
+                                          counterKey.clientId(),
+                                          counterKey.field(),
+                                          shard)
+                                      .plus(count));
+                    });
+          } catch (RuntimeException e) {
+            logger.atWarning().withCause(e).log("Failed to flush ICANN activity count %s", key);
+            failedCounts.put(counterKey, count);
+          }
+        });
+    return failedCounts.build();
+  }
+
+  /** Encodes counts as a JSON array of objects, for passing in a task parameter. */
+  @VisibleForTesting
+  static String encodeCounts(Map<CounterKey, Long> counts) {
+    List<Map<String, Object>> json = new ArrayList<>();
+    counts.forEach(
+        (counterKey, count) -> {
+          Map<String, Object> entry = new LinkedHashMap<>();
+          entry.put("day", counterKey.day().toString());
+          entry.put("tld", counterKey.tld());
+          entry.put("clientId", counterKey.clientId());
+          entry.put("field", counterKey.field().name());
+          entry.put("count", count);
+          json.add(entry);
+        });
+    return JSONValue.toJSONString(json);
+  }
+
+  /** Decodes counts encoded by {@link #encodeCounts}. */
+  static ImmutableMap<CounterKey, Long> decodeCounts(String encodedCounts) {
+    Map<CounterKey, Long> counts = new LinkedHashMap<>();
+    for (Object element : (List<?>) JSONValue.parse(encodedCounts)) {
+      Map<?, ?> entry = (Map<?, ?>) element;
+      counts.merge(
+          CounterKey.create(
+              DateTime.parse((String) entry.get("day")),
+              (String) entry.get("tld"),
+              (String) entry.get("clientId"),
+              ActivityReportField.valueOf((String) entry.get("field"))),
+          ((Number) entry.get("count")).longValue(),
+          Long::sum);
+    }
+    return ImmutableMap.copyOf(counts);
+  }
+
+  /** Discards all pending counts. */
+  @VisibleForTesting
+  static void reset() {
+    pendingCounts.clear();
+    nextFlushMillis.set(0);
+    lastUsedCounters = null;
+  }
+
+  /** The dimensions of a single counter. */
+  @AutoValue
+  abstract static class CounterKey {
+
+    abstract DateTime day();
+
+    @Nullable
+    abstract String tld();
+
+    @Nullable
+    abstract String clientId();
+
+    abstract ActivityReportField field();
+
+    static CounterKey create(
+        DateTime day,
+        @Nullable String tld,
+        @Nullable String clientId,
+        ActivityReportField field) {
+      return new AutoValue_IcannActivityCounters_CounterKey(day, tld, clientId, field);
+    }
+  }
+}
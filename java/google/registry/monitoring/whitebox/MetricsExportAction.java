@@ -16,6 +16,7 @@ package google.registry.monitoring.whitebox;
 
 import static com.google.common.base.Predicates.in;
 import static com.google.common.base.Predicates.not;
+import static com.google.common.collect.ImmutableList.toImmutableList;
 import static com.google.common.collect.Multimaps.filterKeys;
 import static google.registry.request.Action.Method.POST;
 import static java.util.stream.Collectors.joining;
@@ -35,10 +36,20 @@ import google.registry.request.Parameter;
 import google.registry.request.ParameterMap;
 import google.registry.request.auth.Auth;
 import java.io.IOException;
+import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import javax.inject.Inject;
+import org.json.simple.JSONValue;
 
-/** Action for exporting metrics to BigQuery. */
+/**
+ * Action for exporting metrics to BigQuery.
+ *
+ * <p>Rows are normally passed as a JSON array in the {@code rows} parameter (see {@link
+ * BigQueryMetricsEnqueuer}), and are all inserted by a single request. A task without that
+ * parameter carries a single row as its remaining parameters, keyed by the {@code insertId}
+ * parameter.
+ */
 @Action(
   path = MetricsExportAction.PATH,
   method = POST,
@@ -49,10 +60,12 @@ public class MetricsExportAction implements Runnable {
   public static final String PATH = "/_dr/task/metrics";
   private static final FluentLogger logger = FluentLogger.forEnclosingClass();
   private static final String DATASET_ID = "metrics";
-  private static final ImmutableSet<String> SPECIAL_PARAMS = ImmutableSet.of("tableId", "insertId");
+  private static final ImmutableSet<String> SPECIAL_PARAMS =
+      ImmutableSet.of("tableId", "insertId", "rows");
 
   @Inject @Parameter("tableId") String tableId;
-  @Inject @Parameter("insertId") String insertId;
+  @Inject @Parameter("insertId") Optional<String> insertId;
+  @Inject @Parameter("rows") Optional<String> rows;
   @Inject @Config("projectId") String projectId;
   @Inject BigqueryFactory bigqueryFactory;
   @Inject @ParameterMap ImmutableListMultimap<String, String> parameters;
@@ -63,21 +76,13 @@ public class MetricsExportAction implements Runnable {
   public void run() {
     try {
       Bigquery bigquery = bigqueryFactory.create(projectId, DATASET_ID, tableId);
-      // Filter out the special parameters that the Action is called with.  Everything that's left
-      // is returned in a Map that is suitable to pass to Bigquery as row data.
-      Map<String, Object> jsonRows =
-          ImmutableMap.copyOf(
-              filterKeys(parameters, not(in(SPECIAL_PARAMS))).entries());
       TableDataInsertAllResponse response = bigquery.tabledata()
           .insertAll(
               projectId,
               DATASET_ID,
               tableId,
               new TableDataInsertAllRequest()
-                  .setRows(
-                      ImmutableList.of(new TableDataInsertAllRequest.Rows()
-                          .setInsertId(insertId)
-                          .setJson(jsonRows))))
+                  .setRows(rows.isPresent() ? parseRows(rows.get()) : getSingleRow()))
           .execute();
 
       if (response.getInsertErrors() != null && !response.getInsertErrors().isEmpty()) {
@@ -99,4 +104,31 @@ public class MetricsExportAction implements Runnable {
       logger.atWarning().withCause(e).log("Unknown error while exporting metrics to BigQuery.");
     }
   }
+
+  /** Parses the JSON array of rows written by {@link BigQueryMetricsEnqueuer}. */
+  @SuppressWarnings("unchecked")
+  private static ImmutableList<TableDataInsertAllRequest.Rows> parseRows(String rowsJson) {
+    return ((List<Map<String, Object>>) JSONValue.parse(rowsJson))
+        .stream()
+        .map(
+            row ->
+                new TableDataInsertAllRequest.Rows()
+                    .setInsertId((String) row.get("insertId"))
+                    .setJson((Map<String, Object>) row.get("json")))
+        .collect(toImmutableList());
+  }
+
+  /** Returns the single row passed as the remaining request parameters. */
+  private ImmutableList<TableDataInsertAllRequest.Rows> getSingleRow() {
+    // Filter out the special parameters that the Action is called with.  Everything that's left
+    // is returned in a Map that is suitable to pass to Bigquery as row data.
+    Map<String, Object> jsonRows =
+        ImmutableMap.copyOf(filterKeys(parameters, not(in(SPECIAL_PARAMS))).entries());
+    return ImmutableList.of(
+        new TableDataInsertAllRequest.Rows()
+            .setInsertId(
+                insertId.orElseThrow(
+                    () -> new IllegalArgumentException("Missing insertId parameter")))
+            .setJson(jsonRows));
+  }
 }
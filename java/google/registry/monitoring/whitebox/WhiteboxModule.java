@@ -16,6 +16,8 @@ package google.registry.monitoring.whitebox;
 
 import static com.google.appengine.api.taskqueue.QueueFactory.getQueue;
 import static google.registry.monitoring.whitebox.BigQueryMetricsEnqueuer.QUEUE_BIGQUERY_STREAMING_METRICS;
+import static google.registry.monitoring.whitebox.IcannActivityCounters.QUEUE_ICANN_ACTIVITY_COUNTS;
+import static google.registry.request.RequestParameters.extractOptionalParameter;
 import static google.registry.request.RequestParameters.extractRequiredParameter;
 
 import com.google.api.services.bigquery.model.TableFieldSchema;
@@ -29,6 +31,7 @@ import dagger.multibindings.StringKey;
 import google.registry.request.Parameter;
 import google.registry.request.RequestLogId;
 import google.registry.util.Clock;
+import java.util.Optional;
 import java.util.UUID;
 import javax.inject.Named;
 import javax.servlet.http.HttpServletRequest;
@@ -54,8 +57,20 @@ public class WhiteboxModule {
 
   @Provides
   @Parameter("insertId")
-  static String provideInsertId(HttpServletRequest req) {
-    return extractRequiredParameter(req, "insertId");
+  static Optional<String> provideInsertId(HttpServletRequest req) {
+    return extractOptionalParameter(req, "insertId");
+  }
+
+  @Provides
+  @Parameter("rows")
+  static Optional<String> provideRows(HttpServletRequest req) {
+    return extractOptionalParameter(req, "rows");
+  }
+
+  @Provides
+  @Parameter(FlushIcannActivityCountsAction.COUNTS_PARAM)
+  static String provideCounts(HttpServletRequest req) {
+    return extractRequiredParameter(req, FlushIcannActivityCountsAction.COUNTS_PARAM);
   }
 
   @Provides
@@ -81,4 +96,10 @@ public class WhiteboxModule {
   static Queue provideBigQueryStreamingMetricsQueue() {
     return getQueue(QUEUE_BIGQUERY_STREAMING_METRICS);
   }
+
+  @Provides
+  @Named(QUEUE_ICANN_ACTIVITY_COUNTS)
+  static Queue provideIcannActivityCountsQueue() {
+    return getQueue(QUEUE_ICANN_ACTIVITY_COUNTS);
+  }
 }
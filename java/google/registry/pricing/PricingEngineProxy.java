@@ -37,14 +37,24 @@ public final class PricingEngineProxy {
 
   /** Returns the billing cost for registering the specified domain name for this many years. */
   public static Money getDomainCreateCost(String domainName, DateTime priceTime, int years) {
+    return getDomainCreateCost(getPricesForDomainName(domainName, priceTime), years);
+  }
+
+  /** Returns the billing cost for registering a domain with these prices for this many years. */
+  public static Money getDomainCreateCost(DomainPrices prices, int years) {
     checkArgument(years > 0, "Number of years must be positive");
-    return getPricesForDomainName(domainName, priceTime).getCreateCost().multipliedBy(years);
+    return prices.getCreateCost().multipliedBy(years);
   }
 
   /** Returns the billing cost for renewing the specified domain name for this many years. */
   public static Money getDomainRenewCost(String domainName, DateTime priceTime, int years) {
+    return getDomainRenewCost(getPricesForDomainName(domainName, priceTime), years);
+  }
+
+  /** Returns the billing cost for renewing a domain with these prices for this many years. */
+  public static Money getDomainRenewCost(DomainPrices prices, int years) {
     checkArgument(years > 0, "Number of years must be positive");
-    return getPricesForDomainName(domainName, priceTime).getRenewCost().multipliedBy(years);
+    return prices.getRenewCost().multipliedBy(years);
   }
 
   /** Returns true if the specified domain name is premium. */
@@ -34,8 +34,10 @@ import com.googlecode.objectify.Key;
 import com.googlecode.objectify.cmd.Query;
 import google.registry.config.RegistryConfig.Config;
 import google.registry.model.EppResource;
+import google.registry.model.ofy.DatastoreRpcStats;
 import google.registry.model.registrar.Registrar;
 import google.registry.rdap.RdapMetrics.EndpointType;
+import google.registry.rdap.RdapMetrics.RdapMetricInformation;
 import google.registry.rdap.RdapMetrics.WildcardType;
 import google.registry.rdap.RdapSearchResults.IncompletenessWarningType;
 import google.registry.request.Action;
@@ -131,6 +133,7 @@ public abstract class RdapActionBase implements Runnable {
 
   @Override
   public void run() {
+    DatastoreRpcStats.reset();
     metricInformationBuilder.setIncludeDeleted(includeDeletedParam.orElse(false));
     metricInformationBuilder.setRegistrarSpecified(registrarParam.isPresent());
     metricInformationBuilder.setRole(getAuthorization().role());
@@ -162,7 +165,9 @@ public abstract class RdapActionBase implements Runnable {
       setError(SC_INTERNAL_SERVER_ERROR, "Internal Server Error", "An error was encountered");
       logger.atSevere().withCause(e).log("Exception encountered while processing RDAP command");
     }
-    rdapMetrics.updateMetrics(metricInformationBuilder.build());
+    RdapMetricInformation metricInformation = metricInformationBuilder.build();
+    rdapMetrics.updateMetrics(metricInformation);
+    rdapMetrics.recordDatastoreRpcs(metricInformation, DatastoreRpcStats.current());
   }
 
   void setError(int status, String title, String description) {
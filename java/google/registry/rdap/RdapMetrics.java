@@ -23,6 +23,7 @@ import com.google.monitoring.metrics.FibonacciFitter;
 import com.google.monitoring.metrics.IncrementableMetric;
 import com.google.monitoring.metrics.LabelDescriptor;
 import com.google.monitoring.metrics.MetricRegistryImpl;
+import google.registry.model.ofy.DatastoreRpcStats;
 import google.registry.rdap.RdapSearchResults.IncompletenessWarningType;
 import google.registry.request.Action;
 import java.util.Optional;
@@ -94,6 +95,12 @@ public class RdapMetrics {
                   MAX_RECORDED_PREFIX_LENGTH)),
           LabelDescriptor.create("include_deleted", "Whether deleted records are included."));
 
+  private static final ImmutableSet<LabelDescriptor> LABEL_DESCRIPTORS_FOR_DATASTORE =
+      ImmutableSet.of(
+          LabelDescriptor.create("endpoint_type", "The RDAP endpoint."),
+          LabelDescriptor.create("search_type", "The identifier type used to search."),
+          LabelDescriptor.create("rpc_type", "The type of Datastore RPC."));
+
   // Fibonacci fitter more suitable for integer-type values. Allows values between 0 and 4181,
   // which is the 19th Fibonacci number.
   private static final DistributionFitter FIBONACCI_FITTER = FibonacciFitter.create(4181);
@@ -146,6 +153,16 @@ public class RdapMetrics {
               LABEL_DESCRIPTORS_FOR_RETRIEVAL_COUNTS,
               FIBONACCI_FITTER);
 
+  @VisibleForTesting
+  static final EventMetric datastoreRpcs =
+      MetricRegistryImpl.getDefault()
+          .newEventMetric(
+              "/rdap/datastore_rpcs",
+              "Datastore RPCs Per RDAP Request",
+              "count",
+              LABEL_DESCRIPTORS_FOR_DATASTORE,
+              FIBONACCI_FITTER);
+
   @Inject
   public RdapMetrics() {}
 
@@ -206,6 +223,17 @@ public class RdapMetrics {
     }
   }
 
+  /** Records the number of Datastore RPCs of each type made while serving the given request. */
+  public void recordDatastoreRpcs(
+      RdapMetricInformation rdapMetricInformation, DatastoreRpcStats stats) {
+    String endpointType = rdapMetricInformation.endpointType().toString();
+    String searchType = rdapMetricInformation.searchType().toString();
+    stats
+        .getRpcCounts()
+        .forEach(
+            (type, count) -> datastoreRpcs.record(count, endpointType, searchType, type.name()));
+  }
+
   @AutoValue
   abstract static class RdapMetricInformation {
 
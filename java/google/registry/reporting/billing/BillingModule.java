@@ -15,6 +15,7 @@
 package google.registry.reporting.billing;
 
 import static google.registry.request.RequestParameters.extractOptionalBooleanParameter;
+import static google.registry.request.RequestParameters.extractOptionalParameter;
 import static google.registry.request.RequestParameters.extractRequiredParameter;
 import static java.lang.annotation.RetentionPolicy.RUNTIME;
 
@@ -26,14 +27,19 @@ import com.google.common.collect.ImmutableSet;
 import dagger.Module;
 import dagger.Provides;
 import google.registry.config.RegistryConfig.Config;
+import google.registry.request.HttpException.BadRequestException;
 import google.registry.request.Parameter;
+import google.registry.util.Clock;
 import java.lang.annotation.Documented;
 import java.lang.annotation.Retention;
+import java.util.Optional;
 import java.util.Set;
 import java.util.function.Function;
 import javax.inject.Qualifier;
 import javax.servlet.http.HttpServletRequest;
+import org.joda.time.LocalDate;
 import org.joda.time.YearMonth;
+import org.joda.time.format.DateTimeFormat;
 
 /** Module for dependencies required by monthly billing actions. */
 @Module
@@ -42,8 +48,14 @@ public final class BillingModule {
   public static final String DETAIL_REPORT_PREFIX = "invoice_details";
   public static final String OVERALL_INVOICE_PREFIX = "CRR-INV";
   public static final String INVOICES_DIRECTORY = "invoices";
+  public static final String INVOICE_PARTIALS_DIRECTORY = "invoice_partials";
+  /** The name of the daily partial file holding counts of each overall invoice row. */
+  public static final String PARTIAL_INVOICE_NAME = "invoice";
+  /** The name of the daily partial file holding detail report rows. */
+  public static final String PARTIAL_DETAILS_NAME = "details";
 
   static final String PARAM_JOB_ID = "jobId";
+  static final String PARAM_DAY = "day";
   static final String PARAM_SHOULD_PUBLISH = "shouldPublish";
   static final String BILLING_QUEUE = "billing";
   static final String CRON_QUEUE = "retryable-cron-tasks";
@@ -67,6 +79,24 @@ public final class BillingModule {
         .orElse(defaultShouldPublishInvoices);
   }
 
+  /**
+   * Provides the day to pre-aggregate billing events for, in yyyy-MM-dd format. If not specified
+   * in the request, defaults to the day before run time.
+   */
+  @Provides
+  @Parameter(PARAM_DAY)
+  static LocalDate provideDay(HttpServletRequest req, Clock clock) {
+    Optional<String> optionalDayStr = extractOptionalParameter(req, PARAM_DAY);
+    try {
+      return optionalDayStr
+          .map(s -> LocalDate.parse(s, DateTimeFormat.forPattern("yyyy-MM-dd")))
+          .orElseGet(() -> clock.nowUtc().toLocalDate().minusDays(1));
+    } catch (IllegalArgumentException e) {
+      throw new BadRequestException(
+          String.format("day must be in yyyy-MM-dd format, got %s instead", optionalDayStr.get()));
+    }
+  }
+
   @Provides
   @InvoiceDirectoryPrefix
   static String provideDirectoryPrefix(YearMonth yearMonth) {
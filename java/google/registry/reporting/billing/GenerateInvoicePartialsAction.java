@@ -0,0 +1,120 @@
+// Copyright 2018 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.reporting.billing;
+
+import static google.registry.reporting.billing.BillingModule.PARAM_DAY;
+import static google.registry.request.Action.Method.POST;
+import static javax.servlet.http.HttpServletResponse.SC_INTERNAL_SERVER_ERROR;
+import static javax.servlet.http.HttpServletResponse.SC_OK;
+
+import com.google.api.services.dataflow.Dataflow;
+import com.google.api.services.dataflow.model.LaunchTemplateParameters;
+import com.google.api.services.dataflow.model.LaunchTemplateResponse;
+import com.google.api.services.dataflow.model.RuntimeEnvironment;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.flogger.FluentLogger;
+import com.google.common.net.MediaType;
+import google.registry.config.RegistryConfig.Config;
+import google.registry.request.Action;
+import google.registry.request.Parameter;
+import google.registry.request.Response;
+import google.registry.request.auth.Auth;
+import java.io.IOException;
+import javax.inject.Inject;
+import org.joda.time.LocalDate;
+
+/**
+ * Invokes the daily {@code InvoicingPipeline} beam template via the REST api.
+ *
+ * <p>This action runs the daily {@link google.registry.beam.invoicing.InvoicingPipeline} template,
+ * staged at gs://<projectId>-beam/templates/invoicing_daily. The pipeline pre-aggregates a day's
+ * billing events into partial invoice counts and detail report rows, which {@link
+ * GenerateInvoicesAction} merges into the month's invoice.
+ *
+ * <p>A day's billing events are final once the day is over, since billing events are cancelled
+ * before their billing time. The day's partials must be generated from a Datastore export taken
+ * after the day ended, and rerunning a day replaces its partials.
+ */
+@Action(path = GenerateInvoicePartialsAction.PATH, method = POST, auth = Auth.AUTH_INTERNAL_ONLY)
+public class GenerateInvoicePartialsAction implements Runnable {
+
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  static final String PATH = "/_dr/task/generateInvoicePartials";
+
+  private final String projectId;
+  private final String beamBucketUrl;
+  private final String dailyInvoiceTemplateUrl;
+  private final String jobZone;
+  private final LocalDate day;
+  private final Dataflow dataflow;
+  private final Response response;
+  private final BillingEmailUtils emailUtils;
+
+  @Inject
+  GenerateInvoicePartialsAction(
+      @Config("projectId") String projectId,
+      @Config("apacheBeamBucketUrl") String beamBucketUrl,
+      @Config("dailyInvoiceTemplateUrl") String dailyInvoiceTemplateUrl,
+      @Config("defaultJobZone") String jobZone,
+      @Parameter(PARAM_DAY) LocalDate day,
+      Dataflow dataflow,
+      Response response,
+      BillingEmailUtils emailUtils) {
+    this.projectId = projectId;
+    this.beamBucketUrl = beamBucketUrl;
+    this.dailyInvoiceTemplateUrl = dailyInvoiceTemplateUrl;
+    this.jobZone = jobZone;
+    this.day = day;
+    this.dataflow = dataflow;
+    this.response = response;
+    this.emailUtils = emailUtils;
+  }
+
+  @Override
+  public void run() {
+    logger.atInfo().log("Launching daily invoicing pipeline for %s", day);
+    try {
+      LaunchTemplateParameters params =
+          new LaunchTemplateParameters()
+              .setJobName(String.format("invoicing-partials-%s", day))
+              .setEnvironment(
+                  new RuntimeEnvironment()
+                      .setZone(jobZone)
+                      .setTempLocation(beamBucketUrl + "/temporary"))
+              .setParameters(ImmutableMap.of("day", day.toString("yyyy-MM-dd")));
+      LaunchTemplateResponse launchResponse =
+          dataflow
+              .projects()
+              .templates()
+              .launch(projectId, params)
+              .setGcsPath(dailyInvoiceTemplateUrl)
+              .execute();
+      logger.atInfo().log("Got response: %s", launchResponse.getJob().toPrettyString());
+    } catch (IOException e) {
+      logger.atWarning().withCause(e).log("Daily template launch failed");
+      emailUtils.sendAlertEmail(
+          String.format(
+              "Daily invoicing template launch for %s failed due to %s", day, e.getMessage()));
+      response.setStatus(SC_INTERNAL_SERVER_ERROR);
+      response.setContentType(MediaType.PLAIN_TEXT_UTF_8);
+      response.setPayload(String.format("Template launch failed: %s", e.getMessage()));
+      return;
+    }
+    response.setStatus(SC_OK);
+    response.setContentType(MediaType.PLAIN_TEXT_UTF_8);
+    response.setPayload("Launched dataflow template.");
+  }
+}
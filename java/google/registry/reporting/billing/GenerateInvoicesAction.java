@@ -14,8 +14,12 @@
 
 package google.registry.reporting.billing;
 
+import static com.google.common.collect.ImmutableList.toImmutableList;
 import static google.registry.reporting.ReportingModule.PARAM_YEAR_MONTH;
+import static google.registry.reporting.billing.BillingModule.INVOICE_PARTIALS_DIRECTORY;
 import static google.registry.reporting.billing.BillingModule.PARAM_SHOULD_PUBLISH;
+import static google.registry.reporting.billing.BillingModule.PARTIAL_DETAILS_NAME;
+import static google.registry.reporting.billing.BillingModule.PARTIAL_INVOICE_NAME;
 import static google.registry.request.Action.Method.POST;
 import static javax.servlet.http.HttpServletResponse.SC_INTERNAL_SERVER_ERROR;
 import static javax.servlet.http.HttpServletResponse.SC_OK;
@@ -26,17 +30,22 @@ import com.google.api.services.dataflow.model.LaunchTemplateResponse;
 import com.google.api.services.dataflow.model.RuntimeEnvironment;
 import com.google.appengine.api.taskqueue.QueueFactory;
 import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.flogger.FluentLogger;
 import com.google.common.net.MediaType;
 import google.registry.config.RegistryConfig.Config;
+import google.registry.gcs.GcsUtils;
 import google.registry.request.Action;
 import google.registry.request.Parameter;
 import google.registry.request.Response;
 import google.registry.request.auth.Auth;
 import java.io.IOException;
+import java.util.stream.IntStream;
 import javax.inject.Inject;
 import org.joda.time.Duration;
+import org.joda.time.LocalDate;
 import org.joda.time.YearMonth;
 
 /**
@@ -44,8 +53,12 @@ import org.joda.time.YearMonth;
  * PublishInvoicesAction} to publish the subsequent output.
  *
  * <p>This action runs the {@link google.registry.beam.invoicing.InvoicingPipeline} beam template,
- * staged at gs://<projectId>-beam/templates/invoicing. The pipeline then generates invoices for the
- * month and stores them on GCS.
+ * staged at gs://<projectId>-beam/templates/invoicing. The pipeline then merges the month's daily
+ * partials, generated by {@link GenerateInvoicePartialsAction}, into invoices and stores them on
+ * GCS.
+ *
+ * <p>The pipeline merges whatever partials it finds, so this action refuses to launch it, and sends
+ * an alert, unless both partials exist for every day of the month.
  */
 @Action(path = GenerateInvoicesAction.PATH, method = POST, auth = Auth.AUTH_INTERNAL_ONLY)
 public class GenerateInvoicesAction implements Runnable {
@@ -58,11 +71,13 @@ public class GenerateInvoicesAction implements Runnable {
   private final String beamBucketUrl;
   private final String invoiceTemplateUrl;
   private final String jobZone;
+  private final String billingBucket;
   private final boolean shouldPublish;
   private final YearMonth yearMonth;
   private final Dataflow dataflow;
   private final Response response;
   private final BillingEmailUtils emailUtils;
+  private final GcsUtils gcsUtils;
 
   @Inject
   GenerateInvoicesAction(
@@ -70,24 +85,44 @@ public class GenerateInvoicesAction implements Runnable {
       @Config("apacheBeamBucketUrl") String beamBucketUrl,
       @Config("invoiceTemplateUrl") String invoiceTemplateUrl,
       @Config("defaultJobZone") String jobZone,
+      @Config("billingBucket") String billingBucket,
       @Parameter(PARAM_SHOULD_PUBLISH) boolean shouldPublish,
       YearMonth yearMonth,
       Dataflow dataflow,
       Response response,
-      BillingEmailUtils emailUtils) {
+      BillingEmailUtils emailUtils,
+      GcsUtils gcsUtils) {
     this.projectId = projectId;
     this.beamBucketUrl = beamBucketUrl;
     this.invoiceTemplateUrl = invoiceTemplateUrl;
     this.jobZone = jobZone;
+    this.billingBucket = billingBucket;
     this.shouldPublish = shouldPublish;
     this.yearMonth = yearMonth;
     this.dataflow = dataflow;
     this.response = response;
     this.emailUtils = emailUtils;
+    this.gcsUtils = gcsUtils;
   }
 
   @Override
   public void run() {
+    ImmutableList<LocalDate> missingDays;
+    try {
+      missingDays = getDaysMissingPartials();
+    } catch (IOException e) {
+      throw new RuntimeException("Failed to list invoice partials", e);
+    }
+    if (!missingDays.isEmpty()) {
+      String message =
+          String.format("Missing invoice partials for %s on days %s", yearMonth, missingDays);
+      logger.atSevere().log(message);
+      emailUtils.sendAlertEmail(message);
+      response.setStatus(SC_INTERNAL_SERVER_ERROR);
+      response.setContentType(MediaType.PLAIN_TEXT_UTF_8);
+      response.setPayload(message);
+      return;
+    }
     logger.atInfo().log("Launching invoicing pipeline for %s", yearMonth);
     try {
       LaunchTemplateParameters params =
@@ -123,6 +158,24 @@ public class GenerateInvoicesAction implements Runnable {
     response.setPayload("Launched dataflow template.");
   }
 
+  /** Returns the days of the month that don't have both of their invoice partials on GCS. */
+  private ImmutableList<LocalDate> getDaysMissingPartials() throws IOException {
+    ImmutableSet<String> partials =
+        ImmutableSet.copyOf(
+            gcsUtils.listFolderObjects(
+                billingBucket,
+                String.format(
+                    "%s/%s/", INVOICE_PARTIALS_DIRECTORY, yearMonth.toString("yyyy-MM"))));
+    LocalDate firstDay = yearMonth.toLocalDate(1);
+    return IntStream.range(0, firstDay.dayOfMonth().getMaximumValue())
+        .mapToObj(firstDay::plusDays)
+        .filter(
+            day ->
+                !partials.contains(String.format("%s-%s.csv", day, PARTIAL_INVOICE_NAME))
+                    || !partials.contains(String.format("%s-%s.csv", day, PARTIAL_DETAILS_NAME)))
+        .collect(toImmutableList());
+  }
+
   private void enqueuePublishTask(String jobId) {
     TaskOptions publishTask =
         TaskOptions.Builder.withUrl(PublishInvoicesAction.PATH)
@@ -18,6 +18,7 @@ import static google.registry.reporting.icann.IcannReportingModule.DATASTORE_EXP
 import static google.registry.reporting.icann.IcannReportingModule.ICANN_REPORTING_DATA_SET;
 
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSetMultimap;
 import com.google.common.io.Resources;
 import google.registry.config.RegistryConfig.Config;
 import google.registry.util.ResourceUtils;
@@ -46,6 +47,10 @@ public final class ActivityReportingQueryBuilder implements QueryBuilder {
 
   @Inject YearMonth yearMonth;
 
+  @Inject
+  @Config("icannReportingUseActivityCounters")
+  boolean useActivityCounters;
+
   @Inject ActivityReportingQueryBuilder() {}
 
   /** Returns the aggregate query which generates the activity report from the saved view. */
@@ -67,6 +72,22 @@ public final class ActivityReportingQueryBuilder implements QueryBuilder {
     return createQueryMap(firstDayOfMonth, lastDayOfMonth);
   }
 
+  @Override
+  public ImmutableSetMultimap<String, String> getViewDependencies() {
+    ImmutableSetMultimap.Builder<String, String> dependencies = ImmutableSetMultimap.builder();
+    if (!useActivityCounters) {
+      dependencies.put(getTableName(EPP_METRICS), getTableName(MONTHLY_LOGS));
+      dependencies.put(getTableName(WHOIS_COUNTS), getTableName(MONTHLY_LOGS));
+    }
+    dependencies.putAll(
+        getTableName(ACTIVITY_REPORT_AGGREGATION),
+        getTableName(REGISTRAR_OPERATING_STATUS),
+        getTableName(DNS_COUNTS),
+        getTableName(EPP_METRICS),
+        getTableName(WHOIS_COUNTS));
+    return dependencies.build();
+  }
+
   /** Returns a map from view name to its associated SQL query. */
   private ImmutableMap<String, String> createQueryMap(
       LocalDate firstDayOfMonth, LocalDate lastDayOfMonth) {
@@ -84,6 +105,32 @@ public final class ActivityReportingQueryBuilder implements QueryBuilder {
         SqlTemplate.create(getQueryFromFile("dns_counts.sql")).build();
     queriesBuilder.put(getTableName(DNS_COUNTS), dnsCountsQuery);
 
+    if (useActivityCounters) {
+      queriesBuilder.putAll(createActivityCountQueryMap(firstDayOfMonth, lastDayOfMonth));
+    } else {
+      queriesBuilder.putAll(createLogQueryMap(firstDayOfMonth, lastDayOfMonth));
+    }
+
+    String aggregateQuery =
+        SqlTemplate.create(getQueryFromFile("activity_report_aggregation.sql"))
+            .put("PROJECT_ID", projectId)
+            .put("ICANN_REPORTING_DATA_SET", ICANN_REPORTING_DATA_SET)
+            .put("REGISTRAR_OPERATING_STATUS_TABLE", getTableName(REGISTRAR_OPERATING_STATUS))
+            .put("DNS_COUNTS_TABLE", getTableName(DNS_COUNTS))
+            .put("EPP_METRICS_TABLE", getTableName(EPP_METRICS))
+            .put("WHOIS_COUNTS_TABLE", getTableName(WHOIS_COUNTS))
+            .put("DATASTORE_EXPORT_DATA_SET", DATASTORE_EXPORT_DATA_SET)
+            .put("REGISTRY_TABLE", "Registry")
+            .build();
+    queriesBuilder.put(getTableName(ACTIVITY_REPORT_AGGREGATION), aggregateQuery);
+
+    return queriesBuilder.build();
+  }
+
+  /** Returns the EPP and WHOIS count queries, which scan the month's request logs. */
+  private ImmutableMap<String, String> createLogQueryMap(
+      LocalDate firstDayOfMonth, LocalDate lastDayOfMonth) {
+    ImmutableMap.Builder<String, String> queriesBuilder = ImmutableMap.builder();
     // Convert reportingMonth into YYYYMMDD format for Bigquery table partition pattern-matching.
     DateTimeFormatter logTableFormatter = DateTimeFormat.forPattern("yyyyMMdd");
     // The monthly logs are a shared dependency for epp counts and whois metrics
@@ -116,20 +163,36 @@ public final class ActivityReportingQueryBuilder implements QueryBuilder {
             .put("MONTHLY_LOGS_TABLE", getTableName(MONTHLY_LOGS))
             .build();
     queriesBuilder.put(getTableName(WHOIS_COUNTS), whoisQuery);
+    return queriesBuilder.build();
+  }
 
-    String aggregateQuery =
-        SqlTemplate.create(getQueryFromFile("activity_report_aggregation.sql"))
+  /**
+   * Returns the EPP and WHOIS count queries, which sum the month's {@code IcannActivityCount}
+   * entities from the Datastore export.
+   */
+  private ImmutableMap<String, String> createActivityCountQueryMap(
+      LocalDate firstDayOfMonth, LocalDate lastDayOfMonth) {
+    ImmutableMap.Builder<String, String> queriesBuilder = ImmutableMap.builder();
+    DateTimeFormatter dayFormatter = DateTimeFormat.forPattern("yyyy-MM-dd");
+    String eppQuery =
+        SqlTemplate.create(getQueryFromFile("epp_activity_counts.sql"))
             .put("PROJECT_ID", projectId)
-            .put("ICANN_REPORTING_DATA_SET", ICANN_REPORTING_DATA_SET)
-            .put("REGISTRAR_OPERATING_STATUS_TABLE", getTableName(REGISTRAR_OPERATING_STATUS))
-            .put("DNS_COUNTS_TABLE", getTableName(DNS_COUNTS))
-            .put("EPP_METRICS_TABLE", getTableName(EPP_METRICS))
-            .put("WHOIS_COUNTS_TABLE", getTableName(WHOIS_COUNTS))
             .put("DATASTORE_EXPORT_DATA_SET", DATASTORE_EXPORT_DATA_SET)
-            .put("REGISTRY_TABLE", "Registry")
+            .put("ACTIVITY_COUNT_TABLE", "IcannActivityCount")
+            .put("FIRST_DAY_OF_MONTH", dayFormatter.print(firstDayOfMonth))
+            .put("LAST_DAY_OF_MONTH", dayFormatter.print(lastDayOfMonth))
             .build();
-    queriesBuilder.put(getTableName(ACTIVITY_REPORT_AGGREGATION), aggregateQuery);
+    queriesBuilder.put(getTableName(EPP_METRICS), eppQuery);
 
+    String whoisQuery =
+        SqlTemplate.create(getQueryFromFile("whois_activity_counts.sql"))
+            .put("PROJECT_ID", projectId)
+            .put("DATASTORE_EXPORT_DATA_SET", DATASTORE_EXPORT_DATA_SET)
+            .put("ACTIVITY_COUNT_TABLE", "IcannActivityCount")
+            .put("FIRST_DAY_OF_MONTH", dayFormatter.print(firstDayOfMonth))
+            .put("LAST_DAY_OF_MONTH", dayFormatter.print(lastDayOfMonth))
+            .build();
+    queriesBuilder.put(getTableName(WHOIS_COUNTS), whoisQuery);
     return queriesBuilder.build();
   }
 
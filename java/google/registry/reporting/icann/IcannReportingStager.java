@@ -17,6 +17,7 @@ package google.registry.reporting.icann;
 import static com.google.common.base.Preconditions.checkState;
 import static com.google.common.base.Strings.isNullOrEmpty;
 import static com.google.common.collect.ImmutableList.toImmutableList;
+import static com.google.common.util.concurrent.Futures.getUnchecked;
 import static google.registry.reporting.icann.IcannReportingModule.MANIFEST_FILE_NAME;
 import static java.nio.charset.StandardCharsets.UTF_8;
 
@@ -28,8 +29,10 @@ import com.google.common.collect.ImmutableCollection;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSetMultimap;
 import com.google.common.collect.ImmutableTable;
 import com.google.common.collect.ListMultimap;
+import com.google.common.collect.Sets;
 import com.google.common.flogger.FluentLogger;
 import google.registry.bigquery.BigqueryConnection;
 import google.registry.bigquery.BigqueryUtils.TableType;
@@ -37,17 +40,21 @@ import google.registry.config.RegistryConfig.Config;
 import google.registry.gcs.GcsUtils;
 import google.registry.reporting.icann.IcannReportingModule.ReportType;
 import google.registry.reporting.icann.IcannReportingModule.ReportingSubdir;
+import google.registry.util.Clock;
+import google.registry.util.Concurrent;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
-import java.util.concurrent.ExecutionException;
+import java.util.Set;
 import java.util.stream.Collectors;
 import javax.inject.Inject;
+import org.joda.time.DateTime;
+import org.joda.time.Duration;
 import org.joda.time.YearMonth;
 import org.joda.time.format.DateTimeFormat;
 
@@ -60,6 +67,9 @@ public class IcannReportingStager {
 
   private static final FluentLogger logger = FluentLogger.forEnclosingClass();
 
+  /** Maximum number of intermediary views to create at the same time. */
+  private static final int MAX_CONCURRENT_VIEWS = 4;
+
   @Inject @Config("reportingBucket") String reportingBucket;
 
   @Inject YearMonth yearMonth;
@@ -70,6 +80,7 @@ public class IcannReportingStager {
   @Inject TransactionsReportingQueryBuilder transactionsQueryBuilder;
   @Inject GcsUtils gcsUtils;
   @Inject BigqueryConnection bigquery;
+  @Inject Clock clock;
 
   @Inject
   IcannReportingStager() {}
@@ -83,12 +94,7 @@ public class IcannReportingStager {
     QueryBuilder queryBuilder =
         (reportType == ReportType.ACTIVITY) ? activityQueryBuilder : transactionsQueryBuilder;
 
-
-    ImmutableMap<String, String> viewQueryMap = queryBuilder.getViewQueryMap();
-    // Generate intermediary views
-    for (Entry<String, String> entry : viewQueryMap.entrySet()) {
-      createIntermediaryTableView(entry.getKey(), entry.getValue(), reportType);
-    }
+    createIntermediaryTableViews(queryBuilder, reportType);
 
     // Get an in-memory table of the aggregate query's result
     ImmutableTable<Integer, TableFieldSchema, Object> reportTable =
@@ -102,18 +108,64 @@ public class IcannReportingStager {
         : stageTransactionsReports(headerRow, reportTable.rowMap().values());
   }
 
-  private void createIntermediaryTableView(String queryName, String query, ReportType reportType)
-      throws ExecutionException, InterruptedException {
-    // Later views depend on the results of earlier ones, so query everything synchronously
+  /**
+   * Creates all intermediary views of a report, in rounds.
+   *
+   * <p>Each round concurrently creates every view whose dependencies were created by earlier
+   * rounds, so the number of rounds is the length of the longest chain of dependent views.
+   */
+  private void createIntermediaryTableViews(QueryBuilder queryBuilder, ReportType reportType) {
+    ImmutableMap<String, String> viewQueryMap = queryBuilder.getViewQueryMap();
+    ImmutableSetMultimap<String, String> dependencies = queryBuilder.getViewDependencies();
+    checkState(
+        viewQueryMap.keySet().containsAll(dependencies.values()),
+        "Views depend on unknown views: %s",
+        Sets.difference(ImmutableSet.copyOf(dependencies.values()), viewQueryMap.keySet()));
+    DateTime startTime = clock.nowUtc();
+    Set<String> createdViews = new HashSet<>();
+    while (createdViews.size() < viewQueryMap.size()) {
+      ImmutableList<String> readyViews =
+          viewQueryMap
+              .keySet()
+              .stream()
+              .filter(view -> !createdViews.contains(view))
+              .filter(view -> createdViews.containsAll(dependencies.get(view)))
+              .collect(toImmutableList());
+      checkState(
+          !readyViews.isEmpty(),
+          "Circular dependency between views %s",
+          Sets.difference(viewQueryMap.keySet(), createdViews));
+      Concurrent.transform(
+          readyViews,
+          MAX_CONCURRENT_VIEWS,
+          view -> {
+            createIntermediaryTableView(view, viewQueryMap.get(view), reportType);
+            return view;
+          });
+      createdViews.addAll(readyViews);
+    }
+    logger.atInfo().log(
+        "Generated %d intermediary views for %s reports in %d ms",
+        viewQueryMap.size(), reportType, new Duration(startTime, clock.nowUtc()).getMillis());
+  }
+
+  private void createIntermediaryTableView(String queryName, String query, ReportType reportType) {
     logger.atInfo().log("Generating intermediary view %s", queryName);
-    bigquery.query(
-        query,
-        bigquery.buildDestinationTable(queryName)
-            .description(String.format(
-                "An intermediary view to generate %s reports for this month.", reportType))
-            .type(TableType.VIEW)
-            .build()
-    ).get();
+    DateTime startTime = clock.nowUtc();
+    getUnchecked(
+        bigquery.query(
+            query,
+            bigquery
+                .buildDestinationTable(queryName)
+                .description(
+                    String.format(
+                        "An intermediary view to generate %s reports for this month.",
+                        reportType))
+                .type(TableType.VIEW)
+                .build()));
+    logger.atInfo().log(
+        "Generated intermediary view %s in %d ms",
+        queryName, new Duration(startTime, clock.nowUtc()).getMillis());
   }
 
   private Iterable<String> getHeaders(ImmutableSet<TableFieldSchema> fields) {
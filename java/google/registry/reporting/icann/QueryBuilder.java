@@ -15,6 +15,7 @@
 package google.registry.reporting.icann;
 
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSetMultimap;
 
 /** Interface defining the necessary methods to construct ICANN reporting SQL queries. */
 public interface QueryBuilder {
@@ -22,6 +23,14 @@ public interface QueryBuilder {
   /** Returns a map from an intermediary view's table name to the query that generates it. */
   ImmutableMap<String, String> getViewQueryMap();
 
+  /**
+   * Returns a map from an intermediary view's table name to the names of the views it reads from.
+   *
+   * <p>Views that only read from other datasets may be omitted. Each view is created after all the
+   * views it reads from, and views that don't depend on each other may be created concurrently.
+   */
+  ImmutableSetMultimap<String, String> getViewDependencies();
+
   /** Returns a query that retrieves the overall report from the previously generated view. */
   String getReportQuery();
 }
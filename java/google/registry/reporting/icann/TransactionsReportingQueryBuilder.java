@@ -18,6 +18,7 @@ import static google.registry.reporting.icann.IcannReportingModule.DATASTORE_EXP
 import static google.registry.reporting.icann.IcannReportingModule.ICANN_REPORTING_DATA_SET;
 
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSetMultimap;
 import com.google.common.io.Resources;
 import google.registry.config.RegistryConfig.Config;
 import google.registry.util.ResourceUtils;
@@ -69,6 +70,20 @@ public final class TransactionsReportingQueryBuilder implements QueryBuilder {
     return createQueryMap(earliestReportTime, latestReportTime);
   }
 
+  @Override
+  public ImmutableSetMultimap<String, String> getViewDependencies() {
+    return ImmutableSetMultimap.<String, String>builder()
+        .putAll(
+            getTableName(TRANSACTIONS_REPORT_AGGREGATION),
+            getTableName(REGISTRAR_IANA_ID),
+            getTableName(TOTAL_DOMAINS),
+            getTableName(TOTAL_NAMESERVERS),
+            getTableName(TRANSACTION_COUNTS),
+            getTableName(TRANSACTION_TRANSFER_LOSING),
+            getTableName(ATTEMPTED_ADDS))
+        .build();
+  }
+
   /** Returns a map from view name to its associated SQL query. */
   private ImmutableMap<String, String> createQueryMap(
       DateTime earliestReportTime, DateTime latestReportTime) {
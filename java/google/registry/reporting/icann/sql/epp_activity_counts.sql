@@ -0,0 +1,34 @@
+#standardSQL
+  -- Copyright 2018 The Nomulus Authors. All Rights Reserved.
+  --
+  -- Licensed under the Apache License, Version 2.0 (the "License");
+  -- you may not use this file except in compliance with the License.
+  -- You may obtain a copy of the License at
+  --
+  --     http://www.apache.org/licenses/LICENSE-2.0
+  --
+  -- Unless required by applicable law or agreed to in writing, software
+  -- distributed under the License is distributed on an "AS IS" BASIS,
+  -- WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  -- See the License for the specific language governing permissions and
+  -- limitations under the License.
+
+  -- Query the IcannActivityCount entities for SRS metrics.
+
+  -- FlowReporter adds each EPP flow's activity report field to sharded
+  -- counters, keyed by day, TLD and registrar. Flows on non-domain resources
+  -- have a null TLD, and count towards every TLD in the aggregation.
+
+SELECT
+  tld,
+  field AS metricName,
+  SUM(count) AS count
+FROM
+  `%PROJECT_ID%.%DATASTORE_EXPORT_DATA_SET%.%ACTIVITY_COUNT_TABLE%`
+WHERE
+  STARTS_WITH(field, 'srs-')
+  AND DATE(day) BETWEEN '%FIRST_DAY_OF_MONTH%' AND '%LAST_DAY_OF_MONTH%'
+GROUP BY
+  tld, metricName
+ORDER BY
+  tld, metricName
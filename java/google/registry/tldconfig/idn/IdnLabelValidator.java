@@ -16,6 +16,7 @@ package google.registry.tldconfig.idn;
 
 import static google.registry.tldconfig.idn.IdnTableEnum.EXTENDED_LATIN;
 import static google.registry.tldconfig.idn.IdnTableEnum.JA;
+import static google.registry.util.DomainNameUtils.ACE_PREFIX;
 
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
@@ -42,7 +43,7 @@ public final class IdnLabelValidator {
    * TLD. If no match is found, an absent value is returned.
    */
   public static Optional<String> findValidIdnTableForTld(String label, String tld) {
-    String unicodeString = Idn.toUnicode(label);
+    String unicodeString = isLdhNonAceLabel(label) ? label : Idn.toUnicode(label);
     for (IdnTableEnum idnTable
         : Optional.ofNullable(idnTableListsPerTld.get(tld)).orElse(DEFAULT_IDN_TABLES)) {
       if (idnTable.getTable().isValidLabel(unicodeString)) {
@@ -52,5 +53,25 @@ public final class IdnLabelValidator {
     return Optional.empty();
   }
 
+  /**
+   * Returns true if {@code label} consists only of lowercase letters, digits and hyphens and is
+   * not an A-label, i.e. {@link Idn#toUnicode} would return it unchanged.
+   *
+   * <p>The vast majority of labels are plain ASCII, and this check is far cheaper than running
+   * UTS46 processing on them.
+   */
+  static boolean isLdhNonAceLabel(String label) {
+    if (label.startsWith(ACE_PREFIX)) {
+      return false;
+    }
+    for (int i = 0; i < label.length(); i++) {
+      char c = label.charAt(i);
+      if (!((c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') || c == '-')) {
+        return false;
+      }
+    }
+    return true;
+  }
+
   private IdnLabelValidator() {}
 }
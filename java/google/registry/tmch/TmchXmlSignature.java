@@ -19,9 +19,14 @@ import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Throwables.getRootCause;
 import static com.google.common.base.Throwables.throwIfInstanceOf;
 import static google.registry.xml.XmlTransformer.loadXmlSchemas;
+import static java.util.concurrent.TimeUnit.HOURS;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableList;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -69,6 +74,42 @@ public class TmchXmlSignature {
   private static final Schema SCHEMA =
       loadXmlSchemas(ImmutableList.of("mark.xsd", "dsig.xsd", "smd.xsd"));
 
+  /** Maximum number of distinct SMDs whose verified signing certificates are remembered. */
+  private static final int MAX_CACHED_SMDS = 1000;
+
+  /**
+   * How long a validated signature is remembered.
+   *
+   * <p>This is deliberately independent of the singleton cache refresh duration, which is zero in
+   * tests and unrelated in production. A signature over fixed bytes can't become invalid, so the
+   * lifetime only bounds memory held by SMDs that are no longer being submitted.
+   */
+  private static final long VERIFIED_SMD_CACHE_HOURS = 6;
+
+  /**
+   * Signing certificates of SMDs whose XML signatures have already been validated, keyed by the
+   * SHA-256 digest of the SMD bytes.
+   *
+   * <p>Registrars tend to resubmit the same SMD many times during sunrise, and parsing plus
+   * validating the XML signature dominates the cost of checking it. Only the signature result is
+   * cached: the certificate itself is re-checked against the current CRL and clock on every call,
+   * so CRL updates and certificate expiry take effect immediately. SMD revocation is checked by
+   * the caller against the current {@code SignedMarkRevocationList} and is never cached.
+   */
+  private static final Cache<HashCode, X509Certificate> VERIFIED_SMD_CACHE =
+      CacheBuilder.newBuilder()
+          .maximumSize(MAX_CACHED_SMDS)
+          .expireAfterWrite(VERIFIED_SMD_CACHE_HOURS, HOURS)
+          .recordStats()
+          .build();
+
+  /** Per-thread parser factories; neither is safe for concurrent use but both are reusable. */
+  private static final ThreadLocal<DocumentBuilderFactory> DOCUMENT_BUILDER_FACTORY =
+      ThreadLocal.withInitial(TmchXmlSignature::createDocumentBuilderFactory);
+
+  private static final ThreadLocal<XMLSignatureFactory> XML_SIGNATURE_FACTORY =
+      ThreadLocal.withInitial(() -> XMLSignatureFactory.getInstance("DOM"));
+
   /**
    * Verifies that signed mark data contains a valid signature.
    *
@@ -86,13 +127,19 @@ public class TmchXmlSignature {
       throws GeneralSecurityException, IOException, MarshalException, ParserConfigurationException,
           SAXException, XMLSignatureException {
     checkArgument(smdXml.length > 0);
+    HashCode digest = Hashing.sha256().hashBytes(smdXml);
+    X509Certificate verifiedCert = VERIFIED_SMD_CACHE.getIfPresent(digest);
+    if (verifiedCert != null) {
+      verifyCertificate(tmchCertificateAuthority, verifiedCert);
+      return;
+    }
     Document doc = parseSmdDocument(new ByteArrayInputStream(smdXml));
 
     NodeList signatureNodes = doc.getElementsByTagNameNS(XMLSignature.XMLNS, "Signature");
     if (signatureNodes.getLength() != 1) {
       throw new XMLSignatureException("Expected exactly one <ds:Signature> element.");
     }
-    XMLSignatureFactory factory = XMLSignatureFactory.getInstance("DOM");
+    XMLSignatureFactory factory = XML_SIGNATURE_FACTORY.get();
     KeyValueKeySelector selector = new KeyValueKeySelector(tmchCertificateAuthority);
     DOMValidateContext context = new DOMValidateContext(selector, signatureNodes.item(0));
     XMLSignature signature = factory.unmarshalXMLSignature(context);
@@ -107,15 +154,40 @@ public class TmchXmlSignature {
     if (!isValid) {
       throw new XMLSignatureException(explainValidationProblem(context, signature));
     }
+    VERIFIED_SMD_CACHE.put(digest, checkNotNull(selector.selectedCert, "selectedCert"));
+  }
+
+  /** Returns the number of {@link #verify} calls that skipped signature validation. */
+  @VisibleForTesting
+  static long getVerifiedSmdCacheHitCount() {
+    return VERIFIED_SMD_CACHE.stats().hitCount();
+  }
+
+  /**
+   * Checks {@code cert} against the TMCH CA, translating bad signatures into {@link
+   * CertificateSignatureException}.
+   */
+  private static void verifyCertificate(
+      TmchCertificateAuthority tmchCertificateAuthority, X509Certificate cert)
+      throws GeneralSecurityException {
+    try {
+      tmchCertificateAuthority.verify(cert);
+    } catch (SignatureException e) {
+      throw new CertificateSignatureException(e.getMessage());
+    }
   }
 
   private static Document parseSmdDocument(InputStream input)
       throws SAXException, IOException, ParserConfigurationException {
+    return DOCUMENT_BUILDER_FACTORY.get().newDocumentBuilder().parse(input);
+  }
+
+  private static DocumentBuilderFactory createDocumentBuilderFactory() {
     DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
     dbf.setSchema(SCHEMA);
     dbf.setAttribute("http://apache.org/xml/features/validation/schema/normalized-value", false);
     dbf.setNamespaceAware(true);
-    return dbf.newDocumentBuilder().parse(input);
+    return dbf;
   }
 
   private static String explainValidationProblem(
@@ -142,6 +214,9 @@ public class TmchXmlSignature {
 
     private final TmchCertificateAuthority tmchCertificateAuthority;
 
+    /** The certificate whose key was handed to the validator, once it has been verified. */
+    @Nullable X509Certificate selectedCert;
+
     KeyValueKeySelector(TmchCertificateAuthority tmchCertificateAuthority) {
       this.tmchCertificateAuthority = tmchCertificateAuthority;
     }
@@ -164,12 +239,11 @@ public class TmchXmlSignature {
             if (x509DataChild instanceof X509Certificate) {
               X509Certificate cert = (X509Certificate) x509DataChild;
               try {
-                tmchCertificateAuthority.verify(cert);
-              } catch (SignatureException e) {
-                throw new KeySelectorException(new CertificateSignatureException(e.getMessage()));
+                verifyCertificate(tmchCertificateAuthority, cert);
               } catch (GeneralSecurityException e) {
                 throw new KeySelectorException(e);
               }
+              selectedCert = cert;
               return new SimpleKeySelectorResult(cert.getPublicKey());
             }
           }
@@ -49,7 +49,7 @@ final class BigqueryParameters {
 
   @Parameter(
       names = "--bigquery_poll_interval",
-      description = "Interval in milliseconds to wait between polls for job status.")
+      description = "Initial interval in milliseconds to wait between polls for job status.")
   private Duration bigqueryPollInterval = Duration.standardSeconds(1);
 
   @Parameter(
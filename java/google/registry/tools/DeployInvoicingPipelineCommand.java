@@ -18,7 +18,7 @@ import com.beust.jcommander.Parameters;
 import google.registry.beam.invoicing.InvoicingPipeline;
 import javax.inject.Inject;
 
-/** Nomulus command that deploys the {@link InvoicingPipeline} template. */
+/** Nomulus command that deploys the monthly and daily {@link InvoicingPipeline} templates. */
 @Parameters(commandDescription = "Deploy the invoicing pipeline to GCS.")
 public class DeployInvoicingPipelineCommand implements Command {
 
@@ -27,5 +27,6 @@ public class DeployInvoicingPipelineCommand implements Command {
   @Override
   public void run() {
     invoicingPipeline.deploy();
+    invoicingPipeline.deployDaily();
   }
 }
@@ -45,6 +45,12 @@ final class GenerateZoneFilesCommand implements ServerSideCommand {
       validateWith = DateParameter.class)
   private DateTime exportDate = DateTime.now(UTC).minus(standardMinutes(2)).withTimeAtStartOfDay();
 
+  @Parameter(
+      names = "--incremental",
+      description = "Merge the zone files from the snapshots and change logs kept by the "
+          + "ZoneFileDnsWriter, instead of running a mapreduce over all domains.")
+  private boolean incremental;
+
   private Connection connection;
 
   @Override
@@ -57,12 +63,15 @@ final class GenerateZoneFilesCommand implements ServerSideCommand {
     assertTldsExist(mainParameters);
     ImmutableMap<String, Object> params = ImmutableMap.of(
         "tlds", mainParameters,
-        "exportTime", exportDate.toString());
+        "exportTime", exportDate.toString(),
+        "incremental", incremental);
     Map<String, Object> response = connection.sendJson(GenerateZoneFilesAction.PATH, params);
-    System.out.printf(
-        "Job started at %s%s\n",
-        connection.getServerUrl(),
-        response.get("jobPath"));
+    if (!incremental) {
+      System.out.printf(
+          "Job started at %s%s\n",
+          connection.getServerUrl(),
+          response.get("jobPath"));
+    }
     System.out.println("Output files:");
     @SuppressWarnings("unchecked")
     List<String> filenames = (List<String>) response.get("filenames");
@@ -19,6 +19,7 @@ import google.registry.config.RegistryConfig.ConfigModule;
 import google.registry.dns.writer.VoidDnsWriterModule;
 import google.registry.dns.writer.clouddns.CloudDnsWriterModule;
 import google.registry.dns.writer.dnsupdate.DnsUpdateWriterModule;
+import google.registry.dns.writer.zonefile.ZoneFileDnsWriterModule;
 import google.registry.keyring.api.KeyModule;
 import google.registry.keyring.kms.KmsModule;
 import google.registry.rde.RdeModule;
@@ -72,6 +73,7 @@ import javax.inject.Singleton;
       UserServiceModule.class,
       VoidDnsWriterModule.class,
       WhoisModule.class,
+      ZoneFileDnsWriterModule.class,
     })
 interface RegistryToolComponent {
   void inject(CheckSnapshotCommand command);
@@ -17,7 +17,11 @@ package google.registry.tools.server;
 import static com.google.appengine.tools.cloudstorage.GcsServiceFactory.createGcsService;
 import static com.google.common.collect.ImmutableList.toImmutableList;
 import static com.google.common.collect.Iterators.filter;
-import static com.google.common.io.BaseEncoding.base16;
+import static google.registry.dns.writer.zonefile.ZoneFileRecords.addressRecord;
+import static google.registry.dns.writer.zonefile.ZoneFileRecords.dsRecord;
+import static google.registry.dns.writer.zonefile.ZoneFileRecords.header;
+import static google.registry.dns.writer.zonefile.ZoneFileRecords.nsRecord;
+import static google.registry.dns.writer.zonefile.ZoneFileRecords.stripTld;
 import static google.registry.mapreduce.inputs.EppResourceInputs.createEntityInput;
 import static google.registry.model.EppResourceUtils.loadAtPointInTime;
 import static google.registry.model.ofy.ObjectifyService.ofy;
@@ -34,7 +38,10 @@ import com.google.appengine.tools.mapreduce.ReducerInput;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedMap;
 import google.registry.config.RegistryConfig.Config;
+import google.registry.dns.writer.zonefile.ZoneFileDnsWriter;
+import google.registry.dns.writer.zonefile.ZoneSnapshotStore;
 import google.registry.gcs.GcsUtils;
 import google.registry.mapreduce.MapreduceRunner;
 import google.registry.mapreduce.inputs.NullInput;
@@ -52,12 +59,12 @@ import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.io.Writer;
-import java.net.Inet4Address;
 import java.net.InetAddress;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Optional;
 import javax.inject.Inject;
 import org.joda.time.DateTime;
 import org.joda.time.Duration;
@@ -68,6 +75,15 @@ import org.joda.time.Duration;
  * <p>Zone files for each requested TLD are written to GCS. TLDs without entries produce zone files
  * with only a header. The export time must be at least two minutes in the past and no more than
  * 29 days in the past, and must be at midnight UTC.
+ *
+ * <p>In incremental mode, zone files are instead merged synchronously from the zone snapshots and
+ * change logs kept in GCS by {@link ZoneFileDnsWriter}, which must be enabled on the requested
+ * TLDs. The zone as of the export time is then saved as a new snapshot, which compacts the change
+ * log. Since no point-in-time loads are involved, the export time only needs to be far enough in
+ * the past for all changes up to it to have been written (see {@link
+ * ZoneSnapshotStore#CHANGE_SETTLING_TIME}), and at or after the latest snapshot of each TLD.
+ *
+ * @see ZoneSnapshotStore
  */
 @Action(
   path = GenerateZoneFilesAction.PATH,
@@ -84,18 +100,6 @@ public class GenerateZoneFilesAction implements Runnable, JsonActionRunner.JsonA
   /** Format for the GCS path to a file. */
   private static final String GCS_PATH_FORMAT = "gs://%s/%s";
 
-  /** Format for the zone file header. */
-  private static final String HEADER_FORMAT = "$ORIGIN\t%s.\n\n";
-
-  /** Format for NS records. */
-  private static final String NS_FORMAT = "%s\t%d\tIN\tNS\t%s.\n";
-
-  /** Format for DS records. */
-  private static final String DS_FORMAT = "%s\t%d\tIN\tDS\t%d %d %d %s\n";
-
-  /** Format for A and AAAA records. */
-  private static final String A_FORMAT = "%s\t%d\tIN\t%s\t%s\n";
-
   @Inject MapreduceRunner mrRunner;
   @Inject JsonActionRunner jsonActionRunner;
   @Inject @Config("zoneFilesBucket") String bucket;
@@ -105,6 +109,8 @@ public class GenerateZoneFilesAction implements Runnable, JsonActionRunner.JsonA
   @Inject @Config("dnsDefaultNsTtl") Duration dnsDefaultNsTtl;
   @Inject @Config("dnsDefaultDsTtl") Duration dnsDefaultDsTtl;
   @Inject Clock clock;
+  @Inject GcsUtils gcsUtils;
+  @Inject ZoneSnapshotStore zoneSnapshotStore;
   @Inject GenerateZoneFilesAction() {}
 
   @Override
@@ -117,6 +123,7 @@ public class GenerateZoneFilesAction implements Runnable, JsonActionRunner.JsonA
     @SuppressWarnings("unchecked")
     ImmutableSet<String> tlds = ImmutableSet.copyOf((List<String>) json.get("tlds"));
     final DateTime exportTime = DateTime.parse(json.get("exportTime").toString());
+    boolean incremental = Boolean.TRUE.equals(json.get("incremental"));
     // We disallow exporting within the past 2 minutes because there might be outstanding writes.
     // We can only reliably call loadAtPointInTime at times that are UTC midnight and >
     // datastoreRetention ago in the past.
@@ -124,6 +131,25 @@ public class GenerateZoneFilesAction implements Runnable, JsonActionRunner.JsonA
     if (exportTime.isAfter(now.minusMinutes(2))) {
       throw new BadRequestException("Invalid export time: must be > 2 minutes ago");
     }
+    if (incremental) {
+      if (exportTime.isAfter(now.minus(ZoneSnapshotStore.CHANGE_SETTLING_TIME))) {
+        throw new BadRequestException(
+            String.format(
+                "Invalid export time: must be > %d minutes ago for incremental zone files",
+                ZoneSnapshotStore.CHANGE_SETTLING_TIME.getStandardMinutes()));
+      }
+      // Check every TLD before compacting any of them, so that a bad request changes nothing.
+      for (String tld : tlds) {
+        Optional<DateTime> latestSnapshotTime = zoneSnapshotStore.getLatestSnapshotTime(tld);
+        if (latestSnapshotTime.isPresent() && exportTime.isBefore(latestSnapshotTime.get())) {
+          throw new BadRequestException(
+              String.format(
+                  "Invalid export time: must not be before the latest snapshot of %s at %s",
+                  tld, latestSnapshotTime.get()));
+        }
+      }
+      return generateIncrementalZoneFiles(tlds, exportTime);
+    }
     if (exportTime.isBefore(now.minus(datastoreRetention))) {
       throw new BadRequestException(String.format(
           "Invalid export time: must be < %d days ago",
@@ -143,16 +169,39 @@ public class GenerateZoneFilesAction implements Runnable, JsonActionRunner.JsonA
             ImmutableList.of(
                 new NullInput<>(),
                 createEntityInput(DomainResource.class)));
-    ImmutableList<String> filenames =
-        tlds.stream()
-            .map(
-                tld ->
-                    String.format(
-                        GCS_PATH_FORMAT, bucket, String.format(FILENAME_FORMAT, tld, exportTime)))
-            .collect(toImmutableList());
     return ImmutableMap.of(
         "jobPath", createJobPath(jobId),
-        "filenames", filenames);
+        "filenames", getGcsPaths(tlds, exportTime));
+  }
+
+  /** Merges and writes the zone files from the zone snapshots and change logs in GCS. */
+  private Map<String, Object> generateIncrementalZoneFiles(
+      ImmutableSet<String> tlds, DateTime exportTime) {
+    for (String tld : tlds) {
+      // Compacting first both merges the zone and saves it as the snapshot for the next run.
+      ImmutableSortedMap<String, String> zone = zoneSnapshotStore.compact(tld, exportTime);
+      GcsFilename filename =
+          new GcsFilename(bucket, String.format(FILENAME_FORMAT, tld, exportTime));
+      try (OutputStream gcsOutput = gcsUtils.openOutputStream(filename);
+          Writer osWriter = new OutputStreamWriter(gcsOutput, UTF_8);
+          PrintWriter writer = new PrintWriter(osWriter)) {
+        writer.print(header(tld));
+        zone.values().forEach(writer::println);
+        writer.flush();
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+    }
+    return ImmutableMap.of("filenames", getGcsPaths(tlds, exportTime));
+  }
+
+  private ImmutableList<String> getGcsPaths(ImmutableSet<String> tlds, DateTime exportTime) {
+    return tlds.stream()
+        .map(
+            tld ->
+                String.format(
+                    GCS_PATH_FORMAT, bucket, String.format(FILENAME_FORMAT, tld, exportTime)))
+        .collect(toImmutableList());
   }
 
   /** Mapper to find domains that were active at a given time. */
@@ -254,7 +303,7 @@ public class GenerateZoneFilesAction implements Runnable, JsonActionRunner.JsonA
       try (OutputStream gcsOutput = cloudStorage.openOutputStream(filename);
           Writer osWriter = new OutputStreamWriter(gcsOutput, UTF_8);
           PrintWriter writer = new PrintWriter(osWriter)) {
-        writer.printf(HEADER_FORMAT, tld);
+        writer.print(header(tld));
         for (Iterator<String> stanzaIter = filter(stanzas, Objects::nonNull);
             stanzaIter.hasNext(); ) {
           writer.println(stanzaIter.next());
@@ -284,22 +333,15 @@ public class GenerateZoneFilesAction implements Runnable, JsonActionRunner.JsonA
     StringBuilder result = new StringBuilder();
     String domainLabel = stripTld(domain.getFullyQualifiedDomainName(), domain.getTld());
     for (HostResource nameserver : ofy().load().keys(domain.getNameservers()).values()) {
-      result.append(String.format(
-          NS_FORMAT,
-          domainLabel,
-          dnsDefaultNsTtl.getStandardSeconds(),
-          // Load the nameservers at the export time in case they've been renamed or deleted.
-          loadAtPointInTime(nameserver, exportTime).now().getFullyQualifiedHostName()));
+      result.append(
+          nsRecord(
+              domainLabel,
+              dnsDefaultNsTtl,
+              // Load the nameservers at the export time in case they've been renamed or deleted.
+              loadAtPointInTime(nameserver, exportTime).now().getFullyQualifiedHostName()));
     }
     for (DelegationSignerData dsData : domain.getDsData()) {
-      result.append(String.format(
-          DS_FORMAT,
-          domainLabel,
-          dnsDefaultDsTtl.getStandardSeconds(),
-          dsData.getKeyTag(),
-          dsData.getAlgorithm(),
-          dsData.getDigestType(),
-          base16().encode((dsData.getDigest()))));
+      result.append(dsRecord(domainLabel, dnsDefaultDsTtl, dsData));
     }
     return result.toString();
   }
@@ -316,31 +358,9 @@ public class GenerateZoneFilesAction implements Runnable, JsonActionRunner.JsonA
   private static String hostStanza(HostResource host, Duration dnsDefaultATtl, String tld) {
     StringBuilder result = new StringBuilder();
     for (InetAddress addr : host.getInetAddresses()) {
-      // must be either IPv4 or IPv6
-      String rrSetClass = (addr instanceof Inet4Address) ? "A" : "AAAA";
-      result.append(String.format(
-          A_FORMAT,
-          stripTld(host.getFullyQualifiedHostName(), tld),
-          dnsDefaultATtl.getStandardSeconds(),
-          rrSetClass,
-          addr.getHostAddress()));
+      result.append(
+          addressRecord(stripTld(host.getFullyQualifiedHostName(), tld), dnsDefaultATtl, addr));
     }
     return result.toString();
   }
-
-  /**
-   * Removes the TLD, if present, from a fully-qualified name.
-   *
-   * <p>This would not work if a fully qualified host name in a different TLD were passed. But
-   * we only generate glue records for in-bailiwick name servers, meaning that the TLD will always
-   * match.
-   *
-   * If, for some unforeseen reason, the TLD is not present, indicate an error condition, so that
-   * our process for comparing Datastore and DNS data will realize that something is amiss.
-   */
-  private static String stripTld(String fullyQualifiedName, String tld) {
-    return fullyQualifiedName.endsWith(tld)
-        ? fullyQualifiedName.substring(0, fullyQualifiedName.length() - tld.length() - 1)
-        : (fullyQualifiedName + "***");
-  }
 }
@@ -23,6 +23,9 @@ import com.google.appengine.api.datastore.DatastoreTimeoutException;
 import com.google.common.flogger.FluentLogger;
 import com.google.common.net.MediaType;
 import google.registry.config.RegistryConfig.Config;
+import google.registry.model.ofy.DatastoreRpcStats;
+import google.registry.model.reporting.IcannReportingTypes.ActivityReportField;
+import google.registry.monitoring.whitebox.IcannActivityCounters;
 import google.registry.request.Action;
 import google.registry.request.Response;
 import google.registry.request.auth.Auth;
@@ -71,12 +74,14 @@ public class WhoisAction implements Runnable {
   @Inject @Config("whoisDisclaimer") String disclaimer;
   @Inject WhoisMetric.Builder metricBuilder;
   @Inject WhoisMetrics whoisMetrics;
+  @Inject IcannActivityCounters icannActivityCounters;
 
   @Inject
   WhoisAction() {}
 
   @Override
   public void run() {
+    DatastoreRpcStats.reset();
     String responseText;
     final DateTime now = clock.nowUtc();
     try {
@@ -118,7 +123,10 @@ public class WhoisAction implements Runnable {
     response.setStatus(SC_OK);
     response.setContentType(CONTENT_TYPE);
     response.setPayload(responseText);
-    whoisMetrics.recordWhoisMetric(metricBuilder.build());
+    WhoisMetric metric = metricBuilder.build();
+    whoisMetrics.recordWhoisMetric(metric);
+    whoisMetrics.recordDatastoreRpcs(metric, DatastoreRpcStats.current());
+    icannActivityCounters.increment(ActivityReportField.WHOIS_43_QUERIES);
   }
 
   private static void setWhoisMetrics(
@@ -30,6 +30,9 @@ import com.google.common.base.Joiner;
 import com.google.common.base.Splitter;
 import com.google.common.flogger.FluentLogger;
 import google.registry.config.RegistryConfig.Config;
+import google.registry.model.ofy.DatastoreRpcStats;
+import google.registry.model.reporting.IcannReportingTypes.ActivityReportField;
+import google.registry.monitoring.whitebox.IcannActivityCounters;
 import google.registry.request.Action;
 import google.registry.request.RequestPath;
 import google.registry.request.Response;
@@ -138,6 +141,7 @@ public final class WhoisHttpAction implements Runnable {
   @Inject @RequestPath String requestPath;
   @Inject WhoisMetric.Builder metricBuilder;
   @Inject WhoisMetrics whoisMetrics;
+  @Inject IcannActivityCounters icannActivityCounters;
 
   @Inject
   WhoisHttpAction() {}
@@ -145,6 +149,7 @@ public final class WhoisHttpAction implements Runnable {
   @Override
   public void run() {
     verify(requestPath.startsWith(PATH));
+    DatastoreRpcStats.reset();
     String path = nullToEmpty(requestPath);
     try {
       // Extremely permissive parsing that turns stuff like "/hello/world/" into "hello world".
@@ -163,7 +168,10 @@ public final class WhoisHttpAction implements Runnable {
       metricBuilder.setNumResults(0);
       throw new RuntimeException(e);
     } finally {
-      whoisMetrics.recordWhoisMetric(metricBuilder.build());
+      WhoisMetric metric = metricBuilder.build();
+      whoisMetrics.recordWhoisMetric(metric);
+      whoisMetrics.recordDatastoreRpcs(metric, DatastoreRpcStats.current());
+      icannActivityCounters.increment(ActivityReportField.WEB_WHOIS_QUERIES);
     }
   }
 
@@ -23,6 +23,7 @@ import com.google.monitoring.metrics.EventMetric;
 import com.google.monitoring.metrics.IncrementableMetric;
 import com.google.monitoring.metrics.LabelDescriptor;
 import com.google.monitoring.metrics.MetricRegistryImpl;
+import google.registry.model.ofy.DatastoreRpcStats;
 import google.registry.util.Clock;
 import java.util.Optional;
 import javax.inject.Inject;
@@ -42,6 +43,11 @@ public class WhoisMetrics {
               "num_results", "The number of results returned by the WHOIS command."),
           LabelDescriptor.create("status", "The return status of the WHOIS command."));
 
+  private static final ImmutableSet<LabelDescriptor> LABEL_DESCRIPTORS_FOR_DATASTORE =
+      ImmutableSet.of(
+          LabelDescriptor.create("command_name", "The name of the WHOIS command."),
+          LabelDescriptor.create("rpc_type", "The type of Datastore RPC."));
+
   private static final IncrementableMetric whoisRequests =
       MetricRegistryImpl.getDefault()
           .newIncrementableMetric(
@@ -56,6 +62,15 @@ public class WhoisMetrics {
               LABEL_DESCRIPTORS,
               DEFAULT_FITTER);
 
+  private static final EventMetric datastoreRpcs =
+      MetricRegistryImpl.getDefault()
+          .newEventMetric(
+              "/whois/datastore_rpcs",
+              "Datastore RPCs Per WHOIS Request",
+              "count",
+              LABEL_DESCRIPTORS_FOR_DATASTORE,
+              DEFAULT_FITTER);
+
   @Inject
   public WhoisMetrics() {}
 
@@ -72,6 +87,14 @@ public class WhoisMetrics {
         Integer.toString(metric.status()));
   }
 
+  /** Records the number of Datastore RPCs of each type made while serving the given request. */
+  public void recordDatastoreRpcs(WhoisMetric metric, DatastoreRpcStats stats) {
+    String commandName = metric.commandName().orElse("");
+    stats
+        .getRpcCounts()
+        .forEach((type, count) -> datastoreRpcs.record(count, commandName, type.name()));
+  }
+
   /** A value class for recording attributes of a WHOIS metric. */
   @AutoValue
   public abstract static class WhoisMetric {
@@ -44,6 +44,7 @@ import org.junit.runners.JUnit4;
 public class CommitLogCheckpointActionTest {
 
   private static final String QUEUE_NAME = "export-commits";
+  private static final String CHANGES_QUEUE_NAME = "export-commit-changes";
 
   @Rule
   public final AppEngineRule appEngine = AppEngineRule.builder()
@@ -76,6 +77,12 @@ public class CommitLogCheckpointActionTest {
             .url(ExportCommitLogDiffAction.PATH)
             .param(ExportCommitLogDiffAction.LOWER_CHECKPOINT_TIME_PARAM, START_OF_TIME.toString())
             .param(ExportCommitLogDiffAction.UPPER_CHECKPOINT_TIME_PARAM, now.toString()));
+    assertTasksEnqueued(
+        CHANGES_QUEUE_NAME,
+        new TaskMatcher()
+            .url(StreamCommitLogChangesAction.PATH)
+            .param(ExportCommitLogDiffAction.LOWER_CHECKPOINT_TIME_PARAM, START_OF_TIME.toString())
+            .param(ExportCommitLogDiffAction.UPPER_CHECKPOINT_TIME_PARAM, now.toString()));
     assertThat(loadRoot().getLastWrittenTime()).isEqualTo(now);
   }
 
@@ -90,6 +97,12 @@ public class CommitLogCheckpointActionTest {
             .url(ExportCommitLogDiffAction.PATH)
             .param(ExportCommitLogDiffAction.LOWER_CHECKPOINT_TIME_PARAM, oneMinuteAgo.toString())
             .param(ExportCommitLogDiffAction.UPPER_CHECKPOINT_TIME_PARAM, now.toString()));
+    assertTasksEnqueued(
+        CHANGES_QUEUE_NAME,
+        new TaskMatcher()
+            .url(StreamCommitLogChangesAction.PATH)
+            .param(ExportCommitLogDiffAction.LOWER_CHECKPOINT_TIME_PARAM, oneMinuteAgo.toString())
+            .param(ExportCommitLogDiffAction.UPPER_CHECKPOINT_TIME_PARAM, now.toString()));
     assertThat(loadRoot().getLastWrittenTime()).isEqualTo(now);
   }
 
@@ -99,6 +112,7 @@ public class CommitLogCheckpointActionTest {
     persistResource(CommitLogCheckpointRoot.create(oneMinuteFromNow));
     task.run();
     assertNoTasksEnqueued(QUEUE_NAME);
+    assertNoTasksEnqueued(CHANGES_QUEUE_NAME);
     assertThat(loadRoot().getLastWrittenTime()).isEqualTo(oneMinuteFromNow);
   }
 }
@@ -15,6 +15,7 @@
 package google.registry.backup;
 
 import static com.google.common.truth.Truth.assertThat;
+import static google.registry.model.EppResourceRevisionIndex.loadRevisions;
 import static google.registry.model.ofy.ObjectifyService.ofy;
 
 import com.google.common.collect.ImmutableList;
@@ -94,7 +95,7 @@ public class DeleteOldCommitLogsActionTest
     contact = ofy().load().type(ContactResource.class).first().now();
 
     // The following value might change if {@link CommitLogRevisionsTranslatorFactory} changes.
-    assertThat(contact.getRevisions().size()).isEqualTo(6);
+    assertThat(loadRevisions(contact).size()).isEqualTo(6);
 
     // Before deleting the unneeded manifests - we have 11 of them (one for the first
     // creation, and 10 more for the mutateContacts)
@@ -115,10 +116,10 @@ public class DeleteOldCommitLogsActionTest
     runMapreduce(Duration.millis(1));
 
     assertThat(ImmutableList.copyOf(ofy().load().type(CommitLogManifest.class).keys().iterable()))
-        .containsExactlyElementsIn(contact.getRevisions().values());
+        .containsExactlyElementsIn(loadRevisions(contact).values());
 
     // And each DatastoreHelper.persistResourceWithCommitLog creates 3 mutations
-    assertThat(ofyLoadType(CommitLogMutation.class)).hasSize(contact.getRevisions().size() * 3);
+    assertThat(ofyLoadType(CommitLogMutation.class)).hasSize(loadRevisions(contact).size() * 3);
   }
 
   /**
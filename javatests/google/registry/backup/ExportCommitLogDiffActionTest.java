@@ -17,9 +17,11 @@ package google.registry.backup;
 import static com.google.common.truth.Truth.assertThat;
 import static com.google.common.truth.Truth.assertWithMessage;
 import static google.registry.backup.BackupUtils.GcsMetadataKeys.LOWER_BOUND_CHECKPOINT;
+import static google.registry.backup.BackupUtils.GcsMetadataKeys.NUM_PARTS;
 import static google.registry.backup.BackupUtils.GcsMetadataKeys.NUM_TRANSACTIONS;
 import static google.registry.backup.BackupUtils.GcsMetadataKeys.UPPER_BOUND_CHECKPOINT;
 import static google.registry.backup.BackupUtils.deserializeEntities;
+import static google.registry.backup.ExportCommitLogDiffAction.getDiffPartFilename;
 import static google.registry.testing.DatastoreHelper.persistResource;
 import static google.registry.util.DateTimeUtils.START_OF_TIME;
 import static org.joda.time.DateTimeZone.UTC;
@@ -67,6 +69,7 @@ public class ExportCommitLogDiffActionTest {
     task.gcsService = gcsService;
     task.gcsBucket = "gcs bucket";
     task.batchSize = 5;
+    task.partSize = 100;
   }
 
   @Test
@@ -446,6 +449,75 @@ public class ExportCommitLogDiffActionTest {
             .inOrder();
   }
 
+  @Test
+  public void testRun_largeDiff_exportsParts() throws Exception {
+    task.lowerCheckpointTime = oneMinuteAgo;
+    task.upperCheckpointTime = now;
+    task.batchSize = 1;
+    task.partSize = 2;
+
+    persistResource(CommitLogCheckpoint.create(
+        oneMinuteAgo,
+        ImmutableMap.of(1, oneMinuteAgo, 2, oneMinuteAgo, 3, oneMinuteAgo)));
+    CommitLogCheckpoint upperCheckpoint = persistResource(CommitLogCheckpoint.create(
+        now,
+        ImmutableMap.of(1, now, 2, now, 3, now)));
+
+    persistManifestAndMutation(1, now.minusMillis(3));
+    persistManifestAndMutation(2, now.minusMillis(2));
+    persistManifestAndMutation(3, now.minusMillis(1));
+    persistManifestAndMutation(1, now);
+    persistManifestAndMutation(2, now);
+
+    task.run();
+
+    GcsFilename expectedFilename = new GcsFilename("gcs bucket", "commit_diff_until_" + now);
+    assertWithMessage("GCS file not found: " + expectedFilename)
+        .that(gcsService.getMetadata(expectedFilename)).isNotNull();
+    assertThat(gcsService.getMetadata(expectedFilename).getOptions().getUserMetadata())
+        .containsExactly(
+            LOWER_BOUND_CHECKPOINT,
+            oneMinuteAgo.toString(),
+            UPPER_BOUND_CHECKPOINT,
+            now.toString(),
+            NUM_TRANSACTIONS,
+            "5",
+            NUM_PARTS,
+            "3");
+    // The diff file itself only holds the checkpoint.
+    assertThat(deserializeEntities(GcsTestingUtils.readGcsFile(gcsService, expectedFilename)))
+        .containsExactly(upperCheckpoint);
+    // The parts hold contiguous runs of the manifests, in time order, with matching mutations.
+    CommitLogManifest manifest1 = createManifest(1, now.minusMillis(3));
+    CommitLogManifest manifest2 = createManifest(2, now.minusMillis(2));
+    CommitLogManifest manifest3 = createManifest(3, now.minusMillis(1));
+    CommitLogManifest manifest4 = createManifest(1, now);
+    CommitLogManifest manifest5 = createManifest(2, now);
+    assertThat(readPart(0))
+        .containsExactly(
+            manifest1, createMutation(manifest1), manifest2, createMutation(manifest2))
+        .inOrder();
+    assertThat(readPart(1))
+        .containsExactly(
+            manifest3, createMutation(manifest3), manifest4, createMutation(manifest4))
+        .inOrder();
+    assertThat(readPart(2))
+        .containsExactly(manifest5, createMutation(manifest5))
+        .inOrder();
+    assertThat(
+            gcsService
+                .getMetadata(new GcsFilename("gcs bucket", getDiffPartFilename(now, 2)))
+                .getOptions()
+                .getUserMetadata())
+        .containsExactly(UPPER_BOUND_CHECKPOINT, now.toString(), NUM_TRANSACTIONS, "1");
+  }
+
+  private List<ImmutableObject> readPart(int part) throws Exception {
+    return deserializeEntities(
+        GcsTestingUtils.readGcsFile(
+            gcsService, new GcsFilename("gcs bucket", getDiffPartFilename(now, part))));
+  }
+
   private CommitLogManifest createManifest(int bucketNum, DateTime commitTime) {
     return CommitLogManifest.create(CommitLogBucket.getBucketKey(bucketNum), commitTime, null);
   }
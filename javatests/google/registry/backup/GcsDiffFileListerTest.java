@@ -18,7 +18,9 @@ import static com.google.common.collect.Iterables.transform;
 import static com.google.common.truth.Truth.assertThat;
 import static com.google.common.util.concurrent.MoreExecutors.newDirectExecutorService;
 import static google.registry.backup.BackupUtils.GcsMetadataKeys.LOWER_BOUND_CHECKPOINT;
+import static google.registry.backup.BackupUtils.GcsMetadataKeys.NUM_PARTS;
 import static google.registry.backup.ExportCommitLogDiffAction.DIFF_FILE_PREFIX;
+import static google.registry.backup.ExportCommitLogDiffAction.getDiffPartFilename;
 import static google.registry.testing.JUnitBackports.assertThrows;
 import static java.lang.reflect.Proxy.newProxyInstance;
 import static org.joda.time.DateTimeZone.UTC;
@@ -239,4 +241,66 @@ public class GcsDiffFileListerTest {
             now.minusMinutes(2))
         .inOrder();
   }
+
+  @Test
+  public void testListDiffPartFiles_unpartitioned_returnsEmpty() throws Exception {
+    assertThat(
+            diffLister.listDiffPartFiles(
+                gcsService.getMetadata(new GcsFilename(GCS_BUCKET, DIFF_FILE_PREFIX + now))))
+        .isEmpty();
+  }
+
+  @Test
+  public void testListDiffPartFiles_partitioned_returnsPartsInOrder() throws Exception {
+    GcsFileMetadata metadata = addPartitionedGcsFile(3);
+    for (int part = 0; part < 3; part++) {
+      addGcsPartFile(part);
+    }
+    assertThat(diffLister.listDiffPartFiles(metadata))
+        .containsExactly(
+            new GcsFilename(GCS_BUCKET, getDiffPartFilename(now, 0)),
+            new GcsFilename(GCS_BUCKET, getDiffPartFilename(now, 1)),
+            new GcsFilename(GCS_BUCKET, getDiffPartFilename(now, 2)))
+        .inOrder();
+  }
+
+  @Test
+  public void testListDiffPartFiles_missingPart_throws() throws Exception {
+    GcsFileMetadata metadata = addPartitionedGcsFile(3);
+    addGcsPartFile(0);
+    addGcsPartFile(2);
+    IllegalStateException thrown =
+        assertThrows(IllegalStateException.class, () -> diffLister.listDiffPartFiles(metadata));
+    assertThat(thrown)
+        .hasMessageThat()
+        .contains("Missing part file " + getDiffPartFilename(now, 1));
+  }
+
+  @Test
+  public void testList_ignoresPartFiles() throws Exception {
+    addPartitionedGcsFile(1);
+    addGcsPartFile(0);
+    assertThat(listDiffFiles(now.minusMinutes(1).minusSeconds(1), null))
+        .containsExactly(now.minusMinutes(1), now)
+        .inOrder();
+  }
+
+  private GcsFileMetadata addPartitionedGcsFile(int numParts) throws IOException {
+    GcsFilename filename = new GcsFilename(GCS_BUCKET, DIFF_FILE_PREFIX + now);
+    gcsService.createOrReplace(
+        filename,
+        new GcsFileOptions.Builder()
+            .addUserMetadata(LOWER_BOUND_CHECKPOINT, now.minusMinutes(1).toString())
+            .addUserMetadata(NUM_PARTS, Integer.toString(numParts))
+            .build(),
+        ByteBuffer.wrap(new byte[]{1, 2, 3}));
+    return gcsService.getMetadata(filename);
+  }
+
+  private void addGcsPartFile(int part) throws IOException {
+    gcsService.createOrReplace(
+        new GcsFilename(GCS_BUCKET, getDiffPartFilename(now, part)),
+        new GcsFileOptions.Builder().build(),
+        ByteBuffer.wrap(new byte[]{1, 2, 3}));
+  }
 }
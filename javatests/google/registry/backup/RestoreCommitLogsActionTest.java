@@ -20,8 +20,10 @@ import static com.google.common.collect.Maps.toMap;
 import static com.google.common.truth.Truth.assertThat;
 import static com.google.common.util.concurrent.MoreExecutors.newDirectExecutorService;
 import static google.registry.backup.BackupUtils.GcsMetadataKeys.LOWER_BOUND_CHECKPOINT;
+import static google.registry.backup.BackupUtils.GcsMetadataKeys.NUM_PARTS;
 import static google.registry.backup.BackupUtils.serializeEntity;
 import static google.registry.backup.ExportCommitLogDiffAction.DIFF_FILE_PREFIX;
+import static google.registry.backup.ExportCommitLogDiffAction.getDiffPartFilename;
 import static google.registry.model.ofy.CommitLogBucket.getBucketIds;
 import static google.registry.model.ofy.CommitLogBucket.getBucketKey;
 import static google.registry.model.ofy.ObjectifyService.ofy;
@@ -245,6 +247,57 @@ public class RestoreCommitLogsActionTest {
     assertInDatastore(asList(CommitLogCheckpointRoot.create(now)));
   }
 
+  @Test
+  public void testRestore_partitionedDiffFile() throws Exception {
+    ofy().saveWithoutBackup().entities(
+        TestObject.create("previous to keep"),
+        TestObject.create("previous to delete")).now();
+    Key<CommitLogManifest> manifest1Key =
+        CommitLogManifest.createKey(getBucketKey(1), now.minusMillis(2));
+    Key<CommitLogManifest> manifest2Key =
+        CommitLogManifest.createKey(getBucketKey(2), now.minusMillis(1));
+    Key<CommitLogManifest> manifest3Key = CommitLogManifest.createKey(getBucketKey(1), now);
+    saveDiffFileNotToRestore(now.minusMinutes(1));
+    CommitLogCheckpoint checkpoint = createCheckpoint(now);
+    saveDiffFile(
+        new GcsFilename(GCS_BUCKET, DIFF_FILE_PREFIX + now),
+        new GcsFileOptions.Builder()
+            .addUserMetadata(LOWER_BOUND_CHECKPOINT, now.minusMinutes(1).toString())
+            .addUserMetadata(NUM_PARTS, "2")
+            .build(),
+        asList(checkpoint));
+    List<ImmutableObject> part0CommitLogs = asList(
+        CommitLogManifest.create(
+            getBucketKey(1),
+            now.minusMillis(2),
+            ImmutableSet.of(Key.create(TestObject.create("previous to delete")))),
+        CommitLogMutation.create(manifest1Key, TestObject.create("a")),
+        CommitLogManifest.create(
+            getBucketKey(2),
+            now.minusMillis(1),
+            ImmutableSet.of(Key.create(TestObject.create("a")))),
+        CommitLogMutation.create(manifest2Key, TestObject.create("b")));
+    List<ImmutableObject> part1CommitLogs = asList(
+        CommitLogManifest.create(getBucketKey(1), now, null),
+        CommitLogMutation.create(manifest3Key, TestObject.create("c")));
+    saveDiffFile(
+        new GcsFilename(GCS_BUCKET, getDiffPartFilename(now, 0)),
+        new GcsFileOptions.Builder().build(),
+        part0CommitLogs);
+    saveDiffFile(
+        new GcsFilename(GCS_BUCKET, getDiffPartFilename(now, 1)),
+        new GcsFileOptions.Builder().build(),
+        part1CommitLogs);
+    action.run();
+    ofy().clearSessionCache();
+    assertExpectedIds("previous to keep", "b", "c");
+    assertInDatastore(asList(checkpoint));
+    assertInDatastore(part0CommitLogs);
+    assertInDatastore(part1CommitLogs);
+    assertInDatastore(asList(CommitLogCheckpointRoot.create(now)));
+    assertCommitLogBuckets(ImmutableMap.of(1, now, 2, now.minusMillis(1)));
+  }
+
   private CommitLogCheckpoint createCheckpoint(DateTime now) {
     return CommitLogCheckpoint.create(now, toMap(getBucketIds(), x -> now));
   }
@@ -253,19 +306,25 @@ public class RestoreCommitLogsActionTest {
       CommitLogCheckpoint checkpoint, ImmutableObject... entities) throws IOException {
     DateTime now = checkpoint.getCheckpointTime();
     List<ImmutableObject> allEntities = Lists.asList(checkpoint, entities);
-    ByteArrayOutputStream output = new ByteArrayOutputStream();
-    for (ImmutableObject entity : allEntities) {
-      serializeEntity(entity, output);
-    }
-    gcsService.createOrReplace(
+    saveDiffFile(
         new GcsFilename(GCS_BUCKET, DIFF_FILE_PREFIX + now),
         new GcsFileOptions.Builder()
             .addUserMetadata(LOWER_BOUND_CHECKPOINT, now.minusMinutes(1).toString())
             .build(),
-        ByteBuffer.wrap(output.toByteArray()));
+        allEntities);
     return allEntities;
   }
 
+  private void saveDiffFile(
+      GcsFilename filename, GcsFileOptions options, List<ImmutableObject> entities)
+      throws IOException {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    for (ImmutableObject entity : entities) {
+      serializeEntity(entity, output);
+    }
+    gcsService.createOrReplace(filename, options, ByteBuffer.wrap(output.toByteArray()));
+  }
+
   private void saveDiffFileNotToRestore(DateTime now) throws Exception {
     saveDiffFile(
         createCheckpoint(now),
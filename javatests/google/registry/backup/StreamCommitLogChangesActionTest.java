@@ -0,0 +1,200 @@
+// Copyright 2018 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.backup;
+
+import static com.google.common.truth.Truth.assertThat;
+import static google.registry.testing.DatastoreHelper.newRegistry;
+import static google.registry.testing.DatastoreHelper.persistResource;
+import static google.registry.testing.JUnitBackports.assertThrows;
+import static org.joda.time.DateTimeZone.UTC;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.api.services.bigquery.Bigquery;
+import com.google.api.services.bigquery.Bigquery.Tabledata;
+import com.google.api.services.bigquery.Bigquery.Tabledata.InsertAll;
+import com.google.api.services.bigquery.model.TableDataInsertAllRequest;
+import com.google.api.services.bigquery.model.TableDataInsertAllResponse;
+import com.google.api.services.bigquery.model.TableDataInsertAllResponse.InsertErrors;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.googlecode.objectify.Key;
+import google.registry.bigquery.BigqueryFactory;
+import google.registry.model.ofy.CommitLogBucket;
+import google.registry.model.ofy.CommitLogCheckpoint;
+import google.registry.model.ofy.CommitLogManifest;
+import google.registry.model.ofy.CommitLogMutation;
+import google.registry.model.registry.Registry;
+import google.registry.testing.AppEngineRule;
+import google.registry.testing.TestObject;
+import java.util.List;
+import java.util.Map;
+import org.joda.time.DateTime;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.JSONValue;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.ArgumentCaptor;
+
+/** Unit tests for {@link StreamCommitLogChangesAction}. */
+@RunWith(JUnit4.class)
+public class StreamCommitLogChangesActionTest {
+
+  @Rule
+  public final AppEngineRule appEngine = AppEngineRule.builder().withDatastore().build();
+
+  private final BigqueryFactory bigqueryFactory = mock(BigqueryFactory.class);
+  private final Bigquery bigquery = mock(Bigquery.class);
+  private final Tabledata tabledata = mock(Tabledata.class);
+  private final InsertAll insertAll = mock(InsertAll.class);
+  private final ArgumentCaptor<TableDataInsertAllRequest> requestCaptor =
+      ArgumentCaptor.forClass(TableDataInsertAllRequest.class);
+
+  private final DateTime now = DateTime.now(UTC);
+  private final DateTime oneMinuteAgo = now.minusMinutes(1);
+
+  private final StreamCommitLogChangesAction action = new StreamCommitLogChangesAction();
+
+  @Before
+  public void before() throws Exception {
+    when(bigqueryFactory.create(anyString(), anyString(), anyString())).thenReturn(bigquery);
+    when(bigquery.tabledata()).thenReturn(tabledata);
+    when(tabledata.insertAll(anyString(), anyString(), anyString(), requestCaptor.capture()))
+        .thenReturn(insertAll);
+    when(insertAll.execute()).thenReturn(new TableDataInsertAllResponse());
+    action.bigqueryFactory = bigqueryFactory;
+    action.projectId = "projectId";
+    action.batchSize = 5;
+    action.lowerCheckpointTime = oneMinuteAgo;
+    action.upperCheckpointTime = now;
+    persistResource(CommitLogCheckpoint.create(oneMinuteAgo, ImmutableMap.of(1, oneMinuteAgo)));
+    persistResource(CommitLogCheckpoint.create(now, ImmutableMap.of(1, now)));
+  }
+
+  @Test
+  public void testRun_noChanges_doesNotInsert() throws Exception {
+    action.run();
+    verify(tabledata, never()).insertAll(anyString(), anyString(), anyString(), any());
+  }
+
+  @Test
+  public void testRun_streamsReportedOnChangesInOrder() throws Exception {
+    Registry registry =
+        newRegistry("foo", "FOO")
+            .asBuilder()
+            .setDnsWriters(ImmutableSet.of("VoidDnsWriter", "CloudDnsWriter"))
+            .build();
+    CommitLogManifest upsert = persistManifest(now.minusSeconds(2), ImmutableSet.of());
+    persistResource(CommitLogMutation.create(Key.create(upsert), registry));
+    // Kinds that aren't reported on are skipped.
+    persistResource(CommitLogMutation.create(Key.create(upsert), TestObject.create("ignored")));
+    CommitLogManifest deletion =
+        persistManifest(now.minusSeconds(1), ImmutableSet.of(Key.create(registry)));
+    // Changes outside of the checkpoint window are skipped.
+    CommitLogManifest tooOld = persistManifest(oneMinuteAgo, ImmutableSet.of());
+    persistResource(CommitLogMutation.create(Key.create(tooOld), registry));
+
+    action.run();
+
+    verify(tabledata)
+        .insertAll(eq("projectId"), eq("datastore_changes"), eq("changes"), any());
+    List<TableDataInsertAllRequest.Rows> rows = requestCaptor.getValue().getRows();
+    assertThat(rows).hasSize(2);
+    Map<String, Object> upsertRow = rows.get(0).getJson();
+    assertThat(upsertRow).containsEntry("kind", "Registry");
+    assertThat(upsertRow).containsEntry("entityKey", Key.create(registry).getString());
+    assertThat(upsertRow).containsEntry("deleted", false);
+    JSONObject entityJson =
+        (JSONObject) JSONValue.parseWithException((String) upsertRow.get("entity"));
+    assertThat(entityJson).containsEntry("tldStr", "foo");
+    // Set fields are serialized as JSON arrays.
+    assertThat((JSONArray) entityJson.get("dnsWriters"))
+        .containsExactly("VoidDnsWriter", "CloudDnsWriter");
+    Map<String, Object> deletionRow = rows.get(1).getJson();
+    assertThat(deletionRow).containsEntry("kind", "Registry");
+    assertThat(deletionRow).containsEntry("entityKey", Key.create(registry).getString());
+    assertThat(deletionRow).containsEntry("deleted", true);
+    assertThat(deletionRow).doesNotContainKey("entity");
+    assertThat(rows.get(0).getInsertId()).isNotEqualTo(rows.get(1).getInsertId());
+  }
+
+  @Test
+  public void testRun_allRowsAreValidJson() throws Exception {
+    CommitLogManifest manifest = persistManifest(now, ImmutableSet.of());
+    for (String tld : ImmutableList.of("foo", "bar", "baz")) {
+      persistResource(
+          CommitLogMutation.create(
+              Key.create(manifest),
+              newRegistry(tld, tld.toUpperCase())
+                  .asBuilder()
+                  .setDnsWriters(ImmutableSet.of("VoidDnsWriter"))
+                  .build()));
+    }
+
+    action.run();
+
+    List<TableDataInsertAllRequest.Rows> rows = requestCaptor.getValue().getRows();
+    assertThat(rows).hasSize(3);
+    for (TableDataInsertAllRequest.Rows row : rows) {
+      // Throws if the entity isn't valid JSON.
+      JSONValue.parseWithException((String) row.getJson().get("entity"));
+    }
+  }
+
+  @Test
+  public void testRun_retried_usesSameInsertIds() throws Exception {
+    Registry registry = newRegistry("foo", "FOO");
+    persistResource(
+        CommitLogMutation.create(
+            Key.create(persistManifest(now, ImmutableSet.of())), registry));
+
+    action.run();
+    action.run();
+
+    verify(tabledata, times(2)).insertAll(anyString(), anyString(), anyString(), any());
+    List<TableDataInsertAllRequest> requests = requestCaptor.getAllValues();
+    assertThat(requests.get(0).getRows().get(0).getInsertId())
+        .isEqualTo(requests.get(1).getRows().get(0).getInsertId());
+  }
+
+  @Test
+  public void testRun_insertErrors_throws() throws Exception {
+    persistResource(
+        CommitLogMutation.create(
+            Key.create(persistManifest(now, ImmutableSet.of())), newRegistry("foo", "FOO")));
+    when(insertAll.execute())
+        .thenReturn(
+            new TableDataInsertAllResponse()
+                .setInsertErrors(ImmutableList.of(new InsertErrors().setIndex(0L))));
+    assertThrows(RuntimeException.class, action::run);
+  }
+
+  private static CommitLogManifest persistManifest(
+      DateTime commitTime, ImmutableSet<Key<?>> deletions) {
+    return persistResource(
+        CommitLogManifest.create(CommitLogBucket.getBucketKey(1), commitTime, deletions));
+  }
+}
@@ -39,6 +39,7 @@ import google.registry.model.billing.BillingEvent;
 import google.registry.model.billing.BillingEvent.Reason;
 import google.registry.model.domain.DomainResource;
 import google.registry.model.index.EppResourceIndex;
+import google.registry.model.index.EppResourceIndexBucket;
 import google.registry.model.index.ForeignKeyIndex;
 import google.registry.model.poll.PollMessage;
 import google.registry.model.registry.Registry;
@@ -159,6 +160,19 @@ public class DeleteProberDataActionTest extends MapreduceTestCase<DeleteProberDa
         .contains("On production, can only work on TLDs that end with .test");
   }
 
+  @Test
+  public void testSuccess_indexEntryInOldBucket_isDeleted() throws Exception {
+    DomainResource domain = persistDeletedDomain("blah.ib-any.test", DELETION_TIME);
+    Key<DomainResource> domainKey = Key.create(domain);
+    // As if the domain was indexed when there was only one bucket, and not rebalanced since.
+    EppResourceIndex oldIndex =
+        EppResourceIndex.create(EppResourceIndexBucket.getBucketKey(1), domainKey);
+    ofy().transact(() -> ofy().delete().entity(EppResourceIndex.create(domainKey)).now());
+    persistResource(oldIndex);
+    runMapreduce();
+    assertDeleted(ImmutableSet.of(domain, oldIndex));
+  }
+
   @Test
   public void testSuccess_doesntDeleteNicDomainForProbers() throws Exception {
     DomainResource nic = persistActiveDomain("nic.ib-any.test");
@@ -37,6 +37,7 @@ import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSortedMap;
 import com.google.common.collect.Iterables;
 import com.googlecode.objectify.Key;
+import google.registry.batch.ExpandRecurringBillingEventsAction.ExpandedBillingTimes;
 import google.registry.model.billing.BillingEvent;
 import google.registry.model.billing.BillingEvent.Flag;
 import google.registry.model.billing.BillingEvent.OneTime;
@@ -581,6 +582,119 @@ public class ExpandRecurringBillingEventsActionTest
     assertCursorAt(beginningOfTest);
   }
 
+  @Test
+  public void testSuccess_expandMultipleDomains_onlyExpandsMissingEvents() throws Exception {
+    persistResource(recurring);
+    BillingEvent.OneTime persisted = persistResource(defaultOneTimeBuilder()
+        .setParent(historyEntry)
+        .build());
+    DomainResource domain2 = persistActiveDomain("example2.tld");
+    HistoryEntry historyEntry2 =
+        persistResource(new HistoryEntry.Builder().setParent(domain2).build());
+    BillingEvent.Recurring recurring2 = persistResource(recurring.asBuilder()
+        .setParent(historyEntry2)
+        .setId(4L)
+        .setTargetId(domain2.getFullyQualifiedDomainName())
+        .build());
+    action.cursorTimeParam = Optional.of(START_OF_TIME);
+    runMapreduce();
+    // The first domain was already expanded, so only the second one gets a new OneTime.
+    assertThat(getHistoryEntriesOfType(domain, DOMAIN_AUTORENEW)).isEmpty();
+    assertBillingEventsForResource(domain, persisted, recurring);
+    HistoryEntry persistedEntry2 = getOnlyHistoryEntryOfType(domain2, DOMAIN_AUTORENEW);
+    assertHistoryEntryMatches(
+        domain2, persistedEntry2, "TheRegistrar", DateTime.parse("2000-02-19T00:00:00Z"));
+    BillingEvent.OneTime expected2 = defaultOneTimeBuilder()
+        .setParent(persistedEntry2)
+        .setCancellationMatchingBillingEvent(Key.create(recurring2))
+        .setTargetId("example2.tld")
+        .build();
+    assertBillingEventsForResource(domain2, expected2, recurring2);
+    assertCursorAt(beginningOfTest);
+  }
+
+  @Test
+  public void testSuccess_expandMultipleDomains_moreThanOneDomainBatch() throws Exception {
+    // One more domain than fits into a single batch of buffered domains.
+    List<DomainResource> domains = new ArrayList<>();
+    List<BillingEvent.Recurring> recurrings = new ArrayList<>();
+    for (int i = 0; i < 51; i++) {
+      DomainResource batchDomain = persistActiveDomain(String.format("batch%d.tld", i));
+      HistoryEntry batchHistoryEntry =
+          persistResource(new HistoryEntry.Builder().setParent(batchDomain).build());
+      domains.add(batchDomain);
+      recurrings.add(persistResource(recurring.asBuilder()
+          .setParent(batchHistoryEntry)
+          .setId(100L + i)
+          .setTargetId(batchDomain.getFullyQualifiedDomainName())
+          .build()));
+    }
+    action.cursorTimeParam = Optional.of(START_OF_TIME);
+    runMapreduce();
+    for (int i = 0; i < 51; i++) {
+      DomainResource batchDomain = domains.get(i);
+      HistoryEntry persistedEntry = getOnlyHistoryEntryOfType(batchDomain, DOMAIN_AUTORENEW);
+      assertHistoryEntryMatches(
+          batchDomain, persistedEntry, "TheRegistrar", DateTime.parse("2000-02-19T00:00:00Z"));
+      assertBillingEventsForResource(
+          batchDomain,
+          defaultOneTimeBuilder()
+              .setParent(persistedEntry)
+              .setCancellationMatchingBillingEvent(Key.create(recurrings.get(i)))
+              .setTargetId(batchDomain.getFullyQualifiedDomainName())
+              .build(),
+          recurrings.get(i));
+    }
+    assertCursorAt(beginningOfTest);
+  }
+
+  @Test
+  public void testSuccess_expandSingleEvent_moreYearsThanFitInOneTransaction() throws Exception {
+    // 106 years of autorenewals are written in one full transaction and one partial one.
+    DateTime testTime = clock.nowUtc().plusYears(105);
+    clock.setTo(testTime);
+    List<BillingEvent> expectedEvents = new ArrayList<>();
+    expectedEvents.add(persistResource(recurring));
+    action.cursorTimeParam = Optional.of(START_OF_TIME);
+    runMapreduce();
+    List<HistoryEntry> persistedEntries = getHistoryEntriesOfType(domain, DOMAIN_AUTORENEW);
+    assertThat(persistedEntries).hasSize(106);
+    DateTime eventDate = DateTime.parse("2000-01-05T00:00:00Z");
+    DateTime billingDate = DateTime.parse("2000-02-19T00:00:00Z");
+    for (int year = 0; year < 106; year++) {
+      assertHistoryEntryMatches(
+          domain, persistedEntries.get(year), "TheRegistrar", billingDate.plusYears(year));
+      expectedEvents.add(defaultOneTimeBuilder()
+          .setBillingTime(billingDate.plusYears(year))
+          .setEventTime(eventDate.plusYears(year))
+          .setParent(persistedEntries.get(year))
+          .setSyntheticCreationTime(testTime)
+          .build());
+    }
+    assertBillingEventsForResource(domain, Iterables.toArray(expectedEvents, BillingEvent.class));
+    assertCursorAt(testTime);
+  }
+
+  @Test
+  public void testExpandedBillingTimes_loadNewOneTimes_picksUpOneTimesWrittenSincePrefetch() {
+    persistResource(recurring);
+    OneTime prefetched = persistResource(defaultOneTimeBuilder().setParent(historyEntry).build());
+    ExpandedBillingTimes expandedBillingTimes = new ExpandedBillingTimes(Key.create(domain));
+    expandedBillingTimes.record(prefetched);
+    // Simulates an earlier attempt at the expansion transaction that committed after the prefetch.
+    DateTime laterBillingTime = DateTime.parse("2001-02-19T00:00:00Z");
+    persistResource(
+        defaultOneTimeBuilder()
+            .setParent(historyEntry)
+            .setBillingTime(laterBillingTime)
+            .setEventTime(DateTime.parse("2001-01-05T00:00:00Z"))
+            .build());
+    assertThat(expandedBillingTimes.contains(Key.create(recurring), laterBillingTime)).isFalse();
+    ofy().transact(expandedBillingTimes::loadNewOneTimes);
+    assertThat(expandedBillingTimes.get(Key.create(recurring)))
+        .containsExactly(DateTime.parse("2000-02-19T00:00:00Z"), laterBillingTime);
+  }
+
   @Test
   public void testSuccess_premiumDomain() throws Exception {
     persistResource(
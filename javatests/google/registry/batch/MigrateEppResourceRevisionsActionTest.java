@@ -0,0 +1,102 @@
+// Copyright 2018 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.batch;
+
+import static com.google.appengine.api.datastore.DatastoreServiceFactory.getDatastoreService;
+import static com.google.common.truth.Truth.assertThat;
+import static google.registry.model.EppResourceRevisionIndex.loadRevisions;
+import static google.registry.model.ofy.ObjectifyService.ofy;
+import static google.registry.testing.DatastoreHelper.persistActiveContact;
+
+import com.google.appengine.api.datastore.Entity;
+import com.google.common.collect.ImmutableList;
+import com.googlecode.objectify.Key;
+import google.registry.model.EppResourceRevisionIndex;
+import google.registry.model.contact.ContactResource;
+import google.registry.model.ofy.CommitLogBucket;
+import google.registry.model.ofy.CommitLogManifest;
+import google.registry.testing.FakeResponse;
+import google.registry.testing.mapreduce.MapreduceTestCase;
+import org.joda.time.DateTime;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link MigrateEppResourceRevisionsAction}. */
+@RunWith(JUnit4.class)
+public class MigrateEppResourceRevisionsActionTest
+    extends MapreduceTestCase<MigrateEppResourceRevisionsAction> {
+
+  private static final DateTime LEGACY_REVISION_TIME = DateTime.parse("2018-01-01T00:00:00Z");
+
+  private final Key<CommitLogManifest> legacyManifestKey =
+      CommitLogManifest.createKey(CommitLogBucket.getBucketKey(1), LEGACY_REVISION_TIME);
+
+  @Before
+  public void init() {
+    action = new MigrateEppResourceRevisionsAction();
+    action.mrRunner = makeDefaultRunner();
+    action.response = new FakeResponse();
+  }
+
+  private void runMapreduce() throws Exception {
+    action.run();
+    executeTasksUntilEmpty("mapreduce");
+  }
+
+  /** Rewrites the contact as it was stored before revision indexes existed. */
+  private void persistAsLegacyContact(ContactResource contact) {
+    Key<EppResourceRevisionIndex> indexKey =
+        EppResourceRevisionIndex.createKey(Key.create(contact));
+    ofy().transact(() -> ofy().deleteWithoutBackup().key(indexKey).now());
+    Entity entity = ofy().save().toEntity(contact);
+    entity.setUnindexedProperty("revisions.key", ImmutableList.of(LEGACY_REVISION_TIME.toDate()));
+    entity.setUnindexedProperty("revisions.value", ImmutableList.of(legacyManifestKey.getRaw()));
+    getDatastoreService().put(entity);
+    ofy().clearSessionCache();
+  }
+
+  @Test
+  public void test_mapreduceMovesLegacyRevisionsToIndex() throws Exception {
+    ContactResource contact = persistActiveContact("test123");
+    persistAsLegacyContact(contact);
+    assertThat(loadRevisions(ofy().load().entity(contact).now()))
+        .containsExactly(LEGACY_REVISION_TIME, legacyManifestKey);
+    runMapreduce();
+    ofy().clearSessionCache();
+    EppResourceRevisionIndex index =
+        ofy().load().key(EppResourceRevisionIndex.createKey(Key.create(contact))).now();
+    // The index holds the legacy revision, plus the revision of the migration itself.
+    assertThat(index.getRevisions()).hasSize(2);
+    assertThat(index.getRevisions()).containsEntry(LEGACY_REVISION_TIME, legacyManifestKey);
+    // The resource itself no longer stores its revisions.
+    assertThat(getDatastoreService().get(Key.create(contact).getRaw()).hasProperty("revisions.key"))
+        .isFalse();
+  }
+
+  @Test
+  public void test_mapreduceSkipsMigratedResources() throws Exception {
+    ContactResource contact = persistActiveContact("test123");
+    Key<EppResourceRevisionIndex> indexKey =
+        EppResourceRevisionIndex.createKey(Key.create(contact));
+    EppResourceRevisionIndex index = ofy().load().key(indexKey).now();
+    assertThat(index).isNotNull();
+    ofy().clearSessionCache();
+    runMapreduce();
+    ofy().clearSessionCache();
+    assertThat(ofy().load().key(indexKey).now()).isEqualTo(index);
+  }
+}
@@ -0,0 +1,126 @@
+// Copyright 2018 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.batch;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static com.google.common.collect.Iterables.getOnlyElement;
+import static com.google.common.truth.Truth.assertThat;
+import static google.registry.model.index.EppResourceIndexBucket.getBucketKey;
+import static google.registry.model.ofy.ObjectifyService.ofy;
+import static google.registry.testing.DatastoreHelper.persistActiveContact;
+import static google.registry.testing.DatastoreHelper.persistResource;
+
+import com.google.common.collect.ImmutableList;
+import com.googlecode.objectify.Key;
+import google.registry.model.contact.ContactResource;
+import google.registry.model.index.EppResourceIndex;
+import google.registry.model.index.EppResourceIndexBucket;
+import google.registry.model.index.EppResourceIndexBucketStats;
+import google.registry.testing.FakeResponse;
+import google.registry.testing.mapreduce.MapreduceTestCase;
+import org.joda.time.DateTime;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link RebalanceEppResourceIndexAction}. */
+@RunWith(JUnit4.class)
+public class RebalanceEppResourceIndexActionTest
+    extends MapreduceTestCase<RebalanceEppResourceIndexAction> {
+
+  @Before
+  public void init() {
+    action = new RebalanceEppResourceIndexAction();
+    action.mrRunner = makeDefaultRunner();
+    action.response = new FakeResponse();
+  }
+
+  private void runMapreduce() throws Exception {
+    action.run();
+    executeTasksUntilEmpty("mapreduce");
+    ofy().clearSessionCache();
+  }
+
+  private static ImmutableList<EppResourceIndex> loadIndexes(
+      Key<EppResourceIndexBucket> bucketKey) {
+    return ImmutableList.copyOf(
+        ofy().load().type(EppResourceIndex.class).ancestor(bucketKey).list());
+  }
+
+  @Test
+  public void test_mapreduceMovesMisplacedIndexEntries() throws Exception {
+    ContactResource contact = persistActiveContact("test123");
+    Key<ContactResource> contactKey = Key.create(contact);
+    Key<EppResourceIndexBucket> rightBucket = getBucketKey(contactKey);
+    // As if the contact was indexed before the number of buckets was raised.
+    Key<EppResourceIndexBucket> wrongBucket =
+        getBucketKey((int) (rightBucket.getId() % 3) + 1);
+    ofy().transact(() -> ofy().delete().entity(EppResourceIndex.create(contactKey)).now());
+    persistResource(EppResourceIndex.create(wrongBucket, contactKey));
+    runMapreduce();
+    assertThat(loadIndexes(wrongBucket)).isEmpty();
+    assertThat(getOnlyElement(loadIndexes(rightBucket)).getKey()).isEqualTo(contactKey);
+  }
+
+  @Test
+  public void test_mapreduceDeletesIndexEntriesOfMissingResources() throws Exception {
+    ContactResource contact = persistActiveContact("test123");
+    Key<ContactResource> contactKey = Key.create(contact);
+    Key<ContactResource> missingKey = Key.create(ContactResource.class, "missing-ROID");
+    persistResource(EppResourceIndex.create(missingKey));
+    runMapreduce();
+    assertThat(ofy().load().key(Key.create(EppResourceIndex.create(missingKey))).now()).isNull();
+    assertThat(getOnlyElement(loadIndexes(getBucketKey(contactKey))).getKey())
+        .isEqualTo(contactKey);
+  }
+
+  @Test
+  public void test_mapreduceDeletesStatsOfEmptyBuckets() throws Exception {
+    Key<EppResourceIndexBucket> bucketKey = getBucketKey(1);
+    assertThat(loadIndexes(bucketKey)).isEmpty();
+    ofy()
+        .saveWithoutBackup()
+        .entity(
+            EppResourceIndexBucketStats.create(
+                bucketKey, 5, ImmutableList.of("a", "b"), DateTime.parse("2018-01-01T00:00:00Z")))
+        .now();
+    runMapreduce();
+    assertThat(ofy().load().key(EppResourceIndexBucketStats.createKey(bucketKey)).now()).isNull();
+  }
+
+  @Test
+  public void test_mapreduceSavesBucketStats() throws Exception {
+    for (int i = 0; i < 10; i++) {
+      persistActiveContact("contact" + i);
+    }
+    runMapreduce();
+    for (Key<EppResourceIndexBucket> bucketKey : EppResourceIndexBucket.getAllBuckets()) {
+      ImmutableList<EppResourceIndex> indexes = loadIndexes(bucketKey);
+      EppResourceIndexBucketStats stats =
+          ofy().load().key(EppResourceIndexBucketStats.createKey(bucketKey)).now();
+      if (indexes.isEmpty()) {
+        assertThat(stats).isNull();
+        continue;
+      }
+      assertThat(stats.getSize()).isEqualTo(indexes.size());
+      // There are fewer entries than the sample size, so all of them are sampled.
+      assertThat(stats.getSampledIds())
+          .containsExactlyElementsIn(
+              indexes.stream().map(EppResourceIndex::getId).sorted().collect(toImmutableList()))
+          .inOrder();
+    }
+  }
+}
@@ -29,6 +29,7 @@ import org.apache.avro.Schema;
 import org.apache.avro.generic.GenericData;
 import org.apache.avro.generic.GenericRecord;
 import org.apache.beam.sdk.io.gcp.bigquery.SchemaAndRecord;
+import org.apache.beam.sdk.values.KV;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -129,12 +130,27 @@ public class BillingEventTest {
             + "12345-CRRHELLO,test,RENEW,example.test,123456,5,USD,20.50,AUTO_RENEW");
   }
 
+  @Test
+  public void testConvertBillingEvent_toCsv_fieldWithComma_throwsException() {
+    schemaAndRecord.getRecord().put("registrarId", "my,Registrar");
+    BillingEvent event = BillingEvent.parseFromRecord(schemaAndRecord);
+    IllegalArgumentException thrown = assertThrows(IllegalArgumentException.class, event::toCsv);
+    assertThat(thrown).hasMessageThat().contains("my,Registrar");
+  }
+
   @Test
   public void testGenerateBillingEventFilename() {
     BillingEvent event = BillingEvent.parseFromRecord(schemaAndRecord);
     assertThat(event.toFilename("2017-10")).isEqualTo("invoice_details_2017-10_myRegistrar_test");
   }
 
+  @Test
+  public void testGenerateDetailRowFilename() {
+    BillingEvent event = BillingEvent.parseFromRecord(schemaAndRecord);
+    assertThat(BillingEvent.detailRowToFilename("2017-10", event.toCsv()))
+        .isEqualTo(event.toFilename("2017-10"));
+  }
+
   @Test
   public void testGetInvoiceGroupingKey_fromBillingEvent() {
     BillingEvent event = BillingEvent.parseFromRecord(schemaAndRecord);
@@ -159,6 +175,28 @@ public class BillingEventTest {
                 + "myRegistrar - test,3,RENEW | TLD: test | TERM: 5-year,20.50,USD,");
   }
 
+  @Test
+  public void testInvoiceGroupingKey_partialCsvRoundTrip() {
+    BillingEvent event = BillingEvent.parseFromRecord(schemaAndRecord);
+    InvoiceGroupingKey invoiceKey = event.getInvoiceGroupingKey();
+    String partialCsv = invoiceKey.toPartialCsv(3L);
+    assertThat(partialCsv)
+        .isEqualTo(
+            "2017-10-01,2022-09-30,12345-CRRHELLO,myRegistrar - test,"
+                + "RENEW | TLD: test | TERM: 5-year,20.5,USD,,3");
+    KV<InvoiceGroupingKey, Long> partial = InvoiceGroupingKey.parsePartialCsv(partialCsv);
+    assertThat(partial.getKey()).isEqualTo(invoiceKey);
+    assertThat(partial.getValue()).isEqualTo(3L);
+  }
+
+  @Test
+  public void testInvoiceGroupingKey_partialCsv_fieldWithLineBreak_throwsException() {
+    schemaAndRecord.getRecord().put("billingId", "12345\nCRRHELLO");
+    InvoiceGroupingKey invoiceKey =
+        BillingEvent.parseFromRecord(schemaAndRecord).getInvoiceGroupingKey();
+    assertThrows(IllegalArgumentException.class, () -> invoiceKey.toPartialCsv(3L));
+  }
+
   @Test
   public void testInvoiceGroupingKeyCoder_deterministicSerialization() throws IOException {
     InvoiceGroupingKey invoiceKey =
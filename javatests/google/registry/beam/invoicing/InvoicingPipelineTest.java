@@ -17,7 +17,9 @@ package google.registry.beam.invoicing;
 import static com.google.common.truth.Truth.assertThat;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Multimaps;
 import google.registry.util.ResourceUtils;
 import java.io.File;
 import java.io.IOException;
@@ -25,12 +27,12 @@ import java.time.ZoneId;
 import java.time.ZonedDateTime;
 import java.util.Map.Entry;
 import org.apache.beam.runners.direct.DirectRunner;
+import org.apache.beam.sdk.Pipeline;
 import org.apache.beam.sdk.options.PipelineOptions;
 import org.apache.beam.sdk.options.PipelineOptionsFactory;
 import org.apache.beam.sdk.options.ValueProvider.StaticValueProvider;
 import org.apache.beam.sdk.testing.TestPipeline;
 import org.apache.beam.sdk.transforms.Create;
-import org.apache.beam.sdk.values.PCollection;
 import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Rule;
@@ -177,11 +179,41 @@ public class InvoicingPipelineTest {
             + "CREATE | TLD: test | TERM: 1-year,0.00,USD,");
   }
 
+  /** Runs the daily pipeline for each day the input events are billed on. */
+  private void runDailyPipelines() {
+    ImmutableListMultimap<String, BillingEvent> eventsByDay =
+        Multimaps.index(getInputEvents(), event -> event.billingTime().toLocalDate().toString());
+    for (String day : eventsByDay.keySet()) {
+      Pipeline dailyPipeline = Pipeline.create(pipelineOptions);
+      invoicingPipeline.applyDailyTransforms(
+          dailyPipeline.apply(Create.of(eventsByDay.get(day))), StaticValueProvider.of(day));
+      dailyPipeline.run().waitUntilFinish();
+    }
+  }
+
+  @Test
+  public void testDailyPipeline_generatesPartials() throws Exception {
+    runDailyPipelines();
+
+    assertThat(partialFileContents("2017-10-02-invoice.csv"))
+        .containsExactly(
+            "2017-10-01,2022-09-30,234,theRegistrar - hello,"
+                + "CREATE | TLD: hello | TERM: 5-year,70.75,JPY,,1");
+    assertThat(partialFileContents("2017-10-04-invoice.csv"))
+        .containsExactly(
+            "2017-10-01,2020-09-30,234,theRegistrar - test,"
+                + "RENEW | TLD: test | TERM: 3-year,20.5,USD,,2",
+            "2017-10-01,2018-09-30,456,googledomains - test,"
+                + "RENEW | TLD: test | TERM: 1-year,20.5,USD,,1",
+            "2017-10-01,2018-09-30,789,anotherRegistrar - test,"
+                + "CREATE | TLD: test | TERM: 1-year,0.0,USD,,1");
+    assertThat(partialFileContents("2017-10-04-details.csv")).hasSize(4);
+  }
+
   @Test
   public void testEndToEndPipeline_generatesExpectedFiles() throws Exception {
-    ImmutableList<BillingEvent> inputRows = getInputEvents();
-    PCollection<BillingEvent> input = p.apply(Create.of(inputRows));
-    invoicingPipeline.applyTerminalTransforms(input, StaticValueProvider.of("2017-10"));
+    runDailyPipelines();
+    invoicingPipeline.applyMonthlyTransforms(p, StaticValueProvider.of("2017-10"));
     p.run();
 
     for (Entry<String, ImmutableList<String>> entry : getExpectedDetailReportMap().entrySet()) {
@@ -203,6 +235,17 @@ public class InvoicingPipelineTest {
         .containsExactlyElementsIn(getExpectedInvoiceOutput());
   }
 
+  /** Returns the lines of a daily partial file for October 2017. */
+  private ImmutableList<String> partialFileContents(String filename) throws Exception {
+    File partialFile =
+        new File(
+            String.format(
+                "%s/invoice_partials/2017-10/%s",
+                tempFolder.getRoot().getAbsolutePath(), filename));
+    return ImmutableList.copyOf(
+        ResourceUtils.readResourceUtf8(partialFile.toURI().toURL()).split("\n"));
+  }
+
   /** Returns the text contents of a file under the beamBucket/results directory. */
   private ImmutableList<String> resultFileContents(String filename) throws Exception {
     File resultFile =
@@ -15,9 +15,6 @@
 package google.registry.beam.invoicing;
 
 import static com.google.common.truth.Truth.assertThat;
-import static org.mockito.Matchers.any;
-import static org.mockito.Mockito.mock;
-import static org.mockito.Mockito.when;
 
 import google.registry.testing.TestDataHelper;
 import org.apache.beam.sdk.io.DefaultFilenamePolicy.Params;
@@ -35,14 +32,13 @@ public class InvoicingUtilsTest {
 
   @Test
   public void testDestinationFunction_generatesProperFileParams() {
-    SerializableFunction<BillingEvent, Params> destinationFunction =
+    SerializableFunction<String, Params> destinationFunction =
         InvoicingUtils.makeDestinationFunction("my/directory", StaticValueProvider.of("2017-10"));
 
-    BillingEvent billingEvent = mock(BillingEvent.class);
-    // We mock BillingEvent to make the test independent of the implementation of toFilename()
-    when(billingEvent.toFilename(any())).thenReturn("invoice_details_2017-10_registrar_tld");
-
-    assertThat(destinationFunction.apply(billingEvent))
+    String detailRow =
+        "1,2017-10-04 00:00:00 UTC,2017-10-04 00:00:00 UTC,registrar,234,"
+            + "tld,RENEW,mydomain.tld,REPO-ID,3,USD,20.50,";
+    assertThat(destinationFunction.apply(detailRow))
         .isEqualTo(
             new Params()
                 .withShardTemplate("")
@@ -69,6 +65,15 @@ public class InvoicingUtilsTest {
     assertThat(queryProvider.get()).isEqualTo(loadFile("billing_events_test.sql"));
   }
 
+  /** Asserts that the daily instantiated sql template matches a golden expected file. */
+  @Test
+  public void testMakeDailyQueryProvider() {
+    ValueProvider<String> queryProvider =
+        InvoicingUtils.makeDailyQueryProvider(
+            StaticValueProvider.of("2017-10-04"), "my-project-id");
+    assertThat(queryProvider.get()).isEqualTo(loadFile("billing_events_daily_test.sql"));
+  }
+
   /** Returns a {@link String} from a file in the {@code billing/testdata/} directory. */
   private static String loadFile(String filename) {
     return TestDataHelper.loadFile(InvoicingUtilsTest.class, filename);
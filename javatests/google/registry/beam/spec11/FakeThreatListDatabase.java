@@ -0,0 +1,58 @@
+// Copyright 2018 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.beam.spec11;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.io.BaseEncoding;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import org.joda.time.Duration;
+
+/**
+ * A {@link ThreatListDatabase} backed by a local file of base16 encoded hash prefixes, one per
+ * line.
+ *
+ * <p>The file is read when the database is synced, so that its path is the only state serialized
+ * with the pipeline.
+ */
+class FakeThreatListDatabase extends ThreatListDatabase {
+
+  private static final long serialVersionUID = 2948573920174637281L;
+
+  private final String path;
+
+  FakeThreatListDatabase(String path) {
+    this.path = path;
+  }
+
+  @Override
+  String getListsId() {
+    return path;
+  }
+
+  @Override
+  HashPrefixes fetchHashPrefixes() throws IOException {
+    return HashPrefixes.create(
+        Files.readAllLines(Paths.get(path), UTF_8)
+            .stream()
+            .filter(line -> !line.isEmpty())
+            .map(BaseEncoding.base16()::decode)
+            .collect(toImmutableList()),
+        Duration.ZERO);
+  }
+}
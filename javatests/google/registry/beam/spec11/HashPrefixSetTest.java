@@ -0,0 +1,94 @@
+// Copyright 2018 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.beam.spec11;
+
+import static com.google.common.truth.Truth.assertThat;
+import static google.registry.testing.JUnitBackports.assertThrows;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.primitives.Ints;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link HashPrefixSet}. */
+@RunWith(JUnit4.class)
+public class HashPrefixSetTest {
+
+  private static final byte[] FULL_HASH = ThreatListDatabase.hashExpression("evil.com/");
+
+  private static byte[] prefixOf(byte[] fullHash, int length) {
+    byte[] prefix = new byte[length];
+    System.arraycopy(fullHash, 0, prefix, 0, length);
+    return prefix;
+  }
+
+  @Test
+  public void testMatches_binarySearch() {
+    List<byte[]> prefixes = new ArrayList<>();
+    for (int i = 999; i >= 0; i--) {
+      // Spread the prefixes over the whole unsigned range, including "negative" bytes.
+      prefixes.add(Ints.toByteArray(i * 4_000_007));
+    }
+    HashPrefixSet set = HashPrefixSet.create(prefixes);
+    assertThat(set.size()).isEqualTo(1000);
+    for (int i = 0; i < 1000; i++) {
+      byte[] fullHash = new byte[32];
+      System.arraycopy(Ints.toByteArray(i * 4_000_007), 0, fullHash, 0, 4);
+      assertThat(set.matches(fullHash)).isTrue();
+      System.arraycopy(Ints.toByteArray(i * 4_000_007 + 1), 0, fullHash, 0, 4);
+      assertThat(set.matches(fullHash)).isFalse();
+    }
+  }
+
+  @Test
+  public void testMatches_prefixesOfDifferentLengths() {
+    HashPrefixSet set =
+        HashPrefixSet.create(
+            ImmutableList.of(new byte[] {1, 2, 3, 4}, prefixOf(FULL_HASH, 8), FULL_HASH));
+    assertThat(set.size()).isEqualTo(3);
+    assertThat(set.matches(FULL_HASH)).isTrue();
+    byte[] otherHash = FULL_HASH.clone();
+    otherHash[31]++;
+    // Still matches the 8-byte prefix.
+    assertThat(set.matches(otherHash)).isTrue();
+    otherHash[7]++;
+    assertThat(set.matches(otherHash)).isFalse();
+  }
+
+  @Test
+  public void testCreate_dropsDuplicates() {
+    HashPrefixSet set =
+        HashPrefixSet.create(
+            ImmutableList.of(prefixOf(FULL_HASH, 4), prefixOf(FULL_HASH, 4), FULL_HASH));
+    assertThat(set.size()).isEqualTo(2);
+    assertThat(set.matches(FULL_HASH)).isTrue();
+  }
+
+  @Test
+  public void testCreate_empty() {
+    HashPrefixSet set = HashPrefixSet.create(ImmutableList.of());
+    assertThat(set.size()).isEqualTo(0);
+    assertThat(set.matches(FULL_HASH)).isFalse();
+  }
+
+  @Test
+  public void testCreate_emptyPrefix_throws() {
+    assertThrows(
+        IllegalArgumentException.class, () -> HashPrefixSet.create(ImmutableList.of(new byte[0])));
+  }
+}
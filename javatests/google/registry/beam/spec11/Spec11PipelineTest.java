@@ -14,6 +14,8 @@
 
 package google.registry.beam.spec11;
 
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static com.google.common.collect.ImmutableSet.toImmutableSet;
 import static com.google.common.truth.Truth.assertThat;
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.mockito.Matchers.any;
@@ -22,6 +24,9 @@ import static org.mockito.Mockito.when;
 import static org.mockito.Mockito.withSettings;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.BaseEncoding;
 import com.google.common.io.CharStreams;
 import google.registry.beam.spec11.SafeBrowsingTransforms.EvaluateSafeBrowsingFn;
 import google.registry.testing.FakeClock;
@@ -35,6 +40,8 @@ import java.io.InputStreamReader;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.nio.file.Files;
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.function.Supplier;
 import org.apache.beam.runners.direct.DirectRunner;
@@ -50,6 +57,8 @@ import org.apache.http.client.methods.HttpPost;
 import org.apache.http.entity.BasicHttpEntity;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.message.BasicStatusLine;
+import org.joda.time.Duration;
+import org.joda.time.Instant;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -88,6 +97,8 @@ public class Spec11PipelineTest {
     File beamTempFolder = tempFolder.newFolder();
     spec11Pipeline.beamStagingUrl = beamTempFolder.getAbsolutePath() + "/staging";
     spec11Pipeline.spec11TemplateUrl = beamTempFolder.getAbsolutePath() + "/templates/invoicing";
+    spec11Pipeline.retrier = new Retrier(new FakeSleeper(new FakeClock()), 3);
+    spec11Pipeline.verdictCacheTtl = Duration.standardDays(1);
   }
 
   private static final ImmutableList<String> BAD_DOMAINS =
@@ -135,6 +146,97 @@ public class Spec11PipelineTest {
     spec11Pipeline.evaluateUrlHealth(input, evalFn, StaticValueProvider.of("2018-06"));
     p.run();
 
+    verifyReport();
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testEndToEndPipeline_localThreatLists_onlyLooksUpPrefixMatches() throws Exception {
+    ImmutableList<Subdomain> inputRows = getInputDomains();
+    // 333.com matches a prefix, but isn't on a threat list according to the full hash lookup.
+    ThreatListDatabase threatListDatabase =
+        createThreatListDatabase("111.com", "222.com", "333.com", "444.com");
+    CloseableHttpClient httpClient = mock(CloseableHttpClient.class, withSettings().serializable());
+    when(httpClient.execute(any(HttpPost.class)))
+        .thenAnswer(
+            new FullHashResponder(ImmutableList.of("111.com", "222.com", "333.com", "444.com")));
+
+    PCollection<Subdomain> input = p.apply(Create.of(inputRows));
+    spec11Pipeline.evaluateUrlHealthLocally(
+        input,
+        threatListDatabase,
+        StaticValueProvider.of("apikey"),
+        (Serializable & Supplier) () -> httpClient,
+        StaticValueProvider.of("2018-06"));
+    p.run();
+
+    verifyReport();
+    ImmutableMap<String, CachedVerdict> cachedVerdicts = cachedVerdicts();
+    assertThat(cachedVerdicts.keySet())
+        .containsExactly("111.com", "222.com", "333.com", "444.com");
+    assertThat(cachedVerdicts.get("333.com").threatMatch()).isNull();
+    assertThat(cachedVerdicts.get("444.com").threatMatch().threatType()).isEqualTo("MALWARE");
+    // The verdicts are cached for as long as the API allows, which is shorter than the TTL.
+    Instant now = Instant.now();
+    assertThat(cachedVerdicts.get("333.com").expirationTime()).isGreaterThan(now);
+    assertThat(cachedVerdicts.get("333.com").expirationTime())
+        .isAtMost(now.plus(Duration.standardMinutes(1)));
+    assertThat(cachedVerdicts.get("444.com").expirationTime()).isGreaterThan(now);
+    assertThat(cachedVerdicts.get("444.com").expirationTime())
+        .isAtMost(now.plus(Duration.standardMinutes(5)));
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testEndToEndPipeline_localThreatLists_reusesUnexpiredVerdicts() throws Exception {
+    ThreatListDatabase threatListDatabase = createThreatListDatabase("111.com", "222.com");
+    Instant future = Instant.now().plus(Duration.standardDays(1));
+    ThreatMatch malware =
+        ThreatMatch.create(
+            new JSONObject().put("threatType", "MALWARE").put("platformType", "WINDOWS"),
+            "111.com");
+    File verdictCache = new File(tempFolder.getRoot(), "verdict_cache/verdicts");
+    verdictCache.getParentFile().mkdirs();
+    Files.write(
+        verdictCache.toPath(),
+        ImmutableList.of(
+            CachedVerdict.create("111.com", malware, future).toJSONString(),
+            CachedVerdict.create("222.com", null, Instant.now().minus(1)).toJSONString(),
+            CachedVerdict.create("555.com", null, future).toJSONString()),
+        UTF_8);
+    // Only 222.com's expired verdict should be looked up again.
+    CloseableHttpClient httpClient = mock(CloseableHttpClient.class, withSettings().serializable());
+    when(httpClient.execute(any(HttpPost.class)))
+        .thenAnswer(new FullHashResponder(ImmutableList.of("222.com")));
+
+    PCollection<Subdomain> input =
+        p.apply(
+            Create.of(
+                Subdomain.create("111.com", "theRegistrar", "fake@theRegistrar.com"),
+                Subdomain.create("222.com", "theRegistrar", "fake@theRegistrar.com"),
+                Subdomain.create("555.com", "theRegistrar", "fake@theRegistrar.com")));
+    spec11Pipeline.evaluateUrlHealthLocally(
+        input,
+        threatListDatabase,
+        StaticValueProvider.of("apikey"),
+        (Serializable & Supplier) () -> httpClient,
+        StaticValueProvider.of("2018-06"));
+    p.run();
+
+    ImmutableList<String> generatedReport = resultFileContents();
+    assertThat(generatedReport).hasSize(2);
+    JSONArray threatMatches = new JSONObject(generatedReport.get(1)).getJSONArray("threatMatches");
+    assertThat(threatMatches.length()).isEqualTo(2);
+    ImmutableMap<String, CachedVerdict> cachedVerdicts = cachedVerdicts();
+    // 555.com doesn't match a prefix anymore, so its verdict is dropped.
+    assertThat(cachedVerdicts.keySet()).containsExactly("111.com", "222.com");
+    assertThat(cachedVerdicts.get("111.com").expirationTime()).isEqualTo(future);
+    assertThat(cachedVerdicts.get("222.com").threatMatch().threatType()).isEqualTo("MALWARE");
+    assertThat(cachedVerdicts.get("222.com").expirationTime()).isGreaterThan(Instant.now());
+  }
+
+  /** Verifies the report generated from {@link #getInputDomains}. */
+  private void verifyReport() throws Exception {
     // Verify header and 3 threat matches for 2 registrars are found
     ImmutableList<String> generatedReport = resultFileContents();
     assertThat(generatedReport).hasSize(3);
@@ -268,6 +370,98 @@ public class Spec11PipelineTest {
     }
   }
 
+  /**
+   * A serializable {@link Answer} that answers full hash lookups of the expected domains, finding
+   * the ones in {@link #BAD_DOMAINS}.
+   *
+   * <p>It fails when asked about any other domain, since those shouldn't match a local prefix.
+   */
+  private static class FullHashResponder implements Answer<CloseableHttpResponse>, Serializable {
+
+    private final ImmutableSet<String> allowedHashes;
+    private final ImmutableSet<String> badHashes;
+
+    FullHashResponder(ImmutableList<String> expectedDomains) {
+      allowedHashes =
+          expectedDomains.stream().map(FullHashResponder::hash).collect(toImmutableSet());
+      badHashes =
+          expectedDomains
+              .stream()
+              .filter(BAD_DOMAINS::contains)
+              .map(FullHashResponder::hash)
+              .collect(toImmutableSet());
+    }
+
+    @Override
+    public CloseableHttpResponse answer(InvocationOnMock invocation) throws Throwable {
+      JSONObject request =
+          new JSONObject(
+              CharStreams.toString(
+                  new InputStreamReader(
+                      ((HttpPost) invocation.getArguments()[0]).getEntity().getContent(),
+                      UTF_8)));
+      JSONArray threatEntries = request.getJSONObject("threatInfo").getJSONArray("threatEntries");
+      JSONArray matches = new JSONArray();
+      for (int i = 0; i < threatEntries.length(); i++) {
+        String hash = threatEntries.getJSONObject(i).getString("hash");
+        if (!allowedHashes.contains(hash)) {
+          throw new IllegalStateException("Unexpected full hash lookup for " + hash);
+        }
+        if (badHashes.contains(hash)) {
+          matches.put(
+              new JSONObject()
+                  .put("threatType", "MALWARE")
+                  .put("platformType", "WINDOWS")
+                  .put("threatEntryType", "URL")
+                  .put("threat", new JSONObject().put("hash", hash))
+                  .put("cacheDuration", "300.000s"));
+        }
+      }
+      JSONObject response = new JSONObject().put("negativeCacheDuration", "60.000s");
+      if (matches.length() > 0) {
+        response.put("matches", matches);
+      }
+      CloseableHttpResponse httpResponse =
+          mock(CloseableHttpResponse.class, withSettings().serializable());
+      when(httpResponse.getStatusLine())
+          .thenReturn(new BasicStatusLine(new ProtocolVersion("HTTP", 1, 1), 200, "Done"));
+      when(httpResponse.getEntity()).thenReturn(new FakeHttpEntity(response.toString()));
+      return httpResponse;
+    }
+
+    private static String hash(String domain) {
+      return BaseEncoding.base64().encode(ThreatListDatabase.hashExpression(domain + "/"));
+    }
+  }
+
+  /** Returns a threat list database holding 4-byte hash prefixes of the given domains. */
+  private ThreatListDatabase createThreatListDatabase(String... domains) throws IOException {
+    File prefixFile = tempFolder.newFile();
+    Files.write(
+        prefixFile.toPath(),
+        Arrays.stream(domains)
+            .map(
+                domain ->
+                    BaseEncoding.base16()
+                        .encode(
+                            Arrays.copyOf(ThreatListDatabase.hashExpression(domain + "/"), 4)))
+            .collect(toImmutableList()),
+        UTF_8);
+    return new FakeThreatListDatabase(prefixFile.getAbsolutePath());
+  }
+
+  /** Returns the verdicts written to the verdict cache, keyed by domain name. */
+  private ImmutableMap<String, CachedVerdict> cachedVerdicts() throws Exception {
+    ImmutableMap.Builder<String, CachedVerdict> verdicts = new ImmutableMap.Builder<>();
+    for (String line :
+        Files.readAllLines(
+            new File(tempFolder.getRoot(), "verdict_cache/verdicts").toPath(), UTF_8)) {
+      CachedVerdict verdict = CachedVerdict.parse(line);
+      verdicts.put(verdict.fullyQualifiedDomainName(), verdict);
+    }
+    return verdicts.build();
+  }
+
   /** Returns the text contents of a file under the beamBucket/results directory. */
   private ImmutableList<String> resultFileContents() throws Exception {
     File resultFile =
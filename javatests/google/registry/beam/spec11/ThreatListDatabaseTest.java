@@ -0,0 +1,103 @@
+// Copyright 2018 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.beam.spec11;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.BaseEncoding;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link ThreatListDatabase}. */
+@RunWith(JUnit4.class)
+public class ThreatListDatabaseTest {
+
+  @Rule public final TemporaryFolder tempFolder = new TemporaryFolder();
+
+  private File prefixFile;
+
+  @Before
+  public void before() throws IOException {
+    ThreatListDatabase.clearSyncedPrefixes();
+    prefixFile = tempFolder.newFile();
+  }
+
+  @Test
+  public void testSync_loadsPrefixes() throws Exception {
+    writePrefixes("evil.com");
+    ThreatListDatabase database = new FakeThreatListDatabase(prefixFile.getAbsolutePath());
+    database.sync();
+    assertThat(database.getPrefixMatches("evil.com")).hasSize(1);
+    assertThat(database.getPrefixMatches("www.evil.com")).hasSize(1);
+    assertThat(database.getPrefixMatches("good.com")).isEmpty();
+  }
+
+  @Test
+  public void testSync_sameLists_reusesPrefixesSyncedInJvm() throws Exception {
+    writePrefixes("evil.com");
+    new FakeThreatListDatabase(prefixFile.getAbsolutePath()).sync();
+    writePrefixes("worse.com");
+    ThreatListDatabase database = new FakeThreatListDatabase(prefixFile.getAbsolutePath());
+    database.sync();
+    assertThat(database.getPrefixMatches("evil.com")).hasSize(1);
+    assertThat(database.getPrefixMatches("worse.com")).isEmpty();
+  }
+
+  @Test
+  public void testSync_afterClear_fetchesPrefixesAgain() throws Exception {
+    writePrefixes("evil.com");
+    new FakeThreatListDatabase(prefixFile.getAbsolutePath()).sync();
+    writePrefixes("worse.com");
+    ThreatListDatabase.clearSyncedPrefixes();
+    ThreatListDatabase database = new FakeThreatListDatabase(prefixFile.getAbsolutePath());
+    database.sync();
+    assertThat(database.getPrefixMatches("evil.com")).isEmpty();
+    assertThat(database.getPrefixMatches("worse.com")).hasSize(1);
+  }
+
+  @Test
+  public void testSync_differentLists_fetchedSeparately() throws Exception {
+    writePrefixes("evil.com");
+    File otherPrefixFile = tempFolder.newFile();
+    Files.write(otherPrefixFile.toPath(), ImmutableList.of(prefix("worse.com")), UTF_8);
+    ThreatListDatabase database = new FakeThreatListDatabase(prefixFile.getAbsolutePath());
+    ThreatListDatabase otherDatabase =
+        new FakeThreatListDatabase(otherPrefixFile.getAbsolutePath());
+    database.sync();
+    otherDatabase.sync();
+    assertThat(database.getPrefixMatches("worse.com")).isEmpty();
+    assertThat(otherDatabase.getPrefixMatches("evil.com")).isEmpty();
+    assertThat(otherDatabase.getPrefixMatches("worse.com")).hasSize(1);
+  }
+
+  private void writePrefixes(String domain) throws IOException {
+    Files.write(prefixFile.toPath(), ImmutableList.of(prefix(domain)), UTF_8);
+  }
+
+  private static String prefix(String domain) {
+    return BaseEncoding.base16()
+        .encode(Arrays.copyOf(ThreatListDatabase.hashExpression(domain + "/"), 4));
+  }
+}
@@ -20,10 +20,16 @@ import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import com.google.api.client.googleapis.json.GoogleJsonError;
+import com.google.api.client.googleapis.json.GoogleJsonError.ErrorInfo;
+import com.google.api.client.googleapis.json.GoogleJsonResponseException;
+import com.google.api.client.http.HttpHeaders;
 import com.google.api.client.http.HttpRequestInitializer;
+import com.google.api.client.http.HttpResponseException;
 import com.google.api.client.http.HttpTransport;
 import com.google.api.client.json.JsonFactory;
 import com.google.api.services.bigquery.Bigquery;
@@ -31,6 +37,7 @@ import com.google.api.services.bigquery.model.Dataset;
 import com.google.api.services.bigquery.model.Table;
 import com.google.api.services.bigquery.model.TableFieldSchema;
 import com.google.api.services.bigquery.model.TableReference;
+import com.google.api.services.bigquery.model.TableSchema;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import org.junit.Before;
@@ -50,6 +57,8 @@ public class BigqueryFactoryTest {
       mock(Bigquery.Datasets.Insert.class);
   private final Bigquery.Tables bigqueryTables = mock(Bigquery.Tables.class);
   private final Bigquery.Tables.Insert bigqueryTablesInsert = mock(Bigquery.Tables.Insert.class);
+  private final Bigquery.Tables.Get bigqueryTablesGet = mock(Bigquery.Tables.Get.class);
+  private final Bigquery.Tables.Patch bigqueryTablesPatch = mock(Bigquery.Tables.Patch.class);
 
   private BigqueryFactory factory;
 
@@ -67,6 +76,11 @@ public class BigqueryFactoryTest {
     when(bigquery.tables()).thenReturn(bigqueryTables);
     when(bigqueryTables.insert(eq("Project-Id"), any(String.class), any(Table.class)))
         .thenReturn(bigqueryTablesInsert);
+    when(bigqueryTables.get(eq("Project-Id"), any(String.class), any(String.class)))
+        .thenReturn(bigqueryTablesGet);
+    when(bigqueryTables.patch(
+            eq("Project-Id"), any(String.class), any(String.class), any(Table.class)))
+        .thenReturn(bigqueryTablesPatch);
     factory = new BigqueryFactory();
     factory.subfactory = subfactory;
     factory.bigquerySchemas =
@@ -77,6 +91,16 @@ public class BigqueryFactoryTest {
             .put(
                 "Table2",
                 ImmutableList.of(new TableFieldSchema().setName("column1").setType(STRING.name())))
+            .put(
+                "Table3",
+                ImmutableList.of(
+                    new TableFieldSchema().setName("column1").setType(STRING.name()),
+                    new TableFieldSchema().setName("column2").setType(STRING.name())))
+            .put(
+                "Table4",
+                ImmutableList.of(
+                    new TableFieldSchema().setName("column1").setType(STRING.name()),
+                    new TableFieldSchema().setName("column2").setType(STRING.name())))
             .build();
   }
 
@@ -115,4 +139,61 @@ public class BigqueryFactoryTest {
         .containsExactly(new TableFieldSchema().setName("column1").setType(STRING.name()));
     verify(bigqueryTablesInsert).execute();
   }
+
+  @Test
+  public void testSuccess_existingTableMissingColumns_isPatched() throws Exception {
+    when(bigqueryTablesInsert.execute()).thenThrow(createDuplicateException());
+    when(bigqueryTablesGet.execute())
+        .thenReturn(
+            new Table()
+                .setSchema(
+                    new TableSchema()
+                        .setFields(
+                            ImmutableList.of(
+                                new TableFieldSchema()
+                                    .setName("column1")
+                                    .setType(STRING.name())))));
+
+    factory.create("Project-Id", "Dataset3", "Table3");
+
+    ArgumentCaptor<Table> tableArg = ArgumentCaptor.forClass(Table.class);
+    verify(bigqueryTables)
+        .patch(eq("Project-Id"), eq("Dataset3"), eq("Table3"), tableArg.capture());
+    assertThat(tableArg.getValue().getSchema().getFields())
+        .containsExactly(
+            new TableFieldSchema().setName("column1").setType(STRING.name()),
+            new TableFieldSchema().setName("column2").setType(STRING.name()))
+        .inOrder();
+    verify(bigqueryTablesPatch).execute();
+  }
+
+  @Test
+  public void testSuccess_existingTableWithAllColumns_isNotPatched() throws Exception {
+    when(bigqueryTablesInsert.execute()).thenThrow(createDuplicateException());
+    when(bigqueryTablesGet.execute())
+        .thenReturn(
+            new Table()
+                .setSchema(
+                    new TableSchema()
+                        .setFields(
+                            ImmutableList.of(
+                                new TableFieldSchema().setName("column1").setType(STRING.name()),
+                                new TableFieldSchema()
+                                    .setName("column2")
+                                    .setType(STRING.name())))));
+
+    factory.create("Project-Id", "Dataset4", "Table4");
+
+    verify(bigqueryTables).get("Project-Id", "Dataset4", "Table4");
+    verify(bigqueryTables, never())
+        .patch(any(String.class), any(String.class), any(String.class), any(Table.class));
+  }
+
+  private static GoogleJsonResponseException createDuplicateException() {
+    GoogleJsonError details = new GoogleJsonError();
+    details.setMessage("Already Exists");
+    details.setErrors(ImmutableList.of(new ErrorInfo().setReason("duplicate")));
+    return new GoogleJsonResponseException(
+        new HttpResponseException.Builder(409, "Conflict", new HttpHeaders()), details);
+  }
 }
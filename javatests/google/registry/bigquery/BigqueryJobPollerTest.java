@@ -0,0 +1,275 @@
+// Copyright 2018 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.bigquery;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.common.truth.Truth.assertWithMessage;
+import static google.registry.bigquery.BigqueryJobPoller.MAX_CONSECUTIVE_FETCH_FAILURES;
+import static google.registry.testing.JUnitBackports.assertThrows;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.google.api.services.bigquery.model.Job;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ListenableFuture;
+import google.registry.testing.FakeClock;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.joda.time.DateTime;
+import org.joda.time.Duration;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Unit tests for {@link BigqueryJobPoller}.
+ *
+ * <p>Polls are run on the test thread by {@link #runNextPoll}, which sets a fake clock to the time
+ * the poll was scheduled for, so no test waits on real time.
+ */
+@RunWith(JUnit4.class)
+public class BigqueryJobPollerTest {
+
+  private final FakeClock clock = new FakeClock();
+  private final FakeBigqueryJobs fakeJobs = new FakeBigqueryJobs();
+  private final AtomicInteger schedulersCreated = new AtomicInteger();
+  private final ScheduledExecutorService scheduler = mock(ScheduledExecutorService.class);
+  private final ScheduledFuture<?> scheduledFuture = mock(ScheduledFuture.class);
+
+  /** Delays of all polls scheduled so far, in order. */
+  private final List<Long> scheduledDelays = new ArrayList<>();
+
+  /**
+   * The poll that's currently scheduled, if any.
+   *
+   * <p>The poller only ever has one poll scheduled, and cancels it before scheduling another.
+   */
+  private Runnable scheduledPoll;
+
+  private DateTime scheduledPollTime;
+
+  private final BigqueryJobPoller poller =
+      new BigqueryJobPoller(
+          fakeJobs,
+          () -> {
+            schedulersCreated.incrementAndGet();
+            return scheduler;
+          },
+          clock,
+          Duration.millis(100),
+          Duration.millis(400));
+
+  @Before
+  public void before() {
+    when(scheduler.schedule(any(Runnable.class), anyLong(), eq(TimeUnit.MILLISECONDS)))
+        .thenAnswer(
+            invocation -> {
+              long delayMillis = (Long) invocation.getArguments()[1];
+              scheduledPoll = (Runnable) invocation.getArguments()[0];
+              scheduledPollTime = clock.nowUtc().plus(delayMillis);
+              scheduledDelays.add(delayMillis);
+              return scheduledFuture;
+            });
+  }
+
+  @After
+  public void after() {
+    poller.close();
+  }
+
+  /** Sets the clock to the time of the currently scheduled poll, and runs it. */
+  private void runNextPoll() {
+    assertWithMessage("No poll is scheduled").that(scheduledPoll).isNotNull();
+    Runnable poll = scheduledPoll;
+    scheduledPoll = null;
+    clock.setTo(scheduledPollTime);
+    poll.run();
+  }
+
+  /** Runs scheduled polls until the given future is done. */
+  private Job pollUntilDone(ListenableFuture<Job> future) throws Exception {
+    while (!future.isDone()) {
+      runNextPoll();
+    }
+    return future.get();
+  }
+
+  @Test
+  public void testSuccess_jobAlreadyDone_returnsImmediatelyWithoutPolling() throws Exception {
+    Job job = fakeJobs.addJob("done", 0);
+    ListenableFuture<Job> future = poller.waitForJob(job);
+    assertThat(future.isDone()).isTrue();
+    assertThat(future.get()).isSameAs(job);
+    assertThat(fakeJobs.getBatchSizes()).isEmpty();
+    assertThat(schedulersCreated.get()).isEqualTo(0);
+  }
+
+  @Test
+  public void testSuccess_pollsUntilDone_withBackoff() throws Exception {
+    ListenableFuture<Job> future = poller.waitForJob(fakeJobs.addJob("slow", 4));
+    for (int i = 0; i < 3; i++) {
+      runNextPoll();
+      assertThat(future.isDone()).isFalse();
+    }
+    runNextPoll();
+    assertThat(future.get().getStatus().getState()).isEqualTo("DONE");
+    assertThat(fakeJobs.getFetchCount("slow")).isEqualTo(4);
+    // The first poll comes after the initial interval, then the interval doubles up to the cap.
+    assertThat(scheduledDelays).containsExactly(100L, 200L, 400L, 400L).inOrder();
+    assertThat(scheduledPoll).isNull();
+    assertThat(schedulersCreated.get()).isEqualTo(1);
+  }
+
+  @Test
+  public void testSuccess_concurrentJobs_shareBatchedFetches() throws Exception {
+    List<ListenableFuture<Job>> futures = new ArrayList<>();
+    for (int i = 0; i < 3; i++) {
+      futures.add(poller.waitForJob(fakeJobs.addJob("job" + i, 1)));
+    }
+    runNextPoll();
+    for (ListenableFuture<Job> future : futures) {
+      assertThat(future.get().getStatus().getState()).isEqualTo("DONE");
+    }
+    assertThat(fakeJobs.getBatchSizes()).containsExactly(3);
+    assertThat(schedulersCreated.get()).isEqualTo(1);
+  }
+
+  @Test
+  public void testSuccess_jobsDueWithinCoalescingWindow_shareBatchedFetches() throws Exception {
+    ListenableFuture<Job> first = poller.waitForJob(fakeJobs.addJob("first", 1));
+    clock.advanceBy(Duration.millis(50));
+    ListenableFuture<Job> second = poller.waitForJob(fakeJobs.addJob("second", 1));
+    runNextPoll();
+    assertThat(first.isDone()).isTrue();
+    assertThat(second.isDone()).isTrue();
+    assertThat(fakeJobs.getBatchSizes()).containsExactly(2);
+  }
+
+  @Test
+  public void testSuccess_manyJobs_splitIntoMaximumSizedBatches() throws Exception {
+    int numJobs = BigqueryJobPoller.MAX_JOBS_PER_BATCH + 10;
+    List<ListenableFuture<Job>> futures = new ArrayList<>();
+    for (int i = 0; i < numJobs; i++) {
+      futures.add(poller.waitForJob(fakeJobs.addJob("job" + i, 1)));
+    }
+    runNextPoll();
+    for (ListenableFuture<Job> future : futures) {
+      assertThat(future.isDone()).isTrue();
+    }
+    assertThat(fakeJobs.getBatchSizes())
+        .containsExactly(BigqueryJobPoller.MAX_JOBS_PER_BATCH, 10)
+        .inOrder();
+  }
+
+  @Test
+  public void testFailure_jobNotFound_onlyFailsThatJobImmediately() throws Exception {
+    ListenableFuture<Job> goodJob = poller.waitForJob(fakeJobs.addJob("good", 2));
+    ListenableFuture<Job> badJob = poller.waitForJob(fakeJobs.addJob("bad", 2));
+    fakeJobs.failJob("bad");
+    runNextPoll();
+    ExecutionException thrown = assertThrows(ExecutionException.class, badJob::get);
+    assertThat(thrown).hasCauseThat().isInstanceOf(BigqueryJobFailureException.class);
+    assertThat(thrown).hasCauseThat().hasMessageThat().contains("Not found: Job bad");
+    assertThat(goodJob.isDone()).isFalse();
+    assertThat(pollUntilDone(goodJob).getStatus().getState()).isEqualTo("DONE");
+  }
+
+  @Test
+  public void testSuccess_transientJobFetchFailure_isRetriedWithBackoff() throws Exception {
+    fakeJobs.failJobTransiently("flaky", 2);
+    ListenableFuture<Job> future = poller.waitForJob(fakeJobs.addJob("flaky", 1));
+    assertThat(pollUntilDone(future).getStatus().getState()).isEqualTo("DONE");
+    assertThat(fakeJobs.getBatchSizes()).containsExactly(1, 1, 1);
+    assertThat(scheduledDelays).containsExactly(100L, 200L, 400L).inOrder();
+  }
+
+  @Test
+  public void testFailure_transientJobFetchFailure_failsAfterMaximumRetries() throws Exception {
+    fakeJobs.failJobTransiently("broken", MAX_CONSECUTIVE_FETCH_FAILURES);
+    ListenableFuture<Job> future = poller.waitForJob(fakeJobs.addJob("broken", 1));
+    for (int i = 0; i < MAX_CONSECUTIVE_FETCH_FAILURES - 1; i++) {
+      runNextPoll();
+      assertThat(future.isDone()).isFalse();
+    }
+    runNextPoll();
+    ExecutionException thrown = assertThrows(ExecutionException.class, future::get);
+    assertThat(thrown).hasCauseThat().hasMessageThat().contains("Backend error");
+    assertThat(scheduledPoll).isNull();
+  }
+
+  @Test
+  public void testSuccess_entireFetchFailsTransiently_isRetriedWithBackoff() throws Exception {
+    fakeJobs.failNextFetches(2, new IOException("Connection reset"));
+    ImmutableList<ListenableFuture<Job>> futures =
+        ImmutableList.of(
+            poller.waitForJob(fakeJobs.addJob("job1", 1)),
+            poller.waitForJob(fakeJobs.addJob("job2", 1)));
+    for (ListenableFuture<Job> future : futures) {
+      assertThat(pollUntilDone(future).getStatus().getState()).isEqualTo("DONE");
+    }
+    assertThat(fakeJobs.getBatchSizes()).containsExactly(2, 2, 2);
+    assertThat(scheduledDelays).containsExactly(100L, 200L, 400L).inOrder();
+  }
+
+  @Test
+  public void testFailure_entireFetchKeepsFailing_failsAllJobsInBatch() throws Exception {
+    fakeJobs.failAllFetches(new IOException("Connection reset"));
+    ImmutableList<ListenableFuture<Job>> futures =
+        ImmutableList.of(
+            poller.waitForJob(fakeJobs.addJob("job1", 1)),
+            poller.waitForJob(fakeJobs.addJob("job2", 1)));
+    for (int i = 0; i < MAX_CONSECUTIVE_FETCH_FAILURES; i++) {
+      runNextPoll();
+    }
+    for (ListenableFuture<Job> future : futures) {
+      ExecutionException thrown = assertThrows(ExecutionException.class, future::get);
+      assertThat(thrown).hasCauseThat().isInstanceOf(BigqueryJobFailureException.class);
+      assertThat(thrown).hasCauseThat().hasMessageThat().contains("Connection reset");
+    }
+    assertThat(fakeJobs.getBatchSizes()).hasSize(MAX_CONSECUTIVE_FETCH_FAILURES);
+  }
+
+  @Test
+  public void testSuccess_close_cancelsPendingJobs() throws Exception {
+    ListenableFuture<Job> future = poller.waitForJob(fakeJobs.addJob("forever", 1000));
+    runNextPoll();
+    poller.close();
+    assertThrows(CancellationException.class, future::get);
+    assertThrows(
+        IllegalStateException.class, () -> poller.waitForJob(fakeJobs.addJob("late", 1)));
+  }
+
+  @Test
+  public void testSuccess_nextPollInterval_doublesUpToMaximum() {
+    Duration max = Duration.standardSeconds(16);
+    assertThat(BigqueryJobPoller.nextPollInterval(Duration.standardSeconds(1), max))
+        .isEqualTo(Duration.standardSeconds(2));
+    assertThat(BigqueryJobPoller.nextPollInterval(Duration.standardSeconds(10), max))
+        .isEqualTo(max);
+    assertThat(BigqueryJobPoller.nextPollInterval(max, max)).isEqualTo(max);
+  }
+}
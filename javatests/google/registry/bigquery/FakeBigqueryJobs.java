@@ -0,0 +1,128 @@
+// Copyright 2018 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.bigquery;
+
+import com.google.api.client.googleapis.json.GoogleJsonError;
+import com.google.api.services.bigquery.model.Job;
+import com.google.api.services.bigquery.model.JobReference;
+import com.google.api.services.bigquery.model.JobStatus;
+import com.google.common.collect.ImmutableList;
+import google.registry.bigquery.BigqueryJobPoller.JobFetchCallback;
+import google.registry.bigquery.BigqueryJobPoller.JobFetcher;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * In-memory fake of the Bigquery jobs API, as seen by a {@link BigqueryJobPoller}.
+ *
+ * <p>Each job is reported as running until it has been fetched a configured number of times, after
+ * which it is reported as done.
+ */
+class FakeBigqueryJobs implements JobFetcher {
+
+  static final String PROJECT_ID = "fake-project";
+
+  private final Map<String, Integer> fetchesUntilDone = new HashMap<>();
+  private final Map<String, Integer> fetchCounts = new HashMap<>();
+  private final Set<String> failingJobs = new HashSet<>();
+  private final Map<String, Integer> transientJobFailures = new HashMap<>();
+  private final List<Integer> batchSizes = new ArrayList<>();
+  private IOException fetchFailure;
+  private int fetchFailuresLeft;
+
+  /** Adds a job that is done after being fetched {@code fetches} times, and returns it. */
+  synchronized Job addJob(String jobId, int fetches) {
+    fetchesUntilDone.put(jobId, fetches);
+    fetchCounts.put(jobId, 0);
+    return createJob(jobId, fetches == 0 ? "DONE" : "RUNNING");
+  }
+
+  /** Makes every fetch of the given job fail. */
+  synchronized void failJob(String jobId) {
+    failingJobs.add(jobId);
+  }
+
+  /** Makes the next {@code times} fetches of the given job fail with a transient error. */
+  synchronized void failJobTransiently(String jobId, int times) {
+    transientJobFailures.put(jobId, times);
+  }
+
+  /** Makes every subsequent fetch fail entirely with the given exception. */
+  synchronized void failAllFetches(IOException e) {
+    failNextFetches(Integer.MAX_VALUE, e);
+  }
+
+  /** Makes the next {@code times} fetches fail entirely with the given exception. */
+  synchronized void failNextFetches(int times, IOException e) {
+    fetchFailure = e;
+    fetchFailuresLeft = times;
+  }
+
+  synchronized int getFetchCount(String jobId) {
+    return fetchCounts.get(jobId);
+  }
+
+  /** Returns the number of jobs requested in each fetch, in order. */
+  synchronized ImmutableList<Integer> getBatchSizes() {
+    return ImmutableList.copyOf(batchSizes);
+  }
+
+  @Override
+  public synchronized void fetchJobs(ImmutableList<JobReference> jobRefs, JobFetchCallback callback)
+      throws IOException {
+    batchSizes.add(jobRefs.size());
+    if (fetchFailuresLeft > 0) {
+      fetchFailuresLeft--;
+      throw fetchFailure;
+    }
+    for (JobReference jobRef : jobRefs) {
+      String jobId = jobRef.getJobId();
+      if (failingJobs.contains(jobId)) {
+        callback.onFailure(
+            jobRef,
+            BigqueryJobFailureException.create(
+                new GoogleJsonError().setCode(404).setMessage("Not found: Job " + jobId)));
+        continue;
+      }
+      if (transientJobFailures.getOrDefault(jobId, 0) > 0) {
+        transientJobFailures.merge(jobId, -1, Integer::sum);
+        callback.onFailure(
+            jobRef,
+            BigqueryJobFailureException.create(
+                new GoogleJsonError()
+                    .setCode(503)
+                    .setMessage("Backend error fetching job " + jobId)
+                    .setErrors(
+                        ImmutableList.of(
+                            new GoogleJsonError.ErrorInfo().setReason("backendError")))));
+        continue;
+      }
+      int fetches = fetchCounts.merge(jobId, 1, Integer::sum);
+      callback.onSuccess(
+          jobRef, createJob(jobId, fetches >= fetchesUntilDone.get(jobId) ? "DONE" : "RUNNING"));
+    }
+  }
+
+  private static Job createJob(String jobId, String state) {
+    return new Job()
+        .setJobReference(new JobReference().setProjectId(PROJECT_ID).setJobId(jobId))
+        .setStatus(new JobStatus().setState(state));
+  }
+}
@@ -31,5 +31,10 @@ public class RegistryConfigTest {
     assertThat(RegistryConfig.getClientSecretFilename()).isEqualTo(
         "/google/registry/tools/resources/client_secret.json");
   }
-}
 
+  @Test
+  public void test_transactionRetryBudget_defaultsForFlowsWithoutOverride() {
+    assertThat(RegistryConfig.getTransactionRetryBudget("DomainCreateFlow"))
+        .isEqualTo(RegistryConfig.getTransactionRetryBudget());
+  }
+}
@@ -0,0 +1,198 @@
+// Copyright 2018 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.dns.writer.zonefile;
+
+import static com.google.appengine.tools.cloudstorage.GcsServiceFactory.createGcsService;
+import static com.google.common.io.BaseEncoding.base16;
+import static com.google.common.truth.Truth.assertThat;
+import static google.registry.testing.DatastoreHelper.createTld;
+import static google.registry.testing.DatastoreHelper.newDomainResource;
+import static google.registry.testing.DatastoreHelper.newHostResource;
+import static google.registry.testing.DatastoreHelper.persistActiveDomain;
+import static google.registry.testing.DatastoreHelper.persistActiveHost;
+import static google.registry.testing.DatastoreHelper.persistDomainAsDeleted;
+import static google.registry.testing.DatastoreHelper.persistResource;
+
+import com.google.appengine.tools.cloudstorage.GcsService;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.net.InetAddresses;
+import com.googlecode.objectify.Key;
+import google.registry.gcs.GcsUtils;
+import google.registry.model.domain.DomainResource;
+import google.registry.model.domain.secdns.DelegationSignerData;
+import google.registry.model.eppcommon.StatusValue;
+import google.registry.model.host.HostResource;
+import google.registry.model.ofy.Ofy;
+import google.registry.testing.AppEngineRule;
+import google.registry.testing.FakeClock;
+import google.registry.testing.InjectRule;
+import org.joda.time.DateTime;
+import org.joda.time.Duration;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link ZoneFileDnsWriter}. */
+@RunWith(JUnit4.class)
+public class ZoneFileDnsWriterTest {
+
+  @Rule public final AppEngineRule appEngine = AppEngineRule.builder().withDatastore().build();
+  @Rule public final InjectRule inject = new InjectRule();
+
+  private final FakeClock clock = new FakeClock(DateTime.parse("2018-06-01T00:00:00Z"));
+  private final GcsService gcsService = createGcsService();
+  private final ZoneSnapshotStore store =
+      new ZoneSnapshotStore(
+          gcsService, new GcsUtils(gcsService, 1024), "zonefiles-bucket", clock);
+
+  @Before
+  public void before() {
+    inject.setStaticField(Ofy.class, "clock", clock);
+    createTld("tld");
+  }
+
+  private ZoneFileDnsWriter createWriter() {
+    return new ZoneFileDnsWriter(
+        store,
+        "tld",
+        Duration.standardSeconds(11),
+        Duration.standardSeconds(222),
+        Duration.standardSeconds(3333),
+        clock);
+  }
+
+  @Test
+  public void testPublishDomain_writesNsAndDsRecords() {
+    HostResource host1 = persistActiveHost("ns1.example.com");
+    HostResource host2 = persistActiveHost("ns2.example.com");
+    persistResource(
+        newDomainResource("example.tld")
+            .asBuilder()
+            .setNameservers(ImmutableSet.of(Key.create(host1), Key.create(host2)))
+            .setDsData(
+                ImmutableSet.of(
+                    DelegationSignerData.create(1, 3, 1, base16().decode("0123456789ABCDEF"))))
+            .build());
+
+    ZoneFileDnsWriter writer = createWriter();
+    writer.publishDomain("example.tld");
+    writer.commit();
+
+    assertThat(store.loadZone("tld", clock.nowUtc()))
+        .containsExactly(
+            "example.tld",
+            "example\t222\tIN\tNS\tns1.example.com.\n"
+                + "example\t222\tIN\tNS\tns2.example.com.\n"
+                + "example\t3333\tIN\tDS\t1 3 1 0123456789ABCDEF\n");
+  }
+
+  @Test
+  public void testPublishHost_writesSuperordinateDomainWithGlue() {
+    HostResource host =
+        persistResource(
+            newHostResource("ns1.example.tld")
+                .asBuilder()
+                .setInetAddresses(
+                    ImmutableSet.of(
+                        InetAddresses.forString("10.0.0.1"),
+                        InetAddresses.forString("fd0e:a5c8:6dfb:6a5e:0:0:0:1")))
+                .build());
+    persistResource(
+        newDomainResource("example.tld")
+            .asBuilder()
+            .addSubordinateHost("ns1.example.tld")
+            .addNameservers(ImmutableSet.of(Key.create(host)))
+            .build());
+
+    ZoneFileDnsWriter writer = createWriter();
+    writer.publishHost("ns1.example.tld");
+    writer.commit();
+
+    assertThat(store.loadZone("tld", clock.nowUtc()))
+        .containsExactly(
+            "example.tld",
+            "example\t222\tIN\tNS\tns1.example.tld.\n"
+                + "ns1.example\t11\tIN\tA\t10.0.0.1\n"
+                + "ns1.example\t11\tIN\tAAAA\tfd0e:a5c8:6dfb:6a5e:0:0:0:1\n");
+  }
+
+  @Test
+  public void testPublishDomain_deletedOrOnHold_removesDomain() {
+    HostResource host = persistActiveHost("ns1.example.com");
+    DomainResource domain =
+        persistResource(
+            newDomainResource("example.tld")
+                .asBuilder()
+                .setNameservers(ImmutableSet.of(Key.create(host)))
+                .build());
+    DomainResource heldDomain =
+        persistResource(
+            newDomainResource("held.tld")
+                .asBuilder()
+                .setNameservers(ImmutableSet.of(Key.create(host)))
+                .build());
+    ZoneFileDnsWriter writer = createWriter();
+    writer.publishDomain("example.tld");
+    writer.publishDomain("held.tld");
+    writer.commit();
+    assertThat(store.loadZone("tld", clock.nowUtc())).hasSize(2);
+
+    clock.advanceOneMilli();
+    persistDomainAsDeleted(domain, clock.nowUtc().minusMillis(1));
+    persistResource(
+        heldDomain.asBuilder().setStatusValues(ImmutableSet.of(StatusValue.SERVER_HOLD)).build());
+    writer = createWriter();
+    writer.publishDomain("example.tld");
+    writer.publishDomain("held.tld");
+    writer.commit();
+
+    assertThat(store.loadZone("tld", clock.nowUtc())).isEmpty();
+  }
+
+  @Test
+  public void testPublishDomain_sameLoadTime_newerReadWins() {
+    HostResource host1 = persistActiveHost("ns1.example.com");
+    HostResource host2 = persistActiveHost("ns2.example.com");
+    DomainResource domain =
+        persistResource(
+            newDomainResource("example.tld")
+                .asBuilder()
+                .setNameservers(ImmutableSet.of(Key.create(host1)))
+                .build());
+    clock.advanceOneMilli();
+    ZoneFileDnsWriter staleWriter = createWriter();
+    ZoneFileDnsWriter freshWriter = createWriter();
+    staleWriter.publishDomain("example.tld");
+    clock.advanceOneMilli();
+    persistResource(
+        domain.asBuilder().setNameservers(ImmutableSet.of(Key.create(host2))).build());
+    freshWriter.publishDomain("example.tld");
+    // The stale batch commits last, but was loaded in the same millisecond and read older data.
+    freshWriter.commit();
+    staleWriter.commit();
+
+    assertThat(store.loadZone("tld", clock.nowUtc()))
+        .containsExactly("example.tld", "example\t222\tIN\tNS\tns2.example.com.\n");
+  }
+
+  @Test
+  public void testPublishDomain_noCommit_writesNothing() {
+    persistActiveDomain("example.tld");
+    createWriter().publishDomain("example.tld");
+    assertThat(store.loadZone("tld", clock.nowUtc())).isEmpty();
+  }
+}
@@ -0,0 +1,169 @@
+// Copyright 2018 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.dns.writer.zonefile;
+
+import static com.google.appengine.tools.cloudstorage.GcsServiceFactory.createGcsService;
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.common.truth.Truth8.assertThat;
+import static google.registry.dns.writer.zonefile.ZoneSnapshotStore.CHANGE_SETTLING_TIME;
+import static google.registry.testing.JUnitBackports.assertThrows;
+
+import com.google.appengine.tools.cloudstorage.GcsService;
+import com.google.common.collect.ImmutableMap;
+import google.registry.gcs.GcsUtils;
+import google.registry.testing.AppEngineRule;
+import google.registry.testing.FakeClock;
+import org.joda.time.DateTime;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link ZoneSnapshotStore}. */
+@RunWith(JUnit4.class)
+public class ZoneSnapshotStoreTest {
+
+  @Rule public final AppEngineRule appEngine = AppEngineRule.builder().withDatastore().build();
+
+  private final GcsService gcsService = createGcsService();
+  private final GcsUtils gcsUtils = new GcsUtils(gcsService, 1024);
+  private final DateTime now = DateTime.parse("2018-06-01T00:00:00Z");
+  private final FakeClock clock = new FakeClock(now.plus(CHANGE_SETTLING_TIME));
+  private final ZoneSnapshotStore store =
+      new ZoneSnapshotStore(gcsService, gcsUtils, "zonefiles-bucket", clock);
+
+  @Test
+  public void testLoadZone_noFiles_returnsEmptyZone() {
+    assertThat(store.loadZone("tld", now)).isEmpty();
+  }
+
+  @Test
+  public void testLoadZone_appliesChangesInOrder() {
+    store.appendChanges(
+        "tld",
+        now.minusMinutes(3),
+        now.minusMinutes(3),
+        ImmutableMap.of("foo.tld", "foo\t180\tIN\tNS\tns1.example.com.\n", "bar.tld", ""));
+    store.appendChanges(
+        "tld",
+        now.minusMinutes(2),
+        now.minusMinutes(2),
+        ImmutableMap.of(
+            "bar.tld", "bar\t180\tIN\tNS\tns1.example.com.\nbar\t180\tIN\tNS\tns2.example.com.\n"));
+    store.appendChanges(
+        "tld",
+        now.minusMinutes(1),
+        now.minusMinutes(1),
+        ImmutableMap.of("foo.tld", "", "baz.tld", "baz\t180\tIN\tNS\tns1.example.com.\n"));
+    assertThat(store.loadZone("tld", now))
+        .containsExactly(
+            "bar.tld",
+            "bar\t180\tIN\tNS\tns1.example.com.\nbar\t180\tIN\tNS\tns2.example.com.\n",
+            "baz.tld",
+            "baz\t180\tIN\tNS\tns1.example.com.\n")
+        .inOrder();
+    assertThat(store.loadZone("tld", now.minusMinutes(2)))
+        .containsExactly(
+            "bar.tld",
+            "bar\t180\tIN\tNS\tns1.example.com.\nbar\t180\tIN\tNS\tns2.example.com.\n",
+            "foo.tld",
+            "foo\t180\tIN\tNS\tns1.example.com.\n")
+        .inOrder();
+  }
+
+  @Test
+  public void testLoadZone_sameLoadTime_appliesLatestWriteLast() {
+    // Appended in the opposite order, so that the order doesn't depend on the random suffixes.
+    store.appendChanges(
+        "tld",
+        now.minusMinutes(1),
+        now.minusMinutes(2),
+        ImmutableMap.of("foo.tld", "foo\t1\tIN\tNS\tns2.foo.tld.\n"));
+    store.appendChanges(
+        "tld",
+        now.minusMinutes(1),
+        now.minusMinutes(3),
+        ImmutableMap.of("foo.tld", "foo\t1\tIN\tNS\tns1.foo.tld.\n"));
+    assertThat(store.loadZone("tld", now))
+        .containsExactly("foo.tld", "foo\t1\tIN\tNS\tns2.foo.tld.\n");
+  }
+
+  @Test
+  public void testLoadZone_ignoresOtherTlds() {
+    store.appendChanges(
+        "tld",
+        now.minusMinutes(1),
+        now.minusMinutes(1),
+        ImmutableMap.of("foo.tld", "foo\t1\tIN\tNS\tns.foo.tld.\n"));
+    store.appendChanges(
+        "other",
+        now.minusMinutes(1),
+        now.minusMinutes(1),
+        ImmutableMap.of("foo.other", "foo\t1\tIN\tNS\tns.foo.tld.\n"));
+    assertThat(store.loadZone("tld", now)).containsExactly(
+        "foo.tld", "foo\t1\tIN\tNS\tns.foo.tld.\n");
+  }
+
+  @Test
+  public void testCompact_snapshotIsUsedForLaterLoads() throws Exception {
+    store.appendChanges(
+        "tld",
+        now.minusMinutes(10),
+        now.minusMinutes(10),
+        ImmutableMap.of("foo.tld", "foo\t1\tIN\tNS\tns.foo.tld.\n"));
+    assertThat(store.compact("tld", now.minusMinutes(5)))
+        .containsExactly("foo.tld", "foo\t1\tIN\tNS\tns.foo.tld.\n");
+    store.appendChanges(
+        "tld",
+        now.minusMinutes(4),
+        now.minusMinutes(4),
+        ImmutableMap.of("bar.tld", "bar\t1\tIN\tNS\tns.foo.tld.\n"));
+    assertThat(store.compact("tld", now))
+        .containsExactly(
+            "bar.tld", "bar\t1\tIN\tNS\tns.foo.tld.\n",
+            "foo.tld", "foo\t1\tIN\tNS\tns.foo.tld.\n")
+        .inOrder();
+    // The changes already in the base snapshot were deleted, but the base snapshot and the changes
+    // after it were kept.
+    assertThat(gcsUtils.listFolderObjects("zonefiles-bucket", "zone_snapshots/tld/"))
+        .containsExactly(now.minusMinutes(5).toString(), now.toString());
+    assertThat(gcsUtils.listFolderObjects("zonefiles-bucket", "zone_changes/tld/")).hasSize(1);
+    assertThat(store.loadZone("tld", now.minusMinutes(1)))
+        .containsExactly(
+            "bar.tld", "bar\t1\tIN\tNS\tns.foo.tld.\n",
+            "foo.tld", "foo\t1\tIN\tNS\tns.foo.tld.\n")
+        .inOrder();
+  }
+
+  @Test
+  public void testCompact_beforeLatestSnapshot_throws() {
+    store.compact("tld", now);
+    IllegalArgumentException thrown =
+        assertThrows(
+            IllegalArgumentException.class, () -> store.compact("tld", now.minusMinutes(1)));
+    assertThat(thrown).hasMessageThat().contains("before its latest snapshot");
+    assertThat(store.getLatestSnapshotTime("tld")).hasValue(now);
+  }
+
+  @Test
+  public void testCompact_changesMayStillBeWritten_throws() {
+    clock.advanceOneMilli();
+    store.compact("tld", now);
+    IllegalArgumentException thrown =
+        assertThrows(
+            IllegalArgumentException.class, () -> store.compact("tld", now.plusMillis(2)));
+    assertThat(thrown).hasMessageThat().contains("may still be written");
+  }
+}
@@ -28,6 +28,7 @@ import static google.registry.testing.JUnitBackports.assertThrows;
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 
@@ -71,6 +72,7 @@ public class ExportDomainListsActionTest extends MapreduceTestCase<ExportDomainL
     action.response = new FakeResponse();
     action.gcsBucket = "outputbucket";
     action.gcsBufferSize = 500;
+    action.sortBufferSize = 100000;
     gcsService = createGcsService();
   }
 
@@ -165,4 +167,68 @@ public class ExportDomainListsActionTest extends MapreduceTestCase<ExportDomainL
     verifyExportedToDrive("brouhaha", "chilipepper.tld");
     verifyNoMoreInteractions(driveConnection);
   }
+
+  @Test
+  public void test_sortsExternally_andDeletesSpillFiles() throws Exception {
+    action.sortBufferSize = 2;
+    persistActiveDomain("rudnitzky.tld");
+    persistActiveDomain("onetwo.tld");
+    persistActiveDomain("zebra.tld");
+    persistActiveDomain("aardvark.tld");
+    persistActiveDomain("mortuary.tld");
+    runMapreduce();
+    GcsFilename existingFile = new GcsFilename("outputbucket", "tld.txt");
+    String tlds = new String(readGcsFile(gcsService, existingFile), UTF_8);
+    assertThat(tlds).isEqualTo("aardvark.tld\nmortuary.tld\nonetwo.tld\nrudnitzky.tld\nzebra.tld");
+    // Make sure that the spill files were cleaned up.
+    ListResult ls = gcsService.list("outputbucket", ListOptions.DEFAULT);
+    assertThat(ls.next().getName()).isEqualTo("tld.txt");
+    assertThat(ls.hasNext()).isFalse();
+    verifyExportedToDrive(
+        "brouhaha", "aardvark.tld\nmortuary.tld\nonetwo.tld\nrudnitzky.tld\nzebra.tld");
+    verifyNoMoreInteractions(driveConnection);
+  }
+
+  @Test
+  public void test_unchangedList_notReexportedToDrive() throws Exception {
+    persistActiveDomain("onetwo.tld");
+    persistActiveDomain("rudnitzky.tld");
+    runMapreduce();
+    verifyExportedToDrive("brouhaha", "onetwo.tld\nrudnitzky.tld");
+    runMapreduce();
+    // The list is still written to GCS, but the Drive upload is skipped.
+    GcsFilename existingFile = new GcsFilename("outputbucket", "tld.txt");
+    String tlds = new String(readGcsFile(gcsService, existingFile), UTF_8);
+    assertThat(tlds).isEqualTo("onetwo.tld\nrudnitzky.tld");
+    verifyNoMoreInteractions(driveConnection);
+  }
+
+  @Test
+  public void test_changedList_reexportedToDrive() throws Exception {
+    persistActiveDomain("onetwo.tld");
+    runMapreduce();
+    verifyExportedToDrive("brouhaha", "onetwo.tld");
+    persistActiveDomain("rudnitzky.tld");
+    runMapreduce();
+    verify(driveConnection, times(2))
+        .createOrUpdateFile(
+            eq(REGISTERED_DOMAINS_FILENAME),
+            eq(EXPORT_MIME_TYPE),
+            eq("brouhaha"),
+            bytesExportedToDrive.capture());
+    assertThat(new String(bytesExportedToDrive.getValue(), UTF_8))
+        .isEqualTo("onetwo.tld\nrudnitzky.tld");
+    verifyNoMoreInteractions(driveConnection);
+  }
+
+  @Test
+  public void test_changedDriveFolder_reexportedToDrive() throws Exception {
+    persistActiveDomain("onetwo.tld");
+    runMapreduce();
+    verifyExportedToDrive("brouhaha", "onetwo.tld");
+    persistResource(Registry.get("tld").asBuilder().setDriveFolderId("hullabaloo").build());
+    runMapreduce();
+    verifyExportedToDrive("hullabaloo", "onetwo.tld");
+    verifyNoMoreInteractions(driveConnection);
+  }
 }
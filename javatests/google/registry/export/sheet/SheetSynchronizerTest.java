@@ -15,6 +15,7 @@
 package google.registry.export.sheet;
 
 import static com.google.common.collect.Lists.newArrayList;
+import static com.google.common.truth.Truth.assertThat;
 import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
@@ -23,13 +24,23 @@ import static org.mockito.Mockito.when;
 
 import com.google.api.services.sheets.v4.Sheets;
 import com.google.api.services.sheets.v4.model.AppendValuesResponse;
+import com.google.api.services.sheets.v4.model.BatchUpdateSpreadsheetRequest;
+import com.google.api.services.sheets.v4.model.BatchUpdateSpreadsheetResponse;
 import com.google.api.services.sheets.v4.model.BatchUpdateValuesRequest;
 import com.google.api.services.sheets.v4.model.BatchUpdateValuesResponse;
 import com.google.api.services.sheets.v4.model.ClearValuesRequest;
 import com.google.api.services.sheets.v4.model.ClearValuesResponse;
+import com.google.api.services.sheets.v4.model.DeleteDimensionRequest;
+import com.google.api.services.sheets.v4.model.DimensionRange;
+import com.google.api.services.sheets.v4.model.InsertDimensionRequest;
+import com.google.api.services.sheets.v4.model.Request;
+import com.google.api.services.sheets.v4.model.Sheet;
+import com.google.api.services.sheets.v4.model.SheetProperties;
+import com.google.api.services.sheets.v4.model.Spreadsheet;
 import com.google.api.services.sheets.v4.model.ValueRange;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedMap;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -52,6 +63,13 @@ public class SheetSynchronizerTest {
       mock(Sheets.Spreadsheets.Values.BatchUpdate.class);
   private final Sheets.Spreadsheets.Values.Clear clearReq =
       mock(Sheets.Spreadsheets.Values.Clear.class);
+  private final Sheets.Spreadsheets.Values.Get headersReq =
+      mock(Sheets.Spreadsheets.Values.Get.class);
+  private final Sheets.Spreadsheets.Values.Get keysReq =
+      mock(Sheets.Spreadsheets.Values.Get.class);
+  private final Sheets.Spreadsheets.Get spreadsheetReq = mock(Sheets.Spreadsheets.Get.class);
+  private final Sheets.Spreadsheets.BatchUpdate structureReq =
+      mock(Sheets.Spreadsheets.BatchUpdate.class);
 
   private List<List<Object>> existingSheet;
   private ImmutableList<ImmutableMap<String, String>> data;
@@ -80,6 +98,24 @@ public class SheetSynchronizerTest {
     data = ImmutableList.of();
     ValueRange valueRange = new ValueRange().setValues(existingSheet);
     when(getReq.execute()).thenReturn(valueRange);
+
+    when(values.get("aSheetId", "Registrars!1:1")).thenReturn(headersReq);
+    when(values.get("aSheetId", "Registrars!A2:A")).thenReturn(keysReq);
+    when(spreadsheets.get("aSheetId")).thenReturn(spreadsheetReq);
+    when(spreadsheetReq.setFields(any(String.class))).thenReturn(spreadsheetReq);
+    when(spreadsheetReq.execute())
+        .thenReturn(
+            new Spreadsheet()
+                .setSheets(
+                    ImmutableList.of(
+                        new Sheet()
+                            .setProperties(new SheetProperties().setTitle("Other").setSheetId(1)),
+                        new Sheet()
+                            .setProperties(
+                                new SheetProperties().setTitle("Registrars").setSheetId(42)))));
+    when(spreadsheets.batchUpdate(any(String.class), any(BatchUpdateSpreadsheetRequest.class)))
+        .thenReturn(structureReq);
+    when(structureReq.execute()).thenReturn(new BatchUpdateSpreadsheetResponse());
   }
 
   // Explicitly constructs a List<Object> to avoid newArrayList typing to ArrayList<String>
@@ -192,4 +228,172 @@ public class SheetSynchronizerTest {
     verify(values).clear("aSheetId", "Registrars!3:4", new ClearValuesRequest());
     verifyZeroInteractions(updateReq);
   }
+
+  /** Sets up the sheet as left behind by a previous synchronization of the given rows. */
+  private ImmutableSortedMap<String, String> setUpPreviousSync(
+      ImmutableList<String> headers, ImmutableList<ImmutableMap<String, String>> rows)
+      throws Exception {
+    List<List<Object>> headerRow = newArrayList();
+    headerRow.add(new ArrayList<>(headers));
+    when(headersReq.execute()).thenReturn(new ValueRange().setValues(headerRow));
+    List<List<Object>> keyColumn = newArrayList();
+    ImmutableSortedMap.Builder<String, String> rowHashes = ImmutableSortedMap.naturalOrder();
+    for (ImmutableMap<String, String> row : rows) {
+      keyColumn.add(createRow(row.get("a")));
+      rowHashes.put(row.get("a"), SheetSynchronizer.hashRow(row));
+    }
+    when(keysReq.execute()).thenReturn(new ValueRange().setValues(keyColumn));
+    return rowHashes.build();
+  }
+
+  private static DimensionRange rows(int startIndex, int endIndex) {
+    return new DimensionRange()
+        .setSheetId(42)
+        .setDimension("ROWS")
+        .setStartIndex(startIndex)
+        .setEndIndex(endIndex);
+  }
+
+  @Test
+  public void testSynchronizeChangedRows_unchangedRows_writesNothing() throws Exception {
+    data =
+        ImmutableList.of(
+            ImmutableMap.of("a", "key1", "b", "val1"), ImmutableMap.of("a", "key2", "b", "val2"));
+    ImmutableSortedMap<String, String> rowHashes =
+        setUpPreviousSync(ImmutableList.of("a", "b"), data);
+
+    assertThat(
+            sheetSynchronizer.synchronizeChangedRows(
+                "aSheetId", "a", ImmutableList.of("a", "b"), rowHashes, data))
+        .isTrue();
+
+    verifyZeroInteractions(getReq);
+    verifyZeroInteractions(appendReq);
+    verifyZeroInteractions(updateReq);
+    verifyZeroInteractions(structureReq);
+  }
+
+  @Test
+  public void testSynchronizeChangedRows_headersChanged_returnsFalse() throws Exception {
+    data = ImmutableList.of(ImmutableMap.of("a", "key1", "b", "val1"));
+    ImmutableSortedMap<String, String> rowHashes =
+        setUpPreviousSync(ImmutableList.of("a", "b", "c"), data);
+
+    assertThat(
+            sheetSynchronizer.synchronizeChangedRows(
+                "aSheetId", "a", ImmutableList.of("a", "b"), rowHashes, data))
+        .isFalse();
+
+    verifyZeroInteractions(keysReq);
+    verifyZeroInteractions(appendReq);
+    verifyZeroInteractions(updateReq);
+    verifyZeroInteractions(structureReq);
+  }
+
+  @Test
+  public void testSynchronizeChangedRows_rowsChangedBySomeoneElse_returnsFalse() throws Exception {
+    data = ImmutableList.of(ImmutableMap.of("a", "key1", "b", "val1"));
+    setUpPreviousSync(ImmutableList.of("a", "b"), data);
+
+    assertThat(
+            sheetSynchronizer.synchronizeChangedRows(
+                "aSheetId",
+                "a",
+                ImmutableList.of("a", "b"),
+                ImmutableSortedMap.of("key0", "hash", "key1", "hash"),
+                data))
+        .isFalse();
+
+    verifyZeroInteractions(appendReq);
+    verifyZeroInteractions(updateReq);
+    verifyZeroInteractions(structureReq);
+  }
+
+  @Test
+  public void testSynchronizeChangedRows_changedRows_coalescesAdjacentRows() throws Exception {
+    ImmutableSortedMap<String, String> rowHashes =
+        setUpPreviousSync(
+            ImmutableList.of("a", "b"),
+            ImmutableList.of(
+                ImmutableMap.of("a", "key1", "b", "val1"),
+                ImmutableMap.of("a", "key2", "b", "val2"),
+                ImmutableMap.of("a", "key3", "b", "val3"),
+                ImmutableMap.of("a", "key4", "b", "val4")));
+    data =
+        ImmutableList.of(
+            ImmutableMap.of("a", "key1", "b", "val1"),
+            ImmutableMap.of("a", "key2", "b", "newVal2"),
+            ImmutableMap.of("a", "key3", "b", "newVal3"),
+            ImmutableMap.of("a", "key4", "b", "val4"));
+
+    assertThat(
+            sheetSynchronizer.synchronizeChangedRows(
+                "aSheetId", "a", ImmutableList.of("a", "b"), rowHashes, data))
+        .isTrue();
+
+    verifyZeroInteractions(getReq);
+    verifyZeroInteractions(appendReq);
+    verifyZeroInteractions(structureReq);
+    List<List<Object>> expectedVals = newArrayList();
+    expectedVals.add(createRow("key2", "newVal2"));
+    expectedVals.add(createRow("key3", "newVal3"));
+    BatchUpdateValuesRequest expectedRequest =
+        new BatchUpdateValuesRequest()
+            .setData(
+                newArrayList(new ValueRange().setRange("Registrars!A3").setValues(expectedVals)))
+            .setValueInputOption("RAW");
+    verify(values).batchUpdate("aSheetId", expectedRequest);
+  }
+
+  @Test
+  public void testSynchronizeChangedRows_addedAndRemovedRows_insertsAndDeletesInPlace()
+      throws Exception {
+    ImmutableSortedMap<String, String> rowHashes =
+        setUpPreviousSync(
+            ImmutableList.of("a", "b"),
+            ImmutableList.of(
+                ImmutableMap.of("a", "key1", "b", "val1"),
+                ImmutableMap.of("a", "key2", "b", "val2"),
+                ImmutableMap.of("a", "key3", "b", "val3"),
+                ImmutableMap.of("a", "key5", "b", "val5")));
+    data =
+        ImmutableList.of(
+            ImmutableMap.of("a", "key1", "b", "val1"),
+            ImmutableMap.of("a", "key3", "b", "val3"),
+            ImmutableMap.of("a", "key4", "b", "val4"),
+            ImmutableMap.of("a", "key5", "b", "val5"),
+            ImmutableMap.of("a", "key6", "b", "val6"));
+
+    assertThat(
+            sheetSynchronizer.synchronizeChangedRows(
+                "aSheetId", "a", ImmutableList.of("a", "b"), rowHashes, data))
+        .isTrue();
+
+    verifyZeroInteractions(getReq);
+    verify(spreadsheets)
+        .batchUpdate(
+            "aSheetId",
+            new BatchUpdateSpreadsheetRequest()
+                .setRequests(
+                    ImmutableList.of(
+                        new Request()
+                            .setDeleteDimension(new DeleteDimensionRequest().setRange(rows(2, 3))),
+                        new Request()
+                            .setInsertDimension(
+                                new InsertDimensionRequest()
+                                    .setRange(rows(3, 4))
+                                    .setInheritFromBefore(true)))));
+    List<List<Object>> insertedVals = newArrayList();
+    insertedVals.add(createRow("key4", "val4"));
+    BatchUpdateValuesRequest expectedRequest =
+        new BatchUpdateValuesRequest()
+            .setData(
+                newArrayList(new ValueRange().setRange("Registrars!A4").setValues(insertedVals)))
+            .setValueInputOption("RAW");
+    verify(values).batchUpdate("aSheetId", expectedRequest);
+    List<List<Object>> appendedVals = newArrayList();
+    appendedVals.add(createRow("key6", "val6"));
+    verify(values)
+        .append("aSheetId", "Registrars!A6", new ValueRange().setValues(appendedVals));
+  }
 }
@@ -80,7 +80,7 @@ public class SyncRegistrarsSheetActionTest {
     assertThat(response.getContentType()).isEqualTo(PLAIN_TEXT_UTF_8);
     assertThat(response.getPayload()).startsWith("OK");
     verify(syncRegistrarsSheet).wereRegistrarsModified();
-    verify(syncRegistrarsSheet).run(eq("jazz"));
+    verify(syncRegistrarsSheet).run(eq("jazz"), eq(false));
     verifyNoMoreInteractions(syncRegistrarsSheet);
   }
 
@@ -97,7 +97,16 @@ public class SyncRegistrarsSheetActionTest {
   public void testPost_overrideId_runsSyncWithCustomIdAndDoesNotCheckModified() throws Exception {
     runAction(null, "foobar");
     assertThat(response.getPayload()).startsWith("OK");
-    verify(syncRegistrarsSheet).run(eq("foobar"));
+    verify(syncRegistrarsSheet).run(eq("foobar"), eq(false));
+    verifyNoMoreInteractions(syncRegistrarsSheet);
+  }
+
+  @Test
+  public void testPost_fullSync_runsFullSyncAndDoesNotCheckModified() throws Exception {
+    action.fullSync = true;
+    runAction("jazz", null);
+    assertThat(response.getPayload()).startsWith("OK");
+    verify(syncRegistrarsSheet).run(eq("jazz"), eq(true));
     verifyNoMoreInteractions(syncRegistrarsSheet);
   }
 
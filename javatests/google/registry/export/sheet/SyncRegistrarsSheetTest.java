@@ -23,26 +23,35 @@ import static google.registry.testing.DatastoreHelper.createTld;
 import static google.registry.testing.DatastoreHelper.persistNewRegistrar;
 import static google.registry.testing.DatastoreHelper.persistResource;
 import static google.registry.testing.DatastoreHelper.persistSimpleResources;
+import static google.registry.testing.JUnitBackports.assertThrows;
 import static org.joda.money.CurrencyUnit.JPY;
 import static org.joda.money.CurrencyUnit.USD;
 import static org.joda.time.DateTimeZone.UTC;
 import static org.joda.time.Duration.standardMinutes;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedMap;
 import google.registry.model.common.Cursor;
 import google.registry.model.ofy.Ofy;
 import google.registry.model.registrar.Registrar;
 import google.registry.model.registrar.RegistrarAddress;
 import google.registry.model.registrar.RegistrarContact;
+import google.registry.model.registrar.RegistrarSheetState;
 import google.registry.testing.AppEngineRule;
 import google.registry.testing.DatastoreHelper;
 import google.registry.testing.FakeClock;
 import google.registry.testing.InjectRule;
 import google.registry.testing.MockitoJUnitRule;
+import java.io.IOException;
 import org.joda.time.DateTime;
 import org.junit.Before;
 import org.junit.Rule;
@@ -64,6 +73,9 @@ public class SyncRegistrarsSheetTest {
   @Captor private ArgumentCaptor<ImmutableList<ImmutableMap<String, String>>> rowsCaptor;
   @Mock private SheetSynchronizer sheetSynchronizer;
 
+  private static final ImmutableList<String> HEADERS =
+      ImmutableList.of("clientIdentifier", "registrarName");
+
   private final FakeClock clock = new FakeClock(DateTime.now(UTC));
 
   private SyncRegistrarsSheet newSyncRegistrarsSheet() {
@@ -74,8 +86,9 @@ public class SyncRegistrarsSheetTest {
   }
 
   @Before
-  public void before() {
+  public void before() throws Exception {
     inject.setStaticField(Ofy.class, "clock", clock);
+    when(sheetSynchronizer.synchronize(anyString(), any())).thenReturn(HEADERS);
     createTld("example");
     // Remove Registrar entities created by AppEngineRule.
     Registrar.loadAll().forEach(DatastoreHelper::deleteResource);
@@ -183,7 +196,7 @@ public class SyncRegistrarsSheetTest {
     persistResource(registrar);
 
     clock.advanceBy(standardMinutes(1));
-    newSyncRegistrarsSheet().run("foobar");
+    newSyncRegistrarsSheet().run("foobar", false);
 
     verify(sheetSynchronizer).synchronize(eq("foobar"), rowsCaptor.capture());
     ImmutableList<ImmutableMap<String, String>> rows = getOnlyElement(rowsCaptor.getAllValues());
@@ -328,7 +341,7 @@ public class SyncRegistrarsSheetTest {
   public void testRun_missingValues_stillWorks() throws Exception {
     persistNewRegistrar("SomeRegistrar", "Some Registrar", Registrar.Type.REAL, 8L);
 
-    newSyncRegistrarsSheet().run("foobar");
+    newSyncRegistrarsSheet().run("foobar", false);
 
     verify(sheetSynchronizer).synchronize(eq("foobar"), rowsCaptor.capture());
     ImmutableMap<String, String> row = getOnlyElement(getOnlyElement(rowsCaptor.getAllValues()));
@@ -363,4 +376,100 @@ public class SyncRegistrarsSheetTest {
     assertThat(row).containsEntry("icannReferralEmail", "");
     assertThat(row).containsEntry("billingAccountMap", "{}");
   }
+
+  private static void persistSheetState(ImmutableSortedMap<String, String> rowHashes) {
+    ofy()
+        .transact(
+            () ->
+                ofy()
+                    .saveWithoutBackup()
+                    .entity(RegistrarSheetState.create("foobar", HEADERS, rowHashes)));
+  }
+
+  private static RegistrarSheetState loadSheetState() {
+    return ofy().load().key(RegistrarSheetState.createKey("foobar")).now();
+  }
+
+  @Test
+  public void testRun_noPreviousState_synchronizesFullyAndSavesRowHashes() throws Exception {
+    persistNewRegistrar("SomeRegistrar", "Some Registrar", Registrar.Type.REAL, 8L);
+
+    newSyncRegistrarsSheet().run("foobar", false);
+
+    verify(sheetSynchronizer).synchronize(eq("foobar"), rowsCaptor.capture());
+    ImmutableMap<String, String> row = getOnlyElement(getOnlyElement(rowsCaptor.getAllValues()));
+    RegistrarSheetState state = loadSheetState();
+    assertThat(state.getHeaders()).isEqualTo(HEADERS);
+    assertThat(state.getRowHashes())
+        .containsExactly("SomeRegistrar", SheetSynchronizer.hashRow(row));
+  }
+
+  @Test
+  public void testRun_withPreviousState_onlySynchronizesChangedRows() throws Exception {
+    persistNewRegistrar("SomeRegistrar", "Some Registrar", Registrar.Type.REAL, 8L);
+    ImmutableSortedMap<String, String> previousRowHashes =
+        ImmutableSortedMap.of("OldRegistrar", "abc", "SomeRegistrar", "def");
+    persistSheetState(previousRowHashes);
+    when(sheetSynchronizer.synchronizeChangedRows(
+            eq("foobar"), eq("clientIdentifier"), eq(HEADERS), eq(previousRowHashes), any()))
+        .thenReturn(true);
+
+    newSyncRegistrarsSheet().run("foobar", false);
+
+    verify(sheetSynchronizer)
+        .synchronizeChangedRows(
+            eq("foobar"),
+            eq("clientIdentifier"),
+            eq(HEADERS),
+            eq(previousRowHashes),
+            rowsCaptor.capture());
+    verify(sheetSynchronizer, never()).synchronize(anyString(), any());
+    ImmutableMap<String, String> row = getOnlyElement(getOnlyElement(rowsCaptor.getAllValues()));
+    assertThat(loadSheetState().getRowHashes())
+        .containsExactly("SomeRegistrar", SheetSynchronizer.hashRow(row));
+    assertThat(ofy().load().key(Cursor.createGlobalKey(SYNC_REGISTRAR_SHEET)).now()).isNotNull();
+  }
+
+  @Test
+  public void testRun_sheetDoesNotMatchPreviousState_fallsBackToFullSync() throws Exception {
+    persistNewRegistrar("SomeRegistrar", "Some Registrar", Registrar.Type.REAL, 8L);
+    persistSheetState(ImmutableSortedMap.of("SomeRegistrar", "def"));
+    when(sheetSynchronizer.synchronizeChangedRows(
+            anyString(), anyString(), any(), any(), any()))
+        .thenReturn(false);
+
+    newSyncRegistrarsSheet().run("foobar", false);
+
+    verify(sheetSynchronizer).synchronize(eq("foobar"), rowsCaptor.capture());
+    ImmutableMap<String, String> row = getOnlyElement(getOnlyElement(rowsCaptor.getAllValues()));
+    assertThat(loadSheetState().getRowHashes())
+        .containsExactly("SomeRegistrar", SheetSynchronizer.hashRow(row));
+  }
+
+  @Test
+  public void testRun_fullSync_ignoresPreviousState() throws Exception {
+    persistNewRegistrar("SomeRegistrar", "Some Registrar", Registrar.Type.REAL, 8L);
+    persistSheetState(ImmutableSortedMap.of("SomeRegistrar", "def"));
+
+    newSyncRegistrarsSheet().run("foobar", true);
+
+    verify(sheetSynchronizer, never())
+        .synchronizeChangedRows(anyString(), anyString(), any(), any(), any());
+    verify(sheetSynchronizer).synchronize(eq("foobar"), any());
+    assertThat(loadSheetState().getRowHashes().get("SomeRegistrar")).isNotEqualTo("def");
+  }
+
+  @Test
+  public void testRun_failure_deletesPreviousState() throws Exception {
+    persistNewRegistrar("SomeRegistrar", "Some Registrar", Registrar.Type.REAL, 8L);
+    persistSheetState(ImmutableSortedMap.of("SomeRegistrar", "def"));
+    doThrow(new IOException("quota exceeded"))
+        .when(sheetSynchronizer)
+        .synchronizeChangedRows(anyString(), anyString(), any(), any(), any());
+
+    assertThrows(IOException.class, () -> newSyncRegistrarsSheet().run("foobar", false));
+
+    assertThat(loadSheetState()).isNull();
+    assertThat(ofy().load().key(Cursor.createGlobalKey(SYNC_REGISTRAR_SHEET)).now()).isNull();
+  }
 }
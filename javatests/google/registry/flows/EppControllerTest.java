@@ -40,6 +40,7 @@ import google.registry.model.eppoutput.EppOutput;
 import google.registry.model.eppoutput.EppResponse;
 import google.registry.model.eppoutput.Result;
 import google.registry.model.eppoutput.Result.Code;
+import google.registry.model.ofy.DatastoreRpcStats;
 import google.registry.monitoring.whitebox.BigQueryMetricsEnqueuer;
 import google.registry.monitoring.whitebox.EppMetric;
 import google.registry.testing.AppEngineRule;
@@ -196,9 +197,11 @@ public class EppControllerTest extends ShardableTestCase {
         true,
         domainCreateXml.getBytes(UTF_8));
 
-    EppMetric expectedMetric = metricBuilder.build();
+    EppMetric expectedMetric =
+        metricBuilder.setDatastoreRpcStats(DatastoreRpcStats.current()).build();
     verify(eppMetrics).incrementEppRequests(eq(expectedMetric));
     verify(eppMetrics).recordProcessingTime(eq(expectedMetric));
+    verify(eppMetrics).recordDatastoreRpcs(eq(expectedMetric));
   }
 
   @Test
@@ -18,9 +18,11 @@ import static com.google.appengine.api.taskqueue.QueueFactory.getQueue;
 import static google.registry.flows.async.AsyncFlowEnqueuer.QUEUE_ASYNC_ACTIONS;
 import static google.registry.flows.async.AsyncFlowEnqueuer.QUEUE_ASYNC_DELETE;
 import static google.registry.flows.async.AsyncFlowEnqueuer.QUEUE_ASYNC_HOST_RENAME;
+import static google.registry.monitoring.whitebox.IcannActivityCounters.QUEUE_ICANN_ACTIVITY_COUNTS;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
+import com.google.appengine.api.taskqueue.Queue;
 import dagger.Component;
 import dagger.Module;
 import dagger.Provides;
@@ -45,6 +47,7 @@ import google.registry.util.AppEngineServiceUtils;
 import google.registry.util.Clock;
 import google.registry.util.Retrier;
 import google.registry.util.Sleeper;
+import javax.inject.Named;
 import javax.inject.Singleton;
 import org.joda.time.Duration;
 
@@ -92,6 +95,8 @@ interface EppTestComponent {
       FakesAndMocksModule instance = new FakesAndMocksModule();
       AppEngineServiceUtils appEngineServiceUtils = mock(AppEngineServiceUtils.class);
       when(appEngineServiceUtils.getServiceHostname("backend")).thenReturn("backend.hostname.fake");
+      when(appEngineServiceUtils.getCurrentVersionHostname("backend"))
+          .thenReturn("backend.hostname.fake");
       instance.asyncFlowEnqueuer =
           new AsyncFlowEnqueuer(
               getQueue(QUEUE_ASYNC_ACTIONS),
@@ -151,6 +156,12 @@ interface EppTestComponent {
       return metricBuilder;
     }
 
+    @Provides
+    @Named(QUEUE_ICANN_ACTIVITY_COUNTS)
+    Queue provideIcannActivityCountsQueue() {
+      return getQueue(QUEUE_ICANN_ACTIVITY_COUNTS);
+    }
+
     @Provides
     AppEngineServiceUtils provideAppEngineServiceUtils() {
       return appEngineServiceUtils;
@@ -18,6 +18,9 @@ import static com.google.common.truth.Truth.assertThat;
 import static google.registry.testing.TestLogHandlerUtils.findFirstLogMessageByPrefix;
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.mockito.Mockito.when;
 
 import com.google.common.collect.ImmutableList;
@@ -29,6 +32,7 @@ import google.registry.model.eppinput.EppInput;
 import google.registry.model.eppoutput.EppOutput.ResponseOrGreeting;
 import google.registry.model.eppoutput.EppResponse;
 import google.registry.model.reporting.IcannReportingTypes.ActivityReportField;
+import google.registry.monitoring.whitebox.IcannActivityCounters;
 import google.registry.testing.ShardableTestCase;
 import java.util.Map;
 import java.util.Optional;
@@ -68,6 +72,7 @@ public class FlowReporterTest extends ShardableTestCase {
     flowReporter.inputXmlBytes = "<xml/>".getBytes(UTF_8);
     flowReporter.flowClass = TestCommandFlow.class;
     flowReporter.eppInput = mock(EppInput.class);
+    flowReporter.icannActivityCounters = mock(IcannActivityCounters.class);
     when(flowReporter.eppInput.getCommandType()).thenReturn("info");
     when(flowReporter.eppInput.getResourceType()).thenReturn(Optional.of("domain"));
     when(flowReporter.eppInput.getSingleTargetId()).thenReturn(Optional.of("target.foo"));
@@ -210,6 +215,40 @@ public class FlowReporterTest extends ShardableTestCase {
     assertThat(json).containsEntry("tlds", ImmutableList.of());
   }
 
+  @Test
+  public void testRecordToActivityCounters_noReportingSpec_countsNothing() {
+    when(flowReporter.eppInput.isDomainResourceType()).thenReturn(true);
+    flowReporter.recordToActivityCounters();
+    verifyZeroInteractions(flowReporter.icannActivityCounters);
+  }
+
+  @Test
+  public void testRecordToActivityCounters_domainFlow_countsEachTld() {
+    flowReporter.flowClass = TestReportingSpecCommandFlow.class;
+    when(flowReporter.eppInput.isDomainResourceType()).thenReturn(true);
+    when(flowReporter.eppInput.getTargetIds())
+        .thenReturn(ImmutableList.of("target.co.uk", "foo.uk", "bar.uk", "target,foo"));
+    flowReporter.recordToActivityCounters();
+    verify(flowReporter.icannActivityCounters)
+        .increment(
+            Optional.of("co.uk"), Optional.of("TheRegistrar"), ActivityReportField.CONTACT_CHECK);
+    verify(flowReporter.icannActivityCounters)
+        .increment(
+            Optional.of("uk"), Optional.of("TheRegistrar"), ActivityReportField.CONTACT_CHECK);
+    verifyNoMoreInteractions(flowReporter.icannActivityCounters);
+  }
+
+  @Test
+  public void testRecordToActivityCounters_notDomainFlow_countsTowardsAllTlds() {
+    flowReporter.flowClass = TestReportingSpecCommandFlow.class;
+    when(flowReporter.eppInput.isDomainResourceType()).thenReturn(false);
+    flowReporter.recordToActivityCounters();
+    verify(flowReporter.icannActivityCounters)
+        .increment(
+            Optional.empty(), Optional.of("TheRegistrar"), ActivityReportField.CONTACT_CHECK);
+    verifyNoMoreInteractions(flowReporter.icannActivityCounters);
+  }
+
   @SuppressWarnings("unchecked")
   private static Map<String, Object> parseJsonMap(String json) throws Exception {
     return (Map<String, Object>) JSONValue.parseWithException(json);
@@ -114,6 +114,7 @@ public class FlowRunnerTest extends ShardableTestCase {
   public void testRun_callsFlowReporterOnce() throws Exception {
     flowRunner.run(eppMetricBuilder);
     verify(flowRunner.flowReporter).recordToLogs();
+    verify(flowRunner.flowReporter).recordToActivityCounters();
   }
 
   @Test
@@ -121,6 +122,7 @@ public class FlowRunnerTest extends ShardableTestCase {
     flowRunner.isDryRun = true;
     flowRunner.run(eppMetricBuilder);
     verify(flowRunner.flowReporter, never()).recordToLogs();
+    verify(flowRunner.flowReporter, never()).recordToActivityCounters();
   }
 
   @Test
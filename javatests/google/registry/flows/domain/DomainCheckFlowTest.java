@@ -14,6 +14,7 @@
 
 package google.registry.flows.domain;
 
+import static com.google.monitoring.metrics.contrib.LongMetricSubject.assertThat;
 import static google.registry.model.eppoutput.CheckData.DomainCheck.create;
 import static google.registry.testing.DatastoreHelper.createTld;
 import static google.registry.testing.DatastoreHelper.createTlds;
@@ -525,6 +526,20 @@ public class DomainCheckFlowTest
     runFlowAssertResponse(loadFile("domain_check_fee_multiple_commands_response_v06.xml"));
   }
 
+  @Test
+  public void testFeeExtension_multipleCommands_pricesEachNameOnce() throws Exception {
+    DomainPricingLogic.pricingLookups.reset();
+    setEppInput("domain_check_fee_multiple_commands_v06.xml");
+    runFlowAssertResponse(loadFile("domain_check_fee_multiple_commands_response_v06.xml"));
+    // Every command asks for the fee class, and all but update ask for a price too.
+    assertThat(DomainPricingLogic.pricingLookups)
+        .hasValueForLabels(1, "tld", "miss")
+        .and()
+        .hasValueForLabels(8, "tld", "hit")
+        .and()
+        .hasNoOtherValues();
+  }
+
   // Version 11 cannot have multiple commands.
 
   @Test
@@ -19,6 +19,9 @@ import org.bouncycastle.util.Arrays;
 
 class FakeKmsConnection implements KmsConnection {
 
+  /** The number of times {@link #decrypt} has been called. */
+  int decryptCount = 0;
+
   FakeKmsConnection() {}
 
   /**
@@ -40,6 +43,7 @@ class FakeKmsConnection implements KmsConnection {
    */
   @Override
   public byte[] decrypt(String cryptoKeyName, String encodedCiphertext) {
+    decryptCount++;
     return Arrays.reverse(BaseEncoding.base64().decode(encodedCiphertext));
   }
 }
@@ -16,7 +16,9 @@ package google.registry.keyring.kms;
 
 import static com.google.common.truth.Truth.assertThat;
 import static google.registry.testing.DatastoreHelper.persistResources;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 
+import com.google.common.base.Ticker;
 import com.google.common.collect.ImmutableList;
 import google.registry.keyring.api.KeySerializer;
 import google.registry.model.server.KmsSecret;
@@ -24,9 +26,11 @@ import google.registry.model.server.KmsSecretRevision;
 import google.registry.model.server.KmsSecretRevision.Builder;
 import google.registry.testing.AppEngineRule;
 import google.registry.testing.BouncyCastleProviderRule;
+import java.util.concurrent.atomic.AtomicLong;
 import org.bouncycastle.openpgp.PGPKeyPair;
 import org.bouncycastle.openpgp.PGPPrivateKey;
 import org.bouncycastle.openpgp.PGPPublicKey;
+import org.joda.time.Duration;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
@@ -40,11 +44,75 @@ public class KmsKeyringTest {
 
   @Rule public final AppEngineRule appEngine = AppEngineRule.builder().withDatastore().build();
 
+  private final FakeKmsConnection kmsConnection = new FakeKmsConnection();
+  private final AtomicLong tickerNanos = new AtomicLong();
+  private final Ticker ticker =
+      new Ticker() {
+        @Override
+        public long read() {
+          return tickerNanos.get();
+        }
+      };
+
   private KmsKeyring keyring;
 
   @Before
   public void setUp() {
-    keyring = new KmsKeyring(new FakeKmsConnection());
+    keyring = new KmsKeyring(kmsConnection, Duration.standardMinutes(10), ticker);
+  }
+
+  private void advanceTicker(Duration duration) {
+    tickerNanos.addAndGet(MILLISECONDS.toNanos(duration.getMillis()));
+  }
+
+  @Test
+  public void test_cachesDecryptedSecrets() {
+    saveCleartextSecret("marksdb-dnl-login-string");
+
+    assertThat(keyring.getMarksdbDnlLogin()).isEqualTo("marksdb-dnl-login-stringmoo");
+    assertThat(keyring.getMarksdbDnlLogin()).isEqualTo("marksdb-dnl-login-stringmoo");
+    assertThat(kmsConnection.decryptCount).isEqualTo(1);
+  }
+
+  @Test
+  public void test_cachingDisabled_decryptsEveryTime() {
+    keyring = new KmsKeyring(kmsConnection, Duration.ZERO);
+    saveCleartextSecret("marksdb-dnl-login-string");
+
+    keyring.getMarksdbDnlLogin();
+    keyring.getMarksdbDnlLogin();
+    assertThat(kmsConnection.decryptCount).isEqualTo(2);
+  }
+
+  @Test
+  public void test_refresh_unchangedRevision_doesNotDecrypt() {
+    saveCleartextSecret("marksdb-dnl-login-string");
+    keyring.getMarksdbDnlLogin();
+    advanceTicker(Duration.standardMinutes(8));
+
+    assertThat(keyring.getMarksdbDnlLogin()).isEqualTo("marksdb-dnl-login-stringmoo");
+    assertThat(kmsConnection.decryptCount).isEqualTo(1);
+  }
+
+  @Test
+  public void test_refresh_newRevision_decrypts() {
+    saveCleartextSecret("marksdb-dnl-login-string");
+    keyring.getMarksdbDnlLogin();
+    persistSecret("marksdb-dnl-login-string", KeySerializer.serializeString("new-login"));
+    advanceTicker(Duration.standardMinutes(8));
+
+    assertThat(keyring.getMarksdbDnlLogin()).isEqualTo("new-login");
+    assertThat(kmsConnection.decryptCount).isEqualTo(2);
+  }
+
+  @Test
+  public void test_kmsUpdaterInvalidatesCachedSecrets() {
+    saveCleartextSecret("marksdb-dnl-login-string");
+    keyring.getMarksdbDnlLogin();
+
+    new KmsUpdater(kmsConnection).setMarksdbDnlLogin("new-login").update();
+
+    assertThat(keyring.getMarksdbDnlLogin()).isEqualTo("new-login");
   }
 
   @Test
@@ -31,6 +31,8 @@ import static google.registry.testing.DatastoreHelper.persistSimpleResource;
 import static google.registry.testing.JUnitBackports.assertThrows;
 
 import com.google.appengine.tools.mapreduce.InputReader;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import com.googlecode.objectify.Key;
 import google.registry.model.EppResource;
 import google.registry.model.contact.ContactResource;
@@ -39,14 +41,18 @@ import google.registry.model.domain.DomainBase;
 import google.registry.model.domain.DomainResource;
 import google.registry.model.host.HostResource;
 import google.registry.model.index.EppResourceIndex;
+import google.registry.model.index.EppResourceIndexBucketStats;
 import google.registry.testing.AppEngineRule;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Set;
+import org.joda.time.DateTime;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -124,6 +130,38 @@ public class EppResourceInputsTest {
     assertThat(createEntityInput(DomainBase.class).createReaders()).hasSize(3);
   }
 
+  @Test
+  public void testEntityInput_splitsLargeBuckets() throws Exception {
+    createTld("tld");
+    Set<DomainResource> domains = new HashSet<>();
+    ImmutableList.Builder<String> ids = new ImmutableList.Builder<>();
+    for (String name : ImmutableList.of("a", "b", "c", "d", "e", "f")) {
+      DomainResource domain = persistEppResourceInFirstBucket(newDomainResource(name + ".tld"));
+      domains.add(domain);
+      ids.add(EppResourceIndex.create(getBucketKey(1), Key.create(domain)).getId());
+    }
+    // The first bucket holds all 6 entries, three times the average over the 3 buckets.
+    persistResource(
+        EppResourceIndexBucketStats.create(
+            getBucketKey(1), 6, ids.build(), DateTime.parse("2018-01-01T00:00:00Z")));
+    List<InputReader<DomainResource>> readers =
+        createEntityInput(DomainResource.class).createReaders();
+    assertThat(readers).hasSize(5);
+    List<DomainResource> seen = new ArrayList<>();
+    for (InputReader<DomainResource> reader : readers) {
+      reader.beginShard();
+      reader.beginSlice();
+      while (true) {
+        try {
+          seen.add(reader.next());
+        } catch (NoSuchElementException e) {
+          break;
+        }
+      }
+    }
+    assertThat(seen).containsExactlyElementsIn(domains);
+  }
+
   @Test
   public void testKeyInput_oneReaderPerBucket() throws Exception {
     createTld("tld");
@@ -223,6 +261,39 @@ public class EppResourceInputsTest {
     assertThrows(NoSuchElementException.class, deserializedReader::next);
   }
 
+  @Test
+  public void testSuccess_entityReader_batchedReadsSurviveSerializationMidBatch()
+      throws Exception {
+    createTld("tld");
+    Set<DomainResource> domains = new HashSet<>();
+    for (String name : ImmutableList.of("a", "b", "c", "d", "e")) {
+      domains.add(persistEppResourceInFirstBucket(newDomainResource(name + ".tld")));
+    }
+    Set<DomainResource> seen = new HashSet<>();
+    InputReader<DomainResource> reader =
+        new EppResourceEntityReader<>(
+            EppResourceIndexRange.wholeBucket(getBucketKey(1)),
+            ImmutableSet.of(DomainResource.class),
+            2);
+    reader.beginShard();
+    reader.beginSlice();
+    // The first batch is done and the second one is half done, with a third one read ahead.
+    for (int i = 0; i < 3; i++) {
+      assertThat(seen.add(reader.next())).isTrue();
+    }
+    assertThat(reader.getProgress()).isWithin(EPSILON).of(0.6);
+    reader.endSlice();
+    reader = serializeAndDeserialize(reader);
+    reader.beginSlice();
+    assertThat(reader.getProgress()).isWithin(EPSILON).of(0.6);
+    for (int i = 0; i < 2; i++) {
+      assertThat(seen.add(reader.next())).isTrue();
+    }
+    assertThat(reader.getProgress()).isWithin(EPSILON).of(1);
+    assertThrows(NoSuchElementException.class, reader::next);
+    assertThat(seen).containsExactlyElementsIn(domains);
+  }
+
   @Test
   public void testSuccess_entityReader_allowsPolymorphicMatches() throws Exception {
     createTld("tld");
@@ -0,0 +1,97 @@
+// Copyright 2018 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.model;
+
+import static com.google.common.truth.Truth.assertThat;
+import static google.registry.model.EppResourceRevisionIndex.loadRevisions;
+import static google.registry.model.ofy.ObjectifyService.ofy;
+import static google.registry.testing.DatastoreHelper.newContactResource;
+import static google.registry.testing.DatastoreHelper.persistActiveContact;
+
+import com.google.common.collect.ImmutableSortedMap;
+import com.googlecode.objectify.Key;
+import google.registry.model.contact.ContactResource;
+import google.registry.model.ofy.CommitLogBucket;
+import google.registry.model.ofy.CommitLogManifest;
+import google.registry.testing.AppEngineRule;
+import org.joda.time.DateTime;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link EppResourceRevisionIndex}. */
+@RunWith(JUnit4.class)
+public class EppResourceRevisionIndexTest {
+
+  private static final DateTime REVISION_TIME = DateTime.parse("2018-01-01T00:00:00Z");
+
+  @Rule
+  public final AppEngineRule appEngine = AppEngineRule.builder().withDatastore().build();
+
+  private final Key<CommitLogManifest> manifestKey =
+      CommitLogManifest.createKey(CommitLogBucket.getBucketKey(1), REVISION_TIME);
+
+  @Test
+  public void testSave_addsRevisionToIndex() {
+    ContactResource contact = persistActiveContact("jd1234");
+    assertThat(loadRevisions(contact)).hasSize(1);
+  }
+
+  @Test
+  public void testSaveWithoutBackup_outsideTransaction_savesNoIndex() {
+    ContactResource contact = newContactResource("jd1234");
+    ofy().saveWithoutBackup().entity(contact).now();
+    ofy().clearSessionCache();
+    // There is no commit log outside of a transaction, so there is no revision to add.
+    assertThat(ofy().load().key(EppResourceRevisionIndex.createKey(Key.create(contact))).now())
+        .isNull();
+    assertThat(loadRevisions(contact)).isEmpty();
+  }
+
+  @Test
+  public void testSaveWithoutBackup_outsideTransaction_movesLegacyRevisionsToIndex() {
+    ContactResource contact = newContactResource("jd1234");
+    contact.revisions = ImmutableSortedMap.of(REVISION_TIME, manifestKey);
+    ofy().saveWithoutBackup().entity(contact).now();
+    ofy().clearSessionCache();
+    EppResourceRevisionIndex index =
+        ofy().load().key(EppResourceRevisionIndex.createKey(Key.create(contact))).now();
+    assertThat(index.getRevisions()).containsExactly(REVISION_TIME, manifestKey);
+  }
+
+  @Test
+  public void testSaveWithoutBackup_sameResourceTwice_savesLastOne() {
+    ContactResource contact = newContactResource("jd1234");
+    ContactResource legacyContact = contact.asBuilder().build();
+    legacyContact.revisions = ImmutableSortedMap.of(REVISION_TIME, manifestKey);
+    ofy().saveWithoutBackup().entities(contact, legacyContact).now();
+    ofy().clearSessionCache();
+    assertThat(loadRevisions(contact)).containsExactly(REVISION_TIME, manifestKey);
+  }
+
+  @Test
+  public void testSaveWithoutBackup_withIndex_savesGivenIndex() {
+    ContactResource contact = newContactResource("jd1234");
+    ImmutableSortedMap<DateTime, Key<CommitLogManifest>> revisions =
+        ImmutableSortedMap.of(REVISION_TIME, manifestKey);
+    ofy()
+        .saveWithoutBackup()
+        .entities(contact, EppResourceRevisionIndex.create(Key.create(contact), revisions))
+        .now();
+    ofy().clearSessionCache();
+    assertThat(loadRevisions(contact)).isEqualTo(revisions);
+  }
+}
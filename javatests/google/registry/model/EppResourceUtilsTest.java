@@ -15,6 +15,7 @@
 package google.registry.model;
 
 import static com.google.common.truth.Truth.assertThat;
+import static google.registry.model.EppResourceRevisionIndex.loadRevisions;
 import static google.registry.model.EppResourceUtils.loadAtPointInTime;
 import static google.registry.testing.DatastoreHelper.createTld;
 import static google.registry.testing.DatastoreHelper.newHostResource;
@@ -162,17 +163,17 @@ public class EppResourceUtilsTest {
     clock.advanceOneMilli();
     HostResource host =
         persistResourceWithCommitLog(newHostResource("ns1.example.net"));
-    assertThat(host.getRevisions()).hasSize(1);
+    assertThat(loadRevisions(host)).hasSize(1);
     clock.advanceBy(Duration.standardDays(31));
     host = persistResourceWithCommitLog(host);
-    assertThat(host.getRevisions()).hasSize(2);
+    assertThat(loadRevisions(host)).hasSize(2);
     clock.advanceBy(Duration.standardDays(31));
     host = persistResourceWithCommitLog(host);
-    assertThat(host.getRevisions()).hasSize(2);
+    assertThat(loadRevisions(host)).hasSize(2);
     // Even though there is no revision, make a best effort guess to use the oldest revision.
     assertThat(
         loadAtPointInTime(host, clock.nowUtc().minus(Duration.standardDays(32)))
           .now().getUpdateAutoTimestamp().getTimestamp())
-              .isEqualTo(host.getRevisions().firstKey());
+              .isEqualTo(loadRevisions(host).firstKey());
   }
 }
@@ -76,6 +76,25 @@ public class TimedTransitionPropertyTest {
     assertThat(timedString.toValueMap()).isEqualTo(values);
   }
 
+  @Test
+  public void testSuccess_toValueMap_isOnlyBuiltOnce() {
+    assertThat(timedString.toValueMap()).isSameAs(timedString.toValueMap());
+  }
+
+  @Test
+  public void testSuccess_lookupsSeeModificationsDuringLoad() {
+    TimedTransitionProperty<String, StringTimedTransition> loaded =
+        forMapify("0", StringTimedTransition.class);
+    assertThat(loaded.getValueAtTime(DATE_2)).isEqualTo("0");
+    assertThat(loaded.getNextTransitionAfter(START_OF_TIME)).isNull();
+    loaded.put(DATE_1, timedString.get(DATE_1));
+    assertThat(loaded.getValueAtTime(DATE_2)).isEqualTo("1");
+    assertThat(loaded.getNextTransitionAfter(START_OF_TIME)).isEqualTo(DATE_1);
+    assertThat(loaded.toValueMap()).containsExactly(START_OF_TIME, "0", DATE_1, "1");
+    loaded.remove(DATE_1);
+    assertThat(loaded.getValueAtTime(DATE_2)).isEqualTo("0");
+  }
+
   private static void testGetValueAtTime(
       TimedTransitionProperty<String, StringTimedTransition> timedString) {
     assertThat(timedString.getValueAtTime(A_LONG_TIME_AGO)).isEqualTo("0");
@@ -27,12 +27,16 @@ import static java.util.concurrent.TimeUnit.DAYS;
 
 import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSetMultimap;
 import com.googlecode.objectify.Key;
 import google.registry.model.EntityTestCase;
+import google.registry.model.EppResource;
 import google.registry.model.EppResourceUtils;
 import google.registry.model.contact.ContactResource;
 import google.registry.model.host.HostResource;
 import google.registry.model.index.ForeignKeyIndex.ForeignKeyHostIndex;
+import google.registry.model.ofy.DatastoreRpcStats;
+import google.registry.model.ofy.DatastoreRpcStats.RpcType;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -230,6 +234,30 @@ public class ForeignKeyIndexTest extends EntityTestCase {
         .containsExactly("contactid2", loadContactFki("contactid2"));
   }
 
+  @Test
+  public void test_loadCached_mixedResourceTypesInOneBatch() {
+    setNonZeroCachingInterval();
+    persistActiveHost("ns1.example.com");
+    persistActiveHost("ns2.example.com");
+    persistActiveContact("contactid1");
+    ForeignKeyIndex<HostResource> hostFki1 = loadHostFki("ns1.example.com");
+    ForeignKeyIndex<HostResource> hostFki2 = loadHostFki("ns2.example.com");
+    ForeignKeyIndex<ContactResource> contactFki = loadContactFki("contactid1");
+    DatastoreRpcStats stats = DatastoreRpcStats.reset();
+    assertThat(
+            ForeignKeyIndex.loadCached(
+                ImmutableSetMultimap.<Class<? extends EppResource>, String>builder()
+                    .putAll(HostResource.class, "ns1.example.com", "ns2.example.com", "ns3.com")
+                    .putAll(ContactResource.class, "contactid1", "contactid2")
+                    .build(),
+                clock.nowUtc()))
+        .containsExactly(
+            Key.create(hostFki1), hostFki1,
+            Key.create(hostFki2), hostFki2,
+            Key.create(contactFki), contactFki);
+    assertThat(stats.getRpcCount(RpcType.GET)).isEqualTo(1);
+  }
+
   private static void setNonZeroCachingInterval() {
     ForeignKeyIndex.setCacheForTest(CacheBuilder.newBuilder().expireAfterWrite(1L, DAYS));
   }
@@ -0,0 +1,98 @@
+// Copyright 2018 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.model.ofy;
+
+import static com.google.common.truth.Truth.assertThat;
+import static google.registry.testing.JUnitBackports.assertThrows;
+
+import google.registry.testing.FakeClock;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link CommitLogBucketSelector}. */
+@RunWith(JUnit4.class)
+public class CommitLogBucketSelectorTest {
+
+  private final FakeClock clock = new FakeClock();
+  private final CommitLogBucketSelector selector = new CommitLogBucketSelector(10, clock);
+  private final Random random = new Random(42);
+
+  private Set<Integer> selectMany(int numActiveBuckets) {
+    Set<Integer> selected = new HashSet<>();
+    for (int i = 0; i < 200; i++) {
+      selected.add(selector.select(numActiveBuckets, random));
+    }
+    return selected;
+  }
+
+  @Test
+  public void testSelect_usesAllActiveBuckets() {
+    assertThat(selectMany(10)).containsExactly(1, 2, 3, 4, 5, 6, 7, 8, 9, 10);
+  }
+
+  @Test
+  public void testSelect_onlyUsesActiveBuckets() {
+    assertThat(selectMany(3)).containsExactly(1, 2, 3);
+    assertThat(selectMany(1)).containsExactly(1);
+  }
+
+  @Test
+  public void testSelect_avoidsBucketsInUse() {
+    selector.recordStart(1);
+    assertThat(selectMany(2)).containsExactly(2);
+    selector.recordEnd(1);
+    assertThat(selectMany(2)).containsExactly(1, 2);
+  }
+
+  @Test
+  public void testSelect_avoidsRecentlyContendedBuckets() {
+    selector.recordContention(2);
+    assertThat(selectMany(2)).containsExactly(1);
+    clock.advanceBy(CommitLogBucketSelector.CONTENTION_PERIOD);
+    assertThat(selectMany(2)).containsExactly(1, 2);
+  }
+
+  @Test
+  public void testSelect_prefersContendedBucketOverHeavilyUsedOne() {
+    selector.recordContention(2);
+    for (int i = 0; i < 5; i++) {
+      selector.recordStart(1);
+    }
+    assertThat(selectMany(2)).containsExactly(2);
+  }
+
+  @Test
+  public void testFailure_select_tooManyActiveBuckets() {
+    IllegalArgumentException thrown =
+        assertThrows(IllegalArgumentException.class, () -> selector.select(11, random));
+    assertThat(thrown)
+        .hasMessageThat()
+        .isEqualTo("Number of active buckets 11 is not between 1 and the 10 buckets tracked");
+  }
+
+  @Test
+  public void testFailure_recordStart_bucketIdOutOfRange() {
+    IllegalArgumentException thrown =
+        assertThrows(IllegalArgumentException.class, () -> selector.recordStart(11));
+    assertThat(thrown)
+        .hasMessageThat()
+        .isEqualTo("Bucket ID 11 is not between 1 and the 10 buckets tracked");
+    assertThrows(IllegalArgumentException.class, () -> selector.recordContention(0));
+  }
+}
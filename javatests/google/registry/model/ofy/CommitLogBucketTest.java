@@ -24,6 +24,7 @@ import static google.registry.util.DateTimeUtils.END_OF_TIME;
 
 import com.google.common.base.Suppliers;
 import com.google.common.collect.ImmutableSet;
+import com.googlecode.objectify.Key;
 import com.googlecode.objectify.annotation.Cache;
 import google.registry.testing.AppEngineRule;
 import google.registry.testing.InjectRule;
@@ -77,6 +78,17 @@ public class CommitLogBucketTest {
     assertThat(thrown).hasMessageThat().contains("11 not in [");
   }
 
+  @Test
+  public void test_recordTransactionStart_unconfiguredBucket_throws() {
+    IllegalArgumentException thrown =
+        assertThrows(
+            IllegalArgumentException.class,
+            () -> CommitLogBucket.recordTransactionStart(Key.create(CommitLogBucket.class, 11)));
+    assertThat(thrown)
+        .hasMessageThat()
+        .isEqualTo("Commit log bucket 11 is not one of the 10 configured buckets");
+  }
+
   @Test
   public void test_getArbitraryBucketId_withSupplierOverridden() {
     inject.setStaticField(
@@ -0,0 +1,105 @@
+// Copyright 2018 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.model.ofy;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.common.truth.Truth8.assertThat;
+import static google.registry.model.ofy.ObjectifyService.ofy;
+
+import com.google.appengine.api.datastore.AsyncDatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.PreparedQuery;
+import com.google.appengine.api.datastore.Query;
+import com.googlecode.objectify.Key;
+import google.registry.model.ofy.DatastoreRpcStats.RpcType;
+import google.registry.testing.AppEngineRule;
+import google.registry.testing.TestObject;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link DatastoreRpcStats}. */
+@RunWith(JUnit4.class)
+public class DatastoreRpcStatsTest {
+
+  @Rule
+  public final AppEngineRule appEngine = AppEngineRule.builder()
+      .withDatastore()
+      .build();
+
+  @Before
+  public void before() {
+    DatastoreRpcStats.reset(true);
+  }
+
+  @Test
+  public void testReset_clearsCounts() {
+    ofy().load().key(Key.create(TestObject.create("a"))).now();
+    assertThat(DatastoreRpcStats.current().getRpcCount(RpcType.GET)).isEqualTo(1);
+    DatastoreRpcStats stats = DatastoreRpcStats.reset();
+    assertThat(DatastoreRpcStats.current()).isSameAs(stats);
+    assertThat(stats.getRpcCount(RpcType.GET)).isEqualTo(0);
+  }
+
+  @Test
+  public void testCounts_batchedGet() {
+    ofy().load().keys(Key.create(TestObject.create("a")), Key.create(TestObject.create("b")));
+    DatastoreRpcStats stats = DatastoreRpcStats.current();
+    assertThat(stats.getRpcCount(RpcType.GET)).isEqualTo(1);
+    assertThat(stats.getEntityCount(RpcType.GET)).isEqualTo(2);
+  }
+
+  @Test
+  public void testCounts_putsAndDeletes() {
+    TestObject object = TestObject.create("a", "value");
+    ofy().saveWithoutBackup().entity(object).now();
+    ofy().deleteWithoutBackup().entity(object).now();
+    DatastoreRpcStats stats = DatastoreRpcStats.current();
+    assertThat(stats.getRpcCount(RpcType.PUT)).isEqualTo(1);
+    assertThat(stats.getEntityCount(RpcType.PUT)).isEqualTo(1);
+    assertThat(stats.getBytesWritten().get()).isGreaterThan(0L);
+    assertThat(stats.getRpcCount(RpcType.DELETE)).isEqualTo(1);
+    assertThat(stats.getRpcCount(RpcType.QUERY)).isEqualTo(0);
+  }
+
+  @Test
+  public void testCounts_query() {
+    ofy().load().type(TestObject.class).list();
+    assertThat(DatastoreRpcStats.current().getRpcCount(RpcType.QUERY)).isEqualTo(1);
+  }
+
+  @Test
+  public void testBytesWritten_notMeasuredWhenNotSampled() {
+    DatastoreRpcStats stats = DatastoreRpcStats.reset(false);
+    ofy().saveWithoutBackup().entity(TestObject.create("a", "value")).now();
+    assertThat(stats.getRpcCount(RpcType.PUT)).isEqualTo(1);
+    assertThat(stats.getBytesWritten()).isEmpty();
+  }
+
+  @Test
+  public void testCounts_queryIsCountedWhenRunNotWhenPrepared() {
+    AsyncDatastoreService datastore =
+        new RequestCapturingAsyncDatastoreService(
+            DatastoreServiceFactory.getAsyncDatastoreService(), false);
+    PreparedQuery query = datastore.prepare(new Query("TestObject"));
+    assertThat(DatastoreRpcStats.current().getRpcCount(RpcType.QUERY)).isEqualTo(0);
+    query.asList(FetchOptions.Builder.withDefaults()).size();
+    query.countEntities(FetchOptions.Builder.withDefaults());
+    assertThat(DatastoreRpcStats.current().getRpcCount(RpcType.QUERY)).isEqualTo(2);
+  }
+}
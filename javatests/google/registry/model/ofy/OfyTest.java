@@ -16,7 +16,9 @@ package google.registry.model.ofy;
 
 import static com.google.appengine.api.datastore.DatastoreServiceFactory.getDatastoreService;
 import static com.google.common.truth.Truth.assertThat;
+import static com.google.monitoring.metrics.contrib.LongMetricSubject.assertThat;
 import static com.google.common.util.concurrent.Uninterruptibles.sleepUninterruptibly;
+import static google.registry.config.RegistryConfig.getTransactionRetryBudget;
 import static google.registry.model.common.EntityGroupRoot.getCrossTldKey;
 import static google.registry.model.ofy.ObjectifyService.ofy;
 import static google.registry.model.ofy.Ofy.getBaseEntityClassFromEntityOrKey;
@@ -53,6 +55,7 @@ import google.registry.testing.FakeClock;
 import google.registry.util.SystemClock;
 import java.util.ConcurrentModificationException;
 import org.joda.time.DateTime;
+import org.joda.time.Duration;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
@@ -238,6 +241,78 @@ public class OfyTest {
       }});
   }
 
+  @Test
+  public void testTransact_concurrentModificationException_retriesAndRecordsConflict() {
+    DatastoreRpcStats.reset();
+    assertThat(ofy().transact(new Work<Integer>() {
+
+      int count = 0;
+
+      @Override
+      public Integer run() {
+        count++;
+        if (count == 3) {
+          return count;
+        }
+        throw new ConcurrentModificationException();
+      }})).isEqualTo(3);
+    assertThat(DatastoreRpcStats.current().getTransactionConflicts()).isEqualTo(2);
+  }
+
+  @Test
+  public void testTransact_concurrentModificationException_recordsConflictByKey() {
+    ContactResource contact = persistActiveContact("contact123");
+    DatastoreMetrics.transactionConflicts.reset();
+    int[] attempts = {0};
+    ofy()
+        .transact(
+            () -> {
+              ofy().save().entity(contact);
+              if (++attempts[0] == 1) {
+                throw new ConcurrentModificationException();
+              }
+            });
+    assertThat(DatastoreMetrics.transactionConflicts)
+        .hasValueForLabels(1, "ContactResource", contact.getRepoId());
+  }
+
+  @Test
+  public void testTransact_withRetryBudget_givesUpWhenGivenBudgetIsSpent() {
+    FakeClock clock = new FakeClock();
+    Ofy ofy = new Ofy(clock);
+    Duration retryBudget = Duration.millis(10);
+    int[] attempts = {0};
+    assertThrows(
+        ConcurrentModificationException.class,
+        () ->
+            ofy.transact(
+                retryBudget,
+                () -> {
+                  attempts[0]++;
+                  // Well within the default budget, but more than the given one.
+                  clock.advanceBy(retryBudget.plus(1));
+                  throw new ConcurrentModificationException();
+                }));
+    assertThat(attempts[0]).isEqualTo(1);
+  }
+
+  @Test
+  public void testTransact_concurrentModificationException_givesUpWhenBudgetIsSpent() {
+    FakeClock clock = new FakeClock();
+    Ofy ofy = new Ofy(clock);
+    int[] attempts = {0};
+    assertThrows(
+        ConcurrentModificationException.class,
+        () ->
+            ofy.transact(
+                () -> {
+                  attempts[0]++;
+                  clock.advanceBy(getTransactionRetryBudget().plus(1));
+                  throw new ConcurrentModificationException();
+                }));
+    assertThat(attempts[0]).isEqualTo(1);
+  }
+
   @Test
   public void testTransact_transientFailureException_retries() {
     assertThat(ofy().transact(new Work<Integer>() {
@@ -322,6 +397,43 @@ public class OfyTest {
     ofy().transactCommitLoggedWork(commitLoggedWork);
   }
 
+  @Test
+  public void testTransact_bucketInUseUntilCommitted() {
+    int[] inFlightAfterWork = {-1};
+    CommitLoggedWork<Void> commitLoggedWork =
+        new CommitLoggedWork<Void>(
+            () -> {
+              ofy().save().entity(someObject);
+              return null;
+            },
+            new SystemClock()) {
+          @Override
+          public void vrun() {
+            super.vrun();
+            // Objectify only commits the transaction once this returns.
+            inFlightAfterWork[0] = CommitLogBucket.getInFlightTransactionCount(getBucketKey());
+          }
+        };
+    ofy().transactCommitLoggedWork(commitLoggedWork);
+    assertThat(inFlightAfterWork[0]).isEqualTo(1);
+    assertThat(CommitLogBucket.getInFlightTransactionCount(commitLoggedWork.getBucketKey()))
+        .isEqualTo(0);
+  }
+
+  @Test
+  public void testTransact_failure_bucketReleased() {
+    CommitLoggedWork<Void> commitLoggedWork =
+        new CommitLoggedWork<>(
+            () -> {
+              throw new IllegalStateException("oops");
+            },
+            new SystemClock());
+    assertThrows(
+        IllegalStateException.class, () -> ofy().transactCommitLoggedWork(commitLoggedWork));
+    assertThat(CommitLogBucket.getInFlightTransactionCount(commitLoggedWork.getBucketKey()))
+        .isEqualTo(0);
+  }
+
   void doReadOnlyRetryTest(final RuntimeException e) {
     assertThat(ofy().transactNewReadOnly(new Work<Integer>() {
 
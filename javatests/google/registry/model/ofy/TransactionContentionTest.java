@@ -0,0 +1,72 @@
+// Copyright 2018 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.model.ofy;
+
+import static com.google.common.truth.Truth.assertThat;
+import static google.registry.model.ofy.TransactionContention.computeBackoff;
+import static google.registry.testing.JUnitBackports.assertThrows;
+
+import org.joda.time.Duration;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link TransactionContention}. */
+@RunWith(JUnit4.class)
+public class TransactionContentionTest {
+
+  private static final Duration BASE = Duration.millis(100);
+
+  @Before
+  public void before() {
+    TransactionContention.resetForTesting();
+  }
+
+  @Test
+  public void testComputeBackoff_noContention_isHalfJitteredExponential() {
+    assertThat(computeBackoff(BASE, 0, 0, 0)).isEqualTo(Duration.millis(50));
+    assertThat(computeBackoff(BASE, 0, 0, 0.5)).isEqualTo(Duration.millis(75));
+    assertThat(computeBackoff(BASE, 3, 0, 0)).isEqualTo(Duration.millis(400));
+  }
+
+  @Test
+  public void testComputeBackoff_fullContention_isStretched() {
+    // The maximum contention multiplier of 4 gives five times the uncontended backoff.
+    assertThat(computeBackoff(BASE, 0, 1, 0)).isEqualTo(Duration.millis(250));
+  }
+
+  @Test
+  public void testComputeBackoff_zeroBase_isZero() {
+    assertThat(computeBackoff(Duration.ZERO, 5, 1, 0.9)).isEqualTo(Duration.ZERO);
+  }
+
+  @Test
+  public void testFailure_computeBackoff_jitterOutOfRange() {
+    assertThrows(IllegalArgumentException.class, () -> computeBackoff(BASE, 0, 0, 1));
+  }
+
+  @Test
+  public void testRecordAttempt_movesConflictRate() {
+    assertThat(TransactionContention.getConflictRate()).isEqualTo(0.0);
+    for (int i = 0; i < 100; i++) {
+      TransactionContention.recordAttempt(true);
+    }
+    double highRate = TransactionContention.getConflictRate();
+    assertThat(highRate).isGreaterThan(0.9);
+    TransactionContention.recordAttempt(false);
+    assertThat(TransactionContention.getConflictRate()).isLessThan(highRate);
+  }
+}
@@ -15,6 +15,7 @@
 package google.registry.model.smd;
 
 import static com.google.common.truth.Truth.assertThat;
+import static google.registry.model.common.EntityGroupRoot.getCrossTldKey;
 import static google.registry.model.ofy.ObjectifyService.ofy;
 import static google.registry.model.smd.SignedMarkRevocationList.SHARD_SIZE;
 import static google.registry.testing.JUnitBackports.assertThrows;
@@ -164,4 +165,49 @@ public class SignedMarkRevocationListTest {
     assertThat(smdrl.isSmdRevoked(Integer.toString(rows - 1), clock.nowUtc())).isFalse();
     assertThat(smdrl.isSmdRevoked(Integer.toString(rows), clock.nowUtc())).isFalse();
   }
+
+  @Test
+  public void test_isSmdRevoked_canonicalIds() {
+    SignedMarkRevocationList.create(
+            clock.nowUtc(),
+            ImmutableMap.of(
+                "0000001681375789102250-65535", clock.nowUtc(),
+                "1-2", clock.nowUtc().plusDays(1),
+                "9-01", clock.nowUtc()))
+        .save();
+    SignedMarkRevocationList smdrl = SignedMarkRevocationList.get();
+    assertThat(smdrl.size()).isEqualTo(3);
+    assertThat(smdrl.isSmdRevoked("0000001681375789102250-65535", clock.nowUtc())).isTrue();
+    assertThat(smdrl.isSmdRevoked("1681375789102250-65535", clock.nowUtc())).isFalse();
+    assertThat(smdrl.isSmdRevoked("1-2", clock.nowUtc())).isFalse();
+    assertThat(smdrl.isSmdRevoked("1-2", clock.nowUtc().plusDays(1))).isTrue();
+    assertThat(smdrl.isSmdRevoked("9-01", clock.nowUtc())).isTrue();
+    assertThat(smdrl.isSmdRevoked("9-1", clock.nowUtc())).isFalse();
+  }
+
+  @Test
+  public void test_get_reusesSavedListWhileShardsAreUnchanged() {
+    SignedMarkRevocationList saved =
+        SignedMarkRevocationList.create(clock.nowUtc(), ImmutableMap.of("1-2", clock.nowUtc()))
+            .save();
+    assertThat(SignedMarkRevocationList.get()).isSameAs(saved);
+  }
+
+  @Test
+  public void test_get_reloadsWhenShardsChange() {
+    SignedMarkRevocationList.create(clock.nowUtc(), ImmutableMap.of("1-2", clock.nowUtc())).save();
+    ofy()
+        .transact(
+            () ->
+                ofy()
+                    .deleteWithoutBackup()
+                    .keys(
+                        ofy()
+                            .load()
+                            .type(SignedMarkRevocationList.class)
+                            .ancestor(getCrossTldKey())
+                            .keys()));
+    assertThat(SignedMarkRevocationList.get())
+        .isEqualTo(SignedMarkRevocationList.create(START_OF_TIME, ImmutableMap.of()));
+  }
 }
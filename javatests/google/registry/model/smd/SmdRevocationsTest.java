@@ -0,0 +1,87 @@
+// Copyright 2018 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.model.smd;
+
+import static com.google.common.truth.Truth.assertThat;
+import static google.registry.testing.JUnitBackports.assertThrows;
+
+import com.google.common.collect.ImmutableMap;
+import org.joda.time.DateTime;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link SmdRevocations}. */
+@RunWith(JUnit4.class)
+public class SmdRevocationsTest {
+
+  private static final DateTime REVOKED = DateTime.parse("2018-01-01T00:00:00Z");
+
+  @Test
+  public void testToMap_roundTripsCanonicalAndOtherIds() {
+    ImmutableMap<String, DateTime> revokes =
+        ImmutableMap.of(
+            "20-1", REVOKED,
+            "3-999999999999999999", REVOKED.plusMillis(1),
+            "0-0", REVOKED,
+            "007-1", REVOKED,
+            "rofl", REVOKED);
+    SmdRevocations revocations = SmdRevocations.create(revokes);
+    assertThat(revocations.size()).isEqualTo(5);
+    assertThat(revocations.toMap()).isEqualTo(revokes);
+  }
+
+  @Test
+  public void testIsSmdRevoked_binarySearch() {
+    SmdRevocations.Builder builder = new SmdRevocations.Builder();
+    for (int i = 999; i >= 0; i--) {
+      builder.put((i % 7) + "-" + i, REVOKED.plusMillis(i));
+    }
+    SmdRevocations revocations = builder.build();
+    assertThat(revocations.size()).isEqualTo(1000);
+    for (int i = 0; i < 1000; i++) {
+      String smdId = (i % 7) + "-" + i;
+      assertThat(revocations.isSmdRevoked(smdId, REVOKED.plusMillis(i))).isTrue();
+      assertThat(revocations.isSmdRevoked(smdId, REVOKED.plusMillis(i - 1))).isFalse();
+      assertThat(revocations.isSmdRevoked(((i + 1) % 7) + "-" + i, REVOKED.plusMillis(i)))
+          .isFalse();
+    }
+  }
+
+  @Test
+  public void testIsSmdRevoked_malformedIds() {
+    SmdRevocations revocations = SmdRevocations.create(ImmutableMap.of("1-2", REVOKED));
+    assertThat(revocations.isSmdRevoked("", REVOKED)).isFalse();
+    assertThat(revocations.isSmdRevoked("-", REVOKED)).isFalse();
+    assertThat(revocations.isSmdRevoked("1-", REVOKED)).isFalse();
+    assertThat(revocations.isSmdRevoked("-2", REVOKED)).isFalse();
+    assertThat(revocations.isSmdRevoked("1-2-3", REVOKED)).isFalse();
+    assertThat(revocations.isSmdRevoked("1-99999999999999999999", REVOKED)).isFalse();
+  }
+
+  @Test
+  public void testBuild_duplicateId_throws() {
+    SmdRevocations.Builder builder =
+        new SmdRevocations.Builder().put("1-2", REVOKED).put("1-2", REVOKED.plusDays(1));
+    assertThrows(IllegalArgumentException.class, builder::build);
+  }
+
+  @Test
+  public void testEquals_ignoresInsertionOrder() {
+    assertThat(
+            new SmdRevocations.Builder().put("2-1", REVOKED).put("1-2", REVOKED).build())
+        .isEqualTo(new SmdRevocations.Builder().put("1-2", REVOKED).put("2-1", REVOKED).build());
+  }
+}
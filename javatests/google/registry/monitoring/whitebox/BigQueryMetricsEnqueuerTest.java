@@ -15,26 +15,51 @@
 package google.registry.monitoring.whitebox;
 
 import static com.google.appengine.api.taskqueue.QueueFactory.getQueue;
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static com.google.common.collect.Iterables.getOnlyElement;
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.monitoring.metrics.contrib.LongMetricSubject.assertThat;
 import static google.registry.bigquery.BigqueryUtils.toBigqueryTimestamp;
+import static google.registry.monitoring.whitebox.BigQueryMetricsEnqueuer.MAX_BUFFERED_ROWS;
+import static google.registry.monitoring.whitebox.BigQueryMetricsEnqueuer.MAX_BUFFER_AGE;
+import static google.registry.monitoring.whitebox.BigQueryMetricsEnqueuer.MAX_ROWS_PER_TASK;
 import static google.registry.monitoring.whitebox.BigQueryMetricsEnqueuer.QUEUE_BIGQUERY_STREAMING_METRICS;
+import static google.registry.monitoring.whitebox.BigQueryMetricsEnqueuer.droppedRowsMetric;
+import static google.registry.testing.TaskQueueHelper.assertNoTasksEnqueued;
 import static google.registry.testing.TaskQueueHelper.assertTasksEnqueued;
+import static google.registry.testing.TaskQueueHelper.getQueuedParams;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import com.google.api.services.bigquery.model.TableFieldSchema;
+import com.google.appengine.api.taskqueue.Queue;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.appengine.api.taskqueue.TransientFailureException;
 import com.google.auto.value.AutoValue;
 import com.google.common.base.Suppliers;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import google.registry.testing.AppEngineRule;
+import google.registry.testing.FakeClock;
 import google.registry.testing.MockitoJUnitRule;
 import google.registry.testing.TaskQueueHelper.TaskMatcher;
 import google.registry.util.AppEngineServiceUtils;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
 import org.joda.time.DateTime;
+import org.json.simple.JSONValue;
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Matchers;
 import org.mockito.Mock;
 
 /** Unit tests for {@link BigQueryMetricsEnqueuer}. */
@@ -49,11 +74,18 @@ public class BigQueryMetricsEnqueuerTest {
 
   @Mock private AppEngineServiceUtils appEngineServiceUtils;
 
+  private final FakeClock clock = new FakeClock(DateTime.parse("1984-12-18T00:00:00Z"));
+  private final TestMetric metric =
+      TestMetric.create(
+          DateTime.parse("1984-12-18TZ"), DateTime.parse("1984-12-18TZ").plusMillis(1));
+
   private BigQueryMetricsEnqueuer enqueuer;
 
   @Before
   public void setUp() {
+    BigQueryMetricsEnqueuer.reset();
     enqueuer = new BigQueryMetricsEnqueuer();
+    enqueuer.clock = clock;
     enqueuer.idGenerator = Suppliers.ofInstance("laffo");
     enqueuer.appEngineServiceUtils = appEngineServiceUtils;
     enqueuer.queue = getQueue(QUEUE_BIGQUERY_STREAMING_METRICS);
@@ -61,22 +93,119 @@ public class BigQueryMetricsEnqueuerTest {
         .thenReturn("backend.test.localhost");
   }
 
-  @Test
-  public void testExport() {
-    TestMetric metric =
-        TestMetric.create(
-            DateTime.parse("1984-12-18TZ"), DateTime.parse("1984-12-18TZ").plusMillis(1));
+  @After
+  public void tearDown() {
+    BigQueryMetricsEnqueuer.reset();
+  }
 
+  @Test
+  public void testExport_bufferedUntilFlush() {
     enqueuer.export(metric);
+    assertNoTasksEnqueued(QUEUE_BIGQUERY_STREAMING_METRICS);
+
+    BigQueryMetricsEnqueuer.flushBufferedMetrics();
 
     assertTasksEnqueued("bigquery-streaming-metrics",
         new TaskMatcher()
             .url("/_dr/task/metrics")
             .header("Host", "backend.test.localhost")
             .param("tableId", "test")
-            .param("startTime", "472176000.000000")
-            .param("endTime", "472176000.001000")
-            .param("insertId", "laffo"));
+            .param(
+                "rows",
+                "[{\"insertId\":\"laffo\",\"json\":"
+                    + "{\"startTime\":\"472176000.000000\","
+                    + "\"endTime\":\"472176000.001000\"}}]"));
+  }
+
+  @Test
+  public void testExport_flushedAtBatchSize() {
+    for (int i = 0; i < MAX_ROWS_PER_TASK - 1; i++) {
+      enqueuer.export(metric);
+    }
+    assertNoTasksEnqueued(QUEUE_BIGQUERY_STREAMING_METRICS);
+
+    enqueuer.export(metric);
+
+    assertThat(getQueuedRowCounts()).containsExactly(MAX_ROWS_PER_TASK);
+  }
+
+  @Test
+  public void testExport_flushedAfterMaxAge() {
+    enqueuer.export(metric);
+    clock.advanceBy(MAX_BUFFER_AGE.minus(1));
+    enqueuer.export(metric);
+    assertNoTasksEnqueued(QUEUE_BIGQUERY_STREAMING_METRICS);
+
+    clock.advanceOneMilli();
+    enqueuer.export(metric);
+
+    assertThat(getQueuedRowCounts()).containsExactly(3);
+  }
+
+  @Test
+  public void testExport_enqueueFailure_keepsBoundedNumberOfRows() {
+    Queue failingQueue = mock(Queue.class);
+    when(failingQueue.add(Matchers.<Iterable<TaskOptions>>any()))
+        .thenThrow(new TransientFailureException("oops"));
+    enqueuer.queue = failingQueue;
+    for (int i = 0; i < MAX_BUFFERED_ROWS + 10; i++) {
+      enqueuer.export(metric);
+    }
+
+    enqueuer.queue = getQueue(QUEUE_BIGQUERY_STREAMING_METRICS);
+    BigQueryMetricsEnqueuer.flushBufferedMetrics();
+
+    // The rows that didn't fit in the buffer were dropped.
+    assertThat(getQueuedRowCounts())
+        .containsExactlyElementsIn(
+            Collections.nCopies(MAX_BUFFERED_ROWS / MAX_ROWS_PER_TASK, MAX_ROWS_PER_TASK));
+  }
+
+  @Test
+  public void testExport_nonTransientEnqueueFailure_dropsRows() {
+    Queue failingQueue = mock(Queue.class);
+    when(failingQueue.add(Matchers.<Iterable<TaskOptions>>any()))
+        .thenThrow(new IllegalArgumentException("Task too large"));
+    enqueuer.queue = failingQueue;
+    for (int i = 0; i < MAX_ROWS_PER_TASK; i++) {
+      enqueuer.export(metric);
+    }
+
+    enqueuer.queue = getQueue(QUEUE_BIGQUERY_STREAMING_METRICS);
+    BigQueryMetricsEnqueuer.flushBufferedMetrics();
+
+    assertNoTasksEnqueued(QUEUE_BIGQUERY_STREAMING_METRICS);
+    assertThat(droppedRowsMetric)
+        .hasValueForLabels(MAX_ROWS_PER_TASK, "test")
+        .and()
+        .hasNoOtherValues();
+  }
+
+  @Test
+  public void testStartPeriodicFlush_flushesBufferedRowsWithoutFurtherExports() {
+    ScheduledExecutorService executor = mock(ScheduledExecutorService.class);
+    BigQueryMetricsEnqueuer.startPeriodicFlush(executor);
+    ArgumentCaptor<Runnable> flush = ArgumentCaptor.forClass(Runnable.class);
+    verify(executor)
+        .scheduleAtFixedRate(
+            flush.capture(),
+            eq(MAX_BUFFER_AGE.getMillis()),
+            eq(MAX_BUFFER_AGE.getMillis()),
+            eq(MILLISECONDS));
+    enqueuer.export(metric);
+    assertNoTasksEnqueued(QUEUE_BIGQUERY_STREAMING_METRICS);
+
+    flush.getValue().run();
+
+    assertThat(getQueuedRowCounts()).containsExactly(1);
+  }
+
+  /** Returns the number of rows in each enqueued task. */
+  private static ImmutableList<Integer> getQueuedRowCounts() {
+    return getQueuedParams(QUEUE_BIGQUERY_STREAMING_METRICS)
+        .stream()
+        .map(params -> ((List<?>) JSONValue.parse(getOnlyElement(params.get("rows")))).size())
+        .collect(toImmutableList());
   }
 
   /** A stub implementation of {@link BigQueryMetric}. */
@@ -25,6 +25,7 @@ import com.google.common.collect.ImmutableSet;
 import google.registry.model.eppoutput.Result.Code;
 import google.registry.testing.AppEngineRule;
 import google.registry.testing.FakeClock;
+import java.util.Optional;
 import org.joda.time.DateTime;
 import org.junit.Rule;
 import org.junit.Test;
@@ -88,6 +89,7 @@ public class EppMetricTest {
             .setPrivilegeLevel("level")
             .setEppTarget("target")
             .setStatus(Code.COMMAND_USE_ERROR)
+            .setDatastoreBytesWritten(Optional.of(1234L))
             .incrementAttempts()
             .build();
 
@@ -104,9 +106,29 @@ public class EppMetricTest {
                 .put("eppTarget", "target")
                 .put("eppStatus", "2002")
                 .put("attempts", "1")
+                .put("datastoreGets", "0")
+                .put("datastorePuts", "0")
+                .put("datastoreDeletes", "0")
+                .put("datastoreQueries", "0")
+                .put("datastoreBytesWritten", "1234")
+                .put("transactionConflicts", "0")
+                .put("wastedTransactionMillis", "0")
                 .build());
   }
 
+  @Test
+  public void testGetBigQueryRowEncoding_unmeasuredBytesWritten_isOmitted() {
+    EppMetric metric =
+        EppMetric.builder()
+            .setRequestId("request-id-1")
+            .setStartTimestamp(new DateTime(1337))
+            .setEndTimestamp(new DateTime(1338))
+            .incrementAttempts()
+            .build();
+
+    assertThat(metric.getBigQueryRowEncoding()).doesNotContainKey("datastoreBytesWritten");
+  }
+
   @Test
   public void testGetBigQueryRowEncoding_hasAllSchemaFields() {
     EppMetric metric =
@@ -120,6 +142,7 @@ public class EppMetricTest {
             .setPrivilegeLevel("level")
             .setEppTarget("target")
             .setStatus(Code.COMMAND_USE_ERROR)
+            .setDatastoreBytesWritten(Optional.of(1234L))
             .incrementAttempts()
             .build();
     ImmutableSet.Builder<String> schemaFieldNames = new ImmutableSet.Builder<>();
@@ -129,4 +152,13 @@ public class EppMetricTest {
 
     assertThat(metric.getBigQueryRowEncoding().keySet()).isEqualTo(schemaFieldNames.build());
   }
+
+  @Test
+  public void testSchemaFields_areAllNullable() {
+    // Columns are added to existing eppMetrics tables by patching, which BigQuery only allows for
+    // nullable columns (e.g. transactionConflicts and wastedTransactionMillis).
+    for (TableFieldSchema schemaField : EppMetric.SCHEMA_FIELDS) {
+      assertThat(schemaField.getMode()).isAnyOf(null, "NULLABLE");
+    }
+  }
 }
@@ -0,0 +1,72 @@
+// Copyright 2018 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.monitoring.whitebox;
+
+import static com.google.appengine.api.taskqueue.QueueFactory.getQueue;
+import static com.google.common.truth.Truth.assertThat;
+import static google.registry.model.ofy.ObjectifyService.ofy;
+import static google.registry.monitoring.whitebox.IcannActivityCounters.QUEUE_ICANN_ACTIVITY_COUNTS;
+import static google.registry.monitoring.whitebox.IcannActivityCountersTest.sumCounts;
+import static google.registry.testing.TaskQueueHelper.assertNoTasksEnqueued;
+import static org.mockito.Mockito.mock;
+
+import com.google.common.collect.ImmutableMap;
+import google.registry.model.reporting.IcannReportingTypes.ActivityReportField;
+import google.registry.monitoring.whitebox.IcannActivityCounters.CounterKey;
+import google.registry.testing.AppEngineRule;
+import google.registry.util.AppEngineServiceUtils;
+import org.joda.time.DateTime;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link FlushIcannActivityCountsAction}. */
+@RunWith(JUnit4.class)
+public class FlushIcannActivityCountsActionTest {
+
+  @Rule
+  public final AppEngineRule appEngine =
+      AppEngineRule.builder().withDatastore().withTaskQueue().build();
+
+  private static final DateTime DAY = DateTime.parse("2018-06-01T00:00:00Z");
+
+  private FlushIcannActivityCountsAction createAction(ImmutableMap<CounterKey, Long> counts) {
+    FlushIcannActivityCountsAction action = new FlushIcannActivityCountsAction();
+    action.counts = IcannActivityCounters.encodeCounts(counts);
+    action.queue = getQueue(QUEUE_ICANN_ACTIVITY_COUNTS);
+    action.appEngineServiceUtils = mock(AppEngineServiceUtils.class);
+    return action;
+  }
+
+  @Test
+  public void testRun_addsCountsToDatastore() {
+    createAction(
+            ImmutableMap.of(
+                CounterKey.create(DAY, null, null, ActivityReportField.WHOIS_43_QUERIES),
+                7L,
+                CounterKey.create(DAY, "tld", "TheRegistrar", ActivityReportField.DOMAIN_CREATE),
+                2L))
+        .run();
+    createAction(
+            ImmutableMap.of(
+                CounterKey.create(DAY, null, null, ActivityReportField.WHOIS_43_QUERIES), 3L))
+        .run();
+    ofy().clearSessionCache();
+    assertThat(sumCounts(null, null, ActivityReportField.WHOIS_43_QUERIES)).isEqualTo(10);
+    assertThat(sumCounts("tld", "TheRegistrar", ActivityReportField.DOMAIN_CREATE)).isEqualTo(2);
+    assertNoTasksEnqueued(QUEUE_ICANN_ACTIVITY_COUNTS);
+  }
+}
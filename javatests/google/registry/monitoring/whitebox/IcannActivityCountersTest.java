@@ -0,0 +1,221 @@
+// Copyright 2018 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.monitoring.whitebox;
+
+import static com.google.appengine.api.taskqueue.QueueFactory.getQueue;
+import static com.google.common.collect.Iterables.getOnlyElement;
+import static com.google.common.truth.Truth.assertThat;
+import static google.registry.model.ofy.ObjectifyService.ofy;
+import static google.registry.monitoring.whitebox.IcannActivityCounters.QUEUE_ICANN_ACTIVITY_COUNTS;
+import static google.registry.testing.TaskQueueHelper.assertNoTasksEnqueued;
+import static google.registry.testing.TaskQueueHelper.assertTasksEnqueued;
+import static google.registry.testing.TaskQueueHelper.getQueuedParams;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.appengine.api.taskqueue.Queue;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.appengine.api.taskqueue.TransientFailureException;
+import com.google.common.collect.ImmutableMap;
+import google.registry.model.reporting.IcannActivityCount;
+import google.registry.model.reporting.IcannReportingTypes.ActivityReportField;
+import google.registry.monitoring.whitebox.IcannActivityCounters.CounterKey;
+import google.registry.testing.AppEngineRule;
+import google.registry.testing.FakeClock;
+import google.registry.testing.TaskQueueHelper.TaskMatcher;
+import google.registry.util.AppEngineServiceUtils;
+import java.util.Optional;
+import java.util.concurrent.ScheduledExecutorService;
+import org.joda.time.DateTime;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.ArgumentCaptor;
+
+/** Unit tests for {@link IcannActivityCounters}. */
+@RunWith(JUnit4.class)
+public class IcannActivityCountersTest {
+
+  @Rule
+  public final AppEngineRule appEngine =
+      AppEngineRule.builder().withDatastore().withTaskQueue().build();
+
+  private static final DateTime DAY = DateTime.parse("2018-06-01T00:00:00Z");
+
+  private final FakeClock clock = new FakeClock(DateTime.parse("2018-06-01T12:00:00Z"));
+  private final AppEngineServiceUtils appEngineServiceUtils = mock(AppEngineServiceUtils.class);
+  private IcannActivityCounters counters;
+
+  @Before
+  public void before() {
+    IcannActivityCounters.reset();
+    when(appEngineServiceUtils.getCurrentVersionHostname("backend"))
+        .thenReturn("backend.hostname.fake");
+    counters =
+        new IcannActivityCounters(
+            clock, getQueue(QUEUE_ICANN_ACTIVITY_COUNTS), appEngineServiceUtils);
+  }
+
+  static long sumCounts(String tld, String clientId, ActivityReportField field) {
+    return ofy()
+        .load()
+        .type(IcannActivityCount.class)
+        .list()
+        .stream()
+        .filter(count -> field.getFieldName().equals(count.getField()))
+        .filter(count -> (tld == null) ? count.getTld() == null : tld.equals(count.getTld()))
+        .filter(
+            count ->
+                (clientId == null)
+                    ? count.getClientId() == null
+                    : clientId.equals(count.getClientId()))
+        .mapToLong(IcannActivityCount::getCount)
+        .sum();
+  }
+
+  private static ImmutableMap<CounterKey, Long> getEnqueuedCounts() {
+    return IcannActivityCounters.decodeCounts(
+        getOnlyElement(
+            getOnlyElement(getQueuedParams(QUEUE_ICANN_ACTIVITY_COUNTS))
+                .get(FlushIcannActivityCountsAction.COUNTS_PARAM)));
+  }
+
+  @Test
+  public void testIncrement_notFlushedBeforeInterval() {
+    counters.increment(ActivityReportField.WHOIS_43_QUERIES);
+    counters.increment(ActivityReportField.WHOIS_43_QUERIES);
+    assertNoTasksEnqueued(QUEUE_ICANN_ACTIVITY_COUNTS);
+    assertThat(ofy().load().type(IcannActivityCount.class).count()).isEqualTo(0);
+  }
+
+  @Test
+  public void testIncrement_enqueuedAfterInterval() {
+    counters.increment(ActivityReportField.WHOIS_43_QUERIES);
+    counters.increment(
+        Optional.of("tld"), Optional.of("TheRegistrar"), ActivityReportField.DOMAIN_CREATE);
+    clock.advanceBy(IcannActivityCounters.FLUSH_INTERVAL);
+    counters.increment(ActivityReportField.WHOIS_43_QUERIES);
+    assertTasksEnqueued(
+        QUEUE_ICANN_ACTIVITY_COUNTS,
+        new TaskMatcher()
+            .url(FlushIcannActivityCountsAction.PATH)
+            .header("Host", "backend.hostname.fake"));
+    assertThat(getEnqueuedCounts())
+        .containsExactly(
+            CounterKey.create(DAY, null, null, ActivityReportField.WHOIS_43_QUERIES),
+            2L,
+            CounterKey.create(DAY, "tld", "TheRegistrar", ActivityReportField.DOMAIN_CREATE),
+            1L);
+    // The counts are only written to Datastore by the task.
+    assertThat(ofy().load().type(IcannActivityCount.class).count()).isEqualTo(0);
+  }
+
+  @Test
+  public void testEnqueueFlush_transientFailure_keepsCounts() {
+    Queue failingQueue = mock(Queue.class);
+    when(failingQueue.add(any(TaskOptions.class)))
+        .thenThrow(new TransientFailureException("oops"));
+    IcannActivityCounters failingCounters =
+        new IcannActivityCounters(clock, failingQueue, appEngineServiceUtils);
+    failingCounters.increment(ActivityReportField.WEB_WHOIS_QUERIES);
+    failingCounters.enqueueFlush();
+
+    counters.increment(ActivityReportField.WEB_WHOIS_QUERIES);
+    counters.enqueueFlush();
+
+    assertThat(getEnqueuedCounts())
+        .containsExactly(
+            CounterKey.create(DAY, null, null, ActivityReportField.WEB_WHOIS_QUERIES), 2L);
+  }
+
+  @Test
+  public void testStartPeriodicFlush_enqueuesWithoutFurtherIncrements() {
+    ScheduledExecutorService executor = mock(ScheduledExecutorService.class);
+    IcannActivityCounters.startPeriodicFlush(executor);
+    ArgumentCaptor<Runnable> flush = ArgumentCaptor.forClass(Runnable.class);
+    verify(executor)
+        .scheduleAtFixedRate(
+            flush.capture(),
+            eq(IcannActivityCounters.FLUSH_INTERVAL.getMillis()),
+            eq(IcannActivityCounters.FLUSH_INTERVAL.getMillis()),
+            eq(MILLISECONDS));
+
+    counters.increment(ActivityReportField.WHOIS_43_QUERIES);
+    assertNoTasksEnqueued(QUEUE_ICANN_ACTIVITY_COUNTS);
+    flush.getValue().run();
+    assertThat(getEnqueuedCounts())
+        .containsExactly(
+            CounterKey.create(DAY, null, null, ActivityReportField.WHOIS_43_QUERIES), 1L);
+  }
+
+  @Test
+  public void testFlushPendingCounts_nothingCounted_doesNothing() {
+    IcannActivityCounters.flushPendingCounts();
+    assertNoTasksEnqueued(QUEUE_ICANN_ACTIVITY_COUNTS);
+  }
+
+  @Test
+  public void testFlushPendingCounts_unexpectedFailure_keepsCounts() {
+    Queue failingQueue = mock(Queue.class);
+    when(failingQueue.add(any(TaskOptions.class))).thenThrow(new IllegalStateException("oops"));
+    new IcannActivityCounters(clock, failingQueue, appEngineServiceUtils)
+        .increment(ActivityReportField.WEB_WHOIS_QUERIES);
+    IcannActivityCounters.flushPendingCounts();
+
+    counters.increment(ActivityReportField.WEB_WHOIS_QUERIES);
+    IcannActivityCounters.flushPendingCounts();
+
+    assertThat(getEnqueuedCounts())
+        .containsExactly(
+            CounterKey.create(DAY, null, null, ActivityReportField.WEB_WHOIS_QUERIES), 2L);
+  }
+
+  @Test
+  public void testEnqueueFlush_nothingPending_doesNotEnqueue() {
+    counters.enqueueFlush();
+    assertNoTasksEnqueued(QUEUE_ICANN_ACTIVITY_COUNTS);
+  }
+
+  @Test
+  public void testAddToDatastore_addsToExistingCounts() {
+    CounterKey counterKey =
+        CounterKey.create(DAY, null, null, ActivityReportField.WEB_WHOIS_QUERIES);
+    for (int i = 0; i < 50; i++) {
+      assertThat(IcannActivityCounters.addToDatastore(ImmutableMap.of(counterKey, 1L))).isEmpty();
+    }
+    ofy().clearSessionCache();
+    assertThat(sumCounts(null, null, ActivityReportField.WEB_WHOIS_QUERIES)).isEqualTo(50);
+    assertThat(ofy().load().type(IcannActivityCount.class).count())
+        .isAtMost(IcannActivityCount.NUM_SHARDS);
+  }
+
+  @Test
+  public void testEncodeCounts_roundTrips() {
+    ImmutableMap<CounterKey, Long> counts =
+        ImmutableMap.of(
+            CounterKey.create(DAY, null, null, ActivityReportField.WHOIS_43_QUERIES),
+            5L,
+            CounterKey.create(DAY, "tld", "TheRegistrar", ActivityReportField.DOMAIN_CREATE),
+            3L);
+    assertThat(IcannActivityCounters.decodeCounts(IcannActivityCounters.encodeCounts(counts)))
+        .isEqualTo(counts);
+  }
+}
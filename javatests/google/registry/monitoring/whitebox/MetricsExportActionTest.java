@@ -14,8 +14,10 @@
 
 package google.registry.monitoring.whitebox;
 
+import static com.google.common.truth.Truth.assertThat;
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -33,11 +35,13 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableListMultimap;
 import google.registry.bigquery.BigqueryFactory;
 import google.registry.testing.AppEngineRule;
+import java.util.Optional;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Matchers;
 
 /** Unit tests for {@link MetricsExportAction}. */
@@ -85,7 +89,8 @@ public class MetricsExportActionTest {
         Matchers.any(TableDataInsertAllRequest.class))).thenReturn(insertAll);
     action = new MetricsExportAction();
     action.bigqueryFactory = bigqueryFactory;
-    action.insertId = "insert id";
+    action.insertId = Optional.of("insert id");
+    action.rows = Optional.empty();
     action.parameters = parameters;
     action.projectId = "project id";
     action.tableId = "eppMetrics";
@@ -107,6 +112,27 @@ public class MetricsExportActionTest {
     verify(insertAll).execute();
   }
 
+  @Test
+  public void testSuccess_batchedRows() throws Exception {
+    when(insertAll.execute()).thenReturn(response);
+    action.insertId = Optional.empty();
+    action.rows =
+        Optional.of(
+            "[{\"insertId\":\"id1\",\"json\":{\"tld\":\"foo\"}},"
+                + "{\"insertId\":\"id2\",\"json\":{\"tld\":\"bar\"}}]");
+    action.run();
+    ArgumentCaptor<TableDataInsertAllRequest> request =
+        ArgumentCaptor.forClass(TableDataInsertAllRequest.class);
+    verify(tabledata)
+        .insertAll(eq("project id"), eq("metrics"), eq("eppMetrics"), request.capture());
+    assertThat(request.getValue().getRows()).hasSize(2);
+    assertThat(request.getValue().getRows().get(0).getInsertId()).isEqualTo("id1");
+    assertThat(request.getValue().getRows().get(0).getJson()).containsExactly("tld", "foo");
+    assertThat(request.getValue().getRows().get(1).getInsertId()).isEqualTo("id2");
+    assertThat(request.getValue().getRows().get(1).getJson()).containsExactly("tld", "bar");
+    verify(insertAll).execute();
+  }
+
   @Test
   public void testFailure_errors() throws Exception {
     when(insertAll.execute()).thenReturn(response);
@@ -18,6 +18,7 @@ import static com.google.monitoring.metrics.contrib.DistributionMetricSubject.as
 import static com.google.monitoring.metrics.contrib.LongMetricSubject.assertThat;
 
 import com.google.common.collect.ImmutableSet;
+import google.registry.model.ofy.DatastoreRpcStats;
 import google.registry.rdap.RdapMetrics.EndpointType;
 import google.registry.rdap.RdapMetrics.SearchType;
 import google.registry.rdap.RdapMetrics.WildcardType;
@@ -41,6 +42,7 @@ public class RdapMetricsTest {
     RdapMetrics.numberOfDomainsRetrieved.reset();
     RdapMetrics.numberOfHostsRetrieved.reset();
     RdapMetrics.numberOfContactsRetrieved.reset();
+    RdapMetrics.datastoreRpcs.reset();
   }
 
   private RdapMetrics.RdapMetricInformation.Builder getBuilder() {
@@ -288,4 +290,20 @@ public class RdapMetricsTest {
         .and()
         .hasNoOtherValues();
   }
+
+  @Test
+  public void testRecordDatastoreRpcs_recordsEveryRpcType() {
+    rdapMetrics.recordDatastoreRpcs(
+        getBuilder().setSearchType(SearchType.BY_DOMAIN_NAME).build(), DatastoreRpcStats.reset());
+    assertThat(RdapMetrics.datastoreRpcs)
+        .hasDataSetForLabels(ImmutableSet.of(0), "DOMAINS", "BY_DOMAIN_NAME", "GET")
+        .and()
+        .hasDataSetForLabels(ImmutableSet.of(0), "DOMAINS", "BY_DOMAIN_NAME", "PUT")
+        .and()
+        .hasDataSetForLabels(ImmutableSet.of(0), "DOMAINS", "BY_DOMAIN_NAME", "DELETE")
+        .and()
+        .hasDataSetForLabels(ImmutableSet.of(0), "DOMAINS", "BY_DOMAIN_NAME", "QUERY")
+        .and()
+        .hasNoOtherValues();
+  }
 }
@@ -0,0 +1,107 @@
+// Copyright 2018 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.reporting.billing;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.api.services.dataflow.Dataflow;
+import com.google.api.services.dataflow.Dataflow.Projects;
+import com.google.api.services.dataflow.Dataflow.Projects.Templates;
+import com.google.api.services.dataflow.Dataflow.Projects.Templates.Launch;
+import com.google.api.services.dataflow.model.Job;
+import com.google.api.services.dataflow.model.LaunchTemplateParameters;
+import com.google.api.services.dataflow.model.LaunchTemplateResponse;
+import com.google.api.services.dataflow.model.RuntimeEnvironment;
+import com.google.common.collect.ImmutableMap;
+import google.registry.testing.FakeResponse;
+import java.io.IOException;
+import org.joda.time.LocalDate;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link google.registry.reporting.billing.GenerateInvoicePartialsAction}. */
+@RunWith(JUnit4.class)
+public class GenerateInvoicePartialsActionTest {
+
+  private Dataflow dataflow;
+  private Projects projects;
+  private Templates templates;
+  private Launch launch;
+  private FakeResponse response;
+  private BillingEmailUtils emailUtils;
+  private GenerateInvoicePartialsAction action;
+
+  @Before
+  public void setUp() throws IOException {
+    dataflow = mock(Dataflow.class);
+    projects = mock(Projects.class);
+    templates = mock(Templates.class);
+    launch = mock(Launch.class);
+    emailUtils = mock(BillingEmailUtils.class);
+    when(dataflow.projects()).thenReturn(projects);
+    when(projects.templates()).thenReturn(templates);
+    when(templates.launch(any(String.class), any(LaunchTemplateParameters.class)))
+        .thenReturn(launch);
+    when(launch.setGcsPath(any(String.class))).thenReturn(launch);
+
+    response = new FakeResponse();
+    Job job = new Job();
+    job.setId("12345");
+    when(launch.execute()).thenReturn(new LaunchTemplateResponse().setJob(job));
+    action =
+        new GenerateInvoicePartialsAction(
+            "test-project",
+            "gs://test-project-beam",
+            "gs://test-project-beam/templates/invoicing_daily",
+            "us-east1-c",
+            new LocalDate(2017, 10, 4),
+            dataflow,
+            response,
+            emailUtils);
+  }
+
+  @Test
+  public void testLaunchTemplateJob() throws Exception {
+    action.run();
+    LaunchTemplateParameters expectedParams =
+        new LaunchTemplateParameters()
+            .setJobName("invoicing-partials-2017-10-04")
+            .setEnvironment(
+                new RuntimeEnvironment()
+                    .setZone("us-east1-c")
+                    .setTempLocation("gs://test-project-beam/temporary"))
+            .setParameters(ImmutableMap.of("day", "2017-10-04"));
+    verify(templates).launch("test-project", expectedParams);
+    verify(launch).setGcsPath("gs://test-project-beam/templates/invoicing_daily");
+    assertThat(response.getStatus()).isEqualTo(200);
+    assertThat(response.getPayload()).isEqualTo("Launched dataflow template.");
+  }
+
+  @Test
+  public void testCaughtIOException() throws IOException {
+    when(launch.execute()).thenThrow(new IOException("expected"));
+    action.run();
+    assertThat(response.getStatus()).isEqualTo(500);
+    assertThat(response.getPayload()).isEqualTo("Template launch failed: expected");
+    verify(emailUtils)
+        .sendAlertEmail("Daily invoicing template launch for 2017-10-04 failed due to expected");
+  }
+}
@@ -19,6 +19,7 @@ import static google.registry.testing.TaskQueueHelper.assertNoTasksEnqueued;
 import static google.registry.testing.TaskQueueHelper.assertTasksEnqueued;
 import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -30,7 +31,9 @@ import com.google.api.services.dataflow.model.Job;
 import com.google.api.services.dataflow.model.LaunchTemplateParameters;
 import com.google.api.services.dataflow.model.LaunchTemplateResponse;
 import com.google.api.services.dataflow.model.RuntimeEnvironment;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import google.registry.gcs.GcsUtils;
 import google.registry.testing.AppEngineRule;
 import google.registry.testing.FakeResponse;
 import google.registry.testing.TaskQueueHelper.TaskMatcher;
@@ -55,6 +58,7 @@ public class GenerateInvoicesActionTest {
   private Launch launch;
   private FakeResponse response;
   private BillingEmailUtils emailUtils;
+  private GcsUtils gcsUtils;
   GenerateInvoicesAction action;
 
   @Before
@@ -64,6 +68,7 @@ public class GenerateInvoicesActionTest {
     templates = mock(Templates.class);
     launch = mock(Launch.class);
     emailUtils = mock(BillingEmailUtils.class);
+    gcsUtils = mock(GcsUtils.class);
     when(dataflow.projects()).thenReturn(projects);
     when(projects.templates()).thenReturn(templates);
     when(templates.launch(any(String.class), any(LaunchTemplateParameters.class)))
@@ -74,6 +79,14 @@ public class GenerateInvoicesActionTest {
     Job job = new Job();
     job.setId("12345");
     when(launch.execute()).thenReturn(new LaunchTemplateResponse().setJob(job));
+
+    ImmutableList.Builder<String> partials = new ImmutableList.Builder<>();
+    for (int day = 1; day <= 31; day++) {
+      partials.add(String.format("2017-10-%02d-invoice.csv", day));
+      partials.add(String.format("2017-10-%02d-details.csv", day));
+    }
+    when(gcsUtils.listFolderObjects("test-project-billing", "invoice_partials/2017-10/"))
+        .thenReturn(partials.build());
   }
 
   @Test
@@ -84,11 +97,13 @@ public class GenerateInvoicesActionTest {
             "gs://test-project-beam",
             "gs://test-project-beam/templates/invoicing",
             "us-east1-c",
+            "test-project-billing",
             true,
             new YearMonth(2017, 10),
             dataflow,
             response,
-            emailUtils);
+            emailUtils,
+            gcsUtils);
     action.run();
     LaunchTemplateParameters expectedParams =
         new LaunchTemplateParameters()
@@ -120,11 +135,13 @@ public class GenerateInvoicesActionTest {
             "gs://test-project-beam",
             "gs://test-project-beam/templates/invoicing",
             "us-east1-c",
+            "test-project-billing",
             false,
             new YearMonth(2017, 10),
             dataflow,
             response,
-            emailUtils);
+            emailUtils,
+            gcsUtils);
     action.run();
     LaunchTemplateParameters expectedParams =
         new LaunchTemplateParameters()
@@ -150,14 +167,45 @@ public class GenerateInvoicesActionTest {
             "gs://test-project-beam",
             "gs://test-project-beam/templates/invoicing",
             "us-east1-c",
+            "test-project-billing",
             true,
             new YearMonth(2017, 10),
             dataflow,
             response,
-            emailUtils);
+            emailUtils,
+            gcsUtils);
     action.run();
     assertThat(response.getStatus()).isEqualTo(500);
     assertThat(response.getPayload()).isEqualTo("Template launch failed: expected");
     verify(emailUtils).sendAlertEmail("Template Launch failed due to expected");
   }
+
+  @Test
+  public void testMissingPartials_doesNotLaunch() throws IOException {
+    when(gcsUtils.listFolderObjects("test-project-billing", "invoice_partials/2017-10/"))
+        .thenReturn(
+            ImmutableList.of(
+                "2017-10-01-invoice.csv", "2017-10-01-details.csv", "2017-10-02-invoice.csv"));
+    action =
+        new GenerateInvoicesAction(
+            "test-project",
+            "gs://test-project-beam",
+            "gs://test-project-beam/templates/invoicing",
+            "us-east1-c",
+            "test-project-billing",
+            true,
+            new YearMonth(2017, 10),
+            dataflow,
+            response,
+            emailUtils,
+            gcsUtils);
+    action.run();
+    assertThat(response.getStatus()).isEqualTo(500);
+    assertThat(response.getPayload())
+        .startsWith("Missing invoice partials for 2017-10 on days [2017-10-02, 2017-10-03,");
+    assertThat(response.getPayload()).endsWith("2017-10-31]");
+    verify(emailUtils).sendAlertEmail(response.getPayload());
+    verify(templates, never()).launch(any(String.class), any(LaunchTemplateParameters.class));
+    assertNoTasksEnqueued();
+  }
 }
@@ -64,4 +64,30 @@ public class ActivityReportingQueryBuilderTest {
     }
   }
 
+  @Test
+  public void testIntermediaryQueryMatch_activityCounters() {
+    ActivityReportingQueryBuilder queryBuilder = getQueryBuilder();
+    queryBuilder.useActivityCounters = true;
+    ImmutableMap<String, String> actualQueries = queryBuilder.getViewQueryMap();
+    assertThat(actualQueries).doesNotContainKey("monthly_logs_201709");
+    assertThat(actualQueries.get("epp_metrics_201709"))
+        .isEqualTo(ReportingTestData.loadFile("epp_activity_counts_test.sql"));
+    assertThat(actualQueries.get("whois_counts_201709"))
+        .isEqualTo(ReportingTestData.loadFile("whois_activity_counts_test.sql"));
+    assertThat(actualQueries.get("activity_report_aggregation_201709"))
+        .isEqualTo(ReportingTestData.loadFile("activity_report_aggregation_test.sql"));
+  }
+
+  @Test
+  public void testViewDependencies_onlyReferToGeneratedViews() {
+    ActivityReportingQueryBuilder queryBuilder = getQueryBuilder();
+    assertThat(queryBuilder.getViewQueryMap().keySet())
+        .containsAllIn(queryBuilder.getViewDependencies().values());
+    assertThat(queryBuilder.getViewDependencies().get("epp_metrics_201709"))
+        .containsExactly("monthly_logs_201709");
+    queryBuilder.useActivityCounters = true;
+    assertThat(queryBuilder.getViewQueryMap().keySet())
+        .containsAllIn(queryBuilder.getViewDependencies().values());
+    assertThat(queryBuilder.getViewDependencies().values()).doesNotContain("monthly_logs_201709");
+  }
 }
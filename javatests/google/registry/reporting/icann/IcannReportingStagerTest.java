@@ -34,7 +34,11 @@ import google.registry.bigquery.BigqueryUtils.TableType;
 import google.registry.gcs.GcsUtils;
 import google.registry.reporting.icann.IcannReportingModule.ReportType;
 import google.registry.testing.AppEngineRule;
+import google.registry.testing.FakeClock;
 import google.registry.testing.FakeResponse;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
 import org.joda.time.YearMonth;
@@ -48,6 +52,7 @@ import org.junit.runners.JUnit4;
 public class IcannReportingStagerTest {
 
   BigqueryConnection bigquery = mock(BigqueryConnection.class);
+  List<String> createdViews = Collections.synchronizedList(new ArrayList<>());
   FakeResponse response = new FakeResponse();
   GcsService gcsService = GcsServiceFactory.createGcsService();
 
@@ -71,18 +76,29 @@ public class IcannReportingStagerTest {
     action.yearMonth = new YearMonth(2017, 6);
     action.subdir = "icann/monthly/2017-06";
     action.bigquery = bigquery;
+    action.clock = new FakeClock();
     action.gcsUtils = new GcsUtils(gcsService, 1024);
     return action;
   }
 
   private void setUpBigquery() {
     when(bigquery.query(any(String.class), any(DestinationTable.class))).thenReturn(fakeFuture());
-    DestinationTable.Builder tableBuilder = new DestinationTable.Builder()
-        .datasetId("testdataset")
-        .type(TableType.TABLE)
-        .name("tablename")
-        .overwrite(true);
-    when(bigquery.buildDestinationTable(any(String.class))).thenReturn(tableBuilder);
+    // Views are created concurrently, so each one needs its own builder.
+    when(bigquery.buildDestinationTable(any(String.class)))
+        .thenAnswer(
+            invocation -> {
+              createdViews.add((String) invocation.getArguments()[0]);
+              return new DestinationTable.Builder()
+                  .datasetId("testdataset")
+                  .type(TableType.TABLE)
+                  .name("tablename")
+                  .overwrite(true);
+            });
+  }
+
+  private void assertCreatedBefore(String view, String dependentView) {
+    assertThat(createdViews).containsAllOf(view, dependentView);
+    assertThat(createdViews.indexOf(view)).isLessThan(createdViews.indexOf(dependentView));
   }
 
   @Test
@@ -115,6 +131,25 @@ public class IcannReportingStagerTest {
     assertThat(new String(generatedFile2, UTF_8)).isEqualTo(expectedReport2);
   }
 
+  @Test
+  public void testRunSuccess_activityReportViewsCreatedAfterTheirDependencies() throws Exception {
+    setUpBigquery();
+    when(bigquery.queryToLocalTableSync(any(String.class)))
+        .thenReturn(
+            new ImmutableTable.Builder<Integer, TableFieldSchema, Object>()
+                .put(1, new TableFieldSchema().setName("tld"), "fooTld")
+                .put(1, new TableFieldSchema().setName("fooField"), "12")
+                .build());
+    createStager().stageReports(ReportType.ACTIVITY);
+    assertThat(createdViews).hasSize(6);
+    assertCreatedBefore("monthly_logs_201706", "epp_metrics_201706");
+    assertCreatedBefore("monthly_logs_201706", "whois_counts_201706");
+    assertCreatedBefore("registrar_operating_status_201706", "activity_report_aggregation_201706");
+    assertCreatedBefore("dns_counts_201706", "activity_report_aggregation_201706");
+    assertCreatedBefore("epp_metrics_201706", "activity_report_aggregation_201706");
+    assertCreatedBefore("whois_counts_201706", "activity_report_aggregation_201706");
+  }
+
   @Test
   public void testRunSuccess_transactionsReport() throws Exception {
     setUpBigquery();
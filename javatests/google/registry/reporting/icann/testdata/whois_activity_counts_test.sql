@@ -0,0 +1,31 @@
+#standardSQL
+  -- Copyright 2018 The Nomulus Authors. All Rights Reserved.
+  --
+  -- Licensed under the Apache License, Version 2.0 (the "License");
+  -- you may not use this file except in compliance with the License.
+  -- You may obtain a copy of the License at
+  --
+  --     http://www.apache.org/licenses/LICENSE-2.0
+  --
+  -- Unless required by applicable law or agreed to in writing, software
+  -- distributed under the License is distributed on an "AS IS" BASIS,
+  -- WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  -- See the License for the specific language governing permissions and
+  -- limitations under the License.
+
+  -- Query the IcannActivityCount entities for WHOIS metrics.
+
+  -- The port 43 and web WHOIS actions count each request they serve, towards
+  -- every TLD.
+
+SELECT
+  STRING(NULL) AS tld,
+  field AS metricName,
+  SUM(count) AS count
+FROM
+  `domain-registry-alpha.latest_datastore_export.IcannActivityCount`
+WHERE
+  field IN ('whois-43-queries', 'web-whois-queries')
+  AND DATE(day) BETWEEN '2017-09-01' AND '2017-09-30'
+GROUP BY
+  metricName
@@ -14,12 +14,14 @@
 
 package google.registry.tldconfig.idn;
 
+import static com.google.common.truth.Truth.assertWithMessage;
 import static com.google.common.truth.Truth8.assertThat;
 import static google.registry.tldconfig.idn.IdnLabelValidator.findValidIdnTableForTld;
 
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import google.registry.testing.InjectRule;
+import google.registry.util.Idn;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -114,4 +116,20 @@ public class IdnLabelValidatorTest {
     assertThat(findValidIdnTableForTld("foo", "tld")).isPresent();
     assertThat(findValidIdnTableForTld("みんな",  "tld")).isEmpty();
   }
+
+  @Test
+  public void testLdhNonAceFastPath_agreesWithUnicodeConversion() {
+    for (String label :
+        ImmutableList.of(
+            "foo", "12379foar", "ite-love-you", "-foo-", "ab--cd", "a", "xn--q9jyb4c",
+            "xn--bcher-kva", "xn--garbage", "Foo", "foo_bar", "みんな", "abcdefghæ")) {
+      boolean isLdhNonAce = IdnLabelValidator.isLdhNonAceLabel(label);
+      assertWithMessage(label)
+          .that(isLdhNonAce)
+          .isEqualTo(label.matches("[a-z0-9-]*") && !label.startsWith("xn--"));
+      if (isLdhNonAce) {
+        assertWithMessage(label).that(Idn.toUnicode(label)).isEqualTo(label);
+      }
+    }
+  }
 }
@@ -103,6 +103,33 @@ public class TmchXmlSignatureTest {
     assertThrows(CertificateExpiredException.class, () -> tmchXmlSignature.verify(smdData));
   }
 
+  @Test
+  public void testRepeatedVerify_skipsSignatureValidation() throws Exception {
+    smdData = loadSmd("active/Court-Agent-English-Active.smd");
+    tmchXmlSignature.verify(smdData);
+    long hits = TmchXmlSignature.getVerifiedSmdCacheHitCount();
+    tmchXmlSignature.verify(smdData);
+    assertThat(TmchXmlSignature.getVerifiedSmdCacheHitCount()).isEqualTo(hits + 1);
+  }
+
+  @Test
+  public void testRepeatedVerify_stillChecksCertificateExpiration() throws Exception {
+    smdData = loadSmd("active/Court-Agent-Arab-Active.smd");
+    tmchXmlSignature.verify(smdData);
+    clock.setTo(DateTime.parse("2023-06-01T00:00:00Z"));
+    assertThrows(CertificateExpiredException.class, () -> tmchXmlSignature.verify(smdData));
+  }
+
+  @Test
+  public void testRepeatedVerify_stillChecksCertificateAuthority() throws Exception {
+    smdData = loadSmd("active/Court-Agent-Arab-Active.smd");
+    tmchXmlSignature.verify(smdData);
+    tmchXmlSignature = new TmchXmlSignature(new TmchCertificateAuthority(TmchCaMode.PRODUCTION));
+    CertificateSignatureException e =
+        assertThrows(CertificateSignatureException.class, () -> tmchXmlSignature.verify(smdData));
+    assertThat(e).hasMessageThat().contains("Signature does not match");
+  }
+
   @Test
   public void testActiveCourtAgentArabActive() throws Exception {
     smdData = loadSmd("active/Court-Agent-Arab-Active.smd");
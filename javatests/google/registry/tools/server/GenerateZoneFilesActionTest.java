@@ -25,6 +25,7 @@ import static google.registry.testing.DatastoreHelper.persistActiveDomainApplica
 import static google.registry.testing.DatastoreHelper.persistActiveHost;
 import static google.registry.testing.DatastoreHelper.persistResource;
 import static google.registry.testing.GcsTestingUtils.readGcsFile;
+import static google.registry.testing.JUnitBackports.assertThrows;
 import static google.registry.testing.TestDataHelper.loadFile;
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.joda.time.Duration.standardDays;
@@ -36,9 +37,12 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.googlecode.objectify.Key;
+import google.registry.dns.writer.zonefile.ZoneSnapshotStore;
+import google.registry.gcs.GcsUtils;
 import google.registry.model.domain.secdns.DelegationSignerData;
 import google.registry.model.eppcommon.StatusValue;
 import google.registry.model.host.HostResource;
+import google.registry.request.HttpException.BadRequestException;
 import google.registry.testing.FakeClock;
 import google.registry.testing.mapreduce.MapreduceTestCase;
 import java.net.InetAddress;
@@ -126,7 +130,7 @@ public class GenerateZoneFilesActionTest extends MapreduceTestCase<GenerateZoneF
     action.dnsDefaultATtl = Duration.standardSeconds(11);
     action.dnsDefaultNsTtl = Duration.standardSeconds(222);
     action.dnsDefaultDsTtl = Duration.standardSeconds(3333);
-    action.clock = new FakeClock(now.plusMinutes(2));  // Move past the actions' 2 minute check.
+    action.clock = clock;
 
     Map<String, Object> response = action.handleJsonRequest(ImmutableMap.<String, Object>of(
         "tlds", ImmutableList.of("tld"),
@@ -150,4 +154,101 @@ public class GenerateZoneFilesActionTest extends MapreduceTestCase<GenerateZoneF
     // The remaining lines can be in any order.
     assertThat(generatedFileLines).containsExactlyElementsIn(goldenFileLines);
   }
+
+  @Test
+  public void testGenerate_incremental() throws Exception {
+    DateTime now = DateTime.now(DateTimeZone.UTC).withTimeAtStartOfDay();
+    createTld("tld");
+    GcsUtils gcsUtils = new GcsUtils(gcsService, 123);
+    // Move past the action's check that all changes up to the export time have been written.
+    FakeClock clock = new FakeClock(now.plus(ZoneSnapshotStore.CHANGE_SETTLING_TIME));
+    ZoneSnapshotStore zoneSnapshotStore =
+        new ZoneSnapshotStore(gcsService, gcsUtils, "zonefiles-bucket", clock);
+    zoneSnapshotStore.appendChanges(
+        "tld",
+        now.minusMinutes(2),
+        now.minusMinutes(2),
+        ImmutableMap.of(
+            "bar.tld", "bar\t222\tIN\tNS\tns.bar.tld.\nns.bar\t11\tIN\tA\t127.0.0.1\n",
+            "foo.tld", "foo\t222\tIN\tNS\tns.bar.tld.\n"));
+    zoneSnapshotStore.appendChanges(
+        "tld",
+        now.minusMinutes(1),
+        now.minusMinutes(1),
+        ImmutableMap.of("foo.tld", ""));
+    // This change is after the export time, so it shouldn't be included.
+    zoneSnapshotStore.appendChanges(
+        "tld",
+        now.plusMinutes(1),
+        now.plusMinutes(1),
+        ImmutableMap.of("baz.tld", "baz\t222\tIN\tNS\tns.bar.tld.\n"));
+
+    GenerateZoneFilesAction action = new GenerateZoneFilesAction();
+    action.bucket = "zonefiles-bucket";
+    action.gcsUtils = gcsUtils;
+    action.zoneSnapshotStore = zoneSnapshotStore;
+    action.clock = clock;
+
+    Map<String, Object> response = action.handleJsonRequest(ImmutableMap.<String, Object>of(
+        "tlds", ImmutableList.of("tld"),
+        "exportTime", now,
+        "incremental", true));
+    assertThat(response).containsExactly(
+        "filenames",
+        ImmutableList.of("gs://zonefiles-bucket/tld-" + now + ".zone"));
+
+    GcsFilename gcsFilename =
+        new GcsFilename("zonefiles-bucket", String.format("tld-%s.zone", now));
+    assertThat(new String(readGcsFile(gcsService, gcsFilename), UTF_8))
+        .isEqualTo(
+            "$ORIGIN\ttld.\n\n"
+                + "bar\t222\tIN\tNS\tns.bar.tld.\n"
+                + "ns.bar\t11\tIN\tA\t127.0.0.1\n\n");
+  }
+
+  @Test
+  public void testGenerate_incremental_changesMayStillBeWritten_throws() {
+    DateTime now = DateTime.now(DateTimeZone.UTC).withTimeAtStartOfDay();
+    FakeClock clock = new FakeClock(now.plusMinutes(2));
+    GenerateZoneFilesAction action = new GenerateZoneFilesAction();
+    action.zoneSnapshotStore =
+        new ZoneSnapshotStore(
+            gcsService, new GcsUtils(gcsService, 123), "zonefiles-bucket", clock);
+    action.clock = clock;
+    BadRequestException thrown =
+        assertThrows(
+            BadRequestException.class,
+            () ->
+                action.handleJsonRequest(
+                    ImmutableMap.<String, Object>of(
+                        "tlds", ImmutableList.of("tld"),
+                        "exportTime", now,
+                        "incremental", true)));
+    assertThat(thrown)
+        .hasMessageThat()
+        .isEqualTo("Invalid export time: must be > 15 minutes ago for incremental zone files");
+  }
+
+  @Test
+  public void testGenerate_incremental_beforeLatestSnapshot_throws() {
+    DateTime now = DateTime.now(DateTimeZone.UTC).withTimeAtStartOfDay();
+    FakeClock clock = new FakeClock(now.plusHours(1));
+    ZoneSnapshotStore zoneSnapshotStore =
+        new ZoneSnapshotStore(
+            gcsService, new GcsUtils(gcsService, 123), "zonefiles-bucket", clock);
+    zoneSnapshotStore.compact("tld", now);
+    GenerateZoneFilesAction action = new GenerateZoneFilesAction();
+    action.zoneSnapshotStore = zoneSnapshotStore;
+    action.clock = clock;
+    BadRequestException thrown =
+        assertThrows(
+            BadRequestException.class,
+            () ->
+                action.handleJsonRequest(
+                    ImmutableMap.<String, Object>of(
+                        "tlds", ImmutableList.of("tld"),
+                        "exportTime", now.minusMinutes(1),
+                        "incremental", true)));
+    assertThat(thrown).hasMessageThat().contains("must not be before the latest snapshot of tld");
+  }
 }
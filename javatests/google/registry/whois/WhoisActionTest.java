@@ -53,6 +53,8 @@ import google.registry.model.index.ForeignKeyIndex;
 import google.registry.model.ofy.Ofy;
 import google.registry.model.registrar.Registrar;
 import google.registry.model.registry.Registry;
+import google.registry.model.reporting.IcannReportingTypes.ActivityReportField;
+import google.registry.monitoring.whitebox.IcannActivityCounters;
 import google.registry.testing.AppEngineRule;
 import google.registry.testing.FakeClock;
 import google.registry.testing.FakeResponse;
@@ -89,6 +91,7 @@ public class WhoisActionTest {
     whoisAction.whoisReader = new WhoisReader(new WhoisCommandFactory());
     whoisAction.whoisMetrics = new WhoisMetrics();
     whoisAction.metricBuilder = WhoisMetric.builderForRequest(clock);
+    whoisAction.icannActivityCounters = mock(IcannActivityCounters.class);
     whoisAction.disclaimer =
         "Doodle Disclaimer\nI exist so that carriage return\nin disclaimer can be tested.";
     whoisAction.retrier = new Retrier(new FakeSleeper(clock), 3);
@@ -549,6 +552,13 @@ public class WhoisActionTest {
     verify(action.whoisMetrics).recordWhoisMetric(eq(expected));
   }
 
+  @Test
+  public void testRun_icannActivityCounted() {
+    WhoisAction action = newWhoisAction("domain cat.lol\r\n");
+    action.run();
+    verify(action.icannActivityCounters).increment(ActivityReportField.WHOIS_43_QUERIES);
+  }
+
   @Test
   public void testRun_metricsLoggedForInternalServerError() throws Exception {
     persistResource(makeHostResource("ns1.cat.lol", "1.2.3.4"));
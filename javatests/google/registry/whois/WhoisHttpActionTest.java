@@ -40,6 +40,8 @@ import google.registry.model.contact.ContactResource;
 import google.registry.model.ofy.Ofy;
 import google.registry.model.registrar.Registrar;
 import google.registry.model.registry.Registry;
+import google.registry.model.reporting.IcannReportingTypes.ActivityReportField;
+import google.registry.monitoring.whitebox.IcannActivityCounters;
 import google.registry.testing.AppEngineRule;
 import google.registry.testing.FakeClock;
 import google.registry.testing.FakeResponse;
@@ -80,6 +82,7 @@ public class WhoisHttpActionTest {
     whoisAction.whoisReader = new WhoisReader(new WhoisCommandFactory());
     whoisAction.whoisMetrics = new WhoisMetrics();
     whoisAction.metricBuilder = WhoisMetric.builderForRequest(clock);
+    whoisAction.icannActivityCounters = mock(IcannActivityCounters.class);
     whoisAction.disclaimer =
         "Doodle Disclaimer\nI exist so that carriage return\nin disclaimer can be tested.";
     return whoisAction;
@@ -353,6 +356,13 @@ public class WhoisHttpActionTest {
     verify(action.whoisMetrics).recordWhoisMetric(eq(expected));
   }
 
+  @Test
+  public void testRun_icannActivityCounted() {
+    WhoisHttpAction action = newWhoisHttpAction("cat.lol");
+    action.run();
+    verify(action.icannActivityCounters).increment(ActivityReportField.WEB_WHOIS_QUERIES);
+  }
+
   @Test
   public void testRun_metricsLoggedForInternalServerError() throws Exception {
     persistResource(makeHostResource("ns1.cat.lol", "1.2.3.4"));
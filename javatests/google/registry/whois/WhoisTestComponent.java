@@ -16,17 +16,21 @@ package google.registry.whois;
 
 import dagger.Component;
 import google.registry.config.RegistryConfig.ConfigModule;
+import google.registry.monitoring.whitebox.WhiteboxModule;
 import google.registry.request.RequestModule;
+import google.registry.util.AppEngineServiceUtilsImpl.AppEngineServiceUtilsModule;
 import google.registry.util.SystemClock.SystemClockModule;
 import google.registry.util.SystemSleeper.SystemSleeperModule;
 import javax.inject.Singleton;
 
 @Singleton
 @Component(modules = {
+    AppEngineServiceUtilsModule.class,
     ConfigModule.class,
     RequestModule.class,
     SystemClockModule.class,
     SystemSleeperModule.class,
+    WhiteboxModule.class,
     WhoisModule.class,
 })
 interface WhoisTestComponent {